@@ -0,0 +1,30 @@
+package com.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar. Accepts the usual JMH options and always adds the GC profiler,
+// so allocation rates (gc.alloc.rate.norm) are reported next to the timings. Results are written
+// as JSON to jmh-result.json unless -rf/-rff say otherwise; compare them with benchmarks/baseline.json.
+//
+//   mvn -B package -pl benchmarks -am && java -jar benchmarks/target/benchmarks.jar [regexp] [JMH options]
+//
+// The annotations are tuned for a quick look. baseline.json is recorded on a quiet machine with every
+// benchmark and more forks and iterations, and refreshed whenever a benchmark is added, renamed or removed:
+//
+//   java -jar benchmarks/target/benchmarks.jar -f 3 -wi 5 -i 10 -rff benchmarks/baseline.json
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+		if (!commandLine.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON);
+		if (!commandLine.getResult().hasValue())
+			options.result("jmh-result.json");
+		new Runner(options.build()).run();
+	}
+}
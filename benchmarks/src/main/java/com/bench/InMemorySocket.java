@@ -0,0 +1,56 @@
+package com.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.Socket;
+
+// Unconnected socket whose output is discarded, so encoders can be measured without the network
+public class InMemorySocket extends Socket {
+	private long bytesWritten;
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) {
+			bytesWritten++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytesWritten += len;
+		}
+	};
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return false;
+	}
+
+	@Override
+	public synchronized void close() {
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	// Replaces the private socket field of a broker or market
+	public static InMemorySocket injectInto(Object target) throws ReflectiveOperationException {
+		InMemorySocket socket = new InMemorySocket();
+		Field field = target.getClass().getDeclaredField("socket");
+		field.setAccessible(true);
+		field.set(target, socket);
+		return socket;
+	}
+}
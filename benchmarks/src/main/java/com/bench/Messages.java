@@ -0,0 +1,28 @@
+package com.bench;
+
+import com.common.Price;
+
+// Sample wire messages, framed the same way as the broker and the market do
+public final class Messages {
+	private Messages() {
+	}
+
+	public static String order(int brokerId, int marketId, String symbol, int quantity, long price) {
+		return frame("35=D\u000111=42\u000149=" + brokerId + "\u000156=" + marketId + "\u000155=" + symbol + "\u000154=1\u000138=" + quantity
+				+ "\u000144=" + Price.toString(price) + "\u000140=1\u0001");
+	}
+
+	public static String executionReport(int marketId, int brokerId, String symbol, int quantity, long price) {
+		return frame("35=8\u000149=" + marketId + "\u000156=" + brokerId + "\u000155=" + symbol + "\u000154=1\u000138=" + quantity
+				+ "\u000144=" + Price.toString(price) + "\u000139=2\u0001150=2\u0001151=0\u0001");
+	}
+
+	public static String frame(String body) {
+		String message = "8=FIX.4.4\u00019=" + body.length() + "\u0001" + body;
+		int checksum = 0;
+		for (int i = 0; i < message.length(); i++) {
+			checksum += message.charAt(i);
+		}
+		return message + "10=" + String.format("%03d", checksum % 256) + "\u0001";
+	}
+}
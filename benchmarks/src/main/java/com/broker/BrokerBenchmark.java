@@ -0,0 +1,28 @@
+package com.broker;
+
+import com.bench.InMemorySocket;
+import com.common.Price;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class BrokerBenchmark {
+	private static final long PRICE = Price.parse("101.25");
+	private Broker broker;
+
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		broker = new Broker(100001);
+		InMemorySocket.injectInto(broker);
+	}
+
+	@Benchmark
+	public void sendOrder() {
+		broker.sendOrder(true, 100002, "AAPL", 10, PRICE);
+	}
+}
@@ -0,0 +1,56 @@
+package com.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class FixEncoderBenchmark {
+	private static final long PRICE = Price.parse("101.25");
+	private final FixEncoder encoder = new FixEncoder();
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+	private int orderId;
+
+	// The string concatenation every component used before FixEncoder
+	@Benchmark
+	public byte[] concatenation() {
+		String body = "35=D" + "\u0001" +
+					  "11=" + orderId++ + "\u0001" +
+					  "49=" + 100001 + "\u0001" +
+					  "56=" + 100002 + "\u0001" +
+					  "55=" + "AAPL" + "\u0001" +
+					  "54=" + "1" + "\u0001" +
+					  "38=" + 10 + "\u0001" +
+					  "44=" + 101.25 + "\u0001" +
+					  "40=1" + "\u0001";
+		String fixMessage = "8=FIX.4.4" + "\u0001" + "9=" + body.length() + "\u0001" + body;
+		int checksum = 0;
+		for (char ch : fixMessage.toCharArray())
+			checksum += ch;
+		checksum %= 256;
+		fixMessage += "10=" + String.format("%03d", checksum) + "\u0001";
+		return (fixMessage + "\n").getBytes();
+	}
+
+	@Benchmark
+	public int encoder() {
+		out.reset();
+		encoder.begin("D")
+			.tag(11, orderId++)
+			.tag(49, 100001)
+			.tag(56, 100002)
+			.tag(55, "AAPL")
+			.tag(54, '1')
+			.tag(38, 10)
+			.price(44, PRICE)
+			.tag(40, '1')
+			.finish();
+		out.write(encoder.buffer(), encoder.offset(), encoder.length());
+		return out.size();
+	}
+}
@@ -0,0 +1,25 @@
+package com.common;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class PriceBenchmark {
+	private final String price = "523.18374629";
+
+	// How Market read the Price (44) field before fixed-point prices
+	@Benchmark
+	public long parseDouble() {
+		return Math.round(Double.parseDouble(price) * Price.SCALE);
+	}
+
+	@Benchmark
+	public long parseFixedPoint() {
+		return Price.parse(price);
+	}
+}
@@ -0,0 +1,40 @@
+package com.market;
+
+import com.common.Price;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class InstrumentStoreBenchmark {
+	@Param({"13", "500000"})
+	private int size;
+
+	private InstrumentStore store;
+	private String[] lookups;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		store = new InstrumentStore();
+		for (int i = 0; i < size; i++) {
+			store.add("SYM" + i, 1000, Price.parse("100.0"));
+		}
+		// Fresh strings, as parsed from incoming orders, so their hash codes are not cached
+		lookups = new String[1024];
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] = "SYM" + (i * 7919 % size);
+		}
+	}
+
+	// The symbol lookup done for every order
+	@Benchmark
+	public int lookup() {
+		String symbol = new String(lookups[next++ & (lookups.length - 1)]);
+		return store.indexOf(symbol);
+	}
+}
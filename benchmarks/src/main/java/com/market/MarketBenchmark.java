@@ -0,0 +1,56 @@
+package com.market;
+
+import com.bench.InMemorySocket;
+import com.bench.Messages;
+import com.common.Price;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class MarketBenchmark {
+	private static final String[] SYMBOLS = {"AAPL", "GOOG", "MSFT", "AMZN", "FB", "TSLA", "NVDA", "NFLX", "IBM", "AMD", "QCOM", "ORCL", "CSCO"};
+
+	// Unknown symbol, so it is rejected without reaching the book or the database
+	private final String unknownSymbolOrder = Messages.order(100001, 100002, "XXXX", 10, Price.parse("1.0"));
+	// A buy taking the whole sell that rests just before it
+	private final String restingSell = Messages.frame("35=D\u000111=1\u000149=100001\u000156=100002\u000155=MSFT\u000154=2\u000138=10\u000144=50.0\u000140=1\u0001");
+	private final String takingBuy = Messages.frame("35=D\u000111=2\u000149=100003\u000156=100002\u000155=MSFT\u000154=1\u000138=10\u000144=50.0\u000140=1\u0001");
+	private Market market;
+	private OrderBook book;
+	private int restingOrder;
+
+	@Setup
+	public void setUp() throws ReflectiveOperationException {
+		InstrumentStore instruments = new InstrumentStore();
+		// Without a quantity the books start without house quotes, so the sell rests and the buy takes exactly it
+		for (String symbol : SYMBOLS) {
+			instruments.add(symbol, 0, Price.parse("500.0"));
+		}
+		// Fills are not persisted, only matched and reported
+		market = new Market(instruments, 100002, new MarketConfig().setDatabaseUrl("").setStateDirectory(""));
+		InMemorySocket.injectInto(market);
+		book = market.getBook(instruments.indexOf("AAPL"));
+		restingOrder = book.submit(true, 100001, "42", 1, 10, Price.parse("1.0"), market);
+	}
+
+	@Benchmark
+	public void sendExecutionReport() {
+		market.sendExecutionReport(book, restingOrder, 0, 0);
+	}
+
+	@Benchmark
+	public void processRejectedOrder() {
+		market.processMessage(unknownSymbolOrder);
+	}
+
+	@Benchmark
+	public void processFilledOrders() {
+		market.processMessage(restingSell);
+		market.processMessage(takingBuy);
+	}
+}
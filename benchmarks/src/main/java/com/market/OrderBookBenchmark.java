@@ -0,0 +1,52 @@
+package com.market;
+
+import com.common.Price;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class OrderBookBenchmark {
+	private static final long TICK = Price.parse("0.01");
+	private static final long MID = Price.parse("100.0");
+
+	@Param({"10", "10000"})
+	private int depth;
+
+	private OrderBook book;
+	private long fills;
+	private final OrderBook.FillListener listener = (book, aggressor, resting, quantity, price) -> fills += quantity;
+
+	// depth levels on each side, with two orders per level
+	@Setup
+	public void setUp() {
+		book = new OrderBook("AAPL");
+		for (int i = 1; i <= depth; i++) {
+			for (int j = 0; j < 2; j++) {
+				book.submit(true, 100001, null, 1, 10, MID - i * TICK, listener);
+				book.submit(false, 100001, null, 1, 10, MID + i * TICK, listener);
+			}
+		}
+	}
+
+	// A sell resting inside the spread, then taken by a buy; the book is left as it was
+	@Benchmark
+	public long restAndTake() {
+		book.submit(false, 100001, null, 1, 10, MID, listener);
+		book.submit(true, 100002, null, 1, 10, MID, listener);
+		return fills;
+	}
+
+	// A buy sweeping the two orders of the best ask, which are then replaced
+	@Benchmark
+	public long sweepLevel() {
+		book.submit(true, 100002, null, 1, 20, MID + TICK, listener);
+		book.submit(false, 100001, null, 1, 10, MID + TICK, listener);
+		book.submit(false, 100001, null, 1, 10, MID + TICK, listener);
+		return fills;
+	}
+}
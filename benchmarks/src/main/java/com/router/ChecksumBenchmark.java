@@ -0,0 +1,48 @@
+package com.router;
+
+import com.bench.Messages;
+import com.common.Price;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class ChecksumBenchmark {
+	private final String order = Messages.order(100001, 100002, "AAPL", 10, Price.parse("101.25"));
+	private final String body = order.substring(0, order.indexOf("10="));
+	private final FixMessage message = new FixMessage();
+
+	// The validation done by MessageValidationHandler before the single-pass parser
+	@Benchmark
+	public boolean splitAndFormat() {
+		String[] parts = order.split("10=");
+		if (parts.length != 2)
+			return false;
+		int checksum = 0;
+		for (char ch : parts[0].toCharArray()) {
+			checksum += ch;
+		}
+		checksum %= 256;
+		return String.format("%03d", checksum).equals(parts[1].substring(0, 3));
+	}
+
+	@Benchmark
+	public boolean singlePassParse() {
+		return message.parse(order).hasValidChecksum();
+	}
+
+	// The trailer computation repeated by every encoder
+	@Benchmark
+	public String encoderChecksum() {
+		int checksum = 0;
+		for (char ch : body.toCharArray()) {
+			checksum += ch;
+		}
+		checksum %= 256;
+		return body + "10=" + String.format("%03d", checksum) + "\u0001";
+	}
+}
@@ -0,0 +1,88 @@
+package com.router;
+
+import com.bench.Messages;
+import com.common.Price;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Validation, flow control, risk checks, routing and forwarding of one order into an in-memory destination connection.
+// Outbound drains run inline on the calling thread so the write path is part of the measurement.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class HandlerChainBenchmark {
+	private static final int BROKER_ID = 900001;
+	private static final int MARKET_ID = 900002;
+
+	private final String order = Messages.order(BROKER_ID, MARKET_ID, "AAPL", 10, Price.parse("101.25"));
+	private final FixMessage message = new FixMessage();
+	// Read into a pooled buffer, as the router does, so forwarding shares its bytes
+	private final MessageBuffer received = MessageBuffer.line(order);
+	private Handler chain;
+	private Session broker;
+	private ScheduledThreadPoolExecutor writers;
+
+	static final class DiscardConnection implements Connection {
+		long bytesWritten;
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) {
+			bytesWritten += length;
+		}
+
+		@Override
+		public void write(MessageBuffer message) {
+			bytesWritten += message.framedLength();
+			message.written();
+			message.release();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		writers = new ScheduledThreadPoolExecutor(1) {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		RouterConfig config = new RouterConfig();
+		broker = new Session(BROKER_ID, Session.Role.BROKER, new DiscardConnection(), config, writers);
+		RoutingTable.addSession(broker);
+		RoutingTable.addSession(new Session(MARKET_ID, Session.Role.MARKET, new DiscardConnection(), config, writers));
+
+		chain = new MessageValidationHandler();
+		Handler flowControl = new FlowControlHandler(config.getFlowControl());
+		Handler risk = new RiskHandler(null);
+		Handler marketData = new MarketDataHandler();
+		Handler routing = new RoutingHandler();
+		chain.setNext(flowControl);
+		flowControl.setNext(risk);
+		risk.setNext(marketData);
+		marketData.setNext(routing);
+		routing.setNext(new MessageForwardingHandler());
+	}
+
+	@TearDown
+	public void tearDown() {
+		writers.shutdownNow();
+	}
+
+	@Benchmark
+	public void routeOrder() {
+		chain.handle(broker, message.parse(received));
+	}
+}
@@ -0,0 +1,48 @@
+package com.router;
+
+import com.bench.Messages;
+import com.common.BinaryEncoder;
+import com.common.Price;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog.level=OFF")
+public class HeaderExtractionBenchmark {
+	private final String order = Messages.order(100001, 100002, "AAPL", 10, Price.parse("101.25"));
+	private final String frame = new BinaryEncoder().fromText(order).toString();
+	private final FixMessage message = new FixMessage();
+
+	// RoutingHandler.parseSourceId and parseDestinationId before the single-pass parser
+	@Benchmark
+	public int splitOnSoh() {
+		int sourceId = -1;
+		int destinationId = -1;
+		for (String part : order.split("\u0001")) {
+			if (part.startsWith("49="))
+				sourceId = Integer.parseInt(part.substring(3));
+		}
+		for (String part : order.split("\u0001")) {
+			if (part.startsWith("56="))
+				destinationId = Integer.parseInt(part.substring(3));
+		}
+		return sourceId + destinationId;
+	}
+
+	@Benchmark
+	public int singlePassParse() {
+		message.parse(order);
+		return message.getSenderId() + message.getTargetId();
+	}
+
+	// The same order as a binary frame: header and fields read at fixed offsets
+	@Benchmark
+	public int binaryFrame() {
+		message.parseFrame(frame);
+		return message.getSenderId() + message.getTargetId();
+	}
+}
@@ -1,127 +1,575 @@
 package com.broker;
 
-import java.io.BufferedReader;
+import com.common.BinaryEncoder;
+import com.common.BinaryFormat;
+import com.common.Counter;
+import com.common.FixEncoder;
+import com.common.FrameReader;
+import com.common.Level;
+import com.common.Logger;
+import com.common.Metrics;
+import com.common.Price;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+// Connection of one broker to the router. Orders may be submitted from any thread and are pipelined over
+// the one connection; each returns a future completed by the first reply carrying its ClOrdID. Replies
+// are read on a single reader thread, which also completes the futures and calls the listeners.
+// With WireEncoding.BINARY the broker asks the router for binary frames; if the router does not grant
+// them, it stays on text.
 public class Broker {
-	private static final int ROUTER_PORT = 5000;
+	private static final Logger log = Logger.get("broker");
+	private static final Counter ordersSent = Metrics.counter("broker.orders.sent");
+	private static final Counter ordersFilled = Metrics.counter("broker.orders.filled");
+	private static final Counter ordersRejected = Metrics.counter("broker.orders.rejected");
+	private static final InetSocketAddress DEFAULT_ROUTER = InetSocketAddress.createUnresolved("localhost", 5000);
 	private int brokerID;
 	private Socket socket;
-	private int uniqueOrderID = 1;
+	// Increases across restarts too, so a market can tell a resent order from a new one by its ClOrdID
+	private long uniqueOrderID = System.currentTimeMillis() * 1000;
+	private int uniqueRequestID = 1;
+	// Guarded by this, like uniqueOrderID and uniqueRequestID
+	private final FixEncoder encoder = new FixEncoder();
+	private final BinaryEncoder frame = new BinaryEncoder();
+	// Asked for in the handshake
+	private final WireEncoding requestedEncoding;
+	// Router node connected to first; a node of a cluster may redirect the broker to the node that owns its ID
+	private final InetSocketAddress router;
+	// Granted by the router; set before the reader thread starts
+	private volatile boolean binary;
+	// Only used on the reader thread
+	private final FieldReader reader = new FieldReader();
+	// Orders waiting for their first reply, by ClOrdID
+	private final ConcurrentHashMap<Long, CompletableFuture<ExecutionReport>> pending = new ConcurrentHashMap<>();
+	// Order lists not answered yet: number of orders by ListID, which is the ClOrdID of the first order
+	private final ConcurrentHashMap<Long, Integer> lists = new ConcurrentHashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean disconnected = new AtomicBoolean();
 	private volatile boolean running = true;
 
+	// Called on the reader thread, so a listener must not block
+	public interface Listener {
+		// Every execution report, including the first reply to an order, which also completes its future
+		default void onExecutionReport(ExecutionReport report) {
+		}
+
+		// Market data snapshot (35=W) or incremental refresh (35=X), as received
+		default void onMarketData(int marketID, String message) {
+		}
+
+		// Rejection of a market data request, or a router rejection not tied to an order
+		default void onReject(int senderID, String reason) {
+		}
+
+		default void onDisconnect(String reason) {
+		}
+	}
+
 	public Broker(int id) {
+		this(id, WireEncoding.TEXT);
+	}
+
+	public Broker(int id, WireEncoding encoding) {
+		this(id, encoding, DEFAULT_ROUTER);
+	}
+
+	public Broker(int id, WireEncoding encoding, InetSocketAddress router) {
 		this.brokerID = id;
 		this.socket = null;
+		this.requestedEncoding = encoding;
+		this.router = router;
 	}
 
-	boolean isRunning() {
+	public boolean isRunning() {
 		return running;
 	}
 
+	// True once the router agreed to binary frames
+	public boolean isBinary() {
+		return binary;
+	}
+
 	public int start() {
 		try {
-			this.socket = new Socket("localhost", ROUTER_PORT);
+			InetSocketAddress address = router;
+			FrameReader in;
+			String reply;
+			for (int redirects = 0; ; redirects++) {
+				this.socket = new Socket(address.getHostString(), address.getPort());
 
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			out.println(brokerID);
+				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+				out.println(WireEncoding.handshake(brokerID, requestedEncoding));
 
-			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			this.brokerID = Integer.parseInt(in.readLine());
+				in = new FrameReader(socket.getInputStream());
+				reply = in.readLine();
+				if (reply == null)
+					throw new IOException("Connection closed by the router");
+				InetSocketAddress owner = RouterAddress.ofRedirect(reply);
+				if (owner == null)
+					break;
+				socket.close();
+				if (redirects == RouterAddress.MAX_REDIRECTS)
+					throw new IOException("Too many redirects");
+				log.info("Redirected to the router node at {}:{}", owner.getHostString(), owner.getPort());
+				address = owner;
+			}
+			this.brokerID = WireEncoding.idOfHandshake(reply);
+			this.binary = WireEncoding.ofHandshake(reply) == WireEncoding.BINARY;
 
-			System.out.println("Connected to the router. Broker ID: " + brokerID);
+			log.info("Connected to the router. Broker ID: {}{}", brokerID, binary ? " (binary)" : "");
 
+			FrameReader input = in;
 			new Thread(() -> {
+				String reason = "Connection closed";
 				while (running) {
 					try {
-						String message = in.readLine();
-						if (message != null) {
+						String message = binary ? input.readFrame() : input.readLine();
+						if (message == null)
+							break;
+						if (binary)
+							handleFrame(message);
+						else if (message.length() > 0)
 							handleMessage(message);
-						}
 					} catch (IOException e) {
-						System.out.println("Error reading message: " + e.getMessage());
+						if (running)
+							log.error("Error reading message: {}", e.getMessage());
+						reason = e.getMessage();
 						break;
 					}
 				}
-			}).start();
+				running = false;
+				disconnected(reason);
+			}, "broker-reader").start();
 			return 0;
 		} catch (IOException e) {
-			System.out.println("Error connecting to the router: " + e.getMessage());
+			log.error("Error connecting to the router: {}", e.getMessage());
 			return -1;
 		}
 	}
 
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	// Orders sent and not answered yet
+	public int getPendingOrderCount() {
+		return pending.size();
+	}
+
 	public void stop() {
+		running = false;
 		try {
 			if (socket != null && !socket.isClosed())
 				socket.close();
 		} catch (IOException e) {
-			System.out.println("Error closing socket: " + e.getMessage());
+			log.warn("Error closing socket: {}", e.getMessage());
+		}
+	}
+
+	// Fire-and-forget variant of submitOrder: replies only reach the listeners
+	public void sendOrder(boolean isBuy, int marketID, String instrumentID, int quantity, long price) {
+		send(isBuy, marketID, instrumentID, quantity, price, null);
+	}
+
+	// Sends a limit order and returns a future for its first reply: the market's report once the order rests
+	// or fills, or a rejection by the market or the router. Later fills only go to the listeners.
+	// price is a fixed-point com.common.Price. The future fails if the connection is lost first.
+	public CompletableFuture<ExecutionReport> submitOrder(boolean isBuy, int marketID, String instrumentID, int quantity, long price) {
+		CompletableFuture<ExecutionReport> future = new CompletableFuture<>();
+		long clOrdID = send(isBuy, marketID, instrumentID, quantity, price, future);
+		// A connection lost while the order was registered would otherwise leave it waiting forever
+		if (!running && pending.remove(clOrdID, future))
+			future.completeExceptionally(new IOException("Connection closed"));
+		return future;
+	}
+
+	private synchronized long send(boolean isBuy, int marketID, String instrumentID, int quantity, long price, CompletableFuture<ExecutionReport> future) {
+		long clOrdID = uniqueOrderID++;
+		// Registered first, as the reply may arrive before the write returns
+		if (future != null)
+			pending.put(clOrdID, future);
+		try {
+			if (binary && BinaryEncoder.fits(null, instrumentID)) {
+				frame.begin('D', brokerID, marketID) // NewOrderSingle
+					.clOrdID(clOrdID)
+					.symbol(instrumentID)
+					.side(isBuy ? '1' : '2')
+					.orderQty(quantity)
+					.price(price)
+					.ordType('1') // Market
+					.finish()
+					.writeTo(socket.getOutputStream());
+			} else {
+				encoder.begin("D") // MsgType = NewOrderSingle
+					.tag(11, clOrdID) // ClOrdID
+					.tag(49, brokerID) // SenderCompID
+					.tag(56, marketID) // TargetCompID
+					.tag(55, instrumentID) // Symbol
+					.tag(54, isBuy ? '1' : '2') // Side
+					.tag(38, quantity) // OrderQty
+					.price(44, price) // Price
+					.tag(40, '1') // OrdType = Market
+					.finish();
+				write();
+			}
+			ordersSent.increment();
+		} catch (IOException e) {
+			log.error("Error sending order: {}", e.getMessage());
+			if (future != null) {
+				pending.remove(clOrdID);
+				future.completeExceptionally(e);
+			}
+		}
+		return clOrdID;
+	}
+
+	// Sends a basket of limit orders to one market as a single NewOrderList (35=E), in one write. The router
+	// passes or rejects the list as a whole; the market executes its orders in one pass and reports each on
+	// its own. Returns one future per order, in the order of legs, completed like those of submitOrder.
+	public List<CompletableFuture<ExecutionReport>> submitOrderList(int marketID, List<OrderLeg> legs) {
+		if (legs.isEmpty())
+			throw new IllegalArgumentException("An order list needs at least one order");
+		List<CompletableFuture<ExecutionReport>> futures = new ArrayList<>(legs.size());
+		for (int i = 0; i < legs.size(); i++) {
+			futures.add(new CompletableFuture<>());
+		}
+		long listID = sendList(marketID, legs, futures);
+		if (!running) {
+			for (int i = 0; i < futures.size(); i++) {
+				if (pending.remove(listID + i, futures.get(i)))
+					futures.get(i).completeExceptionally(new IOException("Connection closed"));
+			}
+		}
+		return futures;
+	}
+
+	private synchronized long sendList(int marketID, List<OrderLeg> legs, List<CompletableFuture<ExecutionReport>> futures) {
+		long listID = uniqueOrderID;
+		uniqueOrderID += legs.size();
+		for (int i = 0; i < legs.size(); i++) {
+			pending.put(listID + i, futures.get(i));
+		}
+		lists.put(listID, legs.size());
+		try {
+			encoder.begin("E") // MsgType = NewOrderList
+				.tag(49, brokerID) // SenderCompID
+				.tag(56, marketID) // TargetCompID
+				.tag(66, listID) // ListID
+				.tag(68, legs.size()) // TotNoOrders
+				.tag(73, legs.size()); // NoOrders
+			for (int i = 0; i < legs.size(); i++) {
+				OrderLeg leg = legs.get(i);
+				encoder.tag(11, listID + i) // ClOrdID
+					.tag(67, i + 1) // ListSeqNo
+					.tag(55, leg.getSymbol()) // Symbol
+					.tag(54, leg.isBuy() ? '1' : '2') // Side
+					.tag(38, leg.getQuantity()) // OrderQty
+					.price(44, leg.getPrice()) // Price
+					.tag(40, '1'); // OrdType = Market
+			}
+			encoder.finish();
+			write();
+			ordersSent.add(legs.size());
+		} catch (IOException e) {
+			log.error("Error sending order list: {}", e.getMessage());
+			lists.remove(listID);
+			for (int i = 0; i < legs.size(); i++) {
+				pending.remove(listID + i);
+				futures.get(i).completeExceptionally(e);
+			}
 		}
+		return listID;
 	}
 
-	public void sendOrder(boolean isBuy, int marketID, String instrumentID, int quantity, double price) {
+	public synchronized void sendMarketDataRequest(int marketID, String instrumentID, boolean subscribe) {
 		try {
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-
-			String body = "35=D" + "\u0001" + // MsgType = NewOrderSingle
-						  "11=" + uniqueOrderID  + "\u0001" + // ClOrdID
-						  "49=" + brokerID + "\u0001" + // SenderCompID
-						  "56=" + marketID + "\u0001" + // TargetCompID
-						  "55=" + instrumentID + "\u0001" + // Symbol
-						  "54=" + (isBuy ? "1" : "2") + "\u0001" + // Side
-						  "38=" + quantity + "\u0001" + // OrderQty
-						  "44=" + price + "\u0001" + // Price
-						  "40=1" + "\u0001"; // OrdType = Market
-
-			String fixMessage = "8=FIX.4.4" + "\u0001" + // BeginString
-								"9=" + body.length() + "\u0001" + // BodyLength
-								body;
-
-			int checksum = 0;
-			for (char ch : fixMessage.toCharArray())
-				checksum += ch;
-			checksum %= 256;
-			String checkSumStr = String.format("%03d", checksum);
-			fixMessage += "10=" + checkSumStr + "\u0001";
-
-			out.println(fixMessage);
-			uniqueOrderID++;
+			encoder.begin("V") // MsgType = MarketDataRequest
+				.tag(49, brokerID) // SenderCompID
+				.tag(56, marketID) // TargetCompID
+				.tag(262, uniqueRequestID) // MDReqID
+				.tag(263, subscribe ? '1' : '2') // SubscriptionRequestType (1 = Snapshot + Updates, 2 = Unsubscribe)
+				.tag(264, 1) // MarketDepth = Top of book
+				.tag(146, 1) // NoRelatedSym
+				.tag(55, instrumentID) // Symbol
+				.finish();
+			write();
+			uniqueRequestID++;
 		} catch (IOException e) {
-			System.out.println("Error sending buy order: " + e.getMessage());
+			log.error("Error sending market data request: {}", e.getMessage());
+		}
+	}
+
+	// Writes the finished text message, framed if the connection is binary
+	private void write() throws IOException {
+		if (binary)
+			frame.fromText(encoder).writeTo(socket.getOutputStream());
+		else
+			encoder.writeTo(socket.getOutputStream());
+	}
+
+	// Decodes one frame from the router: an ExecutionReport is read from its fixed offsets, anything else as text
+	public void handleFrame(String message) {
+		if (!BinaryFormat.isFixed(message)) {
+			handleMessage(message.substring(BinaryFormat.HEADER_LENGTH));
+			return;
+		}
+		if (BinaryFormat.msgType(message) != '8') {
+			log.warn("Unknown message type: {}", BinaryFormat.msgType(message));
+			return;
 		}
+		ExecutionReport report = new ExecutionReport(BinaryFormat.sender(message),
+				BinaryFormat.getString(message, BinaryFormat.CL_ORD_ID, BinaryFormat.CL_ORD_ID_LENGTH),
+				BinaryFormat.getLong(message, BinaryFormat.ORDER_ID),
+				BinaryFormat.getString(message, BinaryFormat.SYMBOL, BinaryFormat.SYMBOL_LENGTH),
+				message.charAt(BinaryFormat.SIDE) == '1',
+				BinaryFormat.getInt(message, BinaryFormat.ORDER_QTY),
+				BinaryFormat.getLong(message, BinaryFormat.PRICE),
+				message.charAt(BinaryFormat.ORD_STATUS),
+				BinaryFormat.getInt(message, BinaryFormat.CUM_QTY),
+				BinaryFormat.getInt(message, BinaryFormat.LEAVES_QTY),
+				BinaryFormat.getInt(message, BinaryFormat.LAST_QTY),
+				BinaryFormat.getLong(message, BinaryFormat.LAST_PX),
+				BinaryFormat.text(message), false);
+		logExecutionReport(report);
+		onExecutionReport(report);
 	}
 
+	// Decodes one message from the router in a single pass over its fields
 	public void handleMessage(String message) {
-		String[] parts = message.split("\u0001");
-		Map<String, String> fields = new HashMap<>();
-		for (String part : parts) {
-			String[] keyValue = part.split("=");
-			if (keyValue.length == 2)
-				fields.put(keyValue[0], keyValue[1]);
-		}
-
-		String msgType = fields.get("35");
-		if ("8".equals(msgType)) {
-			String status = fields.get("39");
-			if ("2".equals(status))
-				System.out.println("Order executed successfully at the market(" + fields.get("49") + "): " + fields.get("55") + " " + fields.get("38") + " @ " + fields.get("44"));
-			else if ("8".equals(status))
-				System.out.println("Order rejected by the market(" + fields.get("49") + "): " + fields.get("55") + " " + fields.get("38") + " @ " + fields.get("44") + " (" + fields.get("58") + ")");
-			else
-				System.out.println("Unknown status: " + status);
-		} else if ("3".equals(msgType)) {
-			System.out.println("Order rejected by the router: " + fields.get("58"));
-		} else if ("5".equals(msgType)) {
-			System.out.println("Disconnected by the router: " + fields.get("58"));
+		FieldReader fields = reader.reset(message);
+		char msgType = '?';
+		int senderID = -1;
+		String clOrdID = null;
+		String refClOrdID = null;
+		String listID = null;
+		long orderID = -1;
+		String symbol = null;
+		boolean isBuy = false;
+		int orderQty = 0;
+		long price = 0;
+		char ordStatus = '?';
+		int cumQty = 0;
+		int leavesQty = 0;
+		int lastQty = 0;
+		long lastPx = 0;
+		String text = null;
+		while (fields.next()) {
+			switch (fields.tag()) {
+				case 35:
+					msgType = fields.charValue();
+					break;
+				case 49:
+					senderID = fields.intValue();
+					break;
+				case 11:
+					clOrdID = fields.value();
+					break;
+				case 45:
+					refClOrdID = fields.value();
+					break;
+				case 66:
+					listID = fields.value();
+					break;
+				case 37:
+					orderID = fields.longValue();
+					break;
+				case 55:
+					if (symbol == null)
+						symbol = fields.value();
+					break;
+				case 54:
+					isBuy = fields.charValue() == '1';
+					break;
+				case 38:
+					orderQty = fields.intValue();
+					break;
+				case 44:
+					price = fields.priceValue();
+					break;
+				case 39:
+					ordStatus = fields.charValue();
+					break;
+				case 14:
+					cumQty = fields.intValue();
+					break;
+				case 151:
+					leavesQty = fields.intValue();
+					break;
+				case 32:
+					lastQty = fields.intValue();
+					break;
+				case 31:
+					lastPx = fields.priceValue();
+					break;
+				case 58:
+					text = fields.value();
+					break;
+				default:
+					break;
+			}
+		}
+
+		if (msgType == '8') {
+			ExecutionReport report = new ExecutionReport(senderID, clOrdID, orderID, symbol, isBuy, orderQty, price, ordStatus,
+					cumQty, leavesQty, lastQty, lastPx, text, false);
+			logExecutionReport(report);
+			onExecutionReport(report);
+		} else if (msgType == 'W' || msgType == 'X') {
+			logMarketData(senderID, message);
+			for (Listener listener : listeners) {
+				listener.onMarketData(senderID, message);
+			}
+		} else if (msgType == 'Y') {
+			log.info("Market data request rejected by the market({}): {}", senderID, text);
+			for (Listener listener : listeners) {
+				listener.onReject(senderID, text);
+			}
+		} else if (msgType == '3') {
+			ordersRejected.increment();
+			log.info("Order rejected by the router: {}", text);
+			// The router names the rejected order's ClOrdID in RefSeqNum (45), and its ListID when it was a whole list
+			Integer listSize = listID == null ? null : lists.remove(parseClOrdID(listID));
+			if (listSize != null) {
+				long first = parseClOrdID(listID);
+				for (int i = 0; i < listSize; i++) {
+					onExecutionReport(new ExecutionReport(senderID, String.valueOf(first + i), -1, null, false, 0, 0, ExecutionReport.REJECTED,
+							0, 0, 0, 0, text, true));
+				}
+			} else if (refClOrdID != null) {
+				onExecutionReport(new ExecutionReport(senderID, refClOrdID, -1, null, false, 0, 0, ExecutionReport.REJECTED,
+						0, 0, 0, 0, text, true));
+			} else {
+				for (Listener listener : listeners) {
+					listener.onReject(senderID, text);
+				}
+			}
+		} else if (msgType == '5') {
+			log.info("Disconnected by the router: {}", text);
 			running = false;
+			disconnected(text);
 		} else {
-			System.out.println("Unknown message type: " + msgType);
+			log.warn("Unknown message type: {}", msgType);
+		}
+	}
+
+	private void logExecutionReport(ExecutionReport report) {
+		switch (report.getOrdStatus()) {
+			case ExecutionReport.NEW:
+				log.log(Level.INFO, "Order resting at the market({}): {} {} @ {}", report.getMarketID(), report.getSymbol(), report.getOrderQty(), Price.toString(report.getPrice()));
+				break;
+			case ExecutionReport.PARTIALLY_FILLED:
+				log.log(Level.INFO, "Order partially filled at the market({}): {} {} @ {}, {} left", report.getMarketID(), report.getSymbol(), report.getLastQty(), Price.toString(report.getLastPx()), report.getLeavesQty());
+				break;
+			case ExecutionReport.FILLED:
+				ordersFilled.increment();
+				log.log(Level.INFO, "Order executed successfully at the market({}): {} {} @ {}", report.getMarketID(), report.getSymbol(), report.getCumQty(), Price.toString(report.getLastPx()));
+				break;
+			case ExecutionReport.REJECTED:
+				ordersRejected.increment();
+				log.log(Level.INFO, "Order rejected by the market({}): {} {} @ {} ({})", report.getMarketID(), report.getSymbol(), report.getOrderQty(), Price.toString(report.getPrice()), report.getText());
+				break;
+			default:
+				log.warn("Unknown status: {}", report.getOrdStatus());
+				break;
 		}
 	}
+
+	private void onExecutionReport(ExecutionReport report) {
+		if (report.getClOrdID() != null) {
+			long clOrdID = parseClOrdID(report.getClOrdID());
+			// Once the market answers the first order of a list, the router can no longer reject the list
+			if (!lists.isEmpty())
+				lists.remove(clOrdID);
+			CompletableFuture<ExecutionReport> future = pending.remove(clOrdID);
+			if (future != null)
+				future.complete(report);
+		}
+		for (Listener listener : listeners) {
+			listener.onExecutionReport(report);
+		}
+	}
+
+	// The ClOrdIDs this broker sends are numbers; anything else is not one of its pending orders
+	private static long parseClOrdID(String clOrdID) {
+		try {
+			return Long.parseLong(clOrdID);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	// Fails the orders still waiting for a reply, on logout or once the reader thread stops
+	private void disconnected(String reason) {
+		if (!disconnected.compareAndSet(false, true))
+			return;
+		IOException cause = new IOException("Disconnected: " + reason);
+		lists.clear();
+		for (Long clOrdID : pending.keySet()) {
+			CompletableFuture<ExecutionReport> future = pending.remove(clOrdID);
+			if (future != null)
+				future.completeExceptionally(cause);
+		}
+		for (Listener listener : listeners) {
+			listener.onDisconnect(reason);
+		}
+	}
+
+	// Market data entries repeat their tags, so they are read in order
+	private void logMarketData(int marketID, String message) {
+		if (!log.isEnabled(Level.INFO))
+			return;
+		FieldReader fields = reader.reset(message);
+		String symbol = null;
+		StringBuilder entries = new StringBuilder();
+		String type = null;
+		String price = null;
+		String size = null;
+		boolean deleted = false;
+		while (fields.next()) {
+			int tag = fields.tag();
+			// An entry starts with its MDUpdateAction in updates and with its MDEntryType in snapshots
+			if (tag == 279 || (tag == 269 && type != null) || tag == 10) {
+				appendEntry(entries, type, deleted, size, price);
+				type = price = size = null;
+				deleted = false;
+			}
+			if (tag == 55 && symbol == null)
+				symbol = fields.value();
+			else if (tag == 279)
+				deleted = fields.charValue() == '2';
+			else if (tag == 269)
+				type = fields.value();
+			else if (tag == 270)
+				price = fields.value();
+			else if (tag == 271)
+				size = fields.value();
+		}
+		log.info("Market data from the market({}): {} {}", marketID, symbol, entries);
+	}
+
+	private static void appendEntry(StringBuilder entries, String type, boolean deleted, String size, String price) {
+		if (type == null)
+			return;
+		if (entries.length() > 0)
+			entries.append(", ");
+		entries.append("0".equals(type) ? "bid" : "1".equals(type) ? "ask" : "last");
+		if (deleted)
+			entries.append(" none");
+		else
+			entries.append(' ').append(size).append(" @ ").append(price);
+	}
 }
@@ -0,0 +1,132 @@
+package com.broker;
+
+import com.common.Price;
+
+// State of an order as reported by its market, or a rejection of the order by the market or the router.
+// Prices are fixed-point com.common.Price values; fields the reply did not carry are null, 0 or -1.
+public final class ExecutionReport {
+	public static final char NEW = '0';
+	public static final char PARTIALLY_FILLED = '1';
+	public static final char FILLED = '2';
+	public static final char REJECTED = '8';
+
+	private final int marketID;
+	private final String clOrdID;
+	private final long orderID;
+	private final String symbol;
+	private final boolean buy;
+	private final int orderQty;
+	private final long price;
+	private final char ordStatus;
+	private final int cumQty;
+	private final int leavesQty;
+	private final int lastQty;
+	private final long lastPx;
+	private final String text;
+	// Rejected by the router before it reached the market
+	private final boolean routerReject;
+
+	ExecutionReport(int marketID, String clOrdID, long orderID, String symbol, boolean buy, int orderQty, long price, char ordStatus,
+			int cumQty, int leavesQty, int lastQty, long lastPx, String text, boolean routerReject) {
+		this.marketID = marketID;
+		this.clOrdID = clOrdID;
+		this.orderID = orderID;
+		this.symbol = symbol;
+		this.buy = buy;
+		this.orderQty = orderQty;
+		this.price = price;
+		this.ordStatus = ordStatus;
+		this.cumQty = cumQty;
+		this.leavesQty = leavesQty;
+		this.lastQty = lastQty;
+		this.lastPx = lastPx;
+		this.text = text;
+		this.routerReject = routerReject;
+	}
+
+	public int getMarketID() {
+		return marketID;
+	}
+
+	public String getClOrdID() {
+		return clOrdID;
+	}
+
+	// Assigned by the market, -1 when the order was rejected
+	public long getOrderID() {
+		return orderID;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public boolean isBuy() {
+		return buy;
+	}
+
+	public int getOrderQty() {
+		return orderQty;
+	}
+
+	public long getPrice() {
+		return price;
+	}
+
+	// NEW, PARTIALLY_FILLED, FILLED or REJECTED
+	public char getOrdStatus() {
+		return ordStatus;
+	}
+
+	public int getCumQty() {
+		return cumQty;
+	}
+
+	public int getLeavesQty() {
+		return leavesQty;
+	}
+
+	// Quantity and price of the fill this report is about, 0 when it is not about a fill
+	public int getLastQty() {
+		return lastQty;
+	}
+
+	public long getLastPx() {
+		return lastPx;
+	}
+
+	// Reason of a rejection
+	public String getText() {
+		return text;
+	}
+
+	public boolean isRejected() {
+		return ordStatus == REJECTED;
+	}
+
+	public boolean isFilled() {
+		return ordStatus == FILLED;
+	}
+
+	public boolean isRouterReject() {
+		return routerReject;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder(96).append("ExecutionReport(market=").append(marketID)
+			.append(", clOrdID=").append(clOrdID)
+			.append(", status=").append(ordStatus);
+		if (symbol != null) {
+			out.append(", ").append(buy ? "buy " : "sell ").append(orderQty).append(' ').append(symbol).append(" @ ");
+			Price.appendTo(out, price);
+		}
+		if (ordStatus != REJECTED)
+			out.append(", cumQty=").append(cumQty).append(", leavesQty=").append(leavesQty);
+		if (lastQty > 0)
+			Price.appendTo(out.append(", last=").append(lastQty).append(" @ "), lastPx);
+		if (text != null)
+			out.append(", text=").append(text);
+		return out.append(')').toString();
+	}
+}
@@ -0,0 +1,86 @@
+package com.broker;
+
+import com.common.Price;
+
+// Cursor over the tag=value fields of one FIX message, reused from message to message.
+// Values are read in place; only value() allocates. Malformed fields are skipped.
+final class FieldReader {
+	private static final char SOH = '\u0001';
+	private static final int MAX_TAG_DIGITS = 9;
+
+	private String message = "";
+	private int position;
+	private int tag;
+	private int valueStart;
+	private int valueEnd;
+
+	FieldReader reset(String message) {
+		this.message = message;
+		this.position = 0;
+		this.tag = -1;
+		return this;
+	}
+
+	// Moves to the next field; false at the end of the message
+	boolean next() {
+		int length = message.length();
+		while (position < length) {
+			int start = position;
+			int end = message.indexOf(SOH, start);
+			if (end < 0)
+				end = length;
+			position = end + 1;
+
+			int value = 0;
+			int i = start;
+			while (i < end && i - start < MAX_TAG_DIGITS && message.charAt(i) >= '0' && message.charAt(i) <= '9') {
+				value = value * 10 + (message.charAt(i) - '0');
+				i++;
+			}
+			if (i == start || i == end || message.charAt(i) != '=')
+				continue;
+			tag = value;
+			valueStart = i + 1;
+			valueEnd = end;
+			return true;
+		}
+		return false;
+	}
+
+	int tag() {
+		return tag;
+	}
+
+	String value() {
+		return message.substring(valueStart, valueEnd);
+	}
+
+	// The value if it is a single character, '?' otherwise
+	char charValue() {
+		return valueEnd - valueStart == 1 ? message.charAt(valueStart) : '?';
+	}
+
+	// Non-negative integer value, -1 if the value is anything else
+	long longValue() {
+		if (valueStart == valueEnd || valueEnd - valueStart > 18)
+			return -1;
+		long value = 0;
+		for (int i = valueStart; i < valueEnd; i++) {
+			char ch = message.charAt(i);
+			if (ch < '0' || ch > '9')
+				return -1;
+			value = value * 10 + (ch - '0');
+		}
+		return value;
+	}
+
+	int intValue() {
+		long value = longValue();
+		return value > Integer.MAX_VALUE ? -1 : (int) value;
+	}
+
+	// Fixed-point Price, Price.INVALID if the value is not one
+	long priceValue() {
+		return Price.parse(message, valueStart, valueEnd);
+	}
+}
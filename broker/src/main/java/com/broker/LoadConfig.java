@@ -0,0 +1,262 @@
+package com.broker;
+
+import com.common.Price;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LoadConfig {
+	private int sessions = 10;
+	private int ratePerSession = 100;
+	private int threads = 2;
+	private int warmupSeconds = 5;
+	private int durationSeconds = 30;
+	private int reportSeconds = 5;
+	private int drainSeconds = 5;
+	private int[] markets = new int[0];
+	private String[] symbols = {"AAPL"};
+	// Running total of the symbol weights, to pick a symbol with one binary search
+	private int[] symbolWeights = {1};
+	private double buyRatio = 0.5;
+	private int quantity = 10;
+	private long price = Price.parse("100.0");
+	private long priceSpread = Price.parse("1.0");
+	private long tickSize = Price.parse("0.01");
+	private WireEncoding encoding = WireEncoding.TEXT;
+	private InetSocketAddress[] routers = {RouterAddress.parse("localhost:5000")};
+
+	public static LoadConfig fromSystemProperties() {
+		LoadConfig config = new LoadConfig();
+		config.sessions = Integer.getInteger("load.sessions", config.sessions);
+		config.ratePerSession = Integer.getInteger("load.rate", config.ratePerSession);
+		config.threads = Integer.getInteger("load.threads", config.threads);
+		config.warmupSeconds = Integer.getInteger("load.warmupSeconds", config.warmupSeconds);
+		config.durationSeconds = Integer.getInteger("load.durationSeconds", config.durationSeconds);
+		config.reportSeconds = Integer.getInteger("load.reportSeconds", config.reportSeconds);
+		config.drainSeconds = Integer.getInteger("load.drainSeconds", config.drainSeconds);
+		config.setMarkets(System.getProperty("load.markets", ""));
+		config.setSymbols(System.getProperty("load.symbols", "AAPL"));
+		config.buyRatio = Double.parseDouble(System.getProperty("load.buyRatio", Double.toString(config.buyRatio)));
+		config.quantity = Integer.getInteger("load.quantity", config.quantity);
+		config.price = parsePrice("load.price", config.price);
+		config.priceSpread = parsePrice("load.priceSpread", config.priceSpread);
+		config.tickSize = parsePrice("load.tickSize", config.tickSize);
+		config.encoding = WireEncoding.valueOf(System.getProperty("load.encoding", config.encoding.name()).toUpperCase());
+		config.setRouters(System.getProperty("load.routers", "localhost:5000"));
+		if (config.sessions < 1)
+			throw new IllegalArgumentException("load.sessions must be at least 1");
+		if (config.ratePerSession < 1)
+			throw new IllegalArgumentException("load.rate must be at least 1");
+		if (config.threads < 1)
+			throw new IllegalArgumentException("load.threads must be at least 1");
+		if (config.durationSeconds < 1)
+			throw new IllegalArgumentException("load.durationSeconds must be at least 1");
+		if (config.reportSeconds < 1)
+			throw new IllegalArgumentException("load.reportSeconds must be at least 1");
+		if (config.routers.length == 0)
+			throw new IllegalArgumentException("load.routers must list at least one router address");
+		if (config.markets.length == 0)
+			throw new IllegalArgumentException("load.markets must list at least one market ID");
+		if (config.buyRatio < 0 || config.buyRatio > 1)
+			throw new IllegalArgumentException("load.buyRatio must be between 0 and 1");
+		if (config.quantity < 1)
+			throw new IllegalArgumentException("load.quantity must be at least 1");
+		if (config.tickSize < 1)
+			throw new IllegalArgumentException("load.tickSize must be a positive decimal, e.g. 0.01");
+		if (config.price <= config.priceSpread)
+			throw new IllegalArgumentException("load.price must be greater than load.priceSpread");
+		return config;
+	}
+
+	private static long parsePrice(String property, long defaultValue) {
+		String value = System.getProperty(property);
+		if (value == null)
+			return defaultValue;
+		long price = Price.parse(value);
+		if (price == Price.INVALID)
+			throw new IllegalArgumentException(property + " must be a plain decimal, e.g. 101.25");
+		return price;
+	}
+
+	// Simulated broker connections, each with its own ClOrdIDs
+	public int getSessions() {
+		return sessions;
+	}
+
+	// Orders per second each session sends, spaced evenly
+	public int getRatePerSession() {
+		return ratePerSession;
+	}
+
+	// Threads sending the orders of all sessions; replies are read by each session's own reader thread
+	public int getThreads() {
+		return threads;
+	}
+
+	// Orders sent before this are left out of the final report
+	public int getWarmupSeconds() {
+		return warmupSeconds;
+	}
+
+	public int getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	public int getReportSeconds() {
+		return reportSeconds;
+	}
+
+	// How long to wait for the replies still outstanding once sending stops
+	public int getDrainSeconds() {
+		return drainSeconds;
+	}
+
+	// Each order goes to one of these markets, picked uniformly
+	public int[] getMarkets() {
+		return markets;
+	}
+
+	public String[] getSymbols() {
+		return symbols;
+	}
+
+	// Symbol picked according to the weights of load.symbols
+	public String pickSymbol(Random random) {
+		int pick = random.nextInt(symbolWeights[symbolWeights.length - 1]);
+		int index = Arrays.binarySearch(symbolWeights, pick + 1);
+		return symbols[index >= 0 ? index : -index - 1];
+	}
+
+	// Share of the orders that are buys
+	public double getBuyRatio() {
+		return buyRatio;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	// Orders are priced uniformly within priceSpread of price, on the tick grid; buys and sells overlap, so some fill
+	public long getPrice() {
+		return price;
+	}
+
+	public long getPriceSpread() {
+		return priceSpread;
+	}
+
+	public long getTickSize() {
+		return tickSize;
+	}
+
+	// Encoding each session asks the router for
+	public WireEncoding getEncoding() {
+		return encoding;
+	}
+
+	// Broker ports of router nodes, taken in turn by the sessions; a node of a cluster redirects a session it does not own
+	public InetSocketAddress[] getRouters() {
+		return routers;
+	}
+
+	public LoadConfig setSessions(int sessions) {
+		this.sessions = sessions;
+		return this;
+	}
+
+	public LoadConfig setRatePerSession(int ratePerSession) {
+		this.ratePerSession = ratePerSession;
+		return this;
+	}
+
+	public LoadConfig setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	public LoadConfig setWarmupSeconds(int warmupSeconds) {
+		this.warmupSeconds = warmupSeconds;
+		return this;
+	}
+
+	public LoadConfig setDurationSeconds(int durationSeconds) {
+		this.durationSeconds = durationSeconds;
+		return this;
+	}
+
+	public LoadConfig setReportSeconds(int reportSeconds) {
+		this.reportSeconds = reportSeconds;
+		return this;
+	}
+
+	public LoadConfig setDrainSeconds(int drainSeconds) {
+		this.drainSeconds = drainSeconds;
+		return this;
+	}
+
+	// Comma-separated market IDs, e.g. "100002,100003"
+	public LoadConfig setMarkets(String markets) {
+		this.markets = Arrays.stream(markets.split(",")).map(String::trim).filter(id -> !id.isEmpty()).mapToInt(Integer::parseInt).toArray();
+		return this;
+	}
+
+	// Comma-separated symbols with an optional weight, e.g. "AAPL:3,MSFT:1,GOOG" (weight 1)
+	public LoadConfig setSymbols(String mix) {
+		String[] entries = Arrays.stream(mix.split(",")).map(String::trim).filter(entry -> !entry.isEmpty()).toArray(String[]::new);
+		if (entries.length == 0)
+			throw new IllegalArgumentException("load.symbols must list at least one symbol");
+		String[] names = new String[entries.length];
+		int[] weights = new int[entries.length];
+		int total = 0;
+		for (int i = 0; i < entries.length; i++) {
+			int separator = entries[i].indexOf(':');
+			names[i] = separator < 0 ? entries[i] : entries[i].substring(0, separator);
+			int weight = separator < 0 ? 1 : Integer.parseInt(entries[i].substring(separator + 1));
+			if (weight < 1)
+				throw new IllegalArgumentException("load.symbols weights must be at least 1");
+			total += weight;
+			weights[i] = total;
+		}
+		this.symbols = names;
+		this.symbolWeights = weights;
+		return this;
+	}
+
+	public LoadConfig setBuyRatio(double buyRatio) {
+		this.buyRatio = buyRatio;
+		return this;
+	}
+
+	public LoadConfig setQuantity(int quantity) {
+		this.quantity = quantity;
+		return this;
+	}
+
+	public LoadConfig setPrice(long price) {
+		this.price = price;
+		return this;
+	}
+
+	public LoadConfig setPriceSpread(long priceSpread) {
+		this.priceSpread = priceSpread;
+		return this;
+	}
+
+	public LoadConfig setTickSize(long tickSize) {
+		this.tickSize = tickSize;
+		return this;
+	}
+
+	public LoadConfig setEncoding(WireEncoding encoding) {
+		this.encoding = encoding;
+		return this;
+	}
+
+	// Comma-separated host:port addresses, e.g. "localhost:5000,localhost:5010"
+	public LoadConfig setRouters(String routers) {
+		this.routers = Arrays.stream(routers.split(",")).map(String::trim).filter(address -> !address.isEmpty()).map(RouterAddress::parse).toArray(InetSocketAddress[]::new);
+		return this;
+	}
+}
@@ -0,0 +1,246 @@
+package com.broker;
+
+import com.common.Histogram;
+import com.common.Logger;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless load: many Broker sessions, each sending orders at a fixed rate, driven by a small pool of
+// scheduler threads. Latency runs from the time an order was meant to be sent to its first execution
+// report, not from when it actually went out, so orders held back by a stalled sender or a full socket
+// still count their wait (coordinated omission). The uncorrected send-to-report latency is reported too.
+// Orders still unanswered when the drain time runs out are counted at that time, a lower bound on their
+// latency, so a stalled system does not drop its worst orders from the percentiles.
+// Sending is multiplexed, but each session is a whole Broker reading its replies on its own blocking
+// reader thread: the modules target Java 8, which has no virtual threads, so a generator holds a few
+// thousand sessions at most and larger loads take several generators.
+public class LoadGenerator {
+	private static final Logger log = Logger.get("load");
+	// Most orders a session sends in one go when it is behind, before letting the other sessions run
+	private static final int MAX_CATCH_UP = 64;
+	private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9", "p99.99"};
+
+	private final LoadConfig config;
+	private final PrintStream out;
+	// Measured orders only, i.e. sent after the warmup
+	private final Histogram latency = new Histogram();
+	private final Histogram serviceTime = new Histogram();
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder resting = new LongAdder();
+	private final LongAdder filled = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder censored = new LongAdder();
+	// Measured orders not answered yet, by send sequence
+	private final ConcurrentHashMap<Long, Outstanding> unanswered = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+	// Every order, since the last interval report; the reset between reports may lose a few samples
+	private final Histogram intervalLatency = new Histogram();
+	private final LongAdder intervalSent = new LongAdder();
+	private final List<Broker> brokers = new ArrayList<>();
+	private ScheduledExecutorService scheduler;
+	private volatile boolean sending = true;
+	private volatile boolean measuring = false;
+
+	public LoadGenerator(LoadConfig config, PrintStream out) {
+		this.config = config;
+		this.out = out;
+	}
+
+	// Connects the sessions, runs the load and prints the reports; returns 0 on success, -1 if a session could not connect
+	public int run() throws InterruptedException {
+		for (int i = 0; i < config.getSessions(); i++) {
+			Broker broker = new Broker(-1, config.getEncoding(), config.getRouters()[i % config.getRouters().length]);
+			if (broker.start() == -1) {
+				log.error("Session {} could not connect to the router", i);
+				brokers.forEach(Broker::stop);
+				return -1;
+			}
+			brokers.add(broker);
+		}
+		out.printf("%d %s sessions at %d orders/s each (%d orders/s), warmup %ds, measuring %ds%n", config.getSessions(),
+				brokers.get(0).isBinary() ? "binary" : "text", config.getRatePerSession(), (long) config.getSessions() * config.getRatePerSession(),
+				config.getWarmupSeconds(), config.getDurationSeconds());
+
+		AtomicInteger threadCount = new AtomicInteger();
+		scheduler = new ScheduledThreadPoolExecutor(config.getThreads(), task -> {
+			Thread thread = new Thread(task, "load-sender-" + threadCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		long start = System.nanoTime();
+		long interval = TimeUnit.SECONDS.toNanos(1) / config.getRatePerSession();
+		for (int i = 0; i < brokers.size(); i++) {
+			// Spread the sessions over one interval so they do not all send at the same instant
+			Session session = new Session(brokers.get(i), interval, start + interval * i / brokers.size());
+			scheduler.execute(session);
+		}
+		long reportNanos = TimeUnit.SECONDS.toNanos(config.getReportSeconds());
+		scheduler.scheduleAtFixedRate(new IntervalReport(start, reportNanos), reportNanos, reportNanos, TimeUnit.NANOSECONDS);
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(config.getWarmupSeconds()));
+		measuring = true;
+		long measureStart = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(config.getDurationSeconds()));
+		measuring = false;
+		sending = false;
+		long measureEnd = System.nanoTime();
+
+		// Replies to the last orders are still part of the run
+		long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDrainSeconds());
+		while (outstanding() > 0 && System.nanoTime() < drainDeadline) {
+			Thread.sleep(10);
+		}
+		scheduler.shutdownNow();
+		censor(System.nanoTime());
+		printSummary(measureEnd - measureStart);
+		brokers.forEach(Broker::stop);
+		return 0;
+	}
+
+	private int outstanding() {
+		int count = 0;
+		for (Broker broker : brokers) {
+			count += broker.getPendingOrderCount();
+		}
+		return count;
+	}
+
+	private void send(Broker broker, long intendedAt) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int[] markets = config.getMarkets();
+		int market = markets[random.nextInt(markets.length)];
+		boolean isBuy = random.nextDouble() < config.getBuyRatio();
+		long ticks = config.getPriceSpread() / config.getTickSize();
+		long price = (config.getPrice() / config.getTickSize() + random.nextLong(-ticks, ticks + 1)) * config.getTickSize();
+		boolean measured = measuring;
+		long sentAt = System.nanoTime();
+		long id = sequence.getAndIncrement();
+		if (measured)
+			unanswered.put(id, new Outstanding(intendedAt, sentAt));
+		broker.submitOrder(isBuy, market, config.pickSymbol(random), config.getQuantity(), price)
+			.whenComplete((report, error) -> {
+				long now = System.nanoTime();
+				intervalLatency.record(now - intendedAt);
+				// Censored already if it came after the drain time
+				if (!measured || unanswered.remove(id) == null)
+					return;
+				if (error != null) {
+					failed.increment();
+					return;
+				}
+				latency.record(now - intendedAt);
+				serviceTime.record(now - sentAt);
+				if (report.isRejected())
+					rejected.increment();
+				else if (report.getOrdStatus() == ExecutionReport.NEW)
+					resting.increment();
+				else
+					filled.increment();
+			});
+		intervalSent.increment();
+		if (measured)
+			sent.increment();
+	}
+
+	// Counts the orders still unanswered as answered now
+	private void censor(long now) {
+		for (Long id : unanswered.keySet()) {
+			Outstanding order = unanswered.remove(id);
+			if (order == null)
+				continue;
+			latency.record(now - order.intendedAt);
+			serviceTime.record(now - order.sentAt);
+			censored.increment();
+		}
+	}
+
+	private void printSummary(long measuredNanos) {
+		double seconds = measuredNanos / 1e9;
+		long replies = latency.getCount() - censored.sum();
+		out.println();
+		out.printf("Sent %d orders in %.1fs: %.0f orders/s, %.0f replies/s%n", sent.sum(), seconds, sent.sum() / seconds, replies / seconds);
+		out.printf("Replies: %d resting, %d filled, %d rejected, %d failed, %d unanswered%n",
+				resting.sum(), filled.sum(), rejected.sum(), failed.sum(), censored.sum());
+		if (censored.sum() > 0)
+			out.printf("The %d unanswered orders are counted at the end of the drain time, so the tail is a lower bound%n", censored.sum());
+		printPercentiles("Latency from intended send time (us)", latency);
+		printPercentiles("Latency from actual send time (us)", serviceTime);
+	}
+
+	private void printPercentiles(String title, Histogram histogram) {
+		StringBuilder line = new StringBuilder(title).append(':');
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			line.append(String.format(" %s=%.1f", PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]) / 1e3));
+		}
+		line.append(String.format(" max=%.1f", histogram.getMax() / 1e3));
+		out.println(line);
+	}
+
+	private static final class Outstanding {
+		final long intendedAt;
+		final long sentAt;
+
+		Outstanding(long intendedAt, long sentAt) {
+			this.intendedAt = intendedAt;
+			this.sentAt = sentAt;
+		}
+	}
+
+	// Sends the orders of one broker session that are due, then schedules itself for the next one
+	private final class Session implements Runnable {
+		private final Broker broker;
+		private final long interval;
+		// Intended send time of the next order
+		private long next;
+
+		Session(Broker broker, long interval, long first) {
+			this.broker = broker;
+			this.interval = interval;
+			this.next = first;
+		}
+
+		@Override
+		public void run() {
+			if (!sending || !broker.isRunning())
+				return;
+			long now = System.nanoTime();
+			for (int i = 0; i < MAX_CATCH_UP && next <= now; i++) {
+				send(broker, next);
+				next += interval;
+			}
+			if (sending)
+				scheduler.schedule(this, Math.max(0, next - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private final class IntervalReport implements Runnable {
+		private final long start;
+		private final long nanos;
+
+		IntervalReport(long start, long nanos) {
+			this.start = start;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public void run() {
+			double seconds = nanos / 1e9;
+			out.printf("[%4ds] %.0f orders/s, %.0f replies/s, p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus, %d outstanding%n",
+					TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), intervalSent.sumThenReset() / seconds,
+					intervalLatency.getCount() / seconds, intervalLatency.getPercentile(0.5) / 1e3, intervalLatency.getPercentile(0.99) / 1e3,
+					intervalLatency.getPercentile(0.999) / 1e3, intervalLatency.getMax() / 1e3, outstanding());
+			intervalLatency.reset();
+		}
+	}
+}
@@ -1,17 +1,42 @@
 package com.broker;
 
+import com.common.Level;
+import com.common.Logger;
+import com.common.Metrics;
+import com.common.Price;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
+	private static final Logger log = Logger.get("broker");
+
 	public static void main(String[] args) {
 		try {
+			// "load" runs the headless load generator, configured with -Dload.* properties (see LoadConfig)
+			if (args.length > 0 && args[0].equalsIgnoreCase("load")) {
+				// Per-order logging would dominate the measurement
+				if (System.getProperty("log.broker.level") == null)
+					Logger.get("broker").setLevel(Level.WARN);
+				Metrics.expose("broker");
+				int status = new LoadGenerator(LoadConfig.fromSystemProperties(), System.out).run();
+				Metrics.shutdown();
+				System.exit(status == 0 ? 0 : 1);
+			}
+
 			int id = -1;
 			if (args.length > 0) {
 				id = Integer.parseInt(args[0]);
 			}
-			Broker broker = new Broker(id);
+			// -Dbroker.encoding=BINARY asks the router for binary frames; -Dbroker.router=host:port picks the router node
+			Broker broker = new Broker(id, WireEncoding.valueOf(System.getProperty("broker.encoding", "TEXT").toUpperCase()),
+					RouterAddress.parse(System.getProperty("broker.router", "localhost:5000")));
 			if (broker.start() == -1)
 				return;
+			// -Dmetrics.port=<port> also serves the metrics on http://localhost:<port>/metrics
+			Metrics.expose("broker");
 
 			System.out.println("Type 'help' for a list of commands.");
 			Scanner scanner = new Scanner(System.in);
@@ -27,6 +52,14 @@ public class Main {
 				}
 
 				String[] parts = command.split(" ");
+				if (parts.length == 3 && (parts[0].equalsIgnoreCase("subscribe") || parts[0].equalsIgnoreCase("unsubscribe"))) {
+					broker.sendMarketDataRequest(Integer.parseInt(parts[1]), parts[2], parts[0].equalsIgnoreCase("subscribe"));
+					continue;
+				}
+				if (parts[0].equalsIgnoreCase("basket")) {
+					sendBasket(broker, parts);
+					continue;
+				}
 				if (parts.length < 5) {
 					System.out.println("Invalid command. Type 'help' for a list of commands.");
 					continue;
@@ -36,7 +69,11 @@ public class Main {
 				int marketID = Integer.parseInt(parts[1]);
 				String instrumentID = parts[2];
 				int quantity = Integer.parseInt(parts[3]);
-				double price = Double.parseDouble(parts[4]);
+				long price = Price.parse(parts[4]);
+				if (price == Price.INVALID) {
+					System.out.println("Invalid price. Use a plain decimal, e.g. 101.25");
+					continue;
+				}
 
 				switch (action.toLowerCase()) {
 					case "buy":
@@ -58,14 +95,40 @@ public class Main {
 			broker.stop();
 			scanner.close();
 		} catch (Exception e) {
-			System.out.println("Error starting broker: " + e.getMessage());
+			log.error("Error starting broker: {}", e.getMessage());
+		}
+	}
+
+	// basket {marketID} then {buy|sell} {instrumentID} {quantity} {price} for each order
+	private static void sendBasket(Broker broker, String[] parts) {
+		if (parts.length < 6 || (parts.length - 2) % 4 != 0) {
+			System.out.println("Invalid command. Type 'help' for a list of commands.");
+			return;
+		}
+		List<OrderLeg> legs = new ArrayList<>();
+		for (int i = 2; i < parts.length; i += 4) {
+			boolean isBuy = parts[i].equalsIgnoreCase("buy");
+			if (!isBuy && !parts[i].equalsIgnoreCase("sell")) {
+				System.out.println("Invalid side: " + parts[i] + ". Use buy or sell");
+				return;
+			}
+			long price = Price.parse(parts[i + 3]);
+			if (price == Price.INVALID) {
+				System.out.println("Invalid price. Use a plain decimal, e.g. 101.25");
+				return;
+			}
+			legs.add(new OrderLeg(isBuy, parts[i + 1], Integer.parseInt(parts[i + 2]), price));
 		}
+		broker.submitOrderList(Integer.parseInt(parts[1]), legs);
 	}
 
 	public static void printHelp() {
 		System.out.println("Commands:");
 		System.out.println("buy {marketID} {instrumentID} {quantity} {price}");
 		System.out.println("sell {marketID} {instrumentID} {quantity} {price}");
+		System.out.println("basket {marketID} {buy|sell} {instrumentID} {quantity} {price} [{buy|sell} ...]");
+		System.out.println("subscribe {marketID} {instrumentID}");
+		System.out.println("unsubscribe {marketID} {instrumentID}");
 		System.out.println("exit, quit");
 	}
 }
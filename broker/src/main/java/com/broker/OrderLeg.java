@@ -0,0 +1,32 @@
+package com.broker;
+
+// One limit order of a basket sent with Broker.submitOrderList; price is a fixed-point com.common.Price
+public final class OrderLeg {
+	private final boolean buy;
+	private final String symbol;
+	private final int quantity;
+	private final long price;
+
+	public OrderLeg(boolean buy, String symbol, int quantity, long price) {
+		this.buy = buy;
+		this.symbol = symbol;
+		this.quantity = quantity;
+		this.price = price;
+	}
+
+	public boolean isBuy() {
+		return buy;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public long getPrice() {
+		return price;
+	}
+}
@@ -0,0 +1,203 @@
+package com.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Multi-producer ring of preallocated log events drained by a single background thread.
+// Producers claim a slot, fill it and publish its sequence; the writer formats and writes events in order.
+// A producer never waits long for a full ring: past a few yields, or once the writer is gone, the event is
+// dropped and counted (log.dropped in Metrics), and the writer reports the count once it catches up.
+// Each line reads: 2026-01-31 12:00:00.000 WARN  [category] message
+final class AsyncLogWriter implements Runnable {
+	private static final long IDLE_PARK_NANOS = 1_000_000;
+	private static final int FULL_RING_YIELDS = 1000;
+	private static final long DROP_REPORT_MILLIS = 1000;
+	private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	private final LogEvent[] ring;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong();
+	private final Writer out;
+	private final StringBuilder line = new StringBuilder(256);
+	private final Thread thread;
+	private volatile long consumed = 0;
+	private volatile boolean running = true;
+	private final AtomicLong dropped = new AtomicLong();
+	// Dropped events already reported; only used by the writer thread
+	private long reported = 0;
+	private long reportedAt = 0;
+	// The second last formatted, so a line only formats its milliseconds; only used by the writer thread
+	private long second = -1;
+	private String secondText;
+
+	AsyncLogWriter(int capacity, PrintStream stream) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.ring = new LogEvent[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			ring[i] = new LogEvent();
+		}
+		this.out = new BufferedWriter(new OutputStreamWriter(stream), 16384);
+		this.thread = new Thread(this, "log-writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "log-writer-shutdown"));
+	}
+
+	void publish(Level level, String category, String format, Object[] arguments) {
+		publish(level, category, format, arguments.length, null, null, null, arguments);
+	}
+
+	void publish(Level level, String category, String format, int argumentCount, Object first, Object second, Object third) {
+		publish(level, category, format, argumentCount, first, second, third, null);
+	}
+
+	private void publish(Level level, String category, String format, int argumentCount, Object first, Object second, Object third, Object[] arguments) {
+		long sequence;
+		int yields = 0;
+		while (true) {
+			sequence = claimed.get();
+			if (sequence - consumed >= ring.length) {
+				// Full: give the writer a moment, but never hang the caller, e.g. an event loop, on logging
+				if (++yields > FULL_RING_YIELDS || !thread.isAlive()) {
+					dropped.incrementAndGet();
+					return;
+				}
+				Thread.yield();
+				continue;
+			}
+			if (claimed.compareAndSet(sequence, sequence + 1))
+				break;
+		}
+
+		LogEvent event = ring[(int) sequence & mask];
+		event.timestamp = System.currentTimeMillis();
+		event.level = level;
+		event.category = category;
+		event.format = format;
+		event.argumentCount = argumentCount;
+		event.first = first;
+		event.second = second;
+		event.third = third;
+		event.arguments = arguments;
+		event.sequence = sequence;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			if (!drain())
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+		}
+		drain();
+	}
+
+	// Writes every published event and flushes once the ring is empty
+	private boolean drain() {
+		boolean wrote = false;
+		long next = consumed;
+		LogEvent event;
+		while ((event = ring[(int) next & mask]).sequence == next) {
+			try {
+				format(event);
+			} catch (RuntimeException e) {
+				// An argument's toString() failed; the writer must outlive it
+				prefix(event.timestamp, event.level, event.category);
+				line.append("Could not format log event \"").append(event.format).append("\": ").append(e);
+			} finally {
+				event.clear();
+			}
+			write(line);
+			consumed = ++next;
+			wrote = true;
+		}
+		long lost = dropped.get();
+		long now = System.currentTimeMillis();
+		// At most once a second while the ring stays full, and once more on shutdown
+		if (lost != reported && (now - reportedAt >= DROP_REPORT_MILLIS || !running)) {
+			prefix(now, Level.WARN, "log");
+			write(line.append(lost - reported).append(" log event(s) dropped while the log buffer was full, ")
+				.append(lost).append(" since startup"));
+			reported = lost;
+			reportedAt = now;
+			wrote = true;
+		}
+		if (wrote) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				// Nowhere left to report it
+			}
+		}
+		return wrote;
+	}
+
+	private void write(CharSequence text) {
+		try {
+			out.append(text).append(System.lineSeparator());
+		} catch (IOException e) {
+			// Nowhere left to report it
+		}
+	}
+
+	// Events lost to a full ring since startup
+	long getDropped() {
+		return dropped.get();
+	}
+
+	private void format(LogEvent event) {
+		prefix(event.timestamp, event.level, event.category);
+		String format = event.format;
+		int argument = 0;
+		int start = 0;
+		int placeholder;
+		while (argument < event.argumentCount && (placeholder = format.indexOf("{}", start)) >= 0) {
+			line.append(format, start, placeholder);
+			if (event.arguments != null)
+				line.append(event.arguments[argument]);
+			else
+				line.append(argument == 0 ? event.first : argument == 1 ? event.second : event.third);
+			argument++;
+			start = placeholder + 2;
+		}
+		line.append(format, start, format.length());
+	}
+
+	// Starts the line with the time, the level and the category
+	private void prefix(long millis, Level level, String category) {
+		line.setLength(0);
+		if (millis / 1000 != second) {
+			second = millis / 1000;
+			secondText = SECONDS.format(Instant.ofEpochSecond(second));
+		}
+		int fraction = (int) (millis % 1000);
+		line.append(secondText).append('.');
+		if (fraction < 100)
+			line.append('0');
+		if (fraction < 10)
+			line.append('0');
+		line.append(fraction).append(' ').append(level.name());
+		for (int i = level.name().length(); i < 6; i++) {
+			line.append(' ');
+		}
+		line.append('[').append(category).append("] ");
+	}
+
+	private void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,414 @@
+package com.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reusable encoder of BinaryFormat frames. A FIXED frame is written field by field at its offsets:
+// begin(), the setters of the fields it carries, then finish(). fromText() frames a tag=value message,
+// with the FIXED layout when it is a NewOrderSingle or ExecutionReport whose fields fit, as TEXT otherwise.
+// An encoder is not thread-safe: keep one per writing thread.
+public final class BinaryEncoder {
+	private static final int MAX_TEXT_LENGTH = BinaryFormat.MAX_FRAME_LENGTH - BinaryFormat.EXECUTION_REPORT_LENGTH;
+	// Tags a FIXED frame can carry; any other tag, or one repeated, leaves the message as TEXT
+	private static final int[] TAGS = {35, 49, 56, 11, 55, 54, 40, 38, 44, 37, 39, 150, 14, 151, 32, 31, 58};
+	private static final int MSG_TYPE = 0, SENDER = 1, TARGET = 2, CL_ORD_ID = 3, SYMBOL = 4, SIDE = 5, ORD_TYPE = 6, ORDER_QTY = 7,
+			PRICE = 8, ORDER_ID = 9, ORD_STATUS = 10, EXEC_TYPE = 11, CUM_QTY = 12, LEAVES_QTY = 13, LAST_QTY = 14, LAST_PX = 15, TEXT = 16;
+
+	private byte[] buffer = new byte[256];
+	private int length;
+	// Reused by fromText(FixEncoder) to read the encoder's bytes as characters
+	private final AsciiView view = new AsciiView();
+	private final int[] valueStart = new int[TAGS.length];
+	private final int[] valueEnd = new int[TAGS.length];
+
+	// Starts a FIXED frame of a NewOrderSingle (D) or ExecutionReport (8); unset fields are empty or 0, OrderID -1
+	public BinaryEncoder begin(char msgType, int sender, int target) {
+		if (!BinaryFormat.hasFixedLayout(msgType))
+			throw new IllegalArgumentException("No fixed layout for MsgType " + msgType);
+		length = msgType == 'D' ? BinaryFormat.ORDER_LENGTH : BinaryFormat.EXECUTION_REPORT_LENGTH;
+		Arrays.fill(buffer, 0, length, (byte) 0);
+		buffer[BinaryFormat.MSG_TYPE] = (byte) msgType;
+		buffer[BinaryFormat.TEMPLATE] = BinaryFormat.FIXED;
+		putInt(BinaryFormat.SENDER, sender);
+		putInt(BinaryFormat.TARGET, target);
+		if (msgType == '8')
+			putLong(BinaryFormat.ORDER_ID, -1);
+		return this;
+	}
+
+	// True if a ClOrdID and Symbol fit their fixed fields; a message with longer ones goes as TEXT
+	public static boolean fits(CharSequence clOrdID, CharSequence symbol) {
+		return (clOrdID == null || clOrdID.length() <= BinaryFormat.CL_ORD_ID_LENGTH)
+				&& (symbol == null || symbol.length() <= BinaryFormat.SYMBOL_LENGTH);
+	}
+
+	public BinaryEncoder clOrdID(CharSequence clOrdID) {
+		return putChars(BinaryFormat.CL_ORD_ID, BinaryFormat.CL_ORD_ID_LENGTH, clOrdID, 0, clOrdID.length());
+	}
+
+	public BinaryEncoder clOrdID(long clOrdID) {
+		return clOrdID(Long.toString(clOrdID));
+	}
+
+	public BinaryEncoder symbol(CharSequence symbol) {
+		return putChars(BinaryFormat.SYMBOL, BinaryFormat.SYMBOL_LENGTH, symbol, 0, symbol.length());
+	}
+
+	public BinaryEncoder side(char side) {
+		buffer[BinaryFormat.SIDE] = (byte) side;
+		return this;
+	}
+
+	public BinaryEncoder ordType(char ordType) {
+		buffer[BinaryFormat.ORD_TYPE] = (byte) ordType;
+		return this;
+	}
+
+	public BinaryEncoder ordStatus(char ordStatus) {
+		buffer[BinaryFormat.ORD_STATUS] = (byte) ordStatus;
+		return this;
+	}
+
+	public BinaryEncoder orderQty(int orderQty) {
+		putInt(BinaryFormat.ORDER_QTY, orderQty);
+		return this;
+	}
+
+	public BinaryEncoder price(long price) {
+		putLong(BinaryFormat.PRICE, price);
+		return this;
+	}
+
+	public BinaryEncoder orderID(long orderID) {
+		putLong(BinaryFormat.ORDER_ID, orderID);
+		return this;
+	}
+
+	public BinaryEncoder cumQty(int cumQty) {
+		putInt(BinaryFormat.CUM_QTY, cumQty);
+		return this;
+	}
+
+	public BinaryEncoder leavesQty(int leavesQty) {
+		putInt(BinaryFormat.LEAVES_QTY, leavesQty);
+		return this;
+	}
+
+	public BinaryEncoder lastQty(int lastQty) {
+		putInt(BinaryFormat.LAST_QTY, lastQty);
+		return this;
+	}
+
+	public BinaryEncoder lastPx(long lastPx) {
+		putLong(BinaryFormat.LAST_PX, lastPx);
+		return this;
+	}
+
+	// Text (58) of an ExecutionReport, cut to what a frame can hold
+	public BinaryEncoder text(CharSequence text) {
+		int textLength = Math.min(text.length(), MAX_TEXT_LENGTH);
+		length = BinaryFormat.EXECUTION_REPORT_LENGTH;
+		ensureCapacity(length + textLength);
+		putShort(BinaryFormat.TEXT_LENGTH, textLength);
+		for (int i = 0; i < textLength; i++) {
+			buffer[length++] = (byte) text.charAt(i);
+		}
+		return this;
+	}
+
+	// Fills in the frame length
+	public BinaryEncoder finish() {
+		putInt(BinaryFormat.FRAME_LENGTH, length);
+		return this;
+	}
+
+	// Frames the finished message of a text encoder
+	public BinaryEncoder fromText(FixEncoder encoder) {
+		return fromText(view.wrap(encoder.buffer(), encoder.offset(), encoder.length()));
+	}
+
+	// Frames a tag=value message (without line terminator), finished
+	public BinaryEncoder fromText(CharSequence text) {
+		if (!encodeFixed(text))
+			encodeText(text);
+		return finish();
+	}
+
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	// Length of the finished frame, which starts at offset 0 of buffer()
+	public int length() {
+		return length;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, length);
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	// The frame as a String whose chars are its bytes
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private boolean encodeFixed(CharSequence text) {
+		Arrays.fill(valueStart, -1);
+		int length = text.length();
+		int position = 0;
+		while (position < length) {
+			int tag = 0;
+			int i = position;
+			while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+				tag = tag * 10 + (text.charAt(i) - '0');
+				i++;
+			}
+			if (i == position || i == length || text.charAt(i) != '=')
+				return false;
+			int start = i + 1;
+			int end = start;
+			while (end < length && text.charAt(end) != '\u0001') {
+				end++;
+			}
+			position = end + 1;
+			// BeginString, BodyLength and CheckSum are text framing
+			if (tag == 8 || tag == 9 || tag == 10)
+				continue;
+			int field = indexOf(tag);
+			if (field < 0 || valueStart[field] >= 0)
+				return false;
+			valueStart[field] = start;
+			valueEnd[field] = end;
+		}
+
+		if (valueLength(MSG_TYPE) != 1 || !BinaryFormat.hasFixedLayout(text.charAt(valueStart[MSG_TYPE])))
+			return false;
+		char msgType = text.charAt(valueStart[MSG_TYPE]);
+		boolean report = msgType == '8';
+		int sender = number(text, SENDER);
+		int target = number(text, TARGET);
+		int orderQty = number(text, ORDER_QTY);
+		long price = valueStart[PRICE] < 0 ? -1 : Price.parse(text, valueStart[PRICE], valueEnd[PRICE]);
+		if (sender < 0 || target < 0 || orderQty < 0 || price < 0 || valueLength(SIDE) != 1
+				|| valueLength(SYMBOL) < 1 || valueLength(SYMBOL) > BinaryFormat.SYMBOL_LENGTH
+				|| valueLength(CL_ORD_ID) == 0 || valueLength(CL_ORD_ID) > BinaryFormat.CL_ORD_ID_LENGTH)
+			return false;
+		if (!report && !(valueStart[ORD_TYPE] < 0 || valueLength(ORD_TYPE) == 1))
+			return false;
+		if (!report && !absent(ORDER_ID, ORD_STATUS, EXEC_TYPE, CUM_QTY, LEAVES_QTY, LAST_QTY, LAST_PX, TEXT))
+			return false;
+
+		int cumQty = 0, leavesQty = 0, lastQty = 0;
+		long orderID = -1, lastPx = 0;
+		if (report) {
+			cumQty = number(text, CUM_QTY);
+			leavesQty = number(text, LEAVES_QTY);
+			if (valueStart[ORD_TYPE] >= 0 || valueLength(ORD_STATUS) != 1 || cumQty < 0 || leavesQty < 0)
+				return false;
+			if (valueStart[EXEC_TYPE] >= 0 && (valueLength(EXEC_TYPE) != 1 || text.charAt(valueStart[EXEC_TYPE]) != text.charAt(valueStart[ORD_STATUS])))
+				return false;
+			if (valueStart[ORDER_ID] >= 0) {
+				orderID = longNumber(text, ORDER_ID);
+				if (orderID < 0)
+					return false;
+			}
+			// A fill carries both LastQty and LastPx
+			if ((valueStart[LAST_QTY] < 0) != (valueStart[LAST_PX] < 0))
+				return false;
+			if (valueStart[LAST_QTY] >= 0) {
+				lastQty = number(text, LAST_QTY);
+				lastPx = Price.parse(text, valueStart[LAST_PX], valueEnd[LAST_PX]);
+				if (lastQty <= 0 || lastPx < 0)
+					return false;
+			}
+			if (valueStart[TEXT] >= 0 && (valueLength(TEXT) == 0 || valueLength(TEXT) > MAX_TEXT_LENGTH))
+				return false;
+		}
+
+		begin(msgType, sender, target);
+		if (valueStart[CL_ORD_ID] >= 0)
+			putChars(BinaryFormat.CL_ORD_ID, BinaryFormat.CL_ORD_ID_LENGTH, text, valueStart[CL_ORD_ID], valueEnd[CL_ORD_ID]);
+		putChars(BinaryFormat.SYMBOL, BinaryFormat.SYMBOL_LENGTH, text, valueStart[SYMBOL], valueEnd[SYMBOL]);
+		side(text.charAt(valueStart[SIDE]));
+		orderQty(orderQty);
+		price(price);
+		if (!report) {
+			if (valueStart[ORD_TYPE] >= 0)
+				ordType(text.charAt(valueStart[ORD_TYPE]));
+			return true;
+		}
+		ordStatus(text.charAt(valueStart[ORD_STATUS]))
+			.orderID(orderID)
+			.cumQty(cumQty)
+			.leavesQty(leavesQty)
+			.lastQty(lastQty)
+			.lastPx(lastPx);
+		if (valueStart[TEXT] >= 0)
+			text(text.subSequence(valueStart[TEXT], valueEnd[TEXT]));
+		return true;
+	}
+
+	private void encodeText(CharSequence text) {
+		int msgTypeStart = -1;
+		int sender = -1;
+		int target = -1;
+		int length = text.length();
+		int position = 0;
+		while (position < length) {
+			int end = position;
+			while (end < length && text.charAt(end) != '\u0001') {
+				end++;
+			}
+			if (startsWith(text, position, end, "35=") && msgTypeStart < 0 && end > position + 3)
+				msgTypeStart = position + 3;
+			else if (startsWith(text, position, end, "49="))
+				sender = parseInt(text, position + 3, end);
+			else if (startsWith(text, position, end, "56="))
+				target = parseInt(text, position + 3, end);
+			position = end + 1;
+		}
+
+		ensureCapacity(BinaryFormat.HEADER_LENGTH + length);
+		buffer[BinaryFormat.MSG_TYPE] = (byte) (msgTypeStart >= 0 ? text.charAt(msgTypeStart) : '?');
+		buffer[BinaryFormat.TEMPLATE] = BinaryFormat.TEXT;
+		putInt(BinaryFormat.SENDER, sender);
+		putInt(BinaryFormat.TARGET, target);
+		this.length = BinaryFormat.HEADER_LENGTH;
+		for (int i = 0; i < length; i++) {
+			buffer[this.length++] = (byte) text.charAt(i);
+		}
+	}
+
+	private static int indexOf(int tag) {
+		for (int i = 0; i < TAGS.length; i++) {
+			if (TAGS[i] == tag)
+				return i;
+		}
+		return -1;
+	}
+
+	private int valueLength(int field) {
+		return valueStart[field] < 0 ? -1 : valueEnd[field] - valueStart[field];
+	}
+
+	private boolean absent(int... fields) {
+		for (int field : fields) {
+			if (valueStart[field] >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	// Non-negative int value of the field, -1 when absent or anything else
+	private int number(CharSequence text, int field) {
+		long value = longNumber(text, field);
+		return value > Integer.MAX_VALUE ? -1 : (int) value;
+	}
+
+	private long longNumber(CharSequence text, int field) {
+		return valueStart[field] < 0 ? -1 : parseLong(text, valueStart[field], valueEnd[field]);
+	}
+
+	private static int parseInt(CharSequence text, int from, int to) {
+		long value = parseLong(text, from, to);
+		return value > Integer.MAX_VALUE ? -1 : (int) value;
+	}
+
+	private static long parseLong(CharSequence text, int from, int to) {
+		if (from == to || to - from > 18)
+			return -1;
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			char ch = text.charAt(i);
+			if (ch < '0' || ch > '9')
+				return -1;
+			value = value * 10 + (ch - '0');
+		}
+		return value;
+	}
+
+	private static boolean startsWith(CharSequence text, int from, int to, String prefix) {
+		if (to - from < prefix.length())
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text.charAt(from + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private BinaryEncoder putChars(int offset, int fieldLength, CharSequence value, int from, int to) {
+		if (to - from > fieldLength)
+			throw new IllegalArgumentException("Value longer than its " + fieldLength + " character field: " + value.subSequence(from, to));
+		for (int i = 0; i < fieldLength; i++) {
+			buffer[offset + i] = from + i < to ? (byte) value.charAt(from + i) : 0;
+		}
+		return this;
+	}
+
+	private void putShort(int offset, int value) {
+		buffer[offset] = (byte) (value >>> 8);
+		buffer[offset + 1] = (byte) value;
+	}
+
+	private void putInt(int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private void putLong(int offset, long value) {
+		putInt(offset, (int) (value >>> 32));
+		putInt(offset + 4, (int) value);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			byte[] larger = new byte[Math.max(buffer.length * 2, capacity)];
+			System.arraycopy(buffer, 0, larger, 0, length);
+			buffer = larger;
+		}
+	}
+
+	// Bytes of a text message read as characters, without copying them
+	private static final class AsciiView implements CharSequence {
+		private byte[] bytes;
+		private int offset;
+		private int length;
+
+		AsciiView wrap(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[offset + index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.common;
+
+// Layout of the length-prefixed binary frames components may use instead of text (see WireEncoding).
+// Every frame starts with a fixed header, so the router routes it by reading a few fixed offsets:
+//
+//   0  int   FrameLength, header included
+//   4  byte  MsgType (35)
+//   5  byte  Template: FIXED or TEXT
+//   6  int   SenderCompID (49), -1 when absent
+//  10  int   TargetCompID (56), -1 when absent
+//
+// NewOrderSingle (D) and ExecutionReport (8) use the FIXED template, a body at fixed offsets:
+//
+//  14  char[20] ClOrdID (11), NUL-padded
+//  34  char[16] Symbol (55), NUL-padded
+//  50  byte  Side (54)
+//  51  byte  OrdType (40) of an order, OrdStatus (39) of a report; ExecType (150) is the same
+//  52  int   OrderQty (38)
+//  56  long  Price (44), fixed-point com.common.Price          -- end of a NewOrderSingle
+//  64  long  OrderID (37), -1 when absent
+//  72  long  LastPx (31)
+//  80  int   CumQty (14)
+//  84  int   LeavesQty (151)
+//  88  int   LastQty (32), 0 when the report is not about a fill
+//  92  short length of Text (58), followed by its characters
+//
+// Any other message, or one whose fields do not fit, uses the TEXT template: the header followed by the
+// tag=value message as it would be sent in text mode, without the line terminator.
+// Integers are big-endian and characters are single bytes, so a frame read as ISO-8859-1 is a String
+// whose chars are its bytes; the accessors below read such Strings.
+public final class BinaryFormat {
+	public static final byte FIXED = 'F';
+	public static final byte TEXT = 'T';
+
+	public static final int FRAME_LENGTH = 0;
+	public static final int MSG_TYPE = 4;
+	public static final int TEMPLATE = 5;
+	public static final int SENDER = 6;
+	public static final int TARGET = 10;
+	public static final int HEADER_LENGTH = 14;
+
+	public static final int CL_ORD_ID = 14;
+	public static final int CL_ORD_ID_LENGTH = 20;
+	public static final int SYMBOL = 34;
+	public static final int SYMBOL_LENGTH = 16;
+	public static final int SIDE = 50;
+	public static final int ORD_TYPE = 51;
+	public static final int ORD_STATUS = 51;
+	public static final int ORDER_QTY = 52;
+	public static final int PRICE = 56;
+	public static final int ORDER_LENGTH = 64;
+	public static final int ORDER_ID = 64;
+	public static final int LAST_PX = 72;
+	public static final int CUM_QTY = 80;
+	public static final int LEAVES_QTY = 84;
+	public static final int LAST_QTY = 88;
+	public static final int TEXT_LENGTH = 92;
+	public static final int EXECUTION_REPORT_LENGTH = 94;
+
+	// Frames beyond this are refused, like text lines beyond the same size
+	public static final int MAX_FRAME_LENGTH = 65536;
+
+	private BinaryFormat() {
+	}
+
+	// True for the message types with a FIXED layout
+	public static boolean hasFixedLayout(char msgType) {
+		return msgType == 'D' || msgType == '8';
+	}
+
+	public static char msgType(CharSequence frame) {
+		return frame.charAt(MSG_TYPE);
+	}
+
+	public static boolean isFixed(CharSequence frame) {
+		return frame.charAt(TEMPLATE) == FIXED;
+	}
+
+	public static int sender(CharSequence frame) {
+		return getInt(frame, SENDER);
+	}
+
+	public static int target(CharSequence frame) {
+		return getInt(frame, TARGET);
+	}
+
+	public static int getInt(CharSequence frame, int offset) {
+		return frame.charAt(offset) << 24 | frame.charAt(offset + 1) << 16 | frame.charAt(offset + 2) << 8 | frame.charAt(offset + 3);
+	}
+
+	public static long getLong(CharSequence frame, int offset) {
+		return (long) getInt(frame, offset) << 32 | getInt(frame, offset + 4) & 0xFFFFFFFFL;
+	}
+
+	public static int getShort(CharSequence frame, int offset) {
+		return frame.charAt(offset) << 8 | frame.charAt(offset + 1);
+	}
+
+	// End of a NUL-padded character field: its first NUL, or the end of the field
+	public static int end(CharSequence frame, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (frame.charAt(i) == 0)
+				return i;
+		}
+		return offset + length;
+	}
+
+	// Value of a NUL-padded character field, null when it is empty
+	public static String getString(CharSequence frame, int offset, int length) {
+		int end = end(frame, offset, length);
+		return end == offset ? null : frame.subSequence(offset, end).toString();
+	}
+
+	// Text (58) of a FIXED ExecutionReport, null when it has none
+	public static String text(CharSequence frame) {
+		int length = getShort(frame, TEXT_LENGTH);
+		return length == 0 ? null : frame.subSequence(EXECUTION_REPORT_LENGTH, EXECUTION_REPORT_LENGTH + length).toString();
+	}
+
+	// The tag=value form of a frame, e.g. for a text destination or the failover journal
+	public static String toText(CharSequence frame, FixEncoder encoder) {
+		if (!isFixed(frame))
+			return frame.subSequence(HEADER_LENGTH, frame.length()).toString();
+		char msgType = msgType(frame);
+		encoder.begin(String.valueOf(msgType))
+			.tag(49, sender(frame)) // SenderCompID
+			.tag(56, target(frame)); // TargetCompID
+		int clOrdIdEnd = end(frame, CL_ORD_ID, CL_ORD_ID_LENGTH);
+		if (clOrdIdEnd > CL_ORD_ID)
+			encoder.tag(11, frame, CL_ORD_ID, clOrdIdEnd); // ClOrdID
+		if (msgType == '8' && getLong(frame, ORDER_ID) >= 0)
+			encoder.tag(37, getLong(frame, ORDER_ID)); // OrderID
+		encoder.tag(55, frame, SYMBOL, end(frame, SYMBOL, SYMBOL_LENGTH)) // Symbol
+			.tag(54, frame.charAt(SIDE)) // Side
+			.tag(38, getInt(frame, ORDER_QTY)) // OrderQty
+			.price(44, getLong(frame, PRICE)); // Price
+		if (msgType == 'D') {
+			if (frame.charAt(ORD_TYPE) != 0)
+				encoder.tag(40, frame.charAt(ORD_TYPE)); // OrdType
+			return encoder.finish().toString();
+		}
+		encoder.tag(39, frame.charAt(ORD_STATUS)) // OrdStatus
+			.tag(150, frame.charAt(ORD_STATUS)) // ExecType
+			.tag(14, getInt(frame, CUM_QTY)) // CumQty
+			.tag(151, getInt(frame, LEAVES_QTY)); // LeavesQty
+		if (getInt(frame, LAST_QTY) > 0) {
+			encoder.tag(32, getInt(frame, LAST_QTY)) // LastQty
+				.price(31, getLong(frame, LAST_PX)); // LastPx
+		}
+		int textLength = getShort(frame, TEXT_LENGTH);
+		if (textLength > 0)
+			encoder.tag(58, frame, EXECUTION_REPORT_LENGTH, EXECUTION_REPORT_LENGTH + textLength); // Text
+		return encoder.finish().toString();
+	}
+}
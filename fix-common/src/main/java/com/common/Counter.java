@@ -0,0 +1,20 @@
+package com.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Striped counter: concurrent increments land in per-thread cells and are only summed when read
+public final class Counter {
+	private final LongAdder adder = new LongAdder();
+
+	public void increment() {
+		adder.increment();
+	}
+
+	public void add(long value) {
+		adder.add(value);
+	}
+
+	public long get() {
+		return adder.sum();
+	}
+}
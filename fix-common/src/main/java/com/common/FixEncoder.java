@@ -0,0 +1,193 @@
+package com.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reusable FIX 4.4 encoder writing tag=value fields straight into a byte buffer.
+// The body is written after a slot reserved for BeginString and BodyLength, which are filled in by
+// finish() from a precomputed prefix; the checksum is updated as each byte is written.
+// An encoder is not thread-safe: keep one per writing thread.
+public final class FixEncoder {
+	private static final byte SOH = 1;
+	private static final byte[] PREFIX = "8=FIX.4.4\u00019=".getBytes(StandardCharsets.US_ASCII);
+	private static final int PREFIX_CHECKSUM = checksum(PREFIX);
+	private static final int MAX_LENGTH_DIGITS = 10;
+	private static final int BODY_START = PREFIX.length + MAX_LENGTH_DIGITS + 1;
+
+	private byte[] buffer = new byte[512];
+	private int position;
+	private int start;
+	private int end;
+	private int checksum;
+
+	private static int checksum(byte[] bytes) {
+		int sum = 0;
+		for (byte b : bytes) {
+			sum += b;
+		}
+		return sum;
+	}
+
+	// Starts a new message with its MsgType (35)
+	public FixEncoder begin(String msgType) {
+		position = BODY_START;
+		checksum = 0;
+		return tag(35, msgType);
+	}
+
+	public FixEncoder tag(int tag, CharSequence value) {
+		return tag(tag, value, 0, value.length());
+	}
+
+	public FixEncoder tag(int tag, CharSequence value, int from, int to) {
+		writeTag(tag);
+		ensureCapacity(to - from + 1);
+		for (int i = from; i < to; i++) {
+			put((byte) value.charAt(i));
+		}
+		put(SOH);
+		return this;
+	}
+
+	public FixEncoder tag(int tag, char value) {
+		writeTag(tag);
+		put((byte) value);
+		put(SOH);
+		return this;
+	}
+
+	public FixEncoder tag(int tag, long value) {
+		writeTag(tag);
+		writeLong(value);
+		put(SOH);
+		return this;
+	}
+
+	// Fixed-point Price written as its shortest decimal with at least one decimal, e.g. 101.25 or 10.0
+	public FixEncoder price(int tag, long price) {
+		writeTag(tag);
+		ensureCapacity(Price.MAX_LENGTH);
+		int end = Price.format(price, buffer, position);
+		for (int i = position; i < end; i++) {
+			checksum += buffer[i];
+		}
+		position = end;
+		put(SOH);
+		return this;
+	}
+
+	// Fills in the header and appends the CheckSum (10) field followed by the line terminator
+	public FixEncoder finish() {
+		int bodyLength = position - BODY_START;
+		int digits = digitCount(bodyLength);
+		start = BODY_START - 1 - digits - PREFIX.length;
+		System.arraycopy(PREFIX, 0, buffer, start, PREFIX.length);
+		int headerChecksum = PREFIX_CHECKSUM + SOH;
+		for (int i = BODY_START - 2, value = bodyLength; i >= BODY_START - 1 - digits; i--, value /= 10) {
+			buffer[i] = (byte) ('0' + value % 10);
+			headerChecksum += buffer[i];
+		}
+		buffer[BODY_START - 1] = SOH;
+
+		int sum = (checksum + headerChecksum) & 0xFF;
+		writeTag(10);
+		ensureCapacity(5);
+		buffer[position++] = (byte) ('0' + sum / 100);
+		buffer[position++] = (byte) ('0' + sum / 10 % 10);
+		buffer[position++] = (byte) ('0' + sum % 10);
+		buffer[position++] = SOH;
+		end = position;
+		buffer[position++] = '\n';
+		return this;
+	}
+
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	// Offset of the finished message in buffer()
+	public int offset() {
+		return start;
+	}
+
+	// Length of the finished message, without the line terminator
+	public int length() {
+		return end - start;
+	}
+
+	// Writes the finished message and its line terminator in one call
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, start, end - start + 1);
+	}
+
+	// Copy of the finished message and its line terminator
+	public byte[] toByteArray() {
+		return Arrays.copyOfRange(buffer, start, end + 1);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	private void writeTag(int tag) {
+		writeLong(tag);
+		put((byte) '=');
+	}
+
+	private void writeLong(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				writeAscii("-9223372036854775808");
+				return;
+			}
+			put((byte) '-');
+			value = -value;
+		}
+		writeDigits(value, digitCount(value));
+	}
+
+	private void writeAscii(String text) {
+		ensureCapacity(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			put((byte) text.charAt(i));
+		}
+	}
+
+	// Writes exactly the given number of digits, padding with leading zeros
+	private void writeDigits(long value, int digits) {
+		ensureCapacity(digits);
+		for (int i = position + digits - 1; i >= position; i--) {
+			byte digit = (byte) ('0' + value % 10);
+			buffer[i] = digit;
+			checksum += digit;
+			value /= 10;
+		}
+		position += digits;
+	}
+
+	private static int digitCount(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+
+	private void put(byte b) {
+		ensureCapacity(1);
+		buffer[position++] = b;
+		checksum += b;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (position + extra + 1 > buffer.length) {
+			byte[] larger = new byte[Math.max(buffer.length * 2, position + extra + 1)];
+			System.arraycopy(buffer, 0, larger, 0, position);
+			buffer = larger;
+		}
+	}
+}
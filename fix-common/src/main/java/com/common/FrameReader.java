@@ -0,0 +1,120 @@
+package com.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Buffered reader of the messages of one connection, either newline-terminated lines or BinaryFormat
+// frames, so a connection can switch from its text handshake to frames without losing buffered bytes.
+// Both are returned as Strings whose chars are the bytes read, or left in place for the caller to copy. Not thread-safe.
+public final class FrameReader {
+	private final InputStream in;
+	private byte[] buffer = new byte[8192];
+	private int start;
+	private int end;
+	// Bounds of the message last found
+	private int offset;
+	private int length;
+
+	public FrameReader(InputStream in) {
+		this.in = in;
+	}
+
+	// Next line without its terminator (\n or \r\n), null at the end of the stream
+	public String readLine() throws IOException {
+		return nextLine() ? new String(buffer, offset, length, StandardCharsets.ISO_8859_1) : null;
+	}
+
+	// Next frame, header included, null at the end of the stream
+	public String readFrame() throws IOException {
+		return nextFrame() ? new String(buffer, offset, length, StandardCharsets.ISO_8859_1) : null;
+	}
+
+	// Finds the next line without copying it: until the next read, it is the length() bytes of buffer()
+	// from offset(), terminator excluded. False at the end of the stream.
+	public boolean nextLine() throws IOException {
+		// Bytes already searched for the terminator, counted from start as fill() may move them
+		int scanned = 0;
+		while (true) {
+			for (int i = start + scanned; i < end; i++) {
+				if (buffer[i] == '\n') {
+					int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+					found(lineEnd - start);
+					start = i + 1;
+					return true;
+				}
+			}
+			scanned = end - start;
+			if (!fill()) {
+				if (start == end)
+					return false;
+				found(end - start);
+				start = end;
+				return true;
+			}
+		}
+	}
+
+	// Finds the next frame, header included, without copying it; false at the end of the stream
+	public boolean nextFrame() throws IOException {
+		if (!require(4))
+			return false;
+		int length = (buffer[start] & 0xFF) << 24 | (buffer[start + 1] & 0xFF) << 16 | (buffer[start + 2] & 0xFF) << 8 | buffer[start + 3] & 0xFF;
+		if (length < BinaryFormat.HEADER_LENGTH || length > BinaryFormat.MAX_FRAME_LENGTH)
+			throw new IOException("Invalid frame length: " + length);
+		if (!require(length))
+			throw new EOFException("Connection closed within a frame");
+		found(length);
+		start += length;
+		return true;
+	}
+
+	private void found(int length) {
+		this.offset = start;
+		this.length = length;
+	}
+
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	// Reads until count bytes are buffered; false if the stream ends before any of them arrived
+	private boolean require(int count) throws IOException {
+		while (end - start < count) {
+			if (!fill()) {
+				if (start == end)
+					return false;
+				throw new EOFException("Connection closed within a frame");
+			}
+		}
+		return true;
+	}
+
+	// Reads more bytes after those buffered, compacting or growing the buffer first; false at the end of the stream
+	private boolean fill() throws IOException {
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		if (end == buffer.length) {
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, end);
+			buffer = larger;
+		}
+		int read = in.read(buffer, end, buffer.length - end);
+		if (read < 0)
+			return false;
+		end += read;
+		return true;
+	}
+}
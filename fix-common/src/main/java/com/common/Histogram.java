@@ -0,0 +1,120 @@
+package com.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-size log-linear histogram: each power of two is split into 8 buckets (about 12% precision).
+// Like Counter, the buckets are striped: each recording thread increments its own set, picked by thread ID,
+// and reads add the sets up. A set is allocated the first time a thread lands on it, so a histogram recorded
+// by one thread holds one set; after that, recording never allocates.
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	// The core count rounded up to a power of two, 8 at most; a set is 4 KB
+	private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		stripe().incrementAndGet(index(value));
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// Retry until the maximum is at least this value
+		}
+	}
+
+	private AtomicLongArray stripe() {
+		int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		AtomicLongArray stripe = stripes.get(index);
+		if (stripe == null) {
+			stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+			stripe = stripes.get(index);
+		}
+		return stripe;
+	}
+
+	// Count of the bucket over all the stripes
+	private long bucket(int index) {
+		long count = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			AtomicLongArray stripe = stripes.get(i);
+			if (stripe != null)
+				count += stripe.get(index);
+		}
+		return count;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowerBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		return (1L << magnitude) + ((long) subBucket << (magnitude - SUB_BUCKET_BITS));
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += bucket(i);
+		}
+		return count;
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	// Returns the upper bound of the bucket holding the given quantile (0.0 to 1.0)
+	public long getPercentile(double quantile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = bucket(i);
+			total += counts[i];
+		}
+		if (total == 0)
+			return 0;
+
+		long target = Math.max(1, (long) Math.ceil(total * quantile));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				long upper = i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+				return Math.min(upper, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			AtomicLongArray stripe = stripes.get(i);
+			for (int j = 0; stripe != null && j < BUCKETS; j++) {
+				stripe.set(j, 0);
+			}
+		}
+		sum.reset();
+		max.set(0);
+	}
+}
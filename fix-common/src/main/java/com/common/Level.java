@@ -0,0 +1,5 @@
+package com.common;
+
+public enum Level {
+	DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,24 @@
+package com.common;
+
+// One preallocated slot of the log ring; the arguments are only formatted by the writer thread
+final class LogEvent {
+	volatile long sequence = -1;
+	long timestamp;
+	Level level;
+	String category;
+	String format;
+	int argumentCount;
+	Object first;
+	Object second;
+	Object third;
+	Object[] arguments;
+
+	void clear() {
+		category = null;
+		format = null;
+		first = null;
+		second = null;
+		third = null;
+		arguments = null;
+	}
+}
@@ -0,0 +1,133 @@
+package com.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Category logger backed by a shared asynchronous writer.
+// The level of each category comes from -Dlog.<category>.level, falling back to -Dlog.level (INFO),
+// and -Dlog.<category>.enabled=false turns a category off. Arguments replace "{}" placeholders and
+// are only formatted by the writer thread, so a disabled call costs a single comparison.
+public final class Logger {
+	private static final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+	private static final AsyncLogWriter writer = new AsyncLogWriter(Integer.getInteger("log.bufferSize", 8192), System.out);
+
+	private final String category;
+	private volatile int threshold;
+
+	private Logger(String category) {
+		this.category = category;
+		Level level = Level.valueOf(System.getProperty("log." + category + ".level", System.getProperty("log.level", "INFO")).toUpperCase());
+		boolean enabled = Boolean.parseBoolean(System.getProperty("log." + category + ".enabled", "true"));
+		this.threshold = enabled ? level.ordinal() : Level.OFF.ordinal();
+	}
+
+	public static Logger get(String category) {
+		return loggers.computeIfAbsent(category, Logger::new);
+	}
+
+	// Log events dropped because the writer could not keep up
+	public static long getDroppedEvents() {
+		return writer.getDropped();
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public void setLevel(Level level) {
+		this.threshold = level.ordinal();
+	}
+
+	public boolean isEnabled(Level level) {
+		return level != Level.OFF && level.ordinal() >= threshold;
+	}
+
+	public void log(Level level, String message) {
+		if (isEnabled(level))
+			writer.publish(level, category, message, 0, null, null, null);
+	}
+
+	public void log(Level level, String format, Object first) {
+		if (isEnabled(level))
+			writer.publish(level, category, format, 1, first, null, null);
+	}
+
+	public void log(Level level, String format, Object first, Object second) {
+		if (isEnabled(level))
+			writer.publish(level, category, format, 2, first, second, null);
+	}
+
+	public void log(Level level, String format, Object first, Object second, Object third) {
+		if (isEnabled(level))
+			writer.publish(level, category, format, 3, first, second, third);
+	}
+
+	// For the rare messages with more than three arguments; the array is allocated by the caller
+	public void log(Level level, String format, Object... arguments) {
+		if (isEnabled(level))
+			writer.publish(level, category, format, arguments);
+	}
+
+	public void debug(String message) {
+		log(Level.DEBUG, message);
+	}
+
+	public void debug(String format, Object first) {
+		log(Level.DEBUG, format, first);
+	}
+
+	public void debug(String format, Object first, Object second) {
+		log(Level.DEBUG, format, first, second);
+	}
+
+	public void debug(String format, Object first, Object second, Object third) {
+		log(Level.DEBUG, format, first, second, third);
+	}
+
+	public void info(String message) {
+		log(Level.INFO, message);
+	}
+
+	public void info(String format, Object first) {
+		log(Level.INFO, format, first);
+	}
+
+	public void info(String format, Object first, Object second) {
+		log(Level.INFO, format, first, second);
+	}
+
+	public void info(String format, Object first, Object second, Object third) {
+		log(Level.INFO, format, first, second, third);
+	}
+
+	public void warn(String message) {
+		log(Level.WARN, message);
+	}
+
+	public void warn(String format, Object first) {
+		log(Level.WARN, format, first);
+	}
+
+	public void warn(String format, Object first, Object second) {
+		log(Level.WARN, format, first, second);
+	}
+
+	public void warn(String format, Object first, Object second, Object third) {
+		log(Level.WARN, format, first, second, third);
+	}
+
+	public void error(String message) {
+		log(Level.ERROR, message);
+	}
+
+	public void error(String format, Object first) {
+		log(Level.ERROR, format, first);
+	}
+
+	public void error(String format, Object first, Object second) {
+		log(Level.ERROR, format, first, second);
+	}
+
+	public void error(String format, Object first, Object second, Object third) {
+		log(Level.ERROR, format, first, second, third);
+	}
+}
@@ -0,0 +1,42 @@
+package com.common;
+
+// Count and latency per FIX message type, for the single-character types used by the components.
+// The metrics of a type are created the first time it is seen and cached by character afterwards.
+public final class MessageTypeMetrics {
+	private final String prefix;
+	private final Entry[] entries = new Entry[128];
+
+	public static final class Entry {
+		public final Counter count;
+		public final Histogram latency;
+
+		Entry(String prefix) {
+			this.count = Metrics.counter(prefix + ".count");
+			this.latency = Metrics.histogram(prefix + ".latency_ns");
+		}
+
+		public void record(long latencyNanos) {
+			count.increment();
+			latency.record(latencyNanos);
+		}
+	}
+
+	public MessageTypeMetrics(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public Entry forType(char msgType) {
+		int index = msgType < entries.length ? msgType : '?';
+		Entry entry = entries[index];
+		if (entry == null) {
+			synchronized (this) {
+				entry = entries[index];
+				if (entry == null) {
+					entry = new Entry(prefix + "." + (char) index);
+					entries[index] = entry;
+				}
+			}
+		}
+		return entry;
+	}
+}
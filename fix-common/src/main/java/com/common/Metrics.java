@@ -0,0 +1,117 @@
+package com.common;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide registry of named counters, gauges and histograms.
+// Metrics should be looked up once and kept in fields; recording on them never touches the registry.
+public final class Metrics {
+	private static final Logger log = Logger.get("metrics");
+	private static final ConcurrentSkipListMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+	private static HttpServer server;
+
+	static {
+		gauge("log.dropped", Logger::getDroppedEvents);
+	}
+
+	private Metrics() {
+	}
+
+	public static Counter counter(String name) {
+		return (Counter) metrics.computeIfAbsent(name, k -> new Counter());
+	}
+
+	public static Histogram histogram(String name) {
+		return (Histogram) metrics.computeIfAbsent(name, k -> new Histogram());
+	}
+
+	public static void gauge(String name, LongSupplier supplier) {
+		metrics.put(name, supplier);
+	}
+
+	// Registers the metric, replacing any other of the same name; for metrics that come and go with what they measure
+	public static <T> T register(String name, T metric) {
+		metrics.put(name, metric);
+		return metric;
+	}
+
+	// Unregisters the metric, unless another one has replaced it under the same name since
+	public static void remove(String name, Object metric) {
+		metrics.remove(name, metric);
+	}
+
+	static Map<String, Object> all() {
+		return metrics;
+	}
+
+	// Plain text, one "name value" line per value; histograms report their count, percentiles and max
+	public static String render() {
+		StringBuilder out = new StringBuilder(4096);
+		for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+			String name = entry.getKey();
+			Object metric = entry.getValue();
+			if (metric instanceof Counter) {
+				out.append(name).append(' ').append(((Counter) metric).get()).append('\n');
+			} else if (metric instanceof LongSupplier) {
+				out.append(name).append(' ').append(((LongSupplier) metric).getAsLong()).append('\n');
+			} else if (metric instanceof Histogram) {
+				Histogram histogram = (Histogram) metric;
+				out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+				out.append(name).append("_p50 ").append(histogram.getPercentile(0.5)).append('\n');
+				out.append(name).append("_p99 ").append(histogram.getPercentile(0.99)).append('\n');
+				out.append(name).append("_p999 ").append(histogram.getPercentile(0.999)).append('\n');
+				out.append(name).append("_max ").append(histogram.getMax()).append('\n');
+			}
+		}
+		return out.toString();
+	}
+
+	// Registers the metrics with JMX and, if -Dmetrics.port is set, serves them on http://localhost:<port>/metrics
+	public static synchronized void expose(String component) {
+		try {
+			ObjectName name = new ObjectName("com.fixme:type=Metrics,component=" + component);
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name);
+		} catch (JMException e) {
+			log.warn("Error registering metrics with JMX: {}", e.getMessage());
+		}
+
+		Integer port = Integer.getInteger("metrics.port");
+		if (port == null || server != null)
+			return;
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] body = render().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			server.setExecutor(null);
+			server.start();
+			log.info("Metrics available on http://localhost:{}/metrics", port);
+		} catch (IOException e) {
+			log.warn("Error starting metrics endpoint: {}", e.getMessage());
+		}
+	}
+
+	// Stops the HTTP endpoint, whose thread would otherwise keep the JVM alive
+	public static synchronized void shutdown() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+// Read-only JMX view of the registry; histograms show up as <name>.count, .p50, .p99, .p999 and .max
+class MetricsMBean implements DynamicMBean {
+	private static final String[] HISTOGRAM_SUFFIXES = {".count", ".p50", ".p99", ".p999", ".max"};
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Object metric = Metrics.all().get(attribute);
+		if (metric instanceof Counter)
+			return ((Counter) metric).get();
+		if (metric instanceof LongSupplier)
+			return ((LongSupplier) metric).getAsLong();
+
+		int dot = attribute.lastIndexOf('.');
+		if (dot > 0 && Metrics.all().get(attribute.substring(0, dot)) instanceof Histogram) {
+			Histogram histogram = (Histogram) Metrics.all().get(attribute.substring(0, dot));
+			switch (attribute.substring(dot)) {
+				case ".count":
+					return histogram.getCount();
+				case ".p50":
+					return histogram.getPercentile(0.5);
+				case ".p99":
+					return histogram.getPercentile(0.99);
+				case ".p999":
+					return histogram.getPercentile(0.999);
+				case ".max":
+					return histogram.getMax();
+				default:
+					break;
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// Metrics may appear or disappear between the two calls
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (Map.Entry<String, Object> entry : Metrics.all().entrySet()) {
+			if (entry.getValue() instanceof Histogram) {
+				for (String suffix : HISTOGRAM_SUFFIXES) {
+					attributes.add(new MBeanAttributeInfo(entry.getKey() + suffix, "long", entry.getKey() + suffix, true, false, false));
+				}
+			} else {
+				attributes.add(new MBeanAttributeInfo(entry.getKey(), "long", entry.getKey(), true, false, false));
+			}
+		}
+		return new MBeanInfo(getClass().getName(), "fix-me metrics", attributes.toArray(new MBeanAttributeInfo[0]), null,
+				new MBeanOperationInfo[0], null);
+	}
+}
@@ -0,0 +1,149 @@
+package com.common;
+
+import java.nio.charset.StandardCharsets;
+
+// Fixed-point prices shared by every component: a price is a long count of 1e-8 units, so it compares
+// and adds exactly. On the wire it is a plain decimal with at most 8 decimals, e.g. 101.25 or 10.0.
+// Parsing reads the digits straight into units and allocates nothing.
+public final class Price {
+	public static final int DECIMALS = 8;
+	public static final long SCALE = 100_000_000L;
+	// Smallest representable increment, the default tick size
+	public static final long UNIT = 1;
+	// Returned by the parsers for anything that is not a non-negative plain decimal
+	public static final long INVALID = -1;
+	// Longest text format() writes: a sign, 11 digits of units, the point and 8 decimals
+	public static final int MAX_LENGTH = 21;
+
+	private Price() {
+	}
+
+	// Nearest price to a double, for callers that still hold one
+	public static long of(double value) {
+		return Math.round(value * SCALE);
+	}
+
+	public static double toDouble(long price) {
+		return (double) price / SCALE;
+	}
+
+	public static boolean isOnTick(long price, long tickSize) {
+		return price % tickSize == 0;
+	}
+
+	public static long parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	// Digits past the 8th decimal round half up; values too large saturate at Long.MAX_VALUE
+	public static long parse(CharSequence text, int from, int to) {
+		long price = 0;
+		int decimals = -1;
+		int digits = 0;
+		boolean roundUp = false;
+		for (int i = from; i < to; i++) {
+			char ch = text.charAt(i);
+			if (ch == '.' && decimals == -1) {
+				decimals = 0;
+			} else if (ch >= '0' && ch <= '9') {
+				digits++;
+				if (decimals < DECIMALS) {
+					price = append(price, ch - '0');
+					if (decimals >= 0)
+						decimals++;
+				} else if (decimals == DECIMALS) {
+					roundUp = ch >= '5';
+					decimals++;
+				}
+			} else {
+				return INVALID;
+			}
+		}
+		return digits == 0 ? INVALID : scale(price, decimals, roundUp);
+	}
+
+	// Same as parse(CharSequence, int, int) over ASCII bytes
+	public static long parse(byte[] bytes, int from, int to) {
+		long price = 0;
+		int decimals = -1;
+		int digits = 0;
+		boolean roundUp = false;
+		for (int i = from; i < to; i++) {
+			byte b = bytes[i];
+			if (b == '.' && decimals == -1) {
+				decimals = 0;
+			} else if (b >= '0' && b <= '9') {
+				digits++;
+				if (decimals < DECIMALS) {
+					price = append(price, b - '0');
+					if (decimals >= 0)
+						decimals++;
+				} else if (decimals == DECIMALS) {
+					roundUp = b >= '5';
+					decimals++;
+				}
+			} else {
+				return INVALID;
+			}
+		}
+		return digits == 0 ? INVALID : scale(price, decimals, roundUp);
+	}
+
+	// Shortest decimal with at least one decimal, as written on the wire; allocates, meant for logs
+	public static String toString(long price) {
+		byte[] text = new byte[MAX_LENGTH];
+		return new String(text, 0, format(price, text, 0), StandardCharsets.ISO_8859_1);
+	}
+
+	public static StringBuilder appendTo(StringBuilder out, long price) {
+		byte[] text = new byte[MAX_LENGTH];
+		int length = format(price, text, 0);
+		for (int i = 0; i < length; i++) {
+			out.append((char) text[i]);
+		}
+		return out;
+	}
+
+	// Writes the price as on the wire, e.g. 101.25 or 10.0, at offset, which has room for MAX_LENGTH
+	// bytes, and returns the offset past it
+	public static int format(long price, byte[] out, int offset) {
+		if (price < 0)
+			out[offset++] = '-';
+		long units = Math.abs(price / SCALE);
+		int end = offset + digitCount(units);
+		for (int i = end - 1; i >= offset; i--, units /= 10) {
+			out[i] = (byte) ('0' + units % 10);
+		}
+		out[end++] = '.';
+		long fraction = Math.abs(price % SCALE);
+		int decimals = DECIMALS;
+		while (decimals > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			decimals--;
+		}
+		for (int i = end + decimals - 1; i >= end; i--, fraction /= 10) {
+			out[i] = (byte) ('0' + fraction % 10);
+		}
+		return end + decimals;
+	}
+
+	private static long append(long price, int digit) {
+		return price > (Long.MAX_VALUE - digit) / 10 ? Long.MAX_VALUE : price * 10 + digit;
+	}
+
+	private static long scale(long price, int decimals, boolean roundUp) {
+		for (int i = Math.max(decimals, 0); i < DECIMALS; i++) {
+			price = price > Long.MAX_VALUE / 10 ? Long.MAX_VALUE : price * 10;
+		}
+		return roundUp && price < Long.MAX_VALUE ? price + 1 : price;
+	}
+
+	private static int digitCount(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+}
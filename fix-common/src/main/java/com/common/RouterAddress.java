@@ -0,0 +1,31 @@
+package com.common;
+
+import java.net.InetSocketAddress;
+
+// Where a component connects to the router, and the reply a router node sends instead of an ID when the
+// component's ID belongs to another node of the cluster: "REDIRECT host:port", after which it closes the connection.
+public final class RouterAddress {
+	private static final String REDIRECT = "REDIRECT ";
+	// A component gives up after this many redirects in a row, e.g. while the cluster's membership is changing
+	public static final int MAX_REDIRECTS = 3;
+
+	private RouterAddress() {
+	}
+
+	// "host:port", or just "port" for localhost
+	public static InetSocketAddress parse(String address) {
+		int separator = address.lastIndexOf(':');
+		if (separator < 0)
+			return InetSocketAddress.createUnresolved("localhost", Integer.parseInt(address.trim()));
+		return InetSocketAddress.createUnresolved(address.substring(0, separator).trim(), Integer.parseInt(address.substring(separator + 1).trim()));
+	}
+
+	public static String redirect(String host, int port) {
+		return REDIRECT + host + ":" + port;
+	}
+
+	// Address named by a handshake reply, or null if the reply is not a redirect
+	public static InetSocketAddress ofRedirect(String line) {
+		return line.startsWith(REDIRECT) ? parse(line.substring(REDIRECT.length())) : null;
+	}
+}
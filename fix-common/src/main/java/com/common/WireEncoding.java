@@ -0,0 +1,24 @@
+package com.common;
+
+// How a component and the router frame their messages, agreed on during the ID handshake.
+// TEXT is newline-terminated tag=value; BINARY is the length-prefixed layout of BinaryFormat.
+public enum WireEncoding {
+	TEXT, BINARY;
+
+	// First line a component sends: its ID, followed by " BINARY" to ask for binary frames
+	public static String handshake(int id, WireEncoding encoding) {
+		return encoding == BINARY ? id + " " + BINARY.name() : String.valueOf(id);
+	}
+
+	// Encoding asked for or granted in a handshake line; TEXT when the line names none
+	public static WireEncoding ofHandshake(String line) {
+		int separator = line.indexOf(' ');
+		return separator >= 0 && BINARY.name().equalsIgnoreCase(line.substring(separator + 1).trim()) ? BINARY : TEXT;
+	}
+
+	// ID carried by a handshake line
+	public static int idOfHandshake(String line) {
+		int separator = line.indexOf(' ');
+		return Integer.parseInt((separator < 0 ? line : line.substring(0, separator)).trim());
+	}
+}
@@ -0,0 +1,103 @@
+package com.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class PriceTest {
+	@Test
+	public void parsesPlainDecimals() {
+		assertEquals(10_125_000_000L, Price.parse("101.25"));
+		assertEquals(1_000_000_000L, Price.parse("10"));
+		assertEquals(1_000_000_000L, Price.parse("10."));
+		assertEquals(50_000_000L, Price.parse(".5"));
+		assertEquals(1, Price.parse("0.00000001"));
+		assertEquals(0, Price.parse("0"));
+	}
+
+	@Test
+	public void parsesARegionOfTextOrBytes() {
+		String field = "44=12.5\u0001";
+		assertEquals(Price.parse("12.5"), Price.parse(field, 3, 7));
+		byte[] bytes = field.getBytes(StandardCharsets.US_ASCII);
+		assertEquals(Price.parse("12.5"), Price.parse(bytes, 3, 7));
+	}
+
+	@Test
+	public void roundsPastTheEighthDecimalHalfUp() {
+		assertEquals(1, Price.parse("0.000000005"));
+		assertEquals(0, Price.parse("0.000000004999"));
+		assertEquals(Price.parse("1.00000001"), Price.parse("1.000000009"));
+		assertEquals(Price.parse("1.00000001"), Price.parse(bytes("1.000000005"), 0, 11));
+	}
+
+	@Test
+	public void anythingButANonNegativePlainDecimalIsInvalid() {
+		for (String text : new String[] {"", ".", "-1", "+1", "1e5", "1E5", "1.5e-3", "1..5", "1.5.", " 1", "1,5", "NaN"}) {
+			assertEquals(text, Price.INVALID, Price.parse(text));
+			assertEquals(text, Price.INVALID, Price.parse(bytes(text), 0, text.length()));
+		}
+	}
+
+	@Test
+	public void valuesTooLargeSaturate() {
+		assertEquals(Long.MAX_VALUE, Price.parse("92233720368.54775808"));
+		assertEquals(Long.MAX_VALUE, Price.parse("1000000000000000000000"));
+		assertEquals(Long.MAX_VALUE, Price.parse(bytes("1000000000000000000000"), 0, 22));
+		assertEquals(Long.MAX_VALUE - 1, Price.parse("92233720368.54775806"));
+		assertEquals(Long.MAX_VALUE - 7, Price.parse("92233720368.547758"));
+		// Rounding up never wraps past the largest price
+		assertEquals(Long.MAX_VALUE, Price.parse("92233720368.547758079"));
+	}
+
+	@Test
+	public void formatsTheShortestDecimal() {
+		assertEquals("101.25", Price.toString(Price.parse("101.25")));
+		assertEquals("10.0", Price.toString(Price.parse("10")));
+		assertEquals("0.0", Price.toString(0));
+		assertEquals("0.00000001", Price.toString(1));
+		assertEquals("1.10000001", Price.toString(Price.parse("1.10000001")));
+		assertEquals("92233720368.54775807", Price.toString(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void formatsNegatives() {
+		assertEquals("-1.5", Price.toString(-Price.parse("1.5")));
+		assertEquals("-0.00000001", Price.toString(-1));
+		assertEquals("-92233720368.54775808", Price.toString(Long.MIN_VALUE));
+		assertEquals(Price.MAX_LENGTH, Price.toString(Long.MIN_VALUE).length());
+	}
+
+	@Test
+	public void encoderWritesTheSameText() {
+		for (long price : new long[] {0, 1, -1, Price.parse("101.25"), Long.MAX_VALUE, Long.MIN_VALUE}) {
+			String message = new FixEncoder().begin("D").price(44, price).finish().toString();
+			assertTrue(message, message.contains("\u000144=" + Price.toString(price) + "\u0001"));
+			assertEquals(Price.toString(price), new StringBuilder().append(Price.appendTo(new StringBuilder(), price)).toString());
+		}
+	}
+
+	@Test
+	public void textRoundTrips() {
+		for (long price : new long[] {0, 1, 99_999_999, Price.parse("101.25"), Long.MAX_VALUE}) {
+			assertEquals(price, Price.parse(Price.toString(price)));
+		}
+	}
+
+	@Test
+	public void pricesOnTheTick() {
+		long cent = Price.parse("0.01");
+		assertTrue(Price.isOnTick(Price.parse("101.25"), cent));
+		assertFalse(Price.isOnTick(Price.parse("101.255"), cent));
+		assertTrue(Price.isOnTick(Price.parse("101.255"), Price.UNIT));
+		// Rounding past the 8th decimal can put a price on the tick
+		assertTrue(Price.isOnTick(Price.parse("0.009999999"), cent));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -1,44 +1,250 @@
 package com.market;
 
+import com.common.Counter;
+import com.common.Histogram;
+import com.common.Logger;
+import com.common.Metrics;
+import com.common.Price;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+// Write-behind store for fills. Callers only queue the fill; one writer thread drains the bounded
+// queue over a long-lived connection and inserts it in batches, flushed by size or after a delay.
+// In SYNC durability callers wait in sync() until what they queued is committed, and the writer
+// commits whatever is queued without waiting, so concurrent callers share commits.
+// A batch that fails is kept and written again on a fresh connection until it is committed, holding
+// the SYNC callers waiting on it, and behind it the queue, so no fill is reported before it is stored.
 public class DatabaseHandler {
-	private static final String DB_URL = "jdbc:postgresql://localhost:5003/fix-me";
-	private static final String DB_USER = "admin";
-	private static final String DB_PASSWORD = "admin";
-
-	public static void insertBuyTransaction(int brokerID, int marketID, String symbol, int quantity, double price) {
-		try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-			String query = "INSERT INTO buy_transactions (broker_id, market_id, instrument_id, quantity, price) VALUES (?, ?, ?, ?, ?)";
-			PreparedStatement stmt = conn.prepareStatement(query);
-			stmt.setInt(1, brokerID);
-			stmt.setInt(2, marketID);
-			stmt.setString(3, symbol);
-			stmt.setInt(4, quantity);
-			stmt.setDouble(5, price);
-			stmt.executeUpdate();
-			System.out.println("Inserted buy transaction: Broker ID: " + brokerID + ", Market ID: " + marketID + ", Symbol: " + symbol + ", Quantity: " + quantity + ", Price: " + price);
+	private static final Logger log = Logger.get("database");
+	private static final Histogram batchLatency = Metrics.histogram("market.db.batch.latency_ns");
+	private static final Histogram batchSizes = Metrics.histogram("market.db.batch.size");
+	private static final Counter insertErrors = Metrics.counter("market.db.insert.errors");
+	private static final Counter queueFull = Metrics.counter("market.db.queue.full");
+	private static final Counter batchRetries = Metrics.counter("market.db.batch.retries");
+	private static final long FIRST_RETRY_DELAY_MILLIS = 100;
+	private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+	// Longest the writer waits without looking at running
+	private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final String BUY_QUERY = "INSERT INTO buy_transactions (broker_id, market_id, instrument_id, quantity, price) VALUES (?, ?, ?, ?, ?)";
+	private static final String SELL_QUERY = "INSERT INTO sell_transactions (broker_id, market_id, instrument_id, quantity, price) VALUES (?, ?, ?, ?, ?)";
+
+	private final MarketConfig config;
+	private final BlockingQueue<Transaction> queue;
+	private final Thread writer;
+	private final Object commitLock = new Object();
+	// Last transaction queued by each thread; batches are committed in queue order
+	private final ThreadLocal<Transaction> lastQueued = new ThreadLocal<>();
+	private volatile boolean running = true;
+	private Connection connection;
+	private PreparedStatement buyStatement;
+	private PreparedStatement sellStatement;
+
+	private static final class Transaction {
+		final boolean buy;
+		final int brokerID;
+		final int marketID;
+		final String symbol;
+		final int quantity;
+		final long price;
+		// Set once the batch holding it was committed, or given up on at shutdown
+		volatile boolean done;
+
+		Transaction(boolean buy, int brokerID, int marketID, String symbol, int quantity, long price) {
+			this.buy = buy;
+			this.brokerID = brokerID;
+			this.marketID = marketID;
+			this.symbol = symbol;
+			this.quantity = quantity;
+			this.price = price;
+		}
+	}
+
+	public DatabaseHandler(MarketConfig config) {
+		this.config = config;
+		this.queue = new ArrayBlockingQueue<>(config.getDatabaseQueueCapacity());
+		Metrics.gauge("market.db.queue.depth", queue::size);
+		this.writer = new Thread(this::run, "market-db-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	public void insertBuyTransaction(int brokerID, int marketID, String symbol, int quantity, long price) {
+		enqueue(new Transaction(true, brokerID, marketID, symbol, quantity, price));
+	}
+
+	public void insertSellTransaction(int brokerID, int marketID, String symbol, int quantity, long price) {
+		enqueue(new Transaction(false, brokerID, marketID, symbol, quantity, price));
+	}
+
+	// With SYNC durability, waits until every transaction queued by this thread has been written
+	public void sync() {
+		Transaction transaction = lastQueued.get();
+		if (config.getDurability() != MarketConfig.Durability.SYNC || transaction == null)
+			return;
+		try {
+			synchronized (commitLock) {
+				while (!transaction.done)
+					commitLock.wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while waiting for the database");
+		}
+		lastQueued.remove();
+	}
+
+	// Writes what is still queued, then closes the connection
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!queue.isEmpty())
+			log.warn("{} transactions were not stored", queue.size());
+	}
+
+	private void enqueue(Transaction transaction) {
+		try {
+			// Backpressure: a full queue holds the matching thread until the writer catches up
+			if (!queue.offer(transaction)) {
+				queueFull.increment();
+				log.debug("Transaction queue full, waiting for the database");
+				queue.put(transaction);
+			}
+			lastQueued.set(transaction);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while storing transaction for broker {}", transaction.brokerID);
+		}
+	}
+
+	private void run() {
+		int batchSize = config.getDatabaseBatchSize();
+		long flushNanos = config.getDurability() == MarketConfig.Durability.SYNC ? 0 : TimeUnit.MILLISECONDS.toNanos(config.getDatabaseFlushMillis());
+		List<Transaction> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Transaction first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+				queue.drainTo(batch, batchSize - batch.size());
+				long deadline = System.nanoTime() + flushNanos;
+				while (batch.size() < batchSize && running) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					// Waits in slices, so close() does not wait out a long flush delay
+					Transaction next = queue.poll(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS);
+					if (next == null)
+						continue;
+					batch.add(next);
+					queue.drainTo(batch, batchSize - batch.size());
+				}
+			} catch (InterruptedException e) {
+				running = false;
+			}
+			if (!batch.isEmpty()) {
+				writeUntilStored(batch);
+				batch.clear();
+			}
+		}
+		closeConnection();
+	}
+
+	private void writeUntilStored(List<Transaction> batch) {
+		long delay = FIRST_RETRY_DELAY_MILLIS;
+		while (!write(batch)) {
+			if (!running) {
+				log.error("{} transactions were not stored", batch.size());
+				break;
+			}
+			batchRetries.increment();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				running = false;
+			}
+			delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+		}
+		for (Transaction transaction : batch) {
+			transaction.done = true;
+		}
+		if (config.getDurability() == MarketConfig.Durability.SYNC) {
+			synchronized (commitLock) {
+				commitLock.notifyAll();
+			}
+		}
+	}
+
+	// Returns false if the batch was not committed
+	private boolean write(List<Transaction> batch) {
+		long start = System.nanoTime();
+		try {
+			if (connection == null)
+				openConnection();
+			for (Transaction transaction : batch) {
+				PreparedStatement stmt = transaction.buy ? buyStatement : sellStatement;
+				stmt.setInt(1, transaction.brokerID);
+				stmt.setInt(2, transaction.marketID);
+				stmt.setString(3, transaction.symbol);
+				stmt.setInt(4, transaction.quantity);
+				stmt.setBigDecimal(5, BigDecimal.valueOf(transaction.price, Price.DECIMALS));
+				stmt.addBatch();
+			}
+			buyStatement.executeBatch();
+			sellStatement.executeBatch();
+			connection.commit();
+			log.debug("Stored {} transactions", batch.size());
+			return true;
+		} catch (SQLException e) {
+			log.error("Error storing {} transactions, retrying: {}", batch.size(), e.getMessage());
+			insertErrors.add(batch.size());
+			// Whatever part of the batch was written is undone; the retry starts over on a fresh connection
+			rollback();
+			closeConnection();
+			return false;
+		} finally {
+			batchLatency.record(System.nanoTime() - start);
+			batchSizes.record(batch.size());
+		}
+	}
+
+	private void openConnection() throws SQLException {
+		connection = DriverManager.getConnection(config.getDatabaseUrl(), config.getDatabaseUser(), config.getDatabasePassword());
+		connection.setAutoCommit(false);
+		buyStatement = connection.prepareStatement(BUY_QUERY);
+		sellStatement = connection.prepareStatement(SELL_QUERY);
+	}
+
+	private void rollback() {
+		if (connection == null)
+			return;
+		try {
+			connection.rollback();
 		} catch (SQLException e) {
-			System.out.println("Error inserting buy transaction: " + e.getMessage());
+			log.warn("Error rolling back database transaction: {}", e.getMessage());
 		}
 	}
 
-	public static void insertSellTransaction(int brokerID, int marketID, String symbol, int quantity, double price) {
-		try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-			String query = "INSERT INTO sell_transactions (broker_id, market_id, instrument_id, quantity, price) VALUES (?, ?, ?, ?, ?)";
-			PreparedStatement stmt = conn.prepareStatement(query);
-			stmt.setInt(1, brokerID);
-			stmt.setInt(2, marketID);
-			stmt.setString(3, symbol);
-			stmt.setInt(4, quantity);
-			stmt.setDouble(5, price);
-			stmt.executeUpdate();
-			System.out.println("Inserted sell transaction: Broker ID: " + brokerID + ", Market ID: " + marketID + ", Symbol: " + symbol + ", Quantity: " + quantity + ", Price: " + price);
+	private void closeConnection() {
+		if (connection == null)
+			return;
+		try {
+			connection.close();
 		} catch (SQLException e) {
-			System.out.println("Error inserting sell transaction: " + e.getMessage());
+			log.warn("Error closing database connection: {}", e.getMessage());
 		}
+		connection = null;
 	}
 }
@@ -0,0 +1,262 @@
+package com.market;
+
+import java.util.function.Consumer;
+
+// Orders recently accepted from each broker, keyed on ClOrdID, so that a resent or replayed order is
+// recognized instead of executed twice. Each broker has a ring of its last windowSize orders with an
+// open-addressing index. With the high-water rule on, a window also keeps the highest numeric ClOrdID
+// that left the ring, and a numeric ClOrdID at or below it is a duplicate too, although its order is no
+// longer known: only right for brokers that number their orders in increasing order, so it is off unless
+// configured. A window unused for idleNanos is dropped, at the latest one more idle period later, so brokers
+// that come and go do not pile up. Lookups and inserts are O(1) and memory is bounded by the window and the
+// brokers recently seen. A filter belongs to one matching thread and is not thread-safe.
+public class DuplicateFilter {
+	public static final int NOT_FOUND = -1;
+	private static final int NOT_NUMERIC = -1;
+
+	private final int windowSize;
+	private final boolean highWater;
+	private final long idleNanos;
+	// Open-addressing map from broker IDs to their windows
+	private int[] brokerIds = new int[16];
+	private Window[] windows = new Window[16];
+	private int brokerCount;
+	private long lastSweep = System.nanoTime();
+
+	public interface EntryVisitor {
+		void visit(Window window, int entry);
+	}
+
+	public DuplicateFilter(int windowSize, boolean highWater, long idleNanos) {
+		this.windowSize = windowSize;
+		this.highWater = highWater;
+		this.idleNanos = idleNanos;
+	}
+
+	// Window of the broker, created on its first order; now is System.nanoTime() of the order
+	public Window window(int brokerID, long now) {
+		if (now - lastSweep >= idleNanos)
+			dropIdle(now);
+		int mask = windows.length - 1;
+		for (int i = mix(brokerID) & mask; ; i = (i + 1) & mask) {
+			if (windows[i] == null) {
+				Window window = new Window(brokerID, windowSize, highWater);
+				window.lastUsed = now;
+				brokerIds[i] = brokerID;
+				windows[i] = window;
+				if (++brokerCount * 2 > windows.length)
+					rehash(windows.length * 2);
+				return window;
+			}
+			if (brokerIds[i] == brokerID) {
+				windows[i].lastUsed = now;
+				return windows[i];
+			}
+		}
+	}
+
+	public int getWindowCount() {
+		return brokerCount;
+	}
+
+	public void forEachWindow(Consumer<Window> visitor) {
+		for (Window window : windows) {
+			if (window != null)
+				visitor.accept(window);
+		}
+	}
+
+	// Rebuilds the map without the windows idle for longer than idleNanos
+	private void dropIdle(long now) {
+		lastSweep = now;
+		int idle = 0;
+		for (int i = 0; i < windows.length; i++) {
+			if (windows[i] != null && now - windows[i].lastUsed > idleNanos) {
+				windows[i] = null;
+				idle++;
+			}
+		}
+		if (idle == 0)
+			return;
+		brokerCount -= idle;
+		rehash(windows.length);
+	}
+
+	private void rehash(int capacity) {
+		Window[] previous = windows;
+		brokerIds = new int[capacity];
+		windows = new Window[capacity];
+		int mask = windows.length - 1;
+		for (Window window : previous) {
+			if (window == null)
+				continue;
+			int i = mix(window.brokerID) & mask;
+			while (windows[i] != null)
+				i = (i + 1) & mask;
+			brokerIds[i] = window.brokerID;
+			windows[i] = window;
+		}
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// ClOrdID as a number when it is made of at most 18 digits, otherwise NOT_NUMERIC
+	static long numeric(String clOrdID) {
+		int length = clOrdID.length();
+		if (length == 0 || length > 18)
+			return NOT_NUMERIC;
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char ch = clOrdID.charAt(i);
+			if (ch < '0' || ch > '9')
+				return NOT_NUMERIC;
+			value = value * 10 + (ch - '0');
+		}
+		return value;
+	}
+
+	public static final class Window {
+		private final int brokerID;
+		// Ring of entries, oldest at head once full
+		private final String[] clOrdIds;
+		private final long[] orderIds;
+		private final int[] instruments;
+		private final boolean[] buy;
+		private final int[] quantities;
+		private final long[] prices;
+		// Book slot the order rested in, -1 if it was filled right away
+		private final int[] slots;
+		private int head;
+		private int size;
+		// Entry + 1 by ClOrdID hash, 0 when empty; linear probing with backward-shift deletion
+		private final int[] index;
+		// Off unless the high-water rule is on: the mark then never rises
+		private final boolean trackHighWater;
+		private long highWater = NOT_NUMERIC;
+		private long lastUsed;
+
+		Window(int brokerID, int capacity, boolean trackHighWater) {
+			this.brokerID = brokerID;
+			this.trackHighWater = trackHighWater;
+			this.clOrdIds = new String[capacity];
+			this.orderIds = new long[capacity];
+			this.instruments = new int[capacity];
+			this.buy = new boolean[capacity];
+			this.quantities = new int[capacity];
+			this.prices = new long[capacity];
+			this.slots = new int[capacity];
+			this.index = new int[Integer.highestOneBit(capacity) * 4];
+		}
+
+		public int getBrokerID() {
+			return brokerID;
+		}
+
+		// Entry of the earlier order with this ClOrdID, or NOT_FOUND
+		public int find(String clOrdID) {
+			int mask = index.length - 1;
+			for (int i = clOrdID.hashCode() * 0x9E3779B9 >>> 7 & mask; index[i] != 0; i = (i + 1) & mask) {
+				int entry = index[i] - 1;
+				if (clOrdIds[entry].equals(clOrdID))
+					return entry;
+			}
+			return NOT_FOUND;
+		}
+
+		// True when the ClOrdID was seen before but has already left the window
+		public boolean isBelowHighWater(String clOrdID) {
+			long value = numeric(clOrdID);
+			return value != NOT_NUMERIC && value <= highWater;
+		}
+
+		public void add(String clOrdID, long orderId, int instrument, boolean isBuy, int quantity, long price, int slot) {
+			int entry;
+			if (size == clOrdIds.length) {
+				entry = head;
+				head = (head + 1) % clOrdIds.length;
+				if (trackHighWater)
+					highWater = Math.max(highWater, numeric(clOrdIds[entry]));
+				unindex(entry);
+			} else {
+				entry = (head + size++) % clOrdIds.length;
+			}
+			clOrdIds[entry] = clOrdID;
+			orderIds[entry] = orderId;
+			instruments[entry] = instrument;
+			buy[entry] = isBuy;
+			quantities[entry] = quantity;
+			prices[entry] = price;
+			slots[entry] = slot;
+			int mask = index.length - 1;
+			int i = clOrdID.hashCode() * 0x9E3779B9 >>> 7 & mask;
+			while (index[i] != 0)
+				i = (i + 1) & mask;
+			index[i] = entry + 1;
+		}
+
+		// Visits the entries from the oldest
+		public void forEach(EntryVisitor visitor) {
+			for (int i = 0; i < size; i++) {
+				visitor.visit(this, (head + i) % clOrdIds.length);
+			}
+		}
+
+		public long getHighWater() {
+			return highWater;
+		}
+
+		void raiseHighWater(long value) {
+			if (trackHighWater)
+				highWater = Math.max(highWater, value);
+		}
+
+		public String getClOrdId(int entry) {
+			return clOrdIds[entry];
+		}
+
+		public long getOrderId(int entry) {
+			return orderIds[entry];
+		}
+
+		public int getInstrument(int entry) {
+			return instruments[entry];
+		}
+
+		public boolean isBuy(int entry) {
+			return buy[entry];
+		}
+
+		public int getQuantity(int entry) {
+			return quantities[entry];
+		}
+
+		public long getPrice(int entry) {
+			return prices[entry];
+		}
+
+		public int getSlot(int entry) {
+			return slots[entry];
+		}
+
+		private void unindex(int entry) {
+			int mask = index.length - 1;
+			int i = clOrdIds[entry].hashCode() * 0x9E3779B9 >>> 7 & mask;
+			while (index[i] != entry + 1)
+				i = (i + 1) & mask;
+			// Shift back the entries probed past the freed position
+			int hole = i;
+			for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+				int home = clOrdIds[index[j] - 1].hashCode() * 0x9E3779B9 >>> 7 & mask;
+				if (((j - home) & mask) >= ((j - hole) & mask)) {
+					index[hole] = index[j];
+					hole = j;
+				}
+			}
+			index[hole] = 0;
+			clOrdIds[entry] = null;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package com.market;
+
+import com.common.Logger;
+import com.common.Price;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Instrument universe of a market. Symbols are interned to dense ids from 0 to size() - 1
+// and the quantity and price of each instrument are kept in columns indexed by that id.
+// Filled once at startup, then only read.
+public class InstrumentStore {
+	private static final Logger log = Logger.get("market");
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	private static final int MAX_CHUNK_SIZE = 1 << 30;
+	// Longest line a chunk reads past its end to finish its last line
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	private String[] symbols = new String[16];
+	private int[] quantities = new int[16];
+	private long[] prices = new long[16];
+	private int size;
+	// Open addressing symbol index holding id + 1, 0 for a free slot
+	private int[] table = new int[32];
+
+	public int size() {
+		return size;
+	}
+
+	// Adds an instrument and returns its id. A symbol already present keeps its first definition.
+	public int add(String symbol, int quantity, long price) {
+		int slot = slot(symbol);
+		if (table[slot] != 0)
+			return table[slot] - 1;
+
+		if (size == symbols.length) {
+			symbols = Arrays.copyOf(symbols, size * 2);
+			quantities = Arrays.copyOf(quantities, size * 2);
+			prices = Arrays.copyOf(prices, size * 2);
+		}
+		int id = size++;
+		symbols[id] = symbol;
+		quantities[id] = quantity;
+		prices[id] = price;
+		table[slot] = id + 1;
+		if (size * 2 > table.length)
+			rehash();
+		return id;
+	}
+
+	// Id of the symbol, -1 when it is not part of the universe
+	public int indexOf(String symbol) {
+		int id = table[slot(symbol)];
+		return id - 1;
+	}
+
+	public String getSymbol(int id) {
+		return symbols[id];
+	}
+
+	public int getQuantity(int id) {
+		return quantities[id];
+	}
+
+	// Fixed-point Price
+	public long getPrice(int id) {
+		return prices[id];
+	}
+
+	private int slot(String symbol) {
+		int mask = table.length - 1;
+		int h = symbol.hashCode();
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (table[slot] != 0 && !symbols[table[slot] - 1].equals(symbol)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		for (int id = 0; id < size; id++) {
+			table[slot(symbols[id])] = id + 1;
+		}
+	}
+
+	// Loads "symbol,quantity,price" lines. The file is memory-mapped and cut into chunks at line
+	// boundaries that are parsed in parallel, then interned in file order.
+	public static InstrumentStore load(Path file) throws IOException {
+		long start = System.nanoTime();
+		InstrumentStore store = new InstrumentStore();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			int chunkCount = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), fileSize / MIN_CHUNK_SIZE));
+			chunkCount = (int) Math.max(chunkCount, (fileSize + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+
+			List<CompletableFuture<Chunk>> chunks = new ArrayList<>();
+			for (int i = 0; i < chunkCount; i++) {
+				long from = fileSize * i / chunkCount;
+				long to = fileSize * (i + 1) / chunkCount;
+				chunks.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return Chunk.parse(channel, from, to, fileSize);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+			}
+
+			int skipped = 0;
+			for (CompletableFuture<Chunk> future : chunks) {
+				Chunk chunk;
+				try {
+					chunk = future.join();
+				} catch (CompletionException e) {
+					if (e.getCause() instanceof UncheckedIOException)
+						throw ((UncheckedIOException) e.getCause()).getCause();
+					throw e;
+				}
+				for (int i = 0; i < chunk.count; i++) {
+					store.add(chunk.symbols[i], chunk.quantities[i], chunk.prices[i]);
+				}
+				skipped += chunk.skipped;
+			}
+			if (skipped > 0)
+				log.warn("Skipped {} malformed instrument lines in {}", skipped, file);
+		}
+		log.info("Loaded {} instruments in {} ms", store.size(), (System.nanoTime() - start) / 1_000_000);
+		return store;
+	}
+
+	// Instruments of the lines starting in [from, to) of the file
+	private static final class Chunk {
+		private String[] symbols = new String[1024];
+		private int[] quantities = new int[1024];
+		private long[] prices = new long[1024];
+		private int count;
+		private int skipped;
+
+		static Chunk parse(FileChannel channel, long from, long to, long fileSize) throws IOException {
+			Chunk chunk = new Chunk();
+			// Start one byte early to tell whether the first line begins exactly at from
+			long mapStart = from > 0 ? from - 1 : 0;
+			long mapEnd = Math.min(fileSize, to + MAX_LINE_LENGTH);
+			if (mapEnd <= mapStart)
+				return chunk;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+			int limit = (int) (to - mapStart);
+			int position = 0;
+			if (from > 0) {
+				while (position < buffer.limit() && buffer.get(position) != '\n')
+					position++;
+				position++;
+			}
+
+			byte[] line = new byte[MAX_LINE_LENGTH];
+			while (position < limit && position < buffer.limit()) {
+				int length = 0;
+				while (position < buffer.limit()) {
+					byte b = buffer.get(position++);
+					if (b == '\n')
+						break;
+					if (length < line.length)
+						line[length++] = b;
+				}
+				if (length > 0 && line[length - 1] == '\r')
+					length--;
+				if (length > 0)
+					chunk.parseLine(line, length);
+			}
+			return chunk;
+		}
+
+		private void parseLine(byte[] line, int length) {
+			int firstComma = indexOf(line, 0, length, (byte) ',');
+			int secondComma = firstComma < 0 ? -1 : indexOf(line, firstComma + 1, length, (byte) ',');
+			if (firstComma <= 0 || secondComma < 0 || indexOf(line, secondComma + 1, length, (byte) ',') >= 0) {
+				skipped++;
+				return;
+			}
+			try {
+				int quantity = parseQuantity(line, firstComma + 1, secondComma);
+				long price = parsePrice(line, secondComma + 1, length);
+				if (count == symbols.length) {
+					symbols = Arrays.copyOf(symbols, count * 2);
+					quantities = Arrays.copyOf(quantities, count * 2);
+					prices = Arrays.copyOf(prices, count * 2);
+				}
+				symbols[count] = new String(line, 0, firstComma, StandardCharsets.ISO_8859_1);
+				quantities[count] = quantity;
+				prices[count] = price;
+				count++;
+			} catch (NumberFormatException e) {
+				skipped++;
+			}
+		}
+
+		private static int indexOf(byte[] line, int from, int to, byte value) {
+			for (int i = from; i < to; i++) {
+				if (line[i] == value)
+					return i;
+			}
+			return -1;
+		}
+
+		private static int parseQuantity(byte[] line, int from, int to) {
+			if (from == to || to - from > 9)
+				throw new NumberFormatException("Invalid quantity");
+			int quantity = 0;
+			for (int i = from; i < to; i++) {
+				if (line[i] < '0' || line[i] > '9')
+					throw new NumberFormatException("Invalid quantity");
+				quantity = quantity * 10 + (line[i] - '0');
+			}
+			return quantity;
+		}
+
+		// Plain decimals are read straight into a Price, rounding past the 8th decimal; anything else goes through Double
+		private static long parsePrice(byte[] line, int from, int to) {
+			long price = Price.parse(line, from, to);
+			if (price == Price.INVALID)
+				return Price.of(Double.parseDouble(new String(line, from, to - from, StandardCharsets.ISO_8859_1)));
+			return price;
+		}
+	}
+}
@@ -1,14 +1,16 @@
 package com.market;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import com.common.Logger;
+import com.common.Metrics;
+import com.common.Price;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
 import java.util.Random;
 
 public class Main {
+	private static final Logger log = Logger.get("market");
+
 	public static void main(String[] args) {
 		if (args.length < 1) {
 			System.out.println("Usage: java -jar market.jar <filename>");
@@ -27,8 +29,15 @@ public class Main {
 			System.exit(1);
 		}
 
-		List<Instrument> instruments = readInstrumentsFromFile(filename);
-		if (instruments.isEmpty()) {
+		InstrumentStore instruments;
+		try {
+			instruments = InstrumentStore.load(Paths.get(filename));
+		} catch (IOException e) {
+			log.error("Error reading instruments from file: {}", e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (instruments.size() == 0) {
 			System.out.println("No instruments found in file.");
 			System.exit(1);
 		}
@@ -38,32 +47,23 @@ public class Main {
 			id = Integer.parseInt(args[1]);
 		}
 
-		Market market = new Market(instruments, id);
+		String file = Paths.get(filename).getFileName().toString();
+		MarketConfig config = MarketConfig.fromSystemProperties().setStateKey(id != -1 ? String.valueOf(id) : file.substring(0, file.length() - ".txt".length()));
+		Market market = new Market(instruments, id, config);
+		try {
+			market.recover();
+		} catch (IOException e) {
+			log.error("Error recovering the market state: {}", e.getMessage());
+			System.exit(1);
+		}
 		if (market.start() == -1)
 			return;
 
-		market.listen();
-	}
-
-	public static List<Instrument> readInstrumentsFromFile(String filename) {
-		List<Instrument> instruments = new ArrayList<>();
-
-		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				String[] parts = line.split(",");
-				if (parts.length == 3) {
-					String symbol = parts[0];
-					int quantity = Integer.parseInt(parts[1]);
-					double price = Double.parseDouble(parts[2]);
-					instruments.add(new Instrument(symbol, quantity, price));
-				}
-			}
-		} catch (IOException e) {
-			System.out.println("Error reading instruments from file: " + e.getMessage());
-		}
+		// -Dmetrics.port=<port> also serves the metrics on http://localhost:<port>/metrics
+		Metrics.expose("market");
 
-		return instruments;
+		market.listen();
+		Metrics.shutdown();
 	}
 
 	public static void generateRandomInstruments(String filename) {
@@ -74,11 +74,12 @@ public class Main {
 			for (int i = 0; i < symbols.length; i++) {
 				String symbol = symbols[i];
 				int quantity = random.nextInt(1000) + 1;
-				double price = random.nextDouble() * 1000;
-				writer.println(symbol + "," + quantity + "," + price);
+				// Whole cents, so the universe also fits a market.tickSize of 0.01
+				long price = (random.nextInt(100_000) + 1) * (Price.SCALE / 100);
+				writer.println(symbol + "," + quantity + "," + Price.toString(price));
 			}
 		} catch (IOException e) {
-			System.out.println("Error writing to file: " + e.getMessage());
+			log.error("Error writing to file: {}", e.getMessage());
 		}
 	}
 }
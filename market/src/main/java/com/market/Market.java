@@ -1,46 +1,208 @@
 package com.market;
 
+import com.common.BinaryEncoder;
+import com.common.BinaryFormat;
+import com.common.Counter;
+import com.common.FixEncoder;
+import com.common.FrameReader;
+import com.common.Histogram;
+import com.common.Level;
+import com.common.Logger;
+import com.common.MessageTypeMetrics;
+import com.common.Metrics;
+import com.common.Price;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public class Market {
-	private static final int ROUTER_PORT = 5001;
+public class Market implements OrderBook.FillListener {
+	private static final Logger log = Logger.get("market");
+	private static final MessageTypeMetrics processed = new MessageTypeMetrics("market.messages");
+	private static final Counter executedBuys = Metrics.counter("market.orders.executed.buy");
+	private static final Counter executedSells = Metrics.counter("market.orders.executed.sell");
+	private static final Counter rejectedOrders = Metrics.counter("market.orders.rejected");
+	private static final Counter duplicateOrders = Metrics.counter("market.orders.duplicate");
+	private static final Counter marketDataUpdates = Metrics.counter("market.marketdata.updates");
+	private static final Histogram matchLatency = Metrics.histogram("market.orders.match_latency_ns");
+	private static final Histogram snapshotLatency = Metrics.histogram("market.snapshot.latency_ns");
+	private static final ThreadLocal<FixEncoder> encoders = ThreadLocal.withInitial(FixEncoder::new);
+	private static final ThreadLocal<BinaryEncoder> frames = ThreadLocal.withInitial(BinaryEncoder::new);
+	// Reports of the order list this thread is executing, written at once when it is done; unset otherwise
+	private static final ThreadLocal<ByteArrayOutputStream> batches = new ThreadLocal<>();
+	// Owner of the liquidity the market seeds its books with
+	private static final int HOUSE = 0;
+	// ExecType of a report: the new OrdStatus, or Order status (I) when it repeats an order's status for a resent ClOrdID
+	private static final char NEW_STATUS = 0;
+	private static final char ORDER_STATUS = 'I';
+	private static final String SNAPSHOT_FILE = "snapshot.bin";
+	private static final String JOURNAL_FILE = "journal.bin";
+	private static final String LOCK_FILE = "lock";
+	// Replayed orders rebuild the books without reporting or storing their fills again
+	private static final OrderBook.FillListener REPLAY = (book, aggressor, resting, quantity, price) -> {};
 	private int marketID;
 	private Socket socket;
-	private List<Instrument> instruments;
-	private boolean running = true;
+	private FrameReader in;
+	// Binary frames granted by the router in the handshake
+	private boolean binary;
+	private final InstrumentStore instruments;
+	// Indexed by instrument id, created on the first order for the instrument
+	private final OrderBook[] books;
+	// Matching threads, each owning the books of the instruments whose id maps to it; null to match on the socket thread
+	private final SingleThreadExecutor[] shards;
+	// Recent orders of each broker, one filter per matching thread for the instruments it owns
+	private final DuplicateFilter[] filters;
+	// null when fills are not persisted
+	private final DatabaseHandler database;
+	// Top of book last published, indexed by instrument id; null until someone subscribes to the instrument
+	private final Quote[] quotes;
+	private final MarketConfig config;
+	// Orders accepted since the last snapshot; null when the books are kept in memory only
+	private MarketJournal journal;
+	// Locked for the life of the market: two markets sharing a state directory would overwrite each other's journal
+	private FileChannel stateLock;
+	// Assigned on the socket thread, in journal order
+	private long nextOrderId = 1;
+	// Single outbound writer the matching threads send through
+	private SingleThreadExecutor writer;
+	private OutputStream out;
+	private volatile boolean running = true;
 
-	public Market(List<Instrument> instruments, int id) {
+	public Market(InstrumentStore instruments, int id) {
+		this(instruments, id, new MarketConfig());
+	}
+
+	public Market(InstrumentStore instruments, int id, MarketConfig config) {
 		this.marketID = id;
 		this.socket = null;
 		this.instruments = instruments;
+		this.books = new OrderBook[instruments.size()];
+		this.quotes = new Quote[instruments.size()];
+		this.config = config;
+		this.database = config.getDatabaseUrl().isEmpty() ? null : new DatabaseHandler(config);
+		int matchingThreads = config.getMatchingThreads();
+		this.shards = matchingThreads > 0 ? new SingleThreadExecutor[matchingThreads] : null;
+		for (int i = 0; i < matchingThreads; i++) {
+			shards[i] = new SingleThreadExecutor("market-matching-" + i, null);
+		}
+		this.filters = new DuplicateFilter[Math.max(1, matchingThreads)];
+		for (int i = 0; i < filters.length; i++) {
+			filters[i] = new DuplicateFilter(config.getDuplicateWindow(), config.isDuplicateHighWater(), TimeUnit.SECONDS.toNanos(config.getDuplicateIdleSeconds()));
+		}
+
+		log.info("{} instruments available in the market", instruments.size());
+		if (log.isEnabled(Level.DEBUG)) {
+			for (int i = 0; i < instruments.size(); i++) {
+				log.debug("Symbol: {}, Quantity: {}, Price: {}", instruments.getSymbol(i), instruments.getQuantity(i), Price.toString(instruments.getPrice(i)));
+			}
+		}
+	}
+
+	// Rebuilds the books from the last snapshot and the orders journaled after it, then keeps journaling
+	public void recover() throws IOException {
+		if (config.getStateDirectory().isEmpty())
+			return;
+		long start = System.nanoTime();
+		Path directory = Paths.get(config.getStateDirectory());
+		Files.createDirectories(directory);
+		lock(directory);
+		MarketSnapshot snapshot = MarketSnapshot.load(directory.resolve(SNAPSHOT_FILE), instruments, books, filters);
+		long generation = 0;
+		if (snapshot != null) {
+			generation = snapshot.getGeneration();
+			nextOrderId = snapshot.getNextOrderId();
+		}
+		journal = MarketJournal.open(directory.resolve(JOURNAL_FILE), config.getJournalBytes(), generation);
+		int replayed = 0;
+		if (journal.getGeneration() == generation) {
+			replayed = journal.replay((orderId, isBuy, owner, quantity, price, symbol, clOrdID) -> {
+				int instrument = instruments.indexOf(symbol);
+				if (instrument != -1)
+					matchOrder(instrument, isBuy, owner, clOrdID, orderId, quantity, price, 0, true);
+				nextOrderId = Math.max(nextOrderId, orderId + 1);
+			});
+		} else {
+			// Written before the snapshot that was loaded, which already holds its orders
+			journal.reset(generation);
+		}
+		int restingOrders = 0;
+		for (OrderBook book : books) {
+			if (book != null)
+				restingOrders += book.getOrderCount();
+		}
+		log.info("Recovered {} resting orders from snapshot {} and {} journaled orders", restingOrders, generation, replayed);
+		log.info("Recovery took {} ms", (System.nanoTime() - start) / 1_000_000);
+	}
 
-		System.out.println("Instruments available in the market:");
-		for (Instrument instrument : instruments) {
-			System.out.println("Symbol: " + instrument.getSymbol() + ", Quantity: " + instrument.getAvailableQuantity() + ", Price: " + instrument.getPrice());
+	private void lock(Path directory) throws IOException {
+		FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			channel.close();
+			throw new IOException("State directory " + directory + " is in use by another market");
 		}
+		stateLock = channel;
 	}
 
 	public int start() {
 		try {
-			this.socket = new Socket("localhost", ROUTER_PORT);
+			InetSocketAddress address = config.getRouter();
+			String reply;
+			for (int redirects = 0; ; redirects++) {
+				this.socket = new Socket(address.getHostString(), address.getPort());
+
+				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+				out.println(WireEncoding.handshake(marketID, config.getEncoding()));
 
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			out.println(marketID);
+				this.in = new FrameReader(socket.getInputStream());
+				reply = in.readLine();
+				if (reply == null)
+					throw new IOException("Connection closed by the router");
+				InetSocketAddress owner = RouterAddress.ofRedirect(reply);
+				if (owner == null)
+					break;
+				socket.close();
+				if (redirects == RouterAddress.MAX_REDIRECTS)
+					throw new IOException("Too many redirects");
+				log.info("Redirected to the router node at {}:{}", owner.getHostString(), owner.getPort());
+				address = owner;
+			}
+			this.marketID = WireEncoding.idOfHandshake(reply);
+			this.binary = WireEncoding.ofHandshake(reply) == WireEncoding.BINARY;
 
-			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			this.marketID = Integer.parseInt(in.readLine());
+			if (shards != null) {
+				this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+				this.writer = new SingleThreadExecutor("market-writer", this::flush);
+			}
 
-			System.out.println("Connected to the router. Market ID: " + marketID);
+			log.info("Connected to the router. Market ID: {}{}", marketID, binary ? " (binary)" : "");
 			return 0;
 		} catch (IOException e) {
-			System.out.println("Error connecting to the router: " + e.getMessage());
+			log.error("Error connecting to the router: {}", e.getMessage());
 			return -1;
 		}
 	}
@@ -51,29 +213,66 @@ public class Market {
 			if (socket != null && !socket.isClosed())
 				socket.close();
 		} catch (IOException e) {
-			System.out.println("Error closing socket: " + e.getMessage());
+			log.warn("Error closing socket: {}", e.getMessage());
 		}
 	}
 
 	public void listen() {
 		try {
-			System.out.println("Waiting for messages...");
-			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			log.info("Waiting for messages...");
 			String message;
 			while (running) {
-				message = in.readLine();
-				if (message != null && message.length() > 0) {
+				message = binary ? in.readFrame() : in.readLine();
+				if (message == null) {
+					log.info("Connection closed by the router.");
+					break;
+				}
+				if (binary) {
+					processFrame(message);
+				} else if (message.length() > 0) {
 					processMessage(message);
 				}
 				message = null;
 			}
 		} catch (IOException e) {
-			System.out.println("Error reading from socket: " + e.getMessage());
+			log.error("Error reading from socket: {}", e.getMessage());
+		}
+		// A final snapshot lets the next start skip the replay
+		if (journal != null && journal.getCount() > 0)
+			snapshot();
+		if (shards != null) {
+			for (SingleThreadExecutor shard : shards) {
+				shard.shutdown();
+			}
+		}
+		if (writer != null)
+			writer.shutdown();
+		if (database != null)
+			database.close();
+		log.info("Market stopped.");
+	}
+
+	// A NewOrderSingle is read from its fixed offsets; anything else is carried as text
+	public void processFrame(String frame) {
+		if (!BinaryFormat.isFixed(frame)) {
+			processMessage(frame.substring(BinaryFormat.HEADER_LENGTH));
+			return;
+		}
+		long start = System.nanoTime();
+		char msgType = BinaryFormat.msgType(frame);
+		if (msgType == 'D') {
+			processOrder(frame.charAt(BinaryFormat.SIDE) == '1', BinaryFormat.sender(frame),
+					BinaryFormat.getString(frame, BinaryFormat.CL_ORD_ID, BinaryFormat.CL_ORD_ID_LENGTH),
+					BinaryFormat.getString(frame, BinaryFormat.SYMBOL, BinaryFormat.SYMBOL_LENGTH),
+					BinaryFormat.getInt(frame, BinaryFormat.ORDER_QTY), Math.max(0, BinaryFormat.getLong(frame, BinaryFormat.PRICE)));
+		} else {
+			log.warn("Unknown message type: {}", msgType);
 		}
-		System.out.println("Market stopped.");
+		processed.forType(msgType).record(System.nanoTime() - start);
 	}
 
 	public void processMessage(String message) {
+		long start = System.nanoTime();
 		String[] parts = message.split("\u0001");
 		Map<String, String> fields = new HashMap<>();
 		for (String part : parts) {
@@ -83,126 +282,623 @@ public class Market {
 		}
 
 		if (fields.get("35").equals("5")) {
-			System.out.println("Disconnected by the router: " + fields.get("58"));
+			log.info("Disconnected by the router: {}", fields.get("58"));
 			stop();
 		} else if (fields.get("35").equals("D")) {
-			int brokerID = Integer.parseInt(fields.get("49"));
-			String instrumentID = fields.get("55");
-			int quantity = Integer.parseInt(fields.get("38"));
-			boolean isBuy = fields.get("54").equals("1");
-			double price = Double.parseDouble(fields.get("44"));
-
-			if (isBuy) {
-				processBuyOrder(brokerID, instrumentID, quantity, price);
+			int brokerID = parseSender(fields);
+			if (brokerID == -1) {
+				log.warn("Malformed order, no sender to answer: {}", message);
 			} else {
-				processSellOrder(brokerID, instrumentID, quantity, price);
+				String clOrdID = fields.get("11");
+				String instrumentID = fields.get("55");
+				boolean isBuy = "1".equals(fields.get("54"));
+				// A malformed price reads as 0 and is rejected as invalid
+				long price = fields.containsKey("44") ? Math.max(0, Price.parse(fields.get("44"))) : 0;
+				try {
+					processOrder(isBuy, brokerID, clOrdID, instrumentID, Integer.parseInt(fields.get("38")), price);
+				} catch (NumberFormatException e) {
+					// Answered all the same, so the broker and the router's open order count do not wait on it
+					log.info("Malformed order from broker({}): {}", brokerID, message);
+					sendRejection(isBuy, brokerID, clOrdID, instrumentID, 0, price, "Malformed order");
+				}
+			}
+		} else if (fields.get("35").equals("E")) {
+			int brokerID = parseSender(fields);
+			if (brokerID == -1)
+				log.warn("Malformed order list, no sender to answer: {}", message);
+			else
+				processOrderList(brokerID, parseOrderList(parts));
+		} else if (fields.get("35").equals("V")) {
+			try {
+				String type = fields.get("263");
+				processMarketDataRequest(Integer.parseInt(fields.get("49")), fields.get("262"), fields.get("55"), type != null && type.length() == 1 ? type.charAt(0) : '1');
+			} catch (NumberFormatException e) {
+				log.warn("Malformed market data request: {}", message);
 			}
 		} else {
-			System.out.println("Unknown message type: " + fields.get("35"));
+			log.warn("Unknown message type: {}", fields.get("35"));
+		}
+		String msgType = fields.get("35");
+		processed.forType(msgType != null && msgType.length() == 1 ? msgType.charAt(0) : '?').record(System.nanoTime() - start);
+	}
+
+	// SenderCompID, or -1 if missing or not a number
+	private static int parseSender(Map<String, String> fields) {
+		try {
+			return Integer.parseInt(fields.get("49"));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	// Validates the order, then matches it on the thread owning its instrument
+	public void processOrder(boolean isBuy, int brokerID, String clOrdID, String instrumentID, int quantity, long price) {
+		int instrument = instrumentID == null ? -1 : instruments.indexOf(instrumentID);
+		if (instrument == -1) {
+			log.info("Instrument not found: {}", instrumentID);
+			sendRejection(isBuy, brokerID, clOrdID, instrumentID, quantity, price, "Instrument not found");
+			return;
+		}
+		if (journal != null && (!MarketJournal.fits(instrumentID) || !MarketJournal.fits(clOrdID))) {
+			log.info("ClOrdID or symbol too long to journal for instrument: {}", instrumentID);
+			sendRejection(isBuy, brokerID, clOrdID, instrumentID, quantity, price, "ClOrdID or symbol too long");
+			return;
+		}
+		if (quantity <= 0) {
+			log.info("Invalid quantity for instrument: {}", instrumentID);
+			sendRejection(isBuy, brokerID, clOrdID, instrumentID, quantity, price, "Invalid quantity");
+			return;
+		}
+		if (price <= 0) {
+			log.info("Invalid price for instrument: {}", instrumentID);
+			sendRejection(isBuy, brokerID, clOrdID, instrumentID, quantity, price, "Invalid price");
+			return;
+		}
+		if (!Price.isOnTick(price, config.getTickSize())) {
+			log.info("Price off tick for instrument: {}", instrumentID);
+			sendRejection(isBuy, brokerID, clOrdID, instrumentID, quantity, price, "Price not a multiple of the tick size");
+			return;
+		}
+
+		long receivedAt = System.nanoTime();
+		if (journal != null) {
+			if (journal.getCount() >= config.getSnapshotEvents() || !journal.hasRoomFor(1))
+				snapshot();
+			if (!journal.hasRoomFor(1)) {
+				sendRejection(isBuy, brokerID, clOrdID, instrumentID, quantity, price, "Market state unavailable");
+				return;
+			}
+		}
+		long orderId = nextOrderId++;
+		// Journaled before it is matched, so a crash cannot lose an order the broker may hear about
+		if (journal != null)
+			journal.append(orderId, isBuy, brokerID, quantity, price, instrumentID, clOrdID);
+		if (shards == null)
+			matchOrder(instrument, isBuy, brokerID, clOrdID, orderId, quantity, price, receivedAt, false);
+		else
+			shards[instrument % shards.length].execute(() -> matchOrder(instrument, isBuy, brokerID, clOrdID, orderId, quantity, price, receivedAt, false));
+	}
+
+	// The orders of a NewOrderList in the order they are listed, each starting with its ClOrdID (11)
+	private static List<ListOrder> parseOrderList(String[] parts) {
+		List<ListOrder> orders = new ArrayList<>();
+		ListOrder order = null;
+		for (String part : parts) {
+			int separator = part.indexOf('=');
+			if (separator < 0)
+				continue;
+			String tag = part.substring(0, separator);
+			String value = part.substring(separator + 1);
+			if ("11".equals(tag)) {
+				order = new ListOrder(value);
+				orders.add(order);
+			} else if (order == null) {
+				continue;
+			} else if ("55".equals(tag)) {
+				order.symbol = value;
+			} else if ("54".equals(tag)) {
+				order.isBuy = "1".equals(value);
+			} else if ("38".equals(tag)) {
+				try {
+					order.quantity = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					order.malformed = true;
+				}
+			} else if ("44".equals(tag)) {
+				// A malformed price reads as 0 and is rejected as invalid
+				order.price = Math.max(0, Price.parse(value));
+			}
+		}
+		return orders;
+	}
+
+	// Validates and journals the orders of a list together, then each matching thread executes the orders of
+	// its instruments in one pass: their fills are stored with one sync and their reports written at once.
+	// Every order is still reported on its own, by its ClOrdID.
+	public void processOrderList(int brokerID, List<ListOrder> orders) {
+		long receivedAt = System.nanoTime();
+		if (orders.isEmpty()) {
+			// The router counted the list as one order all the same
+			log.info("Order list without orders from broker({})", brokerID);
+			sendRejection(true, brokerID, null, null, 0, 0, "Malformed order");
+			return;
+		}
+		List<ListOrder> accepted = new ArrayList<>(orders.size());
+		for (ListOrder order : orders) {
+			order.instrument = order.symbol == null ? -1 : instruments.indexOf(order.symbol);
+			String reason = null;
+			if (order.malformed)
+				reason = "Malformed order";
+			else if (order.instrument == -1)
+				reason = "Instrument not found";
+			else if (journal != null && (!MarketJournal.fits(order.symbol) || !MarketJournal.fits(order.clOrdID)))
+				reason = "ClOrdID or symbol too long";
+			else if (order.quantity <= 0)
+				reason = "Invalid quantity";
+			else if (order.price <= 0)
+				reason = "Invalid price";
+			else if (!Price.isOnTick(order.price, config.getTickSize()))
+				reason = "Price not a multiple of the tick size";
+			if (reason == null) {
+				accepted.add(order);
+			} else {
+				log.info("Order list entry {} rejected: {}", order.clOrdID, reason);
+				sendRejection(order.isBuy, brokerID, order.clOrdID, order.symbol, order.quantity, order.price, reason);
+			}
+		}
+		if (accepted.isEmpty())
+			return;
+
+		if (journal != null) {
+			if (journal.getCount() + accepted.size() > config.getSnapshotEvents() || !journal.hasRoomFor(accepted.size()))
+				snapshot();
+			if (!journal.hasRoomFor(accepted.size())) {
+				for (ListOrder order : accepted) {
+					sendRejection(order.isBuy, brokerID, order.clOrdID, order.symbol, order.quantity, order.price, "Market state unavailable");
+				}
+				return;
+			}
+		}
+		for (ListOrder order : accepted) {
+			order.orderId = nextOrderId++;
+			if (journal != null)
+				journal.append(order.orderId, order.isBuy, brokerID, order.quantity, order.price, order.symbol, order.clOrdID);
+		}
+		if (shards == null) {
+			executeOrderList(brokerID, accepted, receivedAt);
+			return;
+		}
+		// One task per matching thread owning some of the instruments, each with its orders in list order
+		List<List<ListOrder>> byShard = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			byShard.add(null);
+		}
+		for (ListOrder order : accepted) {
+			int shard = order.instrument % shards.length;
+			if (byShard.get(shard) == null)
+				byShard.set(shard, new ArrayList<>());
+			byShard.get(shard).add(order);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			List<ListOrder> shardOrders = byShard.get(i);
+			if (shardOrders != null)
+				shards[i].execute(() -> executeOrderList(brokerID, shardOrders, receivedAt));
+		}
+	}
+
+	private void executeOrderList(int brokerID, List<ListOrder> orders, long receivedAt) {
+		ByteArrayOutputStream reports = new ByteArrayOutputStream(orders.size() * 256);
+		batches.set(reports);
+		try {
+			for (ListOrder order : orders) {
+				matchOrder(order.instrument, order.isBuy, brokerID, order.clOrdID, order.orderId, order.quantity, order.price, receivedAt, false);
+			}
+		} finally {
+			batches.remove();
+		}
+		// Reports only go out once the fills of the whole pass are stored when durability is SYNC
+		if (database != null)
+			database.sync();
+		try {
+			send(reports.toByteArray());
+		} catch (IOException e) {
+			log.error("Error sending execution reports: {}", e.getMessage());
 		}
 	}
 
-	public void processBuyOrder(int brokerID, String instrumentID, int quantity, double price) {
-		Instrument instrument = instruments.stream().filter(i -> i.getSymbol().equals(instrumentID)).findFirst().orElse(null);
-		if (instrument == null) {
-			System.out.println("Instrument not found: " + instrumentID);
-			sendRejection(true, brokerID, instrumentID, quantity, price, "Instrument not found");
+	// Snapshot (0) or snapshot and updates (1); unsubscribing (2) is left to the router, which fans the updates out
+	public void processMarketDataRequest(int brokerID, String mdReqID, String instrumentID, char type) {
+		int instrument = instrumentID == null ? -1 : instruments.indexOf(instrumentID);
+		if (instrument == -1) {
+			log.info("Market data requested for unknown instrument: {}", instrumentID);
+			sendMarketDataRejection(brokerID, mdReqID, instrumentID, "Unknown symbol");
 			return;
 		}
-		if (instrument.getAvailableQuantity() < quantity) {
-			System.out.println("Insufficient quantity for instrument: " + instrumentID);
-			sendRejection(true, brokerID, instrumentID, quantity, price, "Insufficient quantity");
+		if (type == '2')
 			return;
+		boolean subscribe = type == '1';
+		if (shards == null)
+			sendSnapshot(instrument, brokerID, mdReqID, subscribe);
+		else
+			shards[instrument % shards.length].execute(() -> sendSnapshot(instrument, brokerID, mdReqID, subscribe));
+	}
+
+	// Matches the order in its instrument's book; what is not filled rests as a limit order at its price.
+	// A ClOrdID the broker already used is answered with the earlier order's report instead. Replayed orders
+	// go through the same steps, so the books and the duplicate filters come out the same, but report nothing.
+	private void matchOrder(int instrument, boolean isBuy, int brokerID, String clOrdID, long orderId, int quantity, long limit, long receivedAt, boolean replaying) {
+		// A resent order names the same instrument, so the filter of the thread owning it has seen the original
+		DuplicateFilter.Window window = clOrdID == null ? null : filters[instrument % filters.length].window(brokerID, replaying ? System.nanoTime() : receivedAt);
+		if (window != null) {
+			int earlier = window.find(clOrdID);
+			if (earlier != DuplicateFilter.NOT_FOUND || window.isBelowHighWater(clOrdID)) {
+				duplicateOrders.increment();
+				if (!replaying) {
+					log.info("Duplicate order from broker {}: {}", brokerID, clOrdID);
+					if (earlier != DuplicateFilter.NOT_FOUND)
+						sendDuplicateReport(window, earlier);
+					else
+						sendRejection(isBuy, brokerID, clOrdID, instruments.getSymbol(instrument), quantity, limit, "Duplicate ClOrdID");
+				}
+				return;
+			}
 		}
-		if (instrument.getPrice() > price) {
-			System.out.println("Invalid price for instrument: " + instrumentID);
-			sendRejection(true, brokerID, instrumentID, quantity, price, "Invalid price");
+		OrderBook book = getBook(instrument);
+		int order = book.submit(isBuy, brokerID, clOrdID, orderId, quantity, limit, replaying ? REPLAY : this);
+		if (window != null)
+			window.add(clOrdID, orderId, instrument, isBuy, quantity, limit, order);
+		if (replaying)
 			return;
+		if (order != -1 && book.getCumQty(order) == 0) {
+			log.info("Order resting for instrument: {}, quantity: {}, price: {}", book.getSymbol(), quantity, Price.toString(limit));
+			sendExecutionReport(book, order, 0, 0);
+		}
+		publishMarketData(instrument, book);
+		matchLatency.record(System.nanoTime() - receivedAt);
+	}
+
+	@Override
+	public void onFill(OrderBook book, int aggressor, int resting, int quantity, long price) {
+		int buyOrder = book.isBuy(aggressor) ? aggressor : resting;
+		int sellOrder = book.isBuy(aggressor) ? resting : aggressor;
+		boolean reportBuy = book.getOwner(buyOrder) != HOUSE;
+		boolean reportSell = book.getOwner(sellOrder) != HOUSE;
+		log.info("Trade for instrument: {}, quantity: {}, price: {}", book.getSymbol(), quantity, Price.toString(price));
+
+		if (database != null) {
+			if (reportBuy)
+				database.insertBuyTransaction(book.getOwner(buyOrder), marketID, book.getSymbol(), quantity, price);
+			if (reportSell)
+				database.insertSellTransaction(book.getOwner(sellOrder), marketID, book.getSymbol(), quantity, price);
+			// Reports only go out once the fill is stored when durability is SYNC; an order list syncs once at its end
+			if (batches.get() == null)
+				database.sync();
+		}
+		if (reportBuy) {
+			executedBuys.increment();
+			sendExecutionReport(book, buyOrder, quantity, price);
+		}
+		if (reportSell) {
+			executedSells.increment();
+			sendExecutionReport(book, sellOrder, quantity, price);
+		}
+	}
+
+	// The instrument's quantity and price from the universe file seed its book with house quotes: an ask at that price,
+	// which a broker's buy at or above it takes at once, and a bid of the same size on the tick below, which a broker's
+	// sell at or under it takes at once, as the market filled every sell before it kept a book. Orders between the two
+	// rest until another broker trades with them.
+	OrderBook getBook(int instrument) {
+		OrderBook book = books[instrument];
+		if (book == null) {
+			book = new OrderBook(instruments.getSymbol(instrument));
+			int quantity = instruments.getQuantity(instrument);
+			long price = instruments.getPrice(instrument);
+			long bid = (price - 1) / config.getTickSize() * config.getTickSize();
+			if (quantity > 0 && price > 0)
+				book.submit(false, HOUSE, null, 0, quantity, price, this);
+			if (quantity > 0 && bid > 0)
+				book.submit(true, HOUSE, null, 0, quantity, bid, this);
+			books[instrument] = book;
+		}
+		return book;
+	}
+
+	// Writes every book once the matching threads have caught up, then starts the journal over
+	private void snapshot() {
+		long start = System.nanoTime();
+		if (shards != null) {
+			CountDownLatch idle = new CountDownLatch(shards.length);
+			for (SingleThreadExecutor shard : shards) {
+				shard.execute(idle::countDown);
+			}
+			try {
+				idle.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while waiting for the matching threads");
+				return;
+			}
+		}
+		long generation = journal.getGeneration() + 1;
+		try {
+			MarketSnapshot.write(Paths.get(config.getStateDirectory(), SNAPSHOT_FILE), generation, nextOrderId, books, filters);
+			journal.reset(generation);
+			log.info("Snapshot {} written in {} ms", generation, (System.nanoTime() - start) / 1_000_000);
+		} catch (IOException e) {
+			log.error("Error writing snapshot: {}", e.getMessage());
+		}
+		snapshotLatency.record(System.nanoTime() - start);
+	}
+
+	// Full top of book of the instrument, sent to the one broker that asked for it
+	private void sendSnapshot(int instrument, int brokerID, String mdReqID, boolean subscribe) {
+		OrderBook book = getBook(instrument);
+		if (subscribe) {
+			if (quotes[instrument] == null)
+				quotes[instrument] = new Quote();
+			quotes[instrument].update(book);
+		}
+		try {
+			FixEncoder encoder = encoders.get().begin("W") // MsgType = MarketDataSnapshotFullRefresh
+				.tag(49, marketID) // SenderCompID
+				.tag(56, brokerID); // TargetCompID
+			if (mdReqID != null)
+				encoder.tag(262, mdReqID); // MDReqID
+			encoder.tag(55, book.getSymbol()) // Symbol
+				.tag(268, (book.getBestBid() > 0 ? 1 : 0) + (book.getBestAsk() > 0 ? 1 : 0) + (book.getTradeCount() > 0 ? 1 : 0)); // NoMDEntries
+			if (book.getBestBid() > 0)
+				encoder.tag(269, '0').price(270, book.getBestBid()).tag(271, book.getBestBidSize()); // Bid
+			if (book.getBestAsk() > 0)
+				encoder.tag(269, '1').price(270, book.getBestAsk()).tag(271, book.getBestAskSize()); // Offer
+			if (book.getTradeCount() > 0)
+				encoder.tag(269, '2').price(270, book.getLastPrice()).tag(271, book.getLastQuantity()); // Trade
+			send(encoder.finish());
+		} catch (IOException e) {
+			log.error("Error sending market data snapshot: {}", e.getMessage());
 		}
-		instrument.setAvailableQuantity(instrument.getAvailableQuantity() - quantity);
-		instrument.setPrice(price);
-		System.out.println("Buy order executed for instrument: " + instrumentID + ", quantity: " + quantity + ", price: " + price);
-		System.out.println("Instrument: " + instrument.getSymbol() + ", Quantity: " + instrument.getAvailableQuantity() + ", Price: " + instrument.getPrice());
-		System.out.println("Stored buy transaction in database.");
-		DatabaseHandler.insertBuyTransaction(brokerID, marketID, instrument.getSymbol(), quantity, price);
-		sendExecutionConfirmation(true, brokerID, instrumentID, quantity, price);
 	}
 
-	public void processSellOrder(int brokerID, String instrumentID, int quantity, double price) {
-		Instrument instrument = instruments.stream().filter(i -> i.getSymbol().equals(instrumentID)).findFirst().orElse(null);
-		if (instrument == null) {
-			System.out.println("Instrument not found: " + instrumentID);
-			sendRejection(false, brokerID, instrumentID, quantity, price, "Instrument not found");
+	// Publishes the instrument's top of book when an order changed it. The update carries the whole top of
+	// book rather than the change alone, so the router may deliver only the latest one to a slow subscriber.
+	private void publishMarketData(int instrument, OrderBook book) {
+		Quote quote = quotes[instrument];
+		if (quote == null || !quote.update(book))
 			return;
+		marketDataUpdates.increment();
+		try {
+			FixEncoder encoder = encoders.get().begin("X") // MsgType = MarketDataIncrementalRefresh
+				.tag(49, marketID) // SenderCompID
+				.tag(56, 0) // TargetCompID = Router, which fans the update out to the subscribers
+				.tag(268, book.getTradeCount() > 0 ? 3 : 2); // NoMDEntries
+			entry(encoder, book.getSymbol(), '0', book.getBestBid(), book.getBestBidSize()); // Bid
+			entry(encoder, book.getSymbol(), '1', book.getBestAsk(), book.getBestAskSize()); // Offer
+			if (book.getTradeCount() > 0)
+				entry(encoder, book.getSymbol(), '2', book.getLastPrice(), book.getLastQuantity()); // Trade
+			send(encoder.finish());
+		} catch (IOException e) {
+			log.error("Error sending market data update: {}", e.getMessage());
+		}
+	}
+
+	private static void entry(FixEncoder encoder, String symbol, char type, long price, long size) {
+		encoder.tag(279, price > 0 ? '1' : '2') // MDUpdateAction (1 = Change, 2 = Delete)
+			.tag(269, type) // MDEntryType
+			.tag(55, symbol); // Symbol
+		if (price > 0) {
+			encoder.price(270, price) // MDEntryPx
+				.tag(271, size); // MDEntrySize
 		}
-		instrument.setAvailableQuantity(instrument.getAvailableQuantity() + quantity);
-		instrument.setPrice(price);
-		System.out.println("Sell order executed for instrument: " + instrumentID + ", quantity: " + quantity + ", price: " + price);
-		System.out.println("Instrument: " + instrument.getSymbol() + ", Quantity: " + instrument.getAvailableQuantity() + ", Price: " + instrument.getPrice());
-		DatabaseHandler.insertSellTransaction(brokerID, marketID, instrument.getSymbol(), quantity, price);
-		sendExecutionConfirmation(false, brokerID, instrumentID, quantity, price);
 	}
 
-	public void sendExecutionConfirmation(boolean isBuy, int brokerID, String instrumentID, int quantity, double price) {
+	// Names the symbol asked for, if any, so the router drops the request it recorded
+	public void sendMarketDataRejection(int brokerID, String mdReqID, String instrumentID, String reason) {
 		try {
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			String body = "35=8\u0001" + // MsgType = ExecutionReport
-						  "49=" + marketID + "\u0001" + // SenderCompID
-						  "56=" + brokerID + "\u0001" + // TargetCompID
-						  "55=" + instrumentID + "\u0001" + // Symbol
-						  "54=" + (isBuy ? "1" : "2") + "\u0001" + // Side
-						  "38=" + quantity + "\u0001" + // OrderQty
-						  "44=" + price + "\u0001" + // Price
-						  "39=2\u0001" + // OrdStatus (2 = Filled)
-						  "150=2\u0001" + // ExecType = Trade
-						  "151=0\u0001"; // LeavesQty = 0
-
-			String fixMessage = "8=FIX.4.4\u0001" + // BeginString
-								"9=" + body.length() + "\u0001" + // BodyLength
-								body;
-
-			int checksum = 0;
-			for (char ch : fixMessage.toCharArray())
-				checksum += ch;
-			checksum %= 256;
-			String checkSumStr = String.format("%03d", checksum);
-			fixMessage += "10=" + checkSumStr + "\u0001";
-
-			out.println(fixMessage);
+			FixEncoder encoder = encoders.get().begin("Y") // MsgType = MarketDataRequestReject
+				.tag(49, marketID) // SenderCompID
+				.tag(56, brokerID); // TargetCompID
+			if (mdReqID != null)
+				encoder.tag(262, mdReqID); // MDReqID
+			if (instrumentID != null)
+				encoder.tag(55, instrumentID); // Symbol
+			encoder.tag(281, '0') // MDReqRejReason = Unknown symbol
+				.tag(58, reason); // Text
+			send(encoder.finish());
 		} catch (IOException e) {
-			System.out.println("Error sending execution confirmation: " + e.getMessage());
+			log.error("Error sending market data rejection: {}", e.getMessage());
 		}
 	}
 
-	public void sendRejection(boolean isBuy, int brokerID, String instrumentID, int quantity, double price, String reason) {
+	// The order's current state: still resting in its book, otherwise it was completely filled
+	private void sendDuplicateReport(DuplicateFilter.Window window, int entry) {
+		OrderBook book = getBook(window.getInstrument(entry));
+		int slot = window.getSlot(entry);
+		if (slot != -1 && book.getOrderId(slot) == window.getOrderId(entry) && book.getLeavesQty(slot) > 0) {
+			sendExecutionReport(book.getOwner(slot), book.getClOrdId(slot), book.getOrderId(slot), book.getSymbol(), book.isBuy(slot),
+					book.getQuantity(slot), book.getPrice(slot), book.getCumQty(slot), book.getLeavesQty(slot), 0, 0, ORDER_STATUS);
+			return;
+		}
+		sendExecutionReport(window.getBrokerID(), window.getClOrdId(entry), window.getOrderId(entry), book.getSymbol(), window.isBuy(entry),
+				window.getQuantity(entry), window.getPrice(entry), window.getQuantity(entry), 0, 0, 0, ORDER_STATUS);
+	}
+
+	// New when nothing is filled yet, otherwise the fill of lastQty at lastPx and the order's totals after it
+	public void sendExecutionReport(OrderBook book, int order, int lastQty, long lastPx) {
+		sendExecutionReport(book.getOwner(order), book.getClOrdId(order), book.getOrderId(order), book.getSymbol(), book.isBuy(order),
+				book.getQuantity(order), book.getPrice(order), book.getCumQty(order), book.getLeavesQty(order), lastQty, lastPx, NEW_STATUS);
+	}
+
+	// A FIXED binary frame has ExecType equal to OrdStatus; an ORDER_STATUS report goes in the TEXT template
+	private void sendExecutionReport(int owner, String clOrdID, long orderId, String symbol, boolean isBuy, int quantity, long price,
+			int cumQty, int leavesQty, int lastQty, long lastPx, char execType) {
+		char status = leavesQty == 0 ? '2' : cumQty > 0 ? '1' : '0';
+		try {
+			if (binary && execType == NEW_STATUS && BinaryEncoder.fits(clOrdID, symbol)) {
+				BinaryEncoder frame = frames.get().begin('8', marketID, owner); // ExecutionReport
+				if (clOrdID != null)
+					frame.clOrdID(clOrdID);
+				send(frame.orderID(orderId)
+					.symbol(symbol)
+					.side(isBuy ? '1' : '2')
+					.orderQty(quantity)
+					.price(price)
+					.ordStatus(status)
+					.cumQty(cumQty)
+					.leavesQty(leavesQty)
+					.lastQty(lastQty)
+					.lastPx(lastPx)
+					.finish());
+				return;
+			}
+			FixEncoder encoder = encoders.get().begin("8") // MsgType = ExecutionReport
+				.tag(49, marketID) // SenderCompID
+				.tag(56, owner); // TargetCompID
+			if (clOrdID != null)
+				encoder.tag(11, clOrdID); // ClOrdID
+			encoder.tag(37, orderId) // OrderID
+				.tag(55, symbol) // Symbol
+				.tag(54, isBuy ? '1' : '2') // Side
+				.tag(38, quantity) // OrderQty
+				.price(44, price) // Price
+				.tag(39, status) // OrdStatus (0 = New, 1 = Partially filled, 2 = Filled)
+				.tag(150, execType == NEW_STATUS ? status : execType) // ExecType (I = Order status)
+				.tag(14, cumQty) // CumQty
+				.tag(151, leavesQty); // LeavesQty
+			if (lastQty > 0) {
+				encoder.tag(32, lastQty) // LastQty
+					.price(31, lastPx); // LastPx
+			}
+			send(encoder.finish());
+		} catch (IOException e) {
+			log.error("Error sending execution report: {}", e.getMessage());
+		}
+	}
+
+	public void sendRejection(boolean isBuy, int brokerID, String clOrdID, String instrumentID, int quantity, long price, String reason) {
+		rejectedOrders.increment();
 		try {
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			String body = "35=8\u0001" + // MsgType = ExecutionReport
-						  "49=" + marketID + "\u0001" + // SenderCompID
-						  "56=" + brokerID + "\u0001" + // TargetCompID
-						  "55=" + instrumentID + "\u0001" + // Symbol
-						  "54=" + (isBuy ? "1" : "2") + "\u0001" + // Side
-						  "38=" + quantity + "\u0001" + // OrderQty
-						  "44=" + price + "\u0001" + // Price
-						  "39=8\u0001" + // OrdStatus (8 = Rejected)
-						  "150=8\u0001" + // ExecType = Rejected
-						  "151=" + quantity + "\u0001" + // LeavesQty = OrderQty
-						  "58=" + reason + "\u0001"; // Text = Reason for rejection
-
-			String fixMessage = "8=FIX.4.4\u0001" + // BeginString
-								"9=" + body.length() + "\u0001" + // BodyLength
-								body;
-
-			int checksum = 0;
-			for (char ch : fixMessage.toCharArray())
-				checksum += ch;
-			checksum %= 256;
-			String checkSumStr = String.format("%03d", checksum);
-			fixMessage += "10=" + checkSumStr + "\u0001";
-
-			out.println(fixMessage);
+			if (binary && BinaryEncoder.fits(clOrdID, instrumentID)) {
+				BinaryEncoder frame = frames.get().begin('8', marketID, brokerID); // ExecutionReport
+				if (clOrdID != null)
+					frame.clOrdID(clOrdID);
+				if (instrumentID != null)
+					frame.symbol(instrumentID);
+				send(frame.side(isBuy ? '1' : '2')
+					.orderQty(quantity)
+					.price(price)
+					.ordStatus('8') // Rejected
+					.text(reason)
+					.finish());
+				return;
+			}
+			FixEncoder encoder = encoders.get().begin("8") // MsgType = ExecutionReport
+				.tag(49, marketID) // SenderCompID
+				.tag(56, brokerID); // TargetCompID
+			if (clOrdID != null)
+				encoder.tag(11, clOrdID); // ClOrdID
+			if (instrumentID != null)
+				encoder.tag(55, instrumentID); // Symbol
+			encoder.tag(54, isBuy ? '1' : '2') // Side
+				.tag(38, quantity) // OrderQty
+				.price(44, price) // Price
+				.tag(39, '8') // OrdStatus (8 = Rejected)
+				.tag(150, '8') // ExecType = Rejected
+				.tag(14, 0) // CumQty
+				.tag(151, 0) // LeavesQty
+				.tag(58, reason); // Text = Reason for rejection
+			send(encoder.finish());
 		} catch (IOException e) {
-			System.out.println("Error sending rejection: " + e.getMessage());
+			log.error("Error sending rejection: {}", e.getMessage());
+		}
+	}
+
+	// Sends a finished text message, framed if the connection is binary
+	private void send(FixEncoder encoder) throws IOException {
+		if (binary)
+			send(frames.get().fromText(encoder));
+		else
+			send(encoder.buffer(), encoder.offset(), encoder.length() + 1);
+	}
+
+	private void send(BinaryEncoder frame) throws IOException {
+		send(frame.buffer(), 0, frame.length());
+	}
+
+	// Writes straight to the socket, or hands a copy to the writer when matching runs on several threads.
+	// While an order list is executed, the message is kept with the list's other reports instead.
+	private void send(byte[] buffer, int offset, int length) throws IOException {
+		ByteArrayOutputStream batch = batches.get();
+		if (batch != null) {
+			batch.write(buffer, offset, length);
+			return;
+		}
+		if (writer == null) {
+			socket.getOutputStream().write(buffer, offset, length);
+			return;
+		}
+		send(Arrays.copyOfRange(buffer, offset, offset + length));
+	}
+
+	// Writes framed messages in one call
+	private void send(byte[] messages) throws IOException {
+		if (writer == null) {
+			socket.getOutputStream().write(messages);
+			return;
+		}
+		writer.execute(() -> {
+			try {
+				out.write(messages);
+			} catch (IOException e) {
+				log.error("Error sending message: {}", e.getMessage());
+			}
+		});
+	}
+
+	private void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			log.error("Error flushing messages: {}", e.getMessage());
+		}
+	}
+
+	// One order of a NewOrderList
+	public static final class ListOrder {
+		final String clOrdID;
+		String symbol;
+		boolean isBuy;
+		int quantity;
+		long price;
+		// A field could not be read
+		boolean malformed;
+		// Set once the order is accepted
+		int instrument;
+		long orderId;
+
+		ListOrder(String clOrdID) {
+			this.clOrdID = clOrdID;
+		}
+	}
+
+	// Top of book last published for an instrument, only touched by the thread matching it
+	private static final class Quote {
+		private long bid;
+		private long bidSize;
+		private long ask;
+		private long askSize;
+		private long trades;
+
+		// Records the book's top of book and returns whether it differs from the one recorded before
+		boolean update(OrderBook book) {
+			if (book.getBestBid() == bid && book.getBestBidSize() == bidSize && book.getBestAsk() == ask
+					&& book.getBestAskSize() == askSize && book.getTradeCount() == trades)
+				return false;
+			bid = book.getBestBid();
+			bidSize = book.getBestBidSize();
+			ask = book.getBestAsk();
+			askSize = book.getBestAskSize();
+			trades = book.getTradeCount();
+			return true;
 		}
 	}
 }
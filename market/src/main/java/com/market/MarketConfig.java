@@ -0,0 +1,250 @@
+package com.market;
+
+import com.common.Price;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+public class MarketConfig {
+	// ASYNC acknowledges fills before they are stored; SYNC waits until the fill's batch is committed
+	public enum Durability { ASYNC, SYNC }
+
+	private static final String STATE_ROOT = "market-state";
+
+	private int matchingThreads = 0;
+	private String databaseUrl = "jdbc:postgresql://localhost:5003/fix-me";
+	private String databaseUser = "admin";
+	private String databasePassword = "admin";
+	private int databaseQueueCapacity = 65536;
+	private int databaseBatchSize = 256;
+	private long databaseFlushMillis = 10;
+	private Durability durability = Durability.ASYNC;
+	// Unless set, market-state/<key> once the market's key is known, see setStateKey
+	private String stateDirectory;
+	private int journalBytes = 64 << 20;
+	private int snapshotEvents = 100000;
+	private int duplicateWindow = 1024;
+	private boolean duplicateHighWater = false;
+	// Longer than the router keeps journaled messages by default, so a replayed order still finds its window
+	private long duplicateIdleSeconds = 7200;
+	private long tickSize = Price.UNIT;
+	private WireEncoding encoding = WireEncoding.TEXT;
+	private InetSocketAddress router = RouterAddress.parse("localhost:5001");
+
+	public static MarketConfig fromSystemProperties() {
+		MarketConfig config = new MarketConfig();
+		config.matchingThreads = Integer.getInteger("market.matchingThreads", config.matchingThreads);
+		config.databaseUrl = System.getProperty("market.db.url", config.databaseUrl);
+		config.databaseUser = System.getProperty("market.db.user", config.databaseUser);
+		config.databasePassword = System.getProperty("market.db.password", config.databasePassword);
+		config.databaseQueueCapacity = Integer.getInteger("market.db.queueCapacity", config.databaseQueueCapacity);
+		config.databaseBatchSize = Integer.getInteger("market.db.batchSize", config.databaseBatchSize);
+		config.databaseFlushMillis = Long.getLong("market.db.flushMillis", config.databaseFlushMillis);
+		config.durability = Durability.valueOf(System.getProperty("market.db.durability", config.durability.name()).toUpperCase());
+		config.stateDirectory = System.getProperty("market.stateDir", config.stateDirectory);
+		config.journalBytes = Integer.getInteger("market.journalBytes", config.journalBytes);
+		config.snapshotEvents = Integer.getInteger("market.snapshotEvents", config.snapshotEvents);
+		config.duplicateWindow = Integer.getInteger("market.duplicateWindow", config.duplicateWindow);
+		config.duplicateHighWater = Boolean.parseBoolean(System.getProperty("market.duplicateHighWater", String.valueOf(config.duplicateHighWater)));
+		config.duplicateIdleSeconds = Long.getLong("market.duplicateIdleSeconds", config.duplicateIdleSeconds);
+		String tickSize = System.getProperty("market.tickSize");
+		if (tickSize != null)
+			config.tickSize = Price.parse(tickSize);
+		config.encoding = WireEncoding.valueOf(System.getProperty("market.encoding", config.encoding.name()).toUpperCase());
+		String router = System.getProperty("market.router");
+		if (router != null)
+			config.router = RouterAddress.parse(router);
+		if (config.matchingThreads < 0)
+			throw new IllegalArgumentException("market.matchingThreads must not be negative");
+		if (config.databaseQueueCapacity < 1)
+			throw new IllegalArgumentException("market.db.queueCapacity must be at least 1");
+		if (config.databaseBatchSize < 1)
+			throw new IllegalArgumentException("market.db.batchSize must be at least 1");
+		if (config.journalBytes < 64 * 1024)
+			throw new IllegalArgumentException("market.journalBytes must be at least 64KB");
+		if (config.snapshotEvents < 1)
+			throw new IllegalArgumentException("market.snapshotEvents must be at least 1");
+		if (config.duplicateWindow < 1)
+			throw new IllegalArgumentException("market.duplicateWindow must be at least 1");
+		if (config.duplicateIdleSeconds < 1)
+			throw new IllegalArgumentException("market.duplicateIdleSeconds must be at least 1");
+		if (config.tickSize < 1)
+			throw new IllegalArgumentException("market.tickSize must be a positive decimal, e.g. 0.01");
+		return config;
+	}
+
+	// 0 matches on the socket thread, otherwise orders are sharded by instrument over that many threads
+	public int getMatchingThreads() {
+		return matchingThreads;
+	}
+
+	// Empty to run without persisting fills
+	public String getDatabaseUrl() {
+		return databaseUrl;
+	}
+
+	public String getDatabaseUser() {
+		return databaseUser;
+	}
+
+	public String getDatabasePassword() {
+		return databasePassword;
+	}
+
+	// Fills waiting to be written; matching blocks once it is full
+	public int getDatabaseQueueCapacity() {
+		return databaseQueueCapacity;
+	}
+
+	public int getDatabaseBatchSize() {
+		return databaseBatchSize;
+	}
+
+	// How long the first queued fill may wait for others before its batch is written; not used with SYNC durability
+	public long getDatabaseFlushMillis() {
+		return databaseFlushMillis;
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+
+	// Holds the snapshot and the journal; empty to keep the books in memory only
+	public String getStateDirectory() {
+		return stateDirectory != null ? stateDirectory : STATE_ROOT;
+	}
+
+	public int getJournalBytes() {
+		return journalBytes;
+	}
+
+	// Orders journaled before the books are snapshotted and the journal starts over
+	public int getSnapshotEvents() {
+		return snapshotEvents;
+	}
+
+	// Recent ClOrdIDs remembered per broker and matching thread to answer duplicates with their order's report
+	public int getDuplicateWindow() {
+		return duplicateWindow;
+	}
+
+	// True when every broker numbers its ClOrdIDs in increasing order, so one at or below the highest that
+	// left the window is a duplicate too; otherwise only the window is checked
+	public boolean isDuplicateHighWater() {
+		return duplicateHighWater;
+	}
+
+	// A broker's window is dropped once it sent no order for this long
+	public long getDuplicateIdleSeconds() {
+		return duplicateIdleSeconds;
+	}
+
+	// Orders must be priced in multiples of it; defaults to the smallest Price increment
+	public long getTickSize() {
+		return tickSize;
+	}
+
+	// Encoding asked for in the handshake; the market stays on text if the router does not grant BINARY
+	public WireEncoding getEncoding() {
+		return encoding;
+	}
+
+	// Market port of the router node connected to first; a node of a cluster redirects the market to the node owning its ID
+	public InetSocketAddress getRouter() {
+		return router;
+	}
+
+	public MarketConfig setMatchingThreads(int matchingThreads) {
+		this.matchingThreads = matchingThreads;
+		return this;
+	}
+
+	public MarketConfig setDatabaseUrl(String databaseUrl) {
+		this.databaseUrl = databaseUrl;
+		return this;
+	}
+
+	public MarketConfig setDatabaseUser(String databaseUser) {
+		this.databaseUser = databaseUser;
+		return this;
+	}
+
+	public MarketConfig setDatabasePassword(String databasePassword) {
+		this.databasePassword = databasePassword;
+		return this;
+	}
+
+	public MarketConfig setDatabaseQueueCapacity(int databaseQueueCapacity) {
+		this.databaseQueueCapacity = databaseQueueCapacity;
+		return this;
+	}
+
+	public MarketConfig setDatabaseBatchSize(int databaseBatchSize) {
+		this.databaseBatchSize = databaseBatchSize;
+		return this;
+	}
+
+	public MarketConfig setDatabaseFlushMillis(long databaseFlushMillis) {
+		this.databaseFlushMillis = databaseFlushMillis;
+		return this;
+	}
+
+	public MarketConfig setDurability(Durability durability) {
+		this.durability = durability;
+		return this;
+	}
+
+	public MarketConfig setStateDirectory(String stateDirectory) {
+		this.stateDirectory = stateDirectory;
+		return this;
+	}
+
+	// Names the default state directory after the market ID or the instruments file, so markets started from the
+	// same working directory each keep their own state; a directory set explicitly is kept
+	public MarketConfig setStateKey(String key) {
+		if (stateDirectory == null)
+			stateDirectory = Paths.get(STATE_ROOT, key).toString();
+		return this;
+	}
+
+	public MarketConfig setJournalBytes(int journalBytes) {
+		this.journalBytes = journalBytes;
+		return this;
+	}
+
+	public MarketConfig setSnapshotEvents(int snapshotEvents) {
+		this.snapshotEvents = snapshotEvents;
+		return this;
+	}
+
+	public MarketConfig setDuplicateWindow(int duplicateWindow) {
+		this.duplicateWindow = duplicateWindow;
+		return this;
+	}
+
+	public MarketConfig setDuplicateHighWater(boolean duplicateHighWater) {
+		this.duplicateHighWater = duplicateHighWater;
+		return this;
+	}
+
+	public MarketConfig setDuplicateIdleSeconds(long duplicateIdleSeconds) {
+		this.duplicateIdleSeconds = duplicateIdleSeconds;
+		return this;
+	}
+
+	public MarketConfig setTickSize(long tickSize) {
+		this.tickSize = tickSize;
+		return this;
+	}
+
+	public MarketConfig setEncoding(WireEncoding encoding) {
+		this.encoding = encoding;
+		return this;
+	}
+
+	public MarketConfig setRouter(InetSocketAddress router) {
+		this.router = router;
+		return this;
+	}
+}
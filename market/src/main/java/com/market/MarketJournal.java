@@ -0,0 +1,159 @@
+package com.market;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Append-only journal of the orders accepted since the last snapshot, in the order they were matched.
+// Matching is deterministic, so replaying it over the snapshot rebuilds the books and their fills exactly.
+// The file is memory-mapped with a fixed capacity and only written by the socket thread. A record's
+// length is written after its body, so a record torn by a crash reads as the end of the journal.
+// Records reach the page cache as they are appended, which a crash of the market survives. The mapping is forced
+// to disk when the journal is opened and when it is reset at a snapshot, the checkpoint replay starts from.
+public class MarketJournal {
+	private static final int MAGIC = 0x464D4A31; // "FMJ1"
+	private static final int GENERATION_OFFSET = 8;
+	private static final int HEADER_SIZE = 16;
+	static final int MAX_STRING_LENGTH = 255;
+	// Largest record: length, order id, side, owner, quantity, price and two strings
+	static final int MAX_RECORD_SIZE = 4 + 8 + 1 + 4 + 4 + 8 + 2 * (2 + MAX_STRING_LENGTH);
+
+	public interface Replay {
+		void order(long orderId, boolean isBuy, int owner, int quantity, long price, String symbol, String clOrdID);
+	}
+
+	private final MappedByteBuffer buffer;
+	private long generation;
+	private int position;
+	private int count;
+
+	private MarketJournal(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	// Opens the journal, creating an empty one for the given generation if the file is new
+	public static MarketJournal open(Path file, int capacity, long generation) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			boolean created = channel.size() < HEADER_SIZE;
+			// The mapping stays valid after the channel is closed
+			MarketJournal journal = new MarketJournal(channel.map(FileChannel.MapMode.READ_WRITE, 0, created ? capacity : Math.max(channel.size(), capacity)));
+			if (created || journal.buffer.getInt(0) != MAGIC) {
+				journal.reset(generation);
+			} else {
+				journal.generation = journal.buffer.getLong(GENERATION_OFFSET);
+				journal.position = HEADER_SIZE;
+			}
+			journal.force();
+			return journal;
+		}
+	}
+
+	// Generation of the snapshot the journal continues from
+	public long getGeneration() {
+		return generation;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	// A symbol or ClOrdID longer than this cannot be journaled, and the order must be rejected
+	public static boolean fits(String value) {
+		return value == null || value.length() <= MAX_STRING_LENGTH;
+	}
+
+	public boolean hasRoomFor(int records) {
+		return position + (long) records * MAX_RECORD_SIZE + 4 <= buffer.capacity();
+	}
+
+	// Replays every complete record and positions the journal after the last one
+	public int replay(Replay replay) {
+		position = HEADER_SIZE;
+		count = 0;
+		while (position + 4 <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || position + 4 + length > buffer.capacity())
+				break;
+			int at = position + 4;
+			long orderId = buffer.getLong(at);
+			boolean isBuy = buffer.get(at + 8) == 1;
+			int owner = buffer.getInt(at + 9);
+			int quantity = buffer.getInt(at + 13);
+			long price = buffer.getLong(at + 17);
+			at += 25;
+			String symbol = readString(at);
+			at += 2 + Math.max(0, buffer.getShort(at));
+			String clOrdID = readString(at);
+			replay.order(orderId, isBuy, owner, quantity, price, symbol, clOrdID);
+			position += 4 + length;
+			count++;
+		}
+		// Clear a torn record so appends start from a clean slot
+		if (position + 4 <= buffer.capacity())
+			buffer.putInt(position, 0);
+		return count;
+	}
+
+	public void append(long orderId, boolean isBuy, int owner, int quantity, long price, String symbol, String clOrdID) {
+		if (!fits(symbol) || !fits(clOrdID))
+			throw new IllegalArgumentException("Symbol or ClOrdID longer than " + MAX_STRING_LENGTH + " characters");
+		int at = position + 4;
+		buffer.putLong(at, orderId);
+		buffer.put(at + 8, (byte) (isBuy ? 1 : 0));
+		buffer.putInt(at + 9, owner);
+		buffer.putInt(at + 13, quantity);
+		buffer.putLong(at + 17, price);
+		at += 25;
+		at = writeString(at, symbol);
+		at = writeString(at, clOrdID);
+		// The next slot is cleared before the length publishes this record
+		if (at + 4 <= buffer.capacity())
+			buffer.putInt(at, 0);
+		buffer.putInt(position, at - position - 4);
+		position = at;
+		count++;
+	}
+
+	// Empties the journal once a snapshot of the given generation holds everything it contained
+	public void reset(long newGeneration) {
+		buffer.putInt(HEADER_SIZE, 0);
+		buffer.putLong(GENERATION_OFFSET, newGeneration);
+		buffer.putInt(0, MAGIC);
+		generation = newGeneration;
+		position = HEADER_SIZE;
+		count = 0;
+		force();
+	}
+
+	// Writes the mapping to disk, so it also survives a crash of the machine
+	private void force() {
+		buffer.force();
+	}
+
+	private String readString(int at) {
+		short length = buffer.getShort(at);
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(at + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	private int writeString(int at, String value) {
+		if (value == null) {
+			buffer.putShort(at, (short) -1);
+			return at + 2;
+		}
+		int length = value.length();
+		buffer.putShort(at, (short) length);
+		for (int i = 0; i < length; i++) {
+			buffer.put(at + 2 + i, (byte) value.charAt(i));
+		}
+		return at + 2 + length;
+	}
+}
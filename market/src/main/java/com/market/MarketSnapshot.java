@@ -0,0 +1,204 @@
+package com.market;
+
+import com.common.Logger;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+// Compact binary image of every order book: the resting orders of each book, oldest first within a
+// price level, the next order id, and the recent orders of each broker used to detect duplicates. It is written to a temporary file, synced and renamed over the
+// previous snapshot, so a crash leaves either the old or the new snapshot in place.
+public class MarketSnapshot {
+	private static final Logger log = Logger.get("market");
+	private static final int MAGIC = 0x464D5332; // "FMS2"
+
+	private final long generation;
+	private final long nextOrderId;
+
+	private MarketSnapshot(long generation, long nextOrderId) {
+		this.generation = generation;
+		this.nextOrderId = nextOrderId;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getNextOrderId() {
+		return nextOrderId;
+	}
+
+	public static void write(Path file, long generation, long nextOrderId, OrderBook[] books, DuplicateFilter[] filters) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temporary.toFile())) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 20));
+			int bookCount = 0;
+			for (OrderBook book : books) {
+				if (book != null)
+					bookCount++;
+			}
+			out.writeInt(MAGIC);
+			out.writeLong(generation);
+			out.writeLong(nextOrderId);
+			out.writeInt(bookCount);
+			try {
+				for (OrderBook book : books) {
+					if (book == null)
+						continue;
+					writeString(out, book.getSymbol());
+					out.writeInt(book.getOrderCount());
+					book.forEachOrder((b, order) -> {
+						try {
+							out.writeBoolean(b.isBuy(order));
+							out.writeInt(b.getOwner(order));
+							writeString(out, b.getClOrdId(order));
+							out.writeLong(b.getOrderId(order));
+							out.writeInt(b.getQuantity(order));
+							out.writeInt(b.getLeavesQty(order));
+							out.writeLong(b.getPrice(order));
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				}
+				int[] windowCount = new int[1];
+				for (DuplicateFilter filter : filters)
+					filter.forEachWindow(window -> windowCount[0]++);
+				out.writeInt(windowCount[0]);
+				for (DuplicateFilter filter : filters)
+					filter.forEachWindow(window -> writeWindow(out, books, window));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			// Trailer, so a truncated file is not mistaken for a snapshot
+			out.writeInt(MAGIC);
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// Broker ID, high-water mark, then the window's orders from the oldest
+	private static void writeWindow(DataOutputStream out, OrderBook[] books, DuplicateFilter.Window window) {
+		try {
+			int[] entryCount = new int[1];
+			window.forEach((w, entry) -> entryCount[0]++);
+			out.writeInt(window.getBrokerID());
+			out.writeLong(window.getHighWater());
+			out.writeInt(entryCount[0]);
+			window.forEach((w, entry) -> {
+				try {
+					writeString(out, w.getClOrdId(entry));
+					out.writeLong(w.getOrderId(entry));
+					writeString(out, books[w.getInstrument(entry)].getSymbol());
+					out.writeBoolean(w.isBuy(entry));
+					out.writeInt(w.getQuantity(entry));
+					out.writeLong(w.getPrice(entry));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Restores the books found in the snapshot into books, indexed by instrument id, and the recent
+	// orders into the filter of the matching thread owning their instrument.
+	// Returns null when there is no snapshot yet.
+	public static MarketSnapshot load(Path file, InstrumentStore instruments, OrderBook[] books, DuplicateFilter[] filters) throws IOException {
+		if (!Files.exists(file))
+			return null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Invalid snapshot file: " + file);
+			long generation = buffer.getLong();
+			long nextOrderId = buffer.getLong();
+			int bookCount = buffer.getInt();
+			// Book slots of the restored orders, for the recent orders that are still resting
+			HashMap<Long, Integer> slots = new HashMap<>();
+			for (int i = 0; i < bookCount; i++) {
+				String symbol = readString(buffer);
+				int instrument = instruments.indexOf(symbol);
+				OrderBook book = instrument == -1 ? null : new OrderBook(symbol);
+				if (book == null)
+					log.warn("Dropping the book of {}, which is no longer listed", symbol);
+				else
+					books[instrument] = book;
+				int orderCount = buffer.getInt();
+				for (int j = 0; j < orderCount; j++) {
+					boolean isBuy = buffer.get() != 0;
+					int owner = buffer.getInt();
+					String clOrdID = readString(buffer);
+					long orderId = buffer.getLong();
+					int quantity = buffer.getInt();
+					int leaves = buffer.getInt();
+					long price = buffer.getLong();
+					if (book != null)
+						slots.put(orderId, book.restore(isBuy, owner, clOrdID, orderId, quantity, leaves, price));
+				}
+			}
+			int windowCount = buffer.getInt();
+			long now = System.nanoTime();
+			for (int i = 0; i < windowCount; i++) {
+				int brokerID = buffer.getInt();
+				long highWater = buffer.getLong();
+				// Which thread's window it was is not kept, so every thread gets the mark; a window without one
+				// is only restored where its orders go, so windows do not multiply from one snapshot to the next
+				if (highWater >= 0) {
+					for (DuplicateFilter filter : filters)
+						filter.window(brokerID, now).raiseHighWater(highWater);
+				}
+				int entryCount = buffer.getInt();
+				for (int j = 0; j < entryCount; j++) {
+					String clOrdID = readString(buffer);
+					long orderId = buffer.getLong();
+					int instrument = instruments.indexOf(readString(buffer));
+					boolean isBuy = buffer.get() != 0;
+					int quantity = buffer.getInt();
+					long price = buffer.getLong();
+					if (instrument == -1)
+						continue;
+					Integer slot = slots.get(orderId);
+					filters[instrument % filters.length].window(brokerID, now)
+						.add(clOrdID, orderId, instrument, isBuy, quantity, price, slot == null ? -1 : slot);
+				}
+			}
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Truncated snapshot file: " + file);
+			return new MarketSnapshot(generation, nextOrderId);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated snapshot file: " + file);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(-1);
+			return;
+		}
+		out.writeShort(value.length());
+		out.writeBytes(value);
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		short length = buffer.getShort();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
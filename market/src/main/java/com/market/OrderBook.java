@@ -0,0 +1,282 @@
+package com.market;
+
+import java.util.Arrays;
+
+// Limit order book of one symbol with price-time priority. Prices are fixed-point com.common.Price values.
+// Each side keeps its price levels in parallel primitive arrays sorted so that the best price is last:
+// matching consumes levels from the end and a level is found by binary search.
+// Orders live in a pool of primitive slots and are chained in arrival order within their level.
+// Not thread-safe: a book is only used by the thread processing its symbol.
+public class OrderBook {
+	public interface FillListener {
+		void onFill(OrderBook book, int aggressor, int resting, int quantity, long price);
+	}
+
+	public interface OrderVisitor {
+		void visit(OrderBook book, int order);
+	}
+
+	private final String symbol;
+	private final Side bids = new Side(true);
+	private final Side asks = new Side(false);
+
+	// Order slots
+	private boolean[] buy = new boolean[64];
+	private int[] owner = new int[64];
+	private String[] clOrdId = new String[64];
+	private long[] orderId = new long[64];
+	private long[] price = new long[64];
+	private int[] quantity = new int[64];
+	private int[] leaves = new int[64];
+	private int[] next = new int[64];
+	private int slots;
+	private int freeSlot = -1;
+	private int orderCount;
+	// Last trade, and how many trades the book has seen
+	private long lastPrice;
+	private int lastQuantity;
+	private long tradeCount;
+
+	public OrderBook(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	// Matches a limit order against the opposite side, then rests what is left.
+	// Returns the slot of the resting remainder, or -1 when the order was completely filled.
+	public int submit(boolean isBuy, int ownerId, String clientOrderId, long id, int orderQty, long limit, FillListener listener) {
+		int order = allocate(isBuy, ownerId, clientOrderId, id, orderQty, limit);
+		Side opposite = isBuy ? asks : bids;
+		while (leaves[order] > 0 && opposite.levels > 0) {
+			int level = opposite.levels - 1;
+			long levelPrice = opposite.prices[level];
+			if (isBuy ? levelPrice > limit : levelPrice < limit)
+				break;
+
+			int resting = opposite.heads[level];
+			int fill = Math.min(leaves[order], leaves[resting]);
+			leaves[order] -= fill;
+			leaves[resting] -= fill;
+			opposite.quantities[level] -= fill;
+			lastPrice = levelPrice;
+			lastQuantity = fill;
+			tradeCount++;
+			listener.onFill(this, order, resting, fill, levelPrice);
+
+			if (leaves[resting] == 0) {
+				opposite.heads[level] = next[resting];
+				release(resting);
+				if (opposite.heads[level] == -1)
+					opposite.levels--;
+			}
+		}
+
+		if (leaves[order] == 0) {
+			release(order);
+			return -1;
+		}
+		(isBuy ? bids : asks).add(order, limit, leaves[order], next);
+		return order;
+	}
+
+	// Puts back a resting order as it was, behind the orders already at its price, and returns its slot
+	public int restore(boolean isBuy, int ownerId, String clientOrderId, long id, int orderQty, int leavesQty, long limit) {
+		int order = allocate(isBuy, ownerId, clientOrderId, id, orderQty, limit);
+		leaves[order] = leavesQty;
+		(isBuy ? bids : asks).add(order, limit, leavesQty, next);
+		return order;
+	}
+
+	// Visits the resting orders, oldest first within each price level
+	public void forEachOrder(OrderVisitor visitor) {
+		bids.forEach(this, visitor, next);
+		asks.forEach(this, visitor, next);
+	}
+
+	public boolean isBuy(int order) {
+		return buy[order];
+	}
+
+	public int getOwner(int order) {
+		return owner[order];
+	}
+
+	public String getClOrdId(int order) {
+		return clOrdId[order];
+	}
+
+	public long getOrderId(int order) {
+		return orderId[order];
+	}
+
+	public long getPrice(int order) {
+		return price[order];
+	}
+
+	public int getQuantity(int order) {
+		return quantity[order];
+	}
+
+	public int getLeavesQty(int order) {
+		return leaves[order];
+	}
+
+	public int getCumQty(int order) {
+		return quantity[order] - leaves[order];
+	}
+
+	// Best resting price, 0 when the side is empty
+	public long getBestBid() {
+		return bids.levels > 0 ? bids.prices[bids.levels - 1] : 0;
+	}
+
+	public long getBestAsk() {
+		return asks.levels > 0 ? asks.prices[asks.levels - 1] : 0;
+	}
+
+	// Quantity resting at the best price, 0 when the side is empty
+	public long getBestBidSize() {
+		return bids.levels > 0 ? bids.quantities[bids.levels - 1] : 0;
+	}
+
+	public long getBestAskSize() {
+		return asks.levels > 0 ? asks.quantities[asks.levels - 1] : 0;
+	}
+
+	public long getLastPrice() {
+		return lastPrice;
+	}
+
+	public int getLastQuantity() {
+		return lastQuantity;
+	}
+
+	public long getTradeCount() {
+		return tradeCount;
+	}
+
+	public int getLevelCount(boolean isBuy) {
+		return (isBuy ? bids : asks).levels;
+	}
+
+	// Resting orders on both sides
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	private int allocate(boolean isBuy, int ownerId, String clientOrderId, long id, int orderQty, long limit) {
+		int order;
+		if (freeSlot != -1) {
+			order = freeSlot;
+			freeSlot = next[order];
+		} else {
+			if (slots == buy.length)
+				growSlots();
+			order = slots++;
+		}
+		buy[order] = isBuy;
+		owner[order] = ownerId;
+		clOrdId[order] = clientOrderId;
+		orderId[order] = id;
+		price[order] = limit;
+		quantity[order] = orderQty;
+		leaves[order] = orderQty;
+		next[order] = -1;
+		orderCount++;
+		return order;
+	}
+
+	private void release(int order) {
+		clOrdId[order] = null;
+		next[order] = freeSlot;
+		freeSlot = order;
+		orderCount--;
+	}
+
+	private void growSlots() {
+		int capacity = buy.length * 2;
+		buy = Arrays.copyOf(buy, capacity);
+		owner = Arrays.copyOf(owner, capacity);
+		clOrdId = Arrays.copyOf(clOrdId, capacity);
+		orderId = Arrays.copyOf(orderId, capacity);
+		price = Arrays.copyOf(price, capacity);
+		quantity = Arrays.copyOf(quantity, capacity);
+		leaves = Arrays.copyOf(leaves, capacity);
+		next = Arrays.copyOf(next, capacity);
+	}
+
+	// One side of the book: bids are sorted ascending and asks descending, so the best level is always last
+	private static final class Side {
+		private final boolean bid;
+		private long[] prices = new long[16];
+		private int[] heads = new int[16];
+		private int[] tails = new int[16];
+		private long[] quantities = new long[16];
+		private int levels;
+
+		Side(boolean bid) {
+			this.bid = bid;
+		}
+
+		void add(int order, long levelPrice, int orderQty, int[] next) {
+			int level = find(levelPrice);
+			if (level >= 0) {
+				next[tails[level]] = order;
+				tails[level] = order;
+				quantities[level] += orderQty;
+				return;
+			}
+			level = -level - 1;
+			if (levels == prices.length)
+				grow();
+			int moved = levels - level;
+			if (moved > 0) {
+				System.arraycopy(prices, level, prices, level + 1, moved);
+				System.arraycopy(heads, level, heads, level + 1, moved);
+				System.arraycopy(tails, level, tails, level + 1, moved);
+				System.arraycopy(quantities, level, quantities, level + 1, moved);
+			}
+			prices[level] = levelPrice;
+			heads[level] = order;
+			tails[level] = order;
+			quantities[level] = orderQty;
+			levels++;
+		}
+
+		void forEach(OrderBook book, OrderVisitor visitor, int[] next) {
+			for (int level = 0; level < levels; level++) {
+				for (int order = heads[level]; order != -1; order = next[order]) {
+					visitor.visit(book, order);
+				}
+			}
+		}
+
+		// Index of the level, or -(insertion point) - 1 when there is none at that price
+		private int find(long levelPrice) {
+			int low = 0;
+			int high = levels - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = bid ? Long.compare(prices[mid], levelPrice) : Long.compare(levelPrice, prices[mid]);
+				if (cmp < 0)
+					low = mid + 1;
+				else if (cmp > 0)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+
+		private void grow() {
+			int capacity = prices.length * 2;
+			prices = Arrays.copyOf(prices, capacity);
+			heads = Arrays.copyOf(heads, capacity);
+			tails = Arrays.copyOf(tails, capacity);
+			quantities = Arrays.copyOf(quantities, capacity);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.market;
+
+import com.common.Logger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs tasks in submission order on one dedicated thread. Producers never lock: tasks go through a
+// lock-free queue and the thread is only unparked when it went idle.
+public class SingleThreadExecutor implements Executor {
+	private static final Logger log = Logger.get("market");
+
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+	// Run each time the queue has been drained, before waiting for more tasks
+	private final Runnable onIdle;
+	private volatile boolean parked;
+	private volatile boolean running = true;
+
+	public SingleThreadExecutor(String name, Runnable onIdle) {
+		this.onIdle = onIdle;
+		this.thread = new Thread(this::run, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.offer(task);
+		if (parked)
+			LockSupport.unpark(thread);
+	}
+
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	private void run() {
+		while (running) {
+			Runnable task = tasks.poll();
+			if (task != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					log.error("Error in {}: {}", thread.getName(), e);
+				}
+				continue;
+			}
+			if (onIdle != null)
+				onIdle.run();
+			// A producer that missed the flag has already queued its task, which is seen here
+			parked = true;
+			if (tasks.isEmpty() && running)
+				LockSupport.park(this);
+			parked = false;
+		}
+	}
+}
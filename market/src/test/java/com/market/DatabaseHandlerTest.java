@@ -0,0 +1,141 @@
+package com.market;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.common.Price;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs the write-behind store against an in-memory H2 database
+public class DatabaseHandlerTest {
+	private static int databases;
+
+	private String url;
+	private Connection connection;
+	private DatabaseHandler database;
+
+	@Before
+	public void openDatabase() throws SQLException {
+		url = "jdbc:h2:mem:fills" + ++databases + ";DB_CLOSE_DELAY=-1";
+		connection = DriverManager.getConnection(url, "sa", "");
+	}
+
+	@After
+	public void closeDatabase() throws SQLException {
+		if (database != null)
+			database.close();
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+		connection.close();
+	}
+
+	@Test
+	public void writesFullBatchesAndFlushesTheRestAfterTheDelay() throws Exception {
+		createTables();
+		database = new DatabaseHandler(config(MarketConfig.Durability.ASYNC).setDatabaseBatchSize(4).setDatabaseFlushMillis(10));
+		for (int i = 0; i < 5; i++) {
+			database.insertBuyTransaction(100002, 100001, "AAPL", i + 1, Price.parse("10.5"));
+			database.insertSellTransaction(100003, 100001, "AAPL", i + 1, Price.parse("10.5"));
+		}
+
+		// The last two fills only make half a batch: they are written once the flush delay has passed
+		awaitRows(10);
+		assertEquals(5, count("buy_transactions"));
+		assertEquals(5, count("sell_transactions"));
+		assertEquals(15, sum("buy_transactions", "quantity"));
+		assertEquals(0, new BigDecimal("52.5").compareTo(sumPrice("sell_transactions")));
+	}
+
+	@Test
+	public void closeWritesWhatIsStillQueued() throws Exception {
+		createTables();
+		database = new DatabaseHandler(config(MarketConfig.Durability.ASYNC).setDatabaseBatchSize(256).setDatabaseFlushMillis(60_000));
+		for (int i = 0; i < 3; i++) {
+			database.insertBuyTransaction(100002, 100001, "MSFT", 1, Price.parse("1"));
+		}
+
+		database.close();
+		database = null;
+		assertEquals(3, count("buy_transactions"));
+	}
+
+	@Test
+	public void syncReturnsOnceTheFillsAreCommitted() throws Exception {
+		createTables();
+		database = new DatabaseHandler(config(MarketConfig.Durability.SYNC));
+		database.insertBuyTransaction(100002, 100001, "AAPL", 7, Price.parse("2.25"));
+		database.insertSellTransaction(100003, 100001, "AAPL", 7, Price.parse("2.25"));
+
+		database.sync();
+		assertEquals(1, count("buy_transactions"));
+		assertEquals(1, count("sell_transactions"));
+	}
+
+	@Test
+	public void failedBatchIsRetriedAndHoldsSyncUntilCommitted() throws Exception {
+		// No tables yet: every write fails until they are created
+		database = new DatabaseHandler(config(MarketConfig.Durability.SYNC));
+		Thread matcher = new Thread(() -> {
+			database.insertBuyTransaction(100002, 100001, "AAPL", 3, Price.parse("4"));
+			database.sync();
+		});
+		matcher.start();
+
+		matcher.join(500);
+		assertTrue("sync returned before the fill was stored", matcher.isAlive());
+		createTables();
+		matcher.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse("sync still waiting after the database came back", matcher.isAlive());
+		assertEquals(1, count("buy_transactions"));
+	}
+
+	private MarketConfig config(MarketConfig.Durability durability) {
+		return new MarketConfig().setDatabaseUrl(url).setDatabaseUser("sa").setDatabasePassword("").setDurability(durability);
+	}
+
+	private void createTables() throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			for (String table : new String[] { "buy_transactions", "sell_transactions" }) {
+				statement.execute("CREATE TABLE " + table + " (id INT AUTO_INCREMENT PRIMARY KEY, broker_id INT NOT NULL, market_id INT NOT NULL,"
+						+ " instrument_id VARCHAR(255) NOT NULL, quantity INT NOT NULL, price NUMERIC(30, 8) NOT NULL)");
+			}
+		}
+	}
+
+	private void awaitRows(int rows) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (count("buy_transactions") + count("sell_transactions") < rows) {
+			assertTrue("fills not written in time", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private int count(String table) throws SQLException {
+		return (int) sum(table, "1");
+	}
+
+	private long sum(String table, String column) throws SQLException {
+		try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery("SELECT COALESCE(SUM(" + column + "), 0) FROM " + table)) {
+			result.next();
+			return result.getLong(1);
+		}
+	}
+
+	private BigDecimal sumPrice(String table) throws SQLException {
+		try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery("SELECT SUM(price) FROM " + table)) {
+			result.next();
+			return result.getBigDecimal(1);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.market;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.common.Price;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+	private static final long IDLE_NANOS = TimeUnit.HOURS.toNanos(1);
+
+	@Test
+	public void resentClOrdIdFindsTheEarlierOrder() {
+		DuplicateFilter.Window window = new DuplicateFilter(4, false, IDLE_NANOS).window(100002, System.nanoTime());
+		window.add("A1", 7, 3, true, 10, Price.parse("1.5"), 12);
+
+		int entry = window.find("A1");
+		assertNotEquals(DuplicateFilter.NOT_FOUND, entry);
+		assertEquals(7, window.getOrderId(entry));
+		assertEquals(3, window.getInstrument(entry));
+		assertTrue(window.isBuy(entry));
+		assertEquals(10, window.getQuantity(entry));
+		assertEquals(Price.parse("1.5"), window.getPrice(entry));
+		assertEquals(12, window.getSlot(entry));
+		assertEquals(DuplicateFilter.NOT_FOUND, window.find("A2"));
+	}
+
+	@Test
+	public void brokersHaveWindowsOfTheirOwn() {
+		DuplicateFilter filter = new DuplicateFilter(4, false, IDLE_NANOS);
+		long now = System.nanoTime();
+		filter.window(100002, now).add("1", 1, 0, true, 1, 1, -1);
+
+		assertSame(filter.window(100002, now), filter.window(100002, now));
+		assertEquals(DuplicateFilter.NOT_FOUND, filter.window(100003, now).find("1"));
+		assertEquals(2, filter.getWindowCount());
+	}
+
+	@Test
+	public void onlyTheLastOrdersAreKept() {
+		DuplicateFilter.Window window = new DuplicateFilter(4, false, IDLE_NANOS).window(100002, System.nanoTime());
+		for (int i = 1; i <= 100; i++) {
+			window.add(String.valueOf(i), i, 0, true, 1, 1, -1);
+		}
+
+		for (int i = 1; i <= 96; i++) {
+			assertEquals(DuplicateFilter.NOT_FOUND, window.find(String.valueOf(i)));
+		}
+		for (int i = 97; i <= 100; i++) {
+			assertEquals(i, window.getOrderId(window.find(String.valueOf(i))));
+		}
+	}
+
+	@Test
+	public void withoutTheHighWaterRuleOnlyTheWindowCounts() {
+		DuplicateFilter.Window window = new DuplicateFilter(2, false, IDLE_NANOS).window(100002, System.nanoTime());
+		for (int i = 10; i <= 12; i++) {
+			window.add(String.valueOf(i), i, 0, true, 1, 1, -1);
+		}
+
+		// 10 left the window, and a broker not numbering in order may well send 5 for the first time
+		assertFalse(window.isBelowHighWater("10"));
+		assertFalse(window.isBelowHighWater("5"));
+		assertEquals(-1, window.getHighWater());
+	}
+
+	@Test
+	public void highWaterRuleRejectsNumbersThatLeftTheWindow() {
+		DuplicateFilter.Window window = new DuplicateFilter(2, true, IDLE_NANOS).window(100002, System.nanoTime());
+		for (int i = 10; i <= 12; i++) {
+			window.add(String.valueOf(i), i, 0, true, 1, 1, -1);
+		}
+
+		assertEquals(10, window.getHighWater());
+		assertTrue(window.isBelowHighWater("10"));
+		assertTrue(window.isBelowHighWater("5"));
+		assertFalse(window.isBelowHighWater("13"));
+		assertFalse(window.isBelowHighWater("ABC"));
+	}
+
+	@Test
+	public void idleWindowsAreDropped() {
+		DuplicateFilter filter = new DuplicateFilter(4, false, IDLE_NANOS);
+		long start = System.nanoTime();
+		long later = start + IDLE_NANOS + IDLE_NANOS / 10;
+		filter.window(100002, start).add("1", 1, 0, true, 1, 1, -1);
+		filter.window(100003, start + IDLE_NANOS / 2).add("1", 1, 0, true, 1, 1, -1);
+
+		filter.window(100004, later);
+		assertEquals(2, filter.getWindowCount());
+		assertEquals(DuplicateFilter.NOT_FOUND, filter.window(100002, later).find("1"));
+		assertNotEquals(DuplicateFilter.NOT_FOUND, filter.window(100003, later).find("1"));
+	}
+
+	@Test
+	public void snapshotRestoresEachWindowWhereItsOrdersGo() throws Exception {
+		InstrumentStore instruments = new InstrumentStore();
+		instruments.add("AAPL", 0, Price.parse("1"));
+		instruments.add("MSFT", 0, Price.parse("1"));
+		OrderBook[] books = {new OrderBook("AAPL"), new OrderBook("MSFT")};
+		DuplicateFilter[] filters = {new DuplicateFilter(4, false, IDLE_NANOS), new DuplicateFilter(4, false, IDLE_NANOS)};
+		long now = System.nanoTime();
+		filters[0].window(100002, now).add("1", 1, 0, true, 1, 1, -1);
+		filters[1].window(100002, now).add("2", 2, 1, true, 1, 1, -1);
+
+		Path file = Files.createTempFile("snapshot", ".bin");
+		try {
+			for (int generation = 1; generation <= 3; generation++) {
+				MarketSnapshot.write(file, generation, 3, books, filters);
+				filters = new DuplicateFilter[] {new DuplicateFilter(4, false, IDLE_NANOS), new DuplicateFilter(4, false, IDLE_NANOS)};
+				MarketSnapshot.load(file, instruments, new OrderBook[2], filters);
+			}
+		} finally {
+			Files.delete(file);
+		}
+
+		assertEquals(1, filters[0].getWindowCount());
+		assertEquals(1, filters[1].getWindowCount());
+		assertNotEquals(DuplicateFilter.NOT_FOUND, filters[0].window(100002, now).find("1"));
+		assertNotEquals(DuplicateFilter.NOT_FOUND, filters[1].window(100002, now).find("2"));
+	}
+}
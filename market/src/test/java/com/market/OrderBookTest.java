@@ -0,0 +1,166 @@
+package com.market;
+
+import static org.junit.Assert.assertEquals;
+
+import com.common.Price;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class OrderBookTest {
+	private final OrderBook book = new OrderBook("AAPL");
+	// Fills as "aggressor clOrdID/resting clOrdID quantity@price"
+	private final List<String> fills = new ArrayList<>();
+	private final OrderBook.FillListener listener = (book, aggressor, resting, quantity, price) ->
+		fills.add(book.getClOrdId(aggressor) + "/" + book.getClOrdId(resting) + " " + quantity + "@" + Price.toString(price));
+
+	@Test
+	public void ordersThatDoNotCrossRest() {
+		int bid = book.submit(true, 1, "B1", 1, 10, price("99"), listener);
+		int ask = book.submit(false, 2, "S1", 2, 5, price("101"), listener);
+
+		assertEquals(0, fills.size());
+		assertEquals(price("99"), book.getBestBid());
+		assertEquals(10, book.getBestBidSize());
+		assertEquals(price("101"), book.getBestAsk());
+		assertEquals(5, book.getBestAskSize());
+		assertEquals(2, book.getOrderCount());
+		assertEquals(10, book.getLeavesQty(bid));
+		assertEquals(5, book.getLeavesQty(ask));
+	}
+
+	@Test
+	public void bestPriceTradesFirstAtTheRestingPrice() {
+		book.submit(false, 2, "S1", 1, 5, price("102"), listener);
+		book.submit(false, 2, "S2", 2, 5, price("101"), listener);
+
+		assertEquals(-1, book.submit(true, 1, "B1", 3, 7, price("103"), listener));
+		assertEquals(2, fills.size());
+		assertEquals("B1/S2 5@101.0", fills.get(0));
+		assertEquals("B1/S1 2@102.0", fills.get(1));
+		assertEquals(price("102"), book.getLastPrice());
+		assertEquals(2, book.getTradeCount());
+	}
+
+	@Test
+	public void ordersAtOnePriceTradeInArrivalOrder() {
+		book.submit(true, 1, "B1", 1, 3, price("100"), listener);
+		book.submit(true, 1, "B2", 2, 3, price("100"), listener);
+		book.submit(true, 1, "B3", 3, 3, price("100"), listener);
+		assertEquals(9, book.getBestBidSize());
+
+		book.submit(false, 2, "S1", 4, 4, price("100"), listener);
+		assertEquals("S1/B1 3@100.0", fills.get(0));
+		assertEquals("S1/B2 1@100.0", fills.get(1));
+		assertEquals(5, book.getBestBidSize());
+
+		book.submit(false, 2, "S2", 5, 5, price("100"), listener);
+		assertEquals("S2/B2 2@100.0", fills.get(2));
+		assertEquals("S2/B3 3@100.0", fills.get(3));
+	}
+
+	@Test
+	public void limitStopsMatchingAndRestsTheRemainder() {
+		book.submit(false, 2, "S1", 1, 5, price("101"), listener);
+		book.submit(false, 2, "S2", 2, 5, price("105"), listener);
+
+		int rest = book.submit(true, 1, "B1", 3, 8, price("102"), listener);
+		assertEquals(1, fills.size());
+		assertEquals(3, book.getLeavesQty(rest));
+		assertEquals(5, book.getCumQty(rest));
+		assertEquals(price("102"), book.getBestBid());
+		assertEquals(price("105"), book.getBestAsk());
+	}
+
+	@Test
+	public void emptiedLevelsAreRemoved() {
+		book.submit(false, 2, "S1", 1, 5, price("101"), listener);
+		book.submit(false, 2, "S2", 2, 5, price("102"), listener);
+		book.submit(false, 2, "S3", 3, 5, price("103"), listener);
+		assertEquals(3, book.getLevelCount(false));
+
+		book.submit(true, 1, "B1", 4, 10, price("102"), listener);
+		assertEquals(1, book.getLevelCount(false));
+		assertEquals(price("103"), book.getBestAsk());
+
+		book.submit(true, 1, "B2", 5, 5, price("103"), listener);
+		assertEquals(0, book.getLevelCount(false));
+		assertEquals(0, book.getBestAsk());
+		assertEquals(0, book.getBestAskSize());
+		assertEquals(0, book.getOrderCount());
+	}
+
+	@Test
+	public void levelsStayOrderedWhenInsertedInAnyOrder() {
+		for (String limit : new String[] {"100", "98", "103", "99", "101", "102"}) {
+			book.submit(true, 1, "B" + limit, 1, 1, price(limit), listener);
+		}
+		assertEquals(6, book.getLevelCount(true));
+
+		book.submit(false, 2, "S1", 2, 6, price("1"), listener);
+		assertEquals(6, fills.size());
+		String[] expected = {"103", "102", "101", "100", "99", "98"};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("S1/B" + expected[i] + " 1@" + expected[i] + ".0", fills.get(i));
+		}
+	}
+
+	@Test
+	public void filledSlotsAreReused() {
+		int resting = book.submit(false, 2, "S1", 1, 5, price("101"), listener);
+		book.submit(true, 1, "B1", 2, 5, price("101"), listener);
+		assertEquals(0, book.getOrderCount());
+
+		// The aggressor took the next slot and was released last, so it is handed out first
+		int reused = book.submit(false, 2, "S2", 3, 5, price("101"), listener);
+		assertEquals(resting + 1, reused);
+		assertEquals(resting, book.submit(false, 2, "S3", 4, 5, price("101"), listener));
+		assertEquals("S2", book.getClOrdId(reused));
+		assertEquals(3, book.getOrderId(reused));
+		assertEquals(5, book.getLeavesQty(reused));
+		assertEquals(10, book.getBestAskSize());
+	}
+
+	@Test
+	public void manyRestingOrdersGrowTheBook() {
+		for (int i = 0; i < 200; i++) {
+			book.submit(true, 1, "B" + i, i, 1, price("1") + i, listener);
+		}
+		assertEquals(200, book.getOrderCount());
+		assertEquals(200, book.getLevelCount(true));
+		assertEquals(price("1") + 199, book.getBestBid());
+
+		book.submit(false, 2, "S1", 200, 200, price("1"), listener);
+		assertEquals(200, fills.size());
+		assertEquals(0, book.getOrderCount());
+	}
+
+	@Test
+	public void restoredOrderRestsBehindTheOthersAtItsPrice() {
+		book.submit(true, 1, "B1", 1, 5, price("100"), listener);
+		int restored = book.restore(true, 1, "B0", 0, 10, 4, price("100"));
+		assertEquals(6, book.getCumQty(restored));
+		assertEquals(9, book.getBestBidSize());
+
+		book.submit(false, 2, "S1", 2, 9, price("100"), listener);
+		assertEquals("S1/B1 5@100.0", fills.get(0));
+		assertEquals("S1/B0 4@100.0", fills.get(1));
+	}
+
+	@Test
+	public void houseQuotesSeedBothSidesOfAMarketBook() {
+		InstrumentStore instruments = new InstrumentStore();
+		int instrument = instruments.add("AAPL", 100, price("150"));
+		Market market = new Market(instruments, 100001, new MarketConfig().setDatabaseUrl("").setStateDirectory("").setTickSize(price("0.01")));
+
+		OrderBook seeded = market.getBook(instrument);
+		assertEquals(price("150"), seeded.getBestAsk());
+		assertEquals(100, seeded.getBestAskSize());
+		assertEquals(price("149.99"), seeded.getBestBid());
+		assertEquals(100, seeded.getBestBidSize());
+	}
+
+	private static long price(String text) {
+		return Price.parse(text);
+	}
+}
@@ -0,0 +1,87 @@
+package com.router;
+
+// Direct buffers of every MessageBuffer, in power-of-two size classes from 256 bytes to 128KB: a frame of the
+// largest size with its terminator, or an outbound batch, fits the largest one. Released buffers wait in their
+// class for the next message of that size, so at steady state reading, forwarding and writing allocate nothing.
+// Each class keeps at most CLASS_BYTES of idle buffers; beyond that, and for larger requests, buffers are left to the GC.
+final class BufferPool {
+	private static final int MIN_SHIFT = 8;
+	private static final int MAX_SHIFT = 17;
+	private static final int CLASS_BYTES = 4 << 20;
+	private static final SizeClass[] classes = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+	static {
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = new SizeClass(1 << (MIN_SHIFT + i));
+		}
+	}
+
+	private BufferPool() {
+	}
+
+	// A buffer of at least capacity bytes, empty and referenced once by the caller
+	static MessageBuffer acquire(int capacity) {
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+		if (shift > MAX_SHIFT) {
+			RouterMetrics.buffersAllocated.increment();
+			return new MessageBuffer(null, capacity).reset();
+		}
+		return classes[shift - MIN_SHIFT].acquire().reset();
+	}
+
+	// Buffers handed out and not released yet, a leak shows as steady growth
+	static long inUse() {
+		long inUse = 0;
+		for (SizeClass sizeClass : classes) {
+			inUse += sizeClass.inUse();
+		}
+		return inUse;
+	}
+
+	static long idleBytes() {
+		long bytes = 0;
+		for (SizeClass sizeClass : classes) {
+			bytes += sizeClass.idleBytes();
+		}
+		return bytes;
+	}
+
+	// Idle buffers of one size, as a stack so the most recently used (and cached) one goes out first
+	static final class SizeClass {
+		private final int capacity;
+		private final MessageBuffer[] idle;
+		// Guarded by this
+		private int count;
+		private long inUse;
+
+		SizeClass(int capacity) {
+			this.capacity = capacity;
+			this.idle = new MessageBuffer[Math.max(1, CLASS_BYTES / capacity)];
+		}
+
+		synchronized MessageBuffer acquire() {
+			inUse++;
+			if (count > 0) {
+				MessageBuffer buffer = idle[--count];
+				idle[count] = null;
+				return buffer;
+			}
+			RouterMetrics.buffersAllocated.increment();
+			return new MessageBuffer(this, capacity);
+		}
+
+		synchronized void recycle(MessageBuffer buffer) {
+			inUse--;
+			if (count < idle.length)
+				idle[count++] = buffer;
+		}
+
+		synchronized long inUse() {
+			return inUse;
+		}
+
+		synchronized long idleBytes() {
+			return (long) count * capacity;
+		}
+	}
+}
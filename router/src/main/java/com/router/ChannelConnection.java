@@ -0,0 +1,293 @@
+package com.router;
+
+import com.common.BinaryFormat;
+import com.common.Logger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+// Non-blocking connection owned by a single EventLoop. Each message read is copied once, from the direct read buffer
+// into a pooled MessageBuffer the handler chain reads in place; what is written are pooled buffers too, released
+// once the channel has taken all their bytes.
+public class ChannelConnection implements Connection {
+	private static final Logger log = Logger.get("session");
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+	private static final int MAX_FRAME_SIZE = BinaryFormat.MAX_FRAME_LENGTH;
+	// Bytes waiting for the channel beyond which the connection reports itself backlogged
+	private static final int BACKLOG_BYTES = 65536;
+
+	private final EventLoop eventLoop;
+	private final SocketChannel channel;
+	private final Session.Role role;
+	private final ArrayDeque<MessageBuffer> writeQueue = new ArrayDeque<>();
+	private final FixMessage parsedMessage = new FixMessage();
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+	private SelectionKey key;
+	private Session session;
+	private boolean closeRequested = false;
+	// Only changed on the event loop
+	private boolean readPaused = false;
+	// Guarded by writeQueue; read without it to report pending bytes
+	private volatile int queuedBytes;
+	private boolean backlogReported;
+	// Guarded by writeQueue: a flush is already on its way to the event loop, which takes whatever is queued by then
+	private boolean flushScheduled;
+	private final Runnable flusher = this::flush;
+
+	ChannelConnection(EventLoop eventLoop, SocketChannel channel, Session.Role role) {
+		this.eventLoop = eventLoop;
+		this.channel = channel;
+		this.role = role;
+	}
+
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	Session.Role getRole() {
+		return role;
+	}
+
+	// Reused for every message read from this connection
+	FixMessage getParsedMessage() {
+		return parsedMessage;
+	}
+
+	// Null until the ID handshake completes
+	Session getSession() {
+		return session;
+	}
+
+	void setSession(Session session) {
+		this.session = session;
+	}
+
+	// Called by the event loop when the channel is readable
+	void read(Router router) {
+		try {
+			int read = channel.read(readBuffer);
+			if (read == -1) {
+				closeNow();
+				return;
+			}
+			readBuffer.flip();
+			int start = readBuffer.position();
+			// The session, and with it the encoding, is only known once the handshake line has been handled
+			while (channel.isOpen()) {
+				int next = session != null && session.isBinary() ? readFrame(router, start) : readLine(router, start);
+				if (next < 0)
+					break;
+				start = next;
+			}
+			if (!channel.isOpen())
+				return;
+			readBuffer.position(start);
+			readBuffer.compact();
+			if (!readBuffer.hasRemaining()) {
+				if (readBuffer.capacity() >= MAX_FRAME_SIZE) {
+					log.warn("Frame too large, closing connection");
+					closeNow();
+					return;
+				}
+				ByteBuffer larger = ByteBuffer.allocateDirect(readBuffer.capacity() * 2);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		} catch (IOException e) {
+			log.error("Error in the router: {}", e.getMessage());
+			closeNow();
+		}
+	}
+
+	// Handles the line starting at start, if complete; returns where the next message starts, or -1
+	private int readLine(Router router, int start) {
+		for (int i = start; i < readBuffer.limit(); i++) {
+			if (readBuffer.get(i) == '\n') {
+				int end = i;
+				if (end > start && readBuffer.get(end - 1) == '\r')
+					end--;
+				if (end > start)
+					handle(router, start, end, false);
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	// Handles the frame starting at start, if complete, from its length prefix alone
+	private int readFrame(Router router, int start) {
+		if (readBuffer.limit() - start < 4)
+			return -1;
+		int length = readBuffer.getInt(start);
+		if (length < BinaryFormat.HEADER_LENGTH || length > MAX_FRAME_SIZE) {
+			log.warn("Invalid frame length {}, closing connection", length);
+			closeNow();
+			return -1;
+		}
+		if (readBuffer.limit() - start < length)
+			return -1;
+		handle(router, start, start + length, true);
+		return start + length;
+	}
+
+	// Copies the message out of the read buffer, which is then free to be compacted, and hands it to the router
+	private void handle(Router router, int start, int end, boolean binary) {
+		int limit = readBuffer.limit();
+		readBuffer.limit(end);
+		readBuffer.position(start);
+		MessageBuffer message = MessageBuffer.received(readBuffer, binary);
+		readBuffer.limit(limit);
+		try {
+			router.onMessage(this, message);
+		} finally {
+			message.release();
+		}
+	}
+
+	// The bytes are copied and written by the event loop
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		MessageBuffer copy = BufferPool.acquire(length).put(buffer, offset, length).complete();
+		try {
+			write(copy);
+		} catch (IOException e) {
+			copy.release();
+			throw e;
+		}
+	}
+
+	// The buffer is written by the event loop, then released
+	@Override
+	public void write(MessageBuffer message) throws IOException {
+		synchronized (writeQueue) {
+			// Checked while holding the queue, so nothing is queued after closeNow() released what was there
+			if (!channel.isOpen() || closeRequested)
+				throw new ClosedChannelException();
+			writeQueue.add(message);
+			queuedBytes += message.framedLength();
+			if (flushScheduled)
+				return;
+			flushScheduled = true;
+		}
+		eventLoop.execute(flusher);
+	}
+
+	// The session is signalled once the backlog it was told about has been written
+	@Override
+	public boolean isBacklogged() {
+		synchronized (writeQueue) {
+			if (queuedBytes > BACKLOG_BYTES)
+				backlogReported = true;
+			return backlogReported;
+		}
+	}
+
+	@Override
+	public int getPendingBytes() {
+		return queuedBytes;
+	}
+
+	// Messages already in the read buffer are still handled; nothing more is read from the channel
+	@Override
+	public void pauseReading() {
+		eventLoop.execute(() -> {
+			readPaused = true;
+			synchronized (writeQueue) {
+				updateInterest();
+			}
+		});
+	}
+
+	@Override
+	public void resumeReading() {
+		eventLoop.execute(() -> {
+			readPaused = false;
+			synchronized (writeQueue) {
+				updateInterest();
+			}
+		});
+	}
+
+	private void updateInterest() {
+		if (key != null && key.isValid())
+			key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+	}
+
+	// Called on the event loop, either after a send or when the channel is writable
+	void flush() {
+		boolean caughtUp = false;
+		boolean wrote = false;
+		try {
+			synchronized (writeQueue) {
+				flushScheduled = false;
+				while (!writeQueue.isEmpty()) {
+					MessageBuffer message = writeQueue.peek();
+					ByteBuffer data = message.data();
+					wrote |= channel.write(data) > 0;
+					if (data.hasRemaining())
+						break;
+					writeQueue.poll();
+					queuedBytes -= message.framedLength();
+					message.written();
+					message.release();
+				}
+				if (writeQueue.isEmpty() && closeRequested) {
+					closeNow();
+					return;
+				}
+				updateInterest();
+				if (writeQueue.isEmpty()) {
+					caughtUp = backlogReported;
+					backlogReported = false;
+				}
+			}
+			if (caughtUp && session != null)
+				session.onWritable();
+			if (wrote && session != null)
+				session.onDrained();
+		} catch (IOException e) {
+			log.error("Error writing to connection: {}", e.getMessage());
+			closeNow();
+		}
+	}
+
+	// Pending writes are flushed before the channel is closed
+	@Override
+	public void close() {
+		eventLoop.execute(() -> {
+			closeRequested = true;
+			flush();
+		});
+	}
+
+	void closeNow() {
+		try {
+			if (key != null)
+				key.cancel();
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Error closing socket: {}", e.getMessage());
+		}
+		synchronized (writeQueue) {
+			MessageBuffer message;
+			while ((message = writeQueue.poll()) != null) {
+				message.release();
+			}
+			queuedBytes = 0;
+		}
+		// Brokers paused for this session must not wait for a connection that is gone
+		if (session != null) {
+			session.onDrained();
+			eventLoop.getRouter().disconnected(session);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen() && !closeRequested;
+	}
+}
@@ -0,0 +1,406 @@
+package com.router;
+
+import com.common.Logger;
+import com.common.Metrics;
+import com.common.WireEncoding;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Membership of a router cluster and the links between its nodes. Each node dials every node it learns of, starting
+// from router.cluster, and writes to it over that link only; greetings name the nodes each side knows, so any seed
+// is enough to reach them all. A node is a member once the links both ways are up, which both ends of the pair see
+// alike, so the members, with this node, form the same HashRing on every node; it gives every component ID its owner.
+// A component connects to the node owning its ID, which holds its session; any other node redirects it there.
+// Every node announces the sessions it holds (UP), and the others keep a remote session for each: the handler chain
+// routes to it like to a local one, and its messages are relayed to the owner, which runs them through its own chain.
+// When membership changes, the sessions whose owner changed are logged out, naming their new node, and their
+// pending messages and subscriptions are handed over to it; consistent hashing keeps that to about 1/N of them.
+class Cluster {
+	private static final Logger log = Logger.get("cluster");
+	// IDs are drawn from one series per node, so this also bounds router.nodeId
+	static final int MAX_NODES = 256;
+	private static final int FIRST_ID = 100000;
+	// Last step of a node's series whose IDs still fit an int, whatever the node ID
+	static final int MAX_SEQUENCE = (Integer.MAX_VALUE - FIRST_ID - (MAX_NODES - 1)) / MAX_NODES;
+	private static final long RETRY_MILLIS = 1000;
+
+	private final Router router;
+	private final RouterConfig config;
+	private final ScheduledExecutorService writers;
+	private final PeerNode self;
+	private final ConcurrentHashMap<Integer, PeerNode> peers = new ConcurrentHashMap<>();
+	private final AtomicInteger sequence = new AtomicInteger();
+	private final AtomicInteger linkCount = new AtomicInteger();
+	private volatile HashRing ring;
+	private volatile boolean running = true;
+	private ServerSocket server;
+
+	Cluster(Router router, RouterConfig config, ScheduledExecutorService writers) {
+		this.router = router;
+		this.config = config;
+		this.writers = writers;
+		this.self = new PeerNode(config.getNodeId(), config.getHost(), config.getBrokerPort(), config.getMarketPort(), config.getPeerPort());
+		this.ring = new HashRing(self.getId(), new ArrayList<>(), config.getVirtualNodes());
+	}
+
+	// IDs handed out before a restart stay taken: the series resumes past the highest journaled one
+	void start(int highestJournaledId) throws IOException {
+		sequence.set(Math.max(0, (highestJournaledId - FIRST_ID) / MAX_NODES));
+		Metrics.gauge("router.cluster.members", this::getMemberCount);
+		this.server = new ServerSocket(config.getPeerPort());
+		Thread acceptor = new Thread(this::accept, "cluster-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		for (String seed : config.getCluster().split(",")) {
+			if (!seed.trim().isEmpty())
+				learn(PeerNode.parse(seed.trim()));
+		}
+		log.info("Router node {} waiting for other nodes on port {}", self.getId(), config.getPeerPort());
+	}
+
+	void stop() {
+		running = false;
+		try {
+			if (server != null)
+				server.close();
+		} catch (IOException e) {
+			log.warn("Error closing socket: {}", e.getMessage());
+		}
+		peers.values().forEach(PeerNode::close);
+	}
+
+	// Node owning the ID, null if it is this one
+	PeerNode ownerOf(int id) {
+		return ring.owner(id);
+	}
+
+	int getMemberCount() {
+		int members = 1;
+		for (PeerNode peer : peers.values()) {
+			if (peer.isMember())
+				members++;
+		}
+		return members;
+	}
+
+	// Next ID for a new component: from this node's own series (FIRST_ID + n * MAX_NODES + nodeId), so no two nodes
+	// ever hand out the same one without asking each other, skipping those the ring gives to another node.
+	// Fails once the series is used up, about 8 million IDs per node, rather than wrapping onto taken IDs.
+	int nextId() throws IOException {
+		while (true) {
+			int step = sequence.updateAndGet(n -> Math.min(n, MAX_SEQUENCE) + 1);
+			if (step > MAX_SEQUENCE)
+				throw new IOException("Router node " + self.getId() + " has handed out every component ID of its series");
+			int id = FIRST_ID + step * MAX_NODES + self.getId();
+			if (ownerOf(id) == null && RoutingTable.getSession(id) == null && !RoutingTable.hasPendingMessages(id))
+				return id;
+		}
+	}
+
+	// Tells every linked node about a session this node now holds
+	void announce(Session session) {
+		for (PeerNode peer : peers.values()) {
+			if (peer.isOpen())
+				announce(peer, session);
+		}
+	}
+
+	// Tells every linked node that a broker this node held has left, so they stop relaying its market data
+	void unsubscribeAll(int brokerId) {
+		for (PeerNode peer : peers.values()) {
+			if (!peer.isOpen())
+				continue;
+			try {
+				peer.control("UNSUBSCRIBE " + brokerId);
+			} catch (IOException e) {
+				log.warn("Error telling {} that {} left: {}", peer, brokerId, e.getMessage());
+			}
+		}
+	}
+
+	private void announce(PeerNode peer, Session session) {
+		try {
+			peer.control("UP " + session.getId() + " " + session.getRole());
+		} catch (IOException e) {
+			log.warn("Error announcing {} to {}: {}", session.getId(), peer, e.getMessage());
+		}
+	}
+
+	private void learn(PeerNode node) {
+		if (node.getId() == self.getId() || peers.putIfAbsent(node.getId(), node) != null)
+			return;
+		node.setSession(new Session(node.getId(), Session.Role.ROUTER, WireEncoding.BINARY, node, config, writers));
+		Thread dialer = new Thread(() -> dial(node), "cluster-link-" + node.getId());
+		dialer.setDaemon(true);
+		dialer.start();
+	}
+
+	// Keeps the link to the node up for as long as the router runs
+	private void dial(PeerNode peer) {
+		boolean reported = false;
+		while (running) {
+			try (Socket socket = new Socket(peer.getHost(), peer.getPeerPort())) {
+				socket.setTcpNoDelay(true);
+				peer.open(socket, "HELLO " + self.descriptor());
+				for (PeerNode other : peers.values()) {
+					if (other != peer)
+						peer.control("NODE " + other.descriptor());
+				}
+				RoutingTable.forEachLocalSession(session -> announce(peer, session));
+				setLinked(peer, true);
+				reported = false;
+				// Nothing comes back on this link, so the read only returns once it breaks
+				while (socket.getInputStream().read() >= 0) {
+				}
+			} catch (IOException e) {
+				if (!reported && running)
+					log.warn("No link to {}: {}", peer, e.getMessage());
+				reported = true;
+			} finally {
+				peer.close();
+				setLinked(peer, false);
+			}
+			sleep(RETRY_MILLIS);
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				Socket socket = server.accept();
+				Thread reader = new Thread(() -> read(socket), "cluster-reader-" + linkCount.incrementAndGet());
+				reader.setDaemon(true);
+				reader.start();
+			} catch (IOException e) {
+				if (running)
+					log.error("Error accepting a router node: {}", e.getMessage());
+			}
+		}
+	}
+
+	// Reads the records another node sends over its link, which starts with its greeting
+	private void read(Socket socket) {
+		FixMessage parsed = new FixMessage();
+		byte[] payload = new byte[8192];
+		PeerNode from = null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536))) {
+			while (running) {
+				int length = in.readInt();
+				if (length < 1 || length > PeerNode.MAX_RECORD_LENGTH)
+					throw new IOException("Invalid record length " + length);
+				byte kind = in.readByte();
+				if (payload.length < length)
+					payload = new byte[Math.max(length, payload.length * 2)];
+				in.readFully(payload, 0, length - 1);
+				if (kind == PeerNode.CONTROL && from == null)
+					from = greeted(new String(payload, 0, length - 1, StandardCharsets.ISO_8859_1));
+				else if (kind == PeerNode.CONTROL)
+					onControl(new String(payload, 0, length - 1, StandardCharsets.ISO_8859_1));
+				else
+					onFrames(parsed, payload, length - 1);
+			}
+		} catch (EOFException e) {
+			// The other node closed the link
+		} catch (IOException | RuntimeException e) {
+			log.warn("Link from a router node failed: {}", e.getMessage());
+		} finally {
+			if (from != null)
+				setInbound(from, -1);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.warn("Error closing socket: {}", e.getMessage());
+			}
+		}
+	}
+
+	private PeerNode greeted(String line) throws IOException {
+		String[] fields = line.split(" ", 2);
+		if (!fields[0].equals("HELLO") || fields.length < 2)
+			throw new IOException("Expected a greeting, got: " + line);
+		PeerNode node = PeerNode.parse(fields[1]);
+		if (node.getId() == self.getId())
+			throw new IOException("Router node " + node.getId() + " has the same router.nodeId as this one");
+		learn(node);
+		PeerNode peer = peers.get(node.getId());
+		setInbound(peer, 1);
+		return peer;
+	}
+
+	private synchronized void setLinked(PeerNode peer, boolean linked) {
+		boolean member = peer.isMember();
+		peer.setLinked(linked);
+		updateMembership(peer, member);
+	}
+
+	private synchronized void setInbound(PeerNode peer, int delta) {
+		boolean member = peer.isMember();
+		peer.addInbound(delta);
+		updateMembership(peer, member);
+	}
+
+	private void updateMembership(PeerNode peer, boolean wasMember) {
+		if (peer.isMember() == wasMember)
+			return;
+		if (wasMember)
+			log.warn("Lost {}", peer);
+		else
+			log.info("Joined {}", peer);
+		membershipChanged();
+	}
+
+	private void onFrames(FixMessage parsed, byte[] payload, int length) throws IOException {
+		int offset = 0;
+		while (offset < length) {
+			int frameLength = (payload[offset] & 0xFF) << 24 | (payload[offset + 1] & 0xFF) << 16 | (payload[offset + 2] & 0xFF) << 8 | payload[offset + 3] & 0xFF;
+			if (frameLength < 4 || offset + frameLength > length)
+				throw new IOException("Invalid relayed frame length " + frameLength);
+			MessageBuffer frame = MessageBuffer.received(payload, offset, frameLength, true);
+			try {
+				router.onRelayed(parsed.parseFrame(frame).setRelayed());
+			} finally {
+				frame.release();
+			}
+			offset += frameLength;
+		}
+	}
+
+	private void onControl(String line) {
+		String[] fields = line.split(" ", 4);
+		switch (fields[0]) {
+			case "NODE":
+				learn(PeerNode.parse(fields[1]));
+				break;
+			case "UP":
+				addRemoteSession(Integer.parseInt(fields[1]), Session.Role.valueOf(fields[2]));
+				break;
+			case "SUBSCRIBE":
+				MarketDataTable.subscribe(Integer.parseInt(fields[1]), fields[3], Integer.parseInt(fields[2]));
+				break;
+			case "UNSUBSCRIBE":
+				// Unless the broker has reconnected here since
+				if (RoutingTable.getLocalSession(Integer.parseInt(fields[1])) == null)
+					MarketDataTable.unsubscribeAll(Integer.parseInt(fields[1]));
+				break;
+			case "PENDING":
+				takeOver(Integer.parseInt(fields[1]), Session.Role.valueOf(fields[2]), fields[3]);
+				break;
+			default:
+				log.warn("Unknown cluster record: {}", line);
+		}
+	}
+
+	// Remote sessions last for the life of the router, as the ID may move back to the node that announced it
+	private void addRemoteSession(int id, Session.Role role) {
+		if (RoutingTable.getRemoteSession(id) == null)
+			RoutingTable.addRemoteSession(new Session(id, role, WireEncoding.BINARY, new RemoteConnection(this, id), config, writers));
+	}
+
+	// A message journaled by the node that owned the ID before this one
+	private void takeOver(int id, Session.Role role, String message) {
+		Session session = RoutingTable.getLocalSession(id);
+		try {
+			if (session != null && session.getConnection().isOpen()) {
+				session.send(message);
+				RiskHandler.reopenReplayed(session, message);
+				return;
+			}
+		} catch (IOException e) {
+			log.warn("Error sending a handed over message to {}: {}", id, e.getMessage());
+		}
+		RoutingTable.addPendingMessage(id, role, message);
+	}
+
+	private synchronized void membershipChanged() {
+		List<PeerNode> members = new ArrayList<>();
+		for (PeerNode peer : peers.values()) {
+			if (peer.isMember())
+				members.add(peer);
+		}
+		this.ring = new HashRing(self.getId(), members, config.getVirtualNodes());
+		log.info("Cluster membership: {} node(s)", members.size() + 1);
+		rebalance();
+	}
+
+	// Gives up the sessions and journals of the IDs the ring now gives to another node
+	private void rebalance() {
+		List<Session> moved = new ArrayList<>();
+		RoutingTable.forEachLocalSession(session -> {
+			if (ownerOf(session.getId()) != null)
+				moved.add(session);
+		});
+		for (Session session : moved) {
+			PeerNode owner = ownerOf(session.getId());
+			if (owner == null || !RoutingTable.removeSession(session))
+				continue;
+			session.getMetrics().unregister();
+			addRemoteSession(session.getId(), session.getRole());
+			if (session.getConnection().isOpen()) {
+				// The component reconnects with its ID and is redirected to its new node
+				Router.sendDisconnection(session, session.getId(), "Session moved to router node " + owner.getId() + " at "
+						+ owner.getHost() + ":" + owner.getPort(session.getRole()));
+				session.close();
+			}
+			handOverSubscriptions(session.getId(), owner);
+			RouterMetrics.sessionsMoved.increment();
+			log.info("{}({}) moved to {}", session.getRole(), session.getId(), owner);
+		}
+		List<Integer> pending = new ArrayList<>();
+		RoutingTable.forEachPendingId(pending::add);
+		for (int id : pending) {
+			PeerNode owner = ownerOf(id);
+			if (owner != null)
+				handOver(id, owner);
+		}
+	}
+
+	// The new node renews them when the component reconnects, and fans the updates out if it is a market
+	private void handOverSubscriptions(int id, PeerNode owner) {
+		MarketDataTable.forEachSubscription(id, (marketId, symbol, brokerId) -> {
+			try {
+				owner.control("SUBSCRIBE " + marketId + " " + brokerId + " " + symbol);
+			} catch (IOException e) {
+				log.warn("Error handing over a subscription of {} to {}: {}", id, owner, e.getMessage());
+			}
+		});
+	}
+
+	private void handOver(int id, PeerNode owner) {
+		Session.Role role = RoutingTable.getJournalRole(id);
+		// Everything still journaled goes, even what a replay here had started to send
+		RoutingTable.resendPendingMessages(id);
+		List<String> messages = role != null ? RoutingTable.getPendingMessages(id) : null;
+		if (messages == null)
+			return;
+		int sent = 0;
+		try {
+			for (String message : messages) {
+				owner.control("PENDING " + id + " " + role + " " + message);
+				RoutingTable.removePendingMessage(id, message);
+				sent++;
+			}
+			log.info("Handed {} pending message(s) for {} over to {}", sent, id, owner);
+		} catch (IOException e) {
+			// The rest stays here until the next membership change
+			log.warn("Error handing pending messages for {} over to {}: {}", id, owner, e.getMessage());
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
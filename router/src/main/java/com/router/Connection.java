@@ -0,0 +1,46 @@
+package com.router;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public interface Connection {
+	// Writes already framed bytes in a single call
+	void write(byte[] buffer, int offset, int length) throws IOException;
+
+	// Writes a pooled message or batch. If this returns normally the connection has taken over the caller's
+	// reference, and calls written() then releases it once written; if it throws, the caller still holds it.
+	default void write(MessageBuffer message) throws IOException {
+		byte[] bytes = new byte[message.framedLength()];
+		message.get(bytes);
+		write(bytes, 0, bytes.length);
+		message.written();
+		message.release();
+	}
+
+	// Sends one framed message (a line) to the remote component
+	default void send(String message) throws IOException {
+		byte[] bytes = (message + "\n").getBytes(StandardCharsets.ISO_8859_1);
+		write(bytes, 0, bytes.length);
+	}
+
+	void close() throws IOException;
+
+	// True while earlier writes still wait for the remote side to read them
+	default boolean isBacklogged() {
+		return false;
+	}
+
+	// Bytes accepted by write() that the remote side has not been sent yet
+	default int getPendingBytes() {
+		return 0;
+	}
+
+	// Stops reading messages from the remote component until resumeReading()
+	default void pauseReading() {
+	}
+
+	default void resumeReading() {
+	}
+
+	boolean isOpen();
+}
@@ -0,0 +1,151 @@
+package com.router;
+
+import com.common.Logger;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// A single selector thread multiplexing many router connections
+public class EventLoop implements Runnable {
+	private static final Logger log = Logger.get("session");
+	private final Router router;
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private volatile boolean running = true;
+
+	public EventLoop(Router router, String name) throws IOException {
+		this.router = router;
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+	}
+
+	Router getRouter() {
+		return router;
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	// Runs the task on the loop thread, immediately if already on it
+	void execute(Runnable task) {
+		if (inEventLoop()) {
+			task.run();
+		} else {
+			tasks.add(task);
+			selector.wakeup();
+		}
+	}
+
+	// Accepts connections on the server channel and spreads them over the given loops
+	void listen(ServerSocketChannel server, Session.Role role, EventLoop[] workers) {
+		execute(() -> {
+			try {
+				server.configureBlocking(false);
+				server.register(selector, SelectionKey.OP_ACCEPT, new Acceptor(server, role, workers));
+			} catch (IOException e) {
+				log.error("Error in the router: {}", e.getMessage());
+			}
+		});
+	}
+
+	void register(SocketChannel channel, Session.Role role) {
+		execute(() -> {
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				ChannelConnection connection = new ChannelConnection(this, channel, role);
+				connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+			} catch (IOException e) {
+				log.error("Error in the router: {}", e.getMessage());
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+		});
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+
+					Object attachment = key.attachment();
+					if (attachment instanceof Acceptor) {
+						((Acceptor) attachment).accept();
+					} else {
+						ChannelConnection connection = (ChannelConnection) attachment;
+						if (key.isReadable())
+							connection.read(router);
+						if (key.isValid() && key.isWritable())
+							connection.flush();
+					}
+				}
+			} catch (IOException e) {
+				log.error("Error in the router: {}", e.getMessage());
+			}
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+				log.warn("Error closing socket: {}", e.getMessage());
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.error("Error in the router: {}", e.getMessage());
+		}
+	}
+
+	private static class Acceptor {
+		private final ServerSocketChannel server;
+		private final Session.Role role;
+		private final EventLoop[] workers;
+		private int next = 0;
+
+		Acceptor(ServerSocketChannel server, Session.Role role, EventLoop[] workers) {
+			this.server = server;
+			this.role = role;
+			this.workers = workers;
+		}
+
+		void accept() throws IOException {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				workers[next].register(channel, role);
+				next = (next + 1) % workers.length;
+			}
+		}
+	}
+}
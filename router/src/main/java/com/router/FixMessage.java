@@ -0,0 +1,396 @@
+package com.router;
+
+import com.common.BinaryEncoder;
+import com.common.BinaryFormat;
+import com.common.FixEncoder;
+import com.common.Price;
+
+// Reusable parsed-header view of one FIX message, filled by a single pass over its characters.
+// Only the tags the router needs are located (35, 49, 56, 11, 66, 55, 38, 44, 39, 150, 263 and 10); nothing is allocated while parsing.
+// A NewOrderList (35=E) repeats ClOrdID, OrderQty and Price for each order; the orders are counted and their largest
+// quantity and notional kept, so a list can be checked as one unit.
+// A binary frame (see BinaryFormat) is read from its fixed offsets instead; raw() is then the frame, and the
+// bounds this view reports point into it, so the message can be forwarded or answered the same way.
+// A message read by the router is parsed in place from its pooled MessageBuffer, which is forwarded as it is
+// to destinations using the same encoding; the view is only valid until the reader releases that buffer.
+public class FixMessage {
+	private static final char SOH = '\u0001';
+	// Tags are at most 5 digits in FIX 4.4; a longer one is no tag the router looks at
+	private static final int MAX_TAG = 99999;
+	private static final ThreadLocal<FixEncoder> encoders = ThreadLocal.withInitial(FixEncoder::new);
+	private static final ThreadLocal<BinaryEncoder> frames = ThreadLocal.withInitial(BinaryEncoder::new);
+
+	private CharSequence raw = "";
+	// The pooled bytes of raw, null when the message was parsed from a String
+	private MessageBuffer buffer;
+	private boolean binary;
+	// Received from another node of a cluster rather than from a component
+	private boolean relayed;
+	private int checksum;
+	private int declaredChecksum;
+	private boolean checksumPresent;
+	private int msgTypeStart;
+	private int msgTypeEnd;
+	private int clOrdIdStart;
+	private int clOrdIdEnd;
+	private int listIdStart;
+	private int listIdEnd;
+	private int orderCount;
+	private int maxOrderQty;
+	// One of the orders carried has an OrderQty that is not a positive number
+	private boolean invalidOrderQty;
+	// Fixed-point, like Price
+	private long maxNotional;
+	// OrderQty and Price of the order being read, until the next ClOrdID starts another
+	private int legQty;
+	private long legPrice;
+	private int symbolStart;
+	private int symbolEnd;
+	private char subscriptionRequestType;
+	private int orderQty;
+	private long price;
+	private char ordStatus;
+	private char execType;
+	private int senderId;
+	private int targetId;
+
+	public FixMessage parse(CharSequence message) {
+		return parse(message, 0, false);
+	}
+
+	public FixMessage parse(MessageBuffer message) {
+		parse((CharSequence) message);
+		this.buffer = message;
+		return this;
+	}
+
+	public FixMessage parseFrame(MessageBuffer frame) {
+		parseFrame((CharSequence) frame);
+		this.buffer = frame;
+		return this;
+	}
+
+	// Reads a frame from its header and fixed fields; a TEXT frame has its tag=value body parsed
+	public FixMessage parseFrame(CharSequence frame) {
+		if (!BinaryFormat.isFixed(frame))
+			return parse(frame, BinaryFormat.HEADER_LENGTH, true);
+		reset(frame, true);
+		// Framing already delimited the message, and there is no CheckSum to verify
+		this.checksumPresent = true;
+		this.checksum = this.declaredChecksum = 0;
+		this.msgTypeStart = BinaryFormat.MSG_TYPE;
+		this.msgTypeEnd = BinaryFormat.MSG_TYPE + 1;
+		this.senderId = BinaryFormat.sender(frame);
+		this.targetId = BinaryFormat.target(frame);
+		int clOrdIdEnd = BinaryFormat.end(frame, BinaryFormat.CL_ORD_ID, BinaryFormat.CL_ORD_ID_LENGTH);
+		if (clOrdIdEnd > BinaryFormat.CL_ORD_ID) {
+			this.clOrdIdStart = BinaryFormat.CL_ORD_ID;
+			this.clOrdIdEnd = clOrdIdEnd;
+			this.orderCount = 1;
+		}
+		int symbolEnd = BinaryFormat.end(frame, BinaryFormat.SYMBOL, BinaryFormat.SYMBOL_LENGTH);
+		if (symbolEnd > BinaryFormat.SYMBOL) {
+			this.symbolStart = BinaryFormat.SYMBOL;
+			this.symbolEnd = symbolEnd;
+		}
+		this.orderQty = this.maxOrderQty = this.legQty = BinaryFormat.getInt(frame, BinaryFormat.ORDER_QTY);
+		this.invalidOrderQty = orderQty <= 0;
+		this.price = this.legPrice = BinaryFormat.getLong(frame, BinaryFormat.PRICE);
+		if (BinaryFormat.msgType(frame) == '8')
+			this.ordStatus = this.execType = frame.charAt(BinaryFormat.ORD_STATUS);
+		endOrder();
+		return this;
+	}
+
+	private void reset(CharSequence message, boolean binary) {
+		this.raw = message;
+		this.buffer = null;
+		this.binary = binary;
+		this.relayed = false;
+		this.checksum = 0;
+		this.declaredChecksum = -1;
+		this.checksumPresent = false;
+		this.msgTypeStart = this.msgTypeEnd = -1;
+		this.clOrdIdStart = this.clOrdIdEnd = -1;
+		this.listIdStart = this.listIdEnd = -1;
+		this.orderCount = 0;
+		this.maxOrderQty = -1;
+		this.invalidOrderQty = false;
+		this.maxNotional = 0;
+		this.legQty = -1;
+		this.legPrice = -1;
+		this.symbolStart = this.symbolEnd = -1;
+		this.subscriptionRequestType = '?';
+		this.orderQty = -1;
+		this.price = -1;
+		this.ordStatus = '?';
+		this.execType = '?';
+		this.senderId = -1;
+		this.targetId = -1;
+	}
+
+	private FixMessage parse(CharSequence message, int from, boolean binary) {
+		reset(message, binary);
+		int length = message.length();
+		int sum = 0;
+		int fieldSum = 0;
+		int tag = 0;
+		boolean inTag = true;
+		int valueStart = from;
+		int value = 0;
+		boolean numeric = true;
+
+		for (int i = from; i < length; i++) {
+			char ch = message.charAt(i);
+			if (inTag) {
+				if (ch == '=') {
+					inTag = false;
+					valueStart = i + 1;
+					value = 0;
+					numeric = true;
+				} else if (ch >= '0' && ch <= '9' && tag >= 0 && tag <= MAX_TAG / 10) {
+					tag = tag * 10 + (ch - '0');
+				} else {
+					tag = -1;
+				}
+			} else if (ch == SOH) {
+				field(tag, valueStart, i, value, numeric && i > valueStart, fieldSum);
+				inTag = true;
+				tag = 0;
+				fieldSum = sum + ch;
+			} else if (ch >= '0' && ch <= '9' && value <= (Integer.MAX_VALUE - (ch - '0')) / 10) {
+				value = value * 10 + (ch - '0');
+			} else {
+				// Past Integer.MAX_VALUE too, so an overflowing quantity or ID reads as -1 instead of wrapping
+				numeric = false;
+			}
+			sum += ch;
+		}
+		if (!inTag)
+			field(tag, valueStart, length, value, numeric && length > valueStart, fieldSum);
+		endOrder();
+		return this;
+	}
+
+	private void endOrder() {
+		// Saturates rather than overflows, so an absurd order still exceeds any limit
+		if (legQty > 0 && legPrice > 0)
+			maxNotional = Math.max(maxNotional, legPrice > Long.MAX_VALUE / legQty ? Long.MAX_VALUE : legQty * legPrice);
+		legQty = -1;
+		legPrice = -1;
+	}
+
+	private void field(int tag, int start, int end, int value, boolean numeric, int fieldSum) {
+		switch (tag) {
+			case 35:
+				msgTypeStart = start;
+				msgTypeEnd = end;
+				break;
+			case 49:
+				senderId = numeric ? value : -1;
+				break;
+			case 56:
+				targetId = numeric ? value : -1;
+				break;
+			case 11:
+				// Each order of a list starts with its ClOrdID; the first one is kept
+				endOrder();
+				orderCount++;
+				if (clOrdIdStart < 0) {
+					clOrdIdStart = start;
+					clOrdIdEnd = end;
+				}
+				break;
+			case 66:
+				listIdStart = start;
+				listIdEnd = end;
+				break;
+			case 55:
+				// Market data messages repeat the symbol in each entry; the first one is kept
+				if (symbolStart < 0) {
+					symbolStart = start;
+					symbolEnd = end;
+				}
+				break;
+			case 38:
+				orderQty = numeric ? value : -1;
+				legQty = orderQty;
+				maxOrderQty = Math.max(maxOrderQty, orderQty);
+				invalidOrderQty |= orderQty <= 0;
+				break;
+			case 44:
+				price = Price.parse(raw, start, end);
+				legPrice = price;
+				break;
+			case 39:
+				ordStatus = end - start == 1 ? raw.charAt(start) : '?';
+				break;
+			case 150:
+				execType = end - start == 1 ? raw.charAt(start) : '?';
+				break;
+			case 263:
+				subscriptionRequestType = end - start == 1 ? raw.charAt(start) : '?';
+				break;
+			case 10:
+				if (!checksumPresent) {
+					checksumPresent = true;
+					checksum = fieldSum % 256;
+					declaredChecksum = numeric && end - start == 3 ? value : -1;
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	// The message as received: a text line, or a frame when isBinary()
+	public CharSequence raw() {
+		return raw;
+	}
+
+	// The pooled buffer the message was read into, null if it was parsed from a String
+	public MessageBuffer buffer() {
+		return buffer;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public boolean isRelayed() {
+		return relayed;
+	}
+
+	FixMessage setRelayed() {
+		this.relayed = true;
+		return this;
+	}
+
+	// The tag=value form, as a text destination or the failover journal takes it
+	public String toText() {
+		return binary ? BinaryFormat.toText(raw, encoders.get()) : raw.toString();
+	}
+
+	// The message framed for a destination using the given encoding, referenced once by the caller.
+	// In the encoding it was received in, that is its own pooled buffer, shared rather than copied.
+	public MessageBuffer framed(boolean binary) {
+		if (binary == this.binary && buffer != null)
+			return buffer.retain();
+		if (binary == this.binary)
+			return binary ? MessageBuffer.frame(raw) : MessageBuffer.line(raw);
+		return binary ? MessageBuffer.frame(frames.get().fromText(raw)) : MessageBuffer.line(toText());
+	}
+
+	public int length() {
+		return raw.length();
+	}
+
+	public boolean hasValidChecksum() {
+		return checksumPresent && checksum == declaredChecksum;
+	}
+
+	public int getSenderId() {
+		return senderId;
+	}
+
+	public int getTargetId() {
+		return targetId;
+	}
+
+	// First character of the MsgType, or '?' if it is missing
+	public char getMsgType() {
+		return msgTypeEnd > msgTypeStart ? raw.charAt(msgTypeStart) : '?';
+	}
+
+	public boolean isMsgType(String msgType) {
+		if (msgTypeStart < 0 || msgTypeEnd - msgTypeStart != msgType.length())
+			return false;
+		for (int i = 0; i < msgType.length(); i++) {
+			if (raw.charAt(msgTypeStart + i) != msgType.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	// Allocates; only meant for the rejection path
+	public String getClOrdId() {
+		return clOrdIdStart >= 0 ? raw.subSequence(clOrdIdStart, clOrdIdEnd).toString() : null;
+	}
+
+	// Bounds of the ClOrdID value in raw(), -1 when absent
+	public int getClOrdIdStart() {
+		return clOrdIdStart;
+	}
+
+	public int getClOrdIdEnd() {
+		return clOrdIdEnd;
+	}
+
+	// Bounds of the ListID value in raw(), -1 when absent
+	public int getListIdStart() {
+		return listIdStart;
+	}
+
+	public int getListIdEnd() {
+		return listIdEnd;
+	}
+
+	// Orders carried by the message: one per ClOrdID, so several for a NewOrderList
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	// Largest OrderQty of the orders carried, -1 when none has one
+	public int getMaxOrderQty() {
+		return maxOrderQty;
+	}
+
+	// An order carried has an OrderQty that is missing a number, zero, negative or past Integer.MAX_VALUE
+	public boolean hasInvalidOrderQty() {
+		return invalidOrderQty;
+	}
+
+	// Largest quantity times price of the orders carried, fixed-point like Price, 0 when none has both
+	public long getMaxNotional() {
+		return maxNotional;
+	}
+
+	// Bounds of the first Symbol value in raw(), -1 when absent
+	public int getSymbolStart() {
+		return symbolStart;
+	}
+
+	public int getSymbolEnd() {
+		return symbolEnd;
+	}
+
+	// OrderQty of the last order carried, -1 when missing or not a number
+	public int getOrderQty() {
+		return orderQty;
+	}
+
+	// Fixed-point Price of the last order carried, -1 when missing or not a price
+	public long getPrice() {
+		return price;
+	}
+
+	// OrdStatus of an ExecutionReport, '?' if missing
+	public char getOrdStatus() {
+		return ordStatus;
+	}
+
+	// ExecType of an ExecutionReport, '?' if missing
+	public char getExecType() {
+		return execType;
+	}
+
+	// SubscriptionRequestType of a MarketDataRequest (0 = Snapshot, 1 = Subscribe, 2 = Unsubscribe), '?' if missing
+	public char getSubscriptionRequestType() {
+		return subscriptionRequestType;
+	}
+
+	@Override
+	public String toString() {
+		return toText();
+	}
+}
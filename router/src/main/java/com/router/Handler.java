@@ -1,18 +1,21 @@
 package com.router;
 
+import com.common.Level;
+import com.common.Logger;
 import java.io.*;
-import java.net.*;
 
 interface Handler {
 	void setNext(Handler handler);
-	void handle(Socket socket, String message);
+	void handle(Session session, FixMessage message);
 
-	default void sendRejection(Socket socket, String message, String reason) {
-		Router.sendRejection(socket, message, reason);
+	default void sendRejection(Session session, FixMessage message, String reason) {
+		if (session != null)
+			Router.sendRejection(session, message, reason);
 	}
 }
 
 class MessageValidationHandler implements Handler {
+	private static final Logger log = Logger.get("routing");
 	private Handler next;
 
 	@Override
@@ -21,35 +24,66 @@ class MessageValidationHandler implements Handler {
 	}
 
 	@Override
-	public void handle(Socket socket, String message) {
-		// Validate the message based on the checksum
-		if (isValid(message) && next != null) {
-			next.handle(socket, message);
+	public void handle(Session session, FixMessage message) {
+		// Validate the message based on the checksum computed while parsing
+		if (message.hasValidChecksum() && next != null) {
+			next.handle(session, message);
 		} else {
-			System.out.println("Invalid checksum: " + message);
-			sendRejection(socket, message, "Invalid checksum");
+			// A snapshot: the message is reused, and its buffer released, before the log writer gets to it
+			if (log.isEnabled(Level.INFO))
+				log.info("Invalid checksum: {}", message.toText());
+			RouterMetrics.rejectedChecksum.increment();
+			sendRejection(session, message, "Invalid checksum");
 		}
 	}
+}
 
-	private boolean isValid(String message) {
-		String[] parts = message.split("10=");
-		if (parts.length != 2) {
-			return false;
-		}
-		String body = parts[0];
-		String checksumStr = parts[1].substring(0, 3);
+// Credit-based flow control towards markets. A market's credit is its session's window minus the bytes
+// the router still holds for it, queued or not yet taken by its socket, so it runs out as soon as the
+// market stops reading. A broker message for a market without credit is rejected as busy, or with
+// PAUSE it is forwarded and the broker is not read from until the market has drained half its window.
+class FlowControlHandler implements Handler {
+	private static final Logger log = Logger.get("routing");
+	private final RouterConfig.FlowControl policy;
+	private Handler next;
 
-		int checksum = 0;
-		for (char ch : body.toCharArray()) {
-			checksum += ch;
-		}
-		checksum %= 256;
+	FlowControlHandler(RouterConfig.FlowControl policy) {
+		this.policy = policy;
+	}
 
-		return String.format("%03d", checksum).equals(checksumStr);
+	@Override
+	public void setNext(Handler handler) {
+		this.next = handler;
+	}
+
+	@Override
+	public void handle(Session session, FixMessage message) {
+		if (session.isBroker()) {
+			Session destination = RoutingTable.getSession(message.getTargetId());
+			if (destination != null && destination.isMarket() && destination.isSaturated()) {
+				if (policy == RouterConfig.FlowControl.REJECT) {
+					log.info("Market({}) busy, rejecting message from broker({})", destination.getId(), session.getId());
+					RouterMetrics.rejectedBusy.increment();
+					sendRejection(session, message, "Market busy");
+					return;
+				}
+				if (destination.pauseSource(session)) {
+					log.info("Market({}) busy, pausing broker({})", destination.getId(), session.getId());
+					RouterMetrics.pausedReads.increment();
+				}
+			}
+		}
+		if (next != null)
+			next.handle(session, message);
 	}
 }
 
-class RoutingHandler implements Handler {
+// Records subscriptions (35=V) on their way to the market, which takes them up with a snapshot (35=W) or
+// rejects them (35=Y), and fans the market's updates (35=X) out to the subscribers of their symbol. An update is framed once per encoding and the same bytes go to every
+// subscriber using it, or once to each other node of a cluster holding subscribers; snapshots (35=W)
+// for a subscriber are conflated with the updates, as both carry the symbol's whole state.
+class MarketDataHandler implements Handler {
+	private static final Logger log = Logger.get("marketdata");
 	private Handler next;
 
 	@Override
@@ -58,71 +92,135 @@ class RoutingHandler implements Handler {
 	}
 
 	@Override
-	public void handle(Socket socket, String message) {
-		if (message == null || message.isEmpty()) {
-			System.out.println("Invalid message received");
-			sendRejection(socket, message, "Invalid message");
+	public void handle(Session session, FixMessage message) {
+		if (session.isMarket() && message.isMsgType("X")) {
+			publish(session, message);
 			return;
 		}
-		int sourceId = parseSourceId(message);
-		int destinationId = parseDestinationId(message);
-		if (RoutingTable.isBrokerRoute(socket))
-			System.out.println("Received message from broker(" + sourceId + ") to market(" + destinationId + "): " + message);
-		else if (RoutingTable.isMarketRoute(socket))
-			System.out.println("Received message from market(" + sourceId + ") to broker(" + destinationId + "): " + message);
-		else
-			System.out.println("Received message from unknown source: " + message);
-
-		if (RoutingTable.isBrokerRoute(socket) && !RoutingTable.isMarketRoute(destinationId)) {
-			System.out.println("This destination is not a known market");
-			sendRejection(socket, message, "This destination is not a known market");
-		} else if (RoutingTable.isMarketRoute(socket) && !RoutingTable.isBrokerRoute(destinationId)) {
-			System.out.println("This destination is not a known broker");
-			sendRejection(socket, message, "This destination is not a known broker");
-		} else {
-			Socket destinationSocket = RoutingTable.getRoute(destinationId);
+		if (session.isMarket() && message.isMsgType("W") && deliverSnapshot(session, message))
+			return;
+		if (session.isMarket() && message.isMsgType("Y"))
+			rejected(session, message);
+		if (session.isBroker() && message.isMsgType("V"))
+			subscription(session, message);
+		if (next != null)
+			next.handle(session, message);
+	}
 
-			if (destinationSocket != null) {
-				if (next != null) {
-					next.handle(destinationSocket, message);
-				}
+	private void publish(Session market, FixMessage message) {
+		RouterMetrics.marketDataUpdates.increment();
+		MarketDataTable.Topic topic = MarketDataTable.find(market.getId(), message);
+		if (topic == null)
+			return;
+		MessageBuffer textUpdate = null;
+		MessageBuffer binaryUpdate = null;
+		for (int subscriber : topic.getSubscribers()) {
+			Session session = RoutingTable.getSession(subscriber);
+			if (session == null || !session.isBroker())
+				continue;
+			if (session.isRemote()) {
+				// The market's node sends the update once to each node holding subscribers, which delivers it to them
+				if (market.isRemote() || (session = session.getRelay()) == null)
+					continue;
+			}
+			if (session.isBinary()) {
+				if (binaryUpdate == null)
+					binaryUpdate = message.framed(true);
+				session.sendLatest(topic, binaryUpdate.retain());
 			} else {
-				System.out.println("Destination not found for message: " + message);
-				sendRejection(socket, message, "Destination not found");
+				if (textUpdate == null)
+					textUpdate = message.framed(false);
+				session.sendLatest(topic, textUpdate.retain());
 			}
+			RouterMetrics.marketDataDelivered.increment();
 		}
+		if (binaryUpdate != null)
+			binaryUpdate.release();
+		if (textUpdate != null)
+			textUpdate.release();
 	}
 
-	private int parseDestinationId(String message) {
-		// Extract the destination ID from the message
-		// The separator is \u0001 (ASCII SOH) character
-		// The destination ID is the value of the 56 tag
+	// The first snapshot for a subscription request makes the broker a subscriber. Snapshots asked for
+	// without subscribing are routed like any other message.
+	private boolean deliverSnapshot(Session market, FixMessage message) {
+		MarketDataTable.Topic topic = MarketDataTable.find(market.getId(), message);
+		if (topic == null)
+			return false;
+		topic.accept(message.getTargetId());
+		if (!topic.isSubscribed(message.getTargetId()))
+			return false;
+		Session session = RoutingTable.getSession(message.getTargetId());
+		if (session == null || !session.isBroker())
+			return false;
+		session.sendLatest(topic, message.framed(session.isBinary()));
+		RouterMetrics.marketDataDelivered.increment();
+		return true;
+	}
 
-		String[] parts = message.split("\u0001");
-		for (String part : parts) {
-			if (part.startsWith("56=")) {
-				return Integer.parseInt(part.substring(3));
-			}
+	private void subscription(Session broker, FixMessage message) {
+		int marketId = message.getTargetId();
+		if (message.getSymbolStart() < 0 || !RoutingTable.isMarketRoute(marketId))
+			return;
+		String symbol = message.raw().subSequence(message.getSymbolStart(), message.getSymbolEnd()).toString();
+		if (message.getSubscriptionRequestType() == '1') {
+			MarketDataTable.request(marketId, symbol, broker.getId());
+			log.info("Broker({}) asked to subscribe to {} at market({})", broker.getId(), symbol, marketId);
+		} else if (message.getSubscriptionRequestType() == '2') {
+			MarketDataTable.unsubscribe(marketId, symbol, broker.getId());
+			log.info("Broker({}) unsubscribed from {} at market({})", broker.getId(), symbol, marketId);
 		}
-		return -1;
 	}
 
-	private int parseSourceId(String message) {
-		// Extract the source ID from the message
-		// The separator is \u0001 (ASCII SOH) character
-		// The source ID is the value of the 49 tag
+	private void rejected(Session market, FixMessage message) {
+		MarketDataTable.Topic topic = MarketDataTable.find(market.getId(), message);
+		if (topic != null)
+			topic.reject(message.getTargetId());
+	}
+}
 
-		String[] parts = message.split("\u0001");
-		for (String part : parts) {
-			if (part.startsWith("49=")) {
-				return Integer.parseInt(part.substring(3));
-			}
+class RoutingHandler implements Handler {
+	private static final Logger log = Logger.get("routing");
+	private Handler next;
+
+	@Override
+	public void setNext(Handler handler) {
+		this.next = handler;
+	}
+
+	@Override
+	public void handle(Session session, FixMessage message) {
+		if (message == null || message.length() == 0) {
+			log.info("Invalid message received");
+			sendRejection(session, message, "Invalid message");
+			return;
+		}
+		int sourceId = message.getSenderId();
+		int destinationId = message.getTargetId();
+		Session destination = RoutingTable.getSession(destinationId);
+		if (log.isEnabled(Level.DEBUG)) {
+			if (session.isBroker())
+				log.debug("Received message from broker({}) to market({}): {}", sourceId, destinationId, message.toText());
+			else
+				log.debug("Received message from market({}) to broker({}): {}", sourceId, destinationId, message.toText());
+		}
+
+		if (session.isBroker() && (destination == null || !destination.isMarket())) {
+			log.info("This destination is not a known market");
+			RouterMetrics.rejectedDestination.increment();
+			RiskHandler.closeRejected(session, message);
+			sendRejection(session, message, "This destination is not a known market");
+		} else if (session.isMarket() && (destination == null || !destination.isBroker())) {
+			log.info("This destination is not a known broker");
+			RouterMetrics.rejectedDestination.increment();
+			sendRejection(session, message, "This destination is not a known broker");
+		} else if (next != null) {
+			next.handle(destination, message);
 		}
-		return -1;
 	}
 }
 
 class MessageForwardingHandler implements Handler {
+	private static final Logger log = Logger.get("forwarding");
 
 	@Override
 	public void setNext(Handler handler) {
@@ -130,30 +228,37 @@ class MessageForwardingHandler implements Handler {
 	}
 
 	@Override
-	public void handle(Socket socket, String message) {
+	public void handle(Session session, FixMessage message) {
+		// Nodes that disagree on an owner while membership changes would otherwise pass the message back and forth
+		if (message.isRelayed() && session.isRemote()) {
+			failover(session, message);
+			return;
+		}
 		try {
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			out.println(message);
-			System.out.println("Message forwarded: " + message);
+			session.forward(message);
+			if (log.isEnabled(Level.DEBUG))
+				log.debug("Message forwarded: {}", message.toText());
 		} catch (IOException e) {
-			System.out.println("Error forwarding message: " + e.getMessage());
-			int sourceId = 0;
-			int destinationId = 0;
-			String[] parts = message.split("\u0001");
-			for (String part : parts) {
-				if (part.startsWith("49=")) {
-					sourceId = Integer.parseInt(part.substring(3));
-				} else if (part.startsWith("56=")) {
-					destinationId = Integer.parseInt(part.substring(3));
-				}
-			}
-			RoutingTable.addPendingMessage(destinationId, message);
-			System.out.println("Message saved for failover: " + message);
-			Socket sourceSocket = RoutingTable.getRoute(sourceId);
-			if (RoutingTable.isBrokerRoute(socket))
-				sendRejection(sourceSocket, message, "Broker not available");
-			else if (RoutingTable.isMarketRoute(socket))
-				sendRejection(sourceSocket, message, "Market not available");
+			log.error("Error forwarding message: {}", e.getMessage());
+			failover(session, message);
 		}
 	}
+
+	// Keeps a message that could not be delivered to the destination and rejects it to its sender.
+	// It is kept as text, as the destination may reconnect with another encoding.
+	static void failover(Session destination, FixMessage message) {
+		String text = message.toText();
+		RoutingTable.addPendingMessage(message.getTargetId(), destination.getRole(), text);
+		log.info("Message saved for failover: {}", text);
+		destination.getMetrics().failed.increment();
+		RouterMetrics.rejectedUnavailable.increment();
+		Session source = RoutingTable.getSession(message.getSenderId());
+		if (source == null)
+			return;
+		RiskHandler.closeRejected(source, message);
+		if (destination.isBroker())
+			Router.sendRejection(source, message, "Broker not available");
+		else
+			Router.sendRejection(source, message, "Market not available");
+	}
 }
@@ -0,0 +1,54 @@
+package com.router;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Consistent hash ring over the live nodes of a router cluster. Each node takes virtualNodes points on the ring,
+// and a component ID belongs to the node of the first point at or after the ID's hash. A node joining or leaving
+// only takes or gives up the IDs next to its own points, about 1/N of them, and every other ID keeps its owner.
+// Immutable; a lookup is one binary search and allocates nothing.
+final class HashRing {
+	private final int[] points;
+	// Node of each point, null for this node
+	private final PeerNode[] owners;
+
+	HashRing(int selfId, List<PeerNode> members, int virtualNodes) {
+		int nodes = members.size() + 1;
+		PeerNode[] byId = new PeerNode[Cluster.MAX_NODES];
+		// Point hash in the high half, node ID in the low half: one sort orders them the same way on every node
+		long[] entries = new long[nodes * virtualNodes];
+		for (int node = 0; node < nodes; node++) {
+			int nodeId = node == 0 ? selfId : members.get(node - 1).getId();
+			if (node > 0)
+				byId[nodeId] = members.get(node - 1);
+			for (int replica = 0; replica < virtualNodes; replica++) {
+				entries[node * virtualNodes + replica] = (long) hash(nodeId << 16 | replica) << 32 | nodeId;
+			}
+		}
+		Arrays.sort(entries);
+		this.points = new int[entries.length];
+		this.owners = new PeerNode[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			points[i] = (int) (entries[i] >> 32);
+			owners[i] = byId[(int) entries[i]];
+		}
+	}
+
+	// Node owning the ID, null if it is this one
+	PeerNode owner(int id) {
+		int index = Arrays.binarySearch(points, hash(id));
+		if (index < 0)
+			index = -index - 1;
+		return owners[index == points.length ? 0 : index];
+	}
+
+	// Murmur3's finalizer: sequential IDs and node points land far apart
+	static int hash(int value) {
+		value ^= value >>> 16;
+		value *= 0x85EBCA6B;
+		value ^= value >>> 13;
+		value *= 0xC2B2AE35;
+		value ^= value >>> 16;
+		return value;
+	}
+}
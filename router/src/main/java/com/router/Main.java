@@ -1,13 +1,21 @@
 package com.router;
 
+import com.common.Logger;
+import com.common.Metrics;
+
 public class Main {
-	public static void main(String[] args) {
-		Router router = new Router();
+	private static final Logger log = Logger.get("router");
 
+	public static void main(String[] args) {
 		try {
+			// -Drouter.mode=nio -Drouter.eventLoops=<n> selects the non-blocking event loop mode
+			// -Drouter.nodeId=<n> -Drouter.cluster=<id@host:brokerPort:marketPort:peerPort,...> joins a cluster of routers
+			Router router = new Router(RouterConfig.fromSystemProperties());
 			router.start();
+			// -Dmetrics.port=<port> also serves the metrics on http://localhost:<port>/metrics
+			Metrics.expose("router");
 		} catch (Exception e) {
-			System.out.println("Error in the router: " + e.getMessage());
+			log.error("Error in the router: {}", e.getMessage());
 		}
 	}
 }
@@ -0,0 +1,203 @@
+package com.router;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Brokers subscribed to the market data of each market and symbol. Updates look their topic up by the
+// bounds of the symbol in the raw message, so fanning one out allocates nothing; subscribing copies
+// the topic's subscriber array, which readers use without locking. A request stays apart from the
+// subscribers until the market answers it with a snapshot, so one the market rejects is never fanned out to.
+public class MarketDataTable {
+	private static final ConcurrentHashMap<Integer, ConcurrentHashMap<Symbol, Topic>> markets = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Symbol> lookups = ThreadLocal.withInitial(Symbol::new);
+
+	public interface SubscriptionVisitor {
+		void visit(int marketId, String symbol, int brokerId);
+	}
+
+	// One market's symbol, also the key its updates are conflated under in each subscriber's queue
+	public static final class Topic {
+		private final int marketId;
+		private final String symbol;
+		private volatile int[] subscribers = new int[0];
+		// Asked for and not answered yet; guarded by this
+		private int[] requested = new int[0];
+
+		Topic(int marketId, String symbol) {
+			this.marketId = marketId;
+			this.symbol = symbol;
+		}
+
+		public int getMarketId() {
+			return marketId;
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public int[] getSubscribers() {
+			return subscribers;
+		}
+
+		public boolean isSubscribed(int brokerId) {
+			return contains(subscribers, brokerId);
+		}
+
+		synchronized void add(int brokerId) {
+			requested = without(requested, brokerId);
+			subscribers = with(subscribers, brokerId);
+		}
+
+		synchronized void request(int brokerId) {
+			if (!contains(subscribers, brokerId))
+				requested = with(requested, brokerId);
+		}
+
+		// Subscribes the broker if it asked to, once the market sent it a snapshot
+		synchronized void accept(int brokerId) {
+			if (contains(requested, brokerId))
+				add(brokerId);
+		}
+
+		synchronized void reject(int brokerId) {
+			requested = without(requested, brokerId);
+		}
+
+		synchronized void remove(int brokerId) {
+			requested = without(requested, brokerId);
+			subscribers = without(subscribers, brokerId);
+		}
+
+		private static boolean contains(int[] brokers, int brokerId) {
+			for (int broker : brokers) {
+				if (broker == brokerId)
+					return true;
+			}
+			return false;
+		}
+
+		private static int[] with(int[] brokers, int brokerId) {
+			if (contains(brokers, brokerId))
+				return brokers;
+			int[] updated = Arrays.copyOf(brokers, brokers.length + 1);
+			updated[brokers.length] = brokerId;
+			return updated;
+		}
+
+		private static int[] without(int[] brokers, int brokerId) {
+			int[] updated = new int[brokers.length];
+			int count = 0;
+			for (int broker : brokers) {
+				if (broker != brokerId)
+					updated[count++] = broker;
+			}
+			return count < brokers.length ? Arrays.copyOf(updated, count) : brokers;
+		}
+	}
+
+	// Recorded for a request the market has yet to answer
+	public static void request(int marketId, String symbol, int brokerId) {
+		markets.computeIfAbsent(marketId, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(new Symbol(symbol), k -> new Topic(marketId, symbol))
+				.request(brokerId);
+	}
+
+	public static void subscribe(int marketId, String symbol, int brokerId) {
+		markets.computeIfAbsent(marketId, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(new Symbol(symbol), k -> new Topic(marketId, symbol))
+				.add(brokerId);
+	}
+
+	public static void unsubscribe(int marketId, String symbol, int brokerId) {
+		Topic topic = find(marketId, symbol, 0, symbol.length());
+		if (topic != null)
+			topic.remove(brokerId);
+	}
+
+	// Drops every subscription of a broker that is gone, and the requests it is still waiting on
+	public static void unsubscribeAll(int brokerId) {
+		markets.forEach((marketId, topics) -> {
+			for (Topic topic : topics.values()) {
+				topic.remove(brokerId);
+			}
+		});
+	}
+
+	// Topic of the symbol found in the message, or null when nobody ever subscribed to it
+	public static Topic find(int marketId, FixMessage message) {
+		if (message.getSymbolStart() < 0)
+			return null;
+		return find(marketId, message.raw(), message.getSymbolStart(), message.getSymbolEnd());
+	}
+
+	private static Topic find(int marketId, CharSequence text, int start, int end) {
+		Map<Symbol, Topic> topics = markets.get(marketId);
+		if (topics == null)
+			return null;
+		Symbol lookup = lookups.get().set(text, start, end);
+		Topic topic = topics.get(lookup);
+		lookup.set(null, 0, 0);
+		return topic;
+	}
+
+	// Visits every subscription the component takes part in, either as the market or as the broker
+	public static void forEachSubscription(int id, SubscriptionVisitor visitor) {
+		markets.forEach((marketId, topics) -> {
+			for (Topic topic : topics.values()) {
+				for (int brokerId : topic.subscribers) {
+					if (marketId == id || brokerId == id)
+						visitor.visit(marketId, topic.symbol, brokerId);
+				}
+			}
+		});
+	}
+
+	// Region of a string compared by content, so a lookup can point into a raw message
+	private static final class Symbol {
+		private CharSequence text;
+		private int start;
+		private int end;
+		private int hash;
+
+		Symbol() {
+		}
+
+		Symbol(String symbol) {
+			set(symbol, 0, symbol.length());
+		}
+
+		Symbol set(CharSequence text, int start, int end) {
+			this.text = text;
+			this.start = start;
+			this.end = end;
+			int h = 0;
+			for (int i = start; i < end; i++) {
+				h = 31 * h + text.charAt(i);
+			}
+			this.hash = h;
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Symbol))
+				return false;
+			Symbol symbol = (Symbol) other;
+			int length = end - start;
+			if (symbol.hash != hash || symbol.end - symbol.start != length)
+				return false;
+			for (int i = 0; i < length; i++) {
+				if (text.charAt(start + i) != symbol.text.charAt(symbol.start + i))
+					return false;
+			}
+			return true;
+		}
+	}
+}
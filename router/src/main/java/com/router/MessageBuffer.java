@@ -0,0 +1,202 @@
+package com.router;
+
+import com.common.BinaryEncoder;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pooled direct buffer holding one framed message as received or sent, or a batch of them on their way to a connection.
+// Reference counted: a holder that keeps it beyond the call handing it over retains it first, and every holder
+// releases it once done; the last release returns it to its BufferPool.
+// As a CharSequence it is the message without its line terminator, one char per byte, so FixMessage and
+// BinaryFormat read it in place. Reads use absolute indexes and never move the buffer's position, so any number of
+// holders may read it at once; only a holder that is not sharing it (see isShared()) lets a channel consume data().
+public final class MessageBuffer implements CharSequence {
+	private final BufferPool.SizeClass pool;
+	private final ByteBuffer data;
+	private final AtomicInteger references = new AtomicInteger();
+	// Chars of the message, line terminator excluded
+	private int length;
+	// Bytes to write: the message and its terminator, or a whole batch
+	private int framedLength;
+	// Run by the connection once it has written the bytes, null for most messages
+	private Runnable onWritten;
+
+	MessageBuffer(BufferPool.SizeClass pool, int capacity) {
+		this.pool = pool;
+		this.data = ByteBuffer.allocateDirect(capacity);
+	}
+
+	// A received text line given its terminator back, or a received frame as is
+	static MessageBuffer received(ByteBuffer source, boolean binary) {
+		int length = source.remaining();
+		MessageBuffer message = BufferPool.acquire(binary ? length : length + 1).put(source);
+		if (!binary)
+			message.put((byte) '\n');
+		return message.complete(length);
+	}
+
+	static MessageBuffer received(byte[] source, int offset, int length, boolean binary) {
+		MessageBuffer message = BufferPool.acquire(binary ? length : length + 1).put(source, offset, length);
+		if (!binary)
+			message.put((byte) '\n');
+		return message.complete(length);
+	}
+
+	// A tag=value message as a terminated line
+	static MessageBuffer line(CharSequence text) {
+		return BufferPool.acquire(text.length() + 1).put(text).put((byte) '\n').complete(text.length());
+	}
+
+	// A frame whose chars are its bytes
+	static MessageBuffer frame(CharSequence frame) {
+		return BufferPool.acquire(frame.length()).put(frame).complete(frame.length());
+	}
+
+	// The frame an encoder has just finished
+	static MessageBuffer frame(BinaryEncoder encoder) {
+		return BufferPool.acquire(encoder.length()).put(encoder.buffer(), 0, encoder.length()).complete(encoder.length());
+	}
+
+	// Called by the pool when handing the buffer out
+	MessageBuffer reset() {
+		data.clear();
+		length = framedLength = 0;
+		onWritten = null;
+		references.set(1);
+		return this;
+	}
+
+	MessageBuffer put(ByteBuffer source) {
+		data.put(source);
+		return this;
+	}
+
+	MessageBuffer put(byte[] source, int offset, int length) {
+		data.put(source, offset, length);
+		return this;
+	}
+
+	MessageBuffer put(byte value) {
+		data.put(value);
+		return this;
+	}
+
+	MessageBuffer put(CharSequence chars) {
+		for (int i = 0; i < chars.length(); i++) {
+			data.put((byte) chars.charAt(i));
+		}
+		return this;
+	}
+
+	// Appends the framed bytes of another message, e.g. into a batch; the other message is left as it was
+	MessageBuffer put(MessageBuffer message) {
+		synchronized (message) {
+			ByteBuffer source = message.data;
+			int position = source.position();
+			source.position(0);
+			data.put(source);
+			source.position(position);
+		}
+		return this;
+	}
+
+	// Copies the framed bytes into target, which has room for them
+	void get(byte[] target) {
+		synchronized (this) {
+			int position = data.position();
+			data.position(0);
+			data.get(target, 0, framedLength);
+			data.position(position);
+		}
+	}
+
+	// Ends filling: the first length bytes are the message, whatever follows is its terminator
+	MessageBuffer complete(int length) {
+		this.length = length;
+		this.framedLength = data.position();
+		data.flip();
+		return this;
+	}
+
+	// Ends filling a batch
+	MessageBuffer complete() {
+		return complete(data.position());
+	}
+
+	public MessageBuffer retain() {
+		if (references.getAndIncrement() <= 0)
+			throw new IllegalStateException("Message buffer already released");
+		return this;
+	}
+
+	public void release() {
+		int left = references.decrementAndGet();
+		if (left == 0) {
+			if (pool != null)
+				pool.recycle(this);
+		} else if (left < 0) {
+			throw new IllegalStateException("Message buffer released too often");
+		}
+	}
+
+	// Sets what to do once the message is written. Such a message is written on its own, never in a batch.
+	MessageBuffer onWritten(Runnable action) {
+		this.onWritten = action;
+		return this;
+	}
+
+	boolean hasOnWritten() {
+		return onWritten != null;
+	}
+
+	// Called by the connection once every byte has been written, before it releases the buffer
+	void written() {
+		if (onWritten != null)
+			onWritten.run();
+	}
+
+	// True while another holder may still read the bytes
+	boolean isShared() {
+		return references.get() > 1;
+	}
+
+	// The framed bytes between position and limit; only the single holder of the buffer may move its position
+	ByteBuffer data() {
+		return data;
+	}
+
+	int capacity() {
+		return data.capacity();
+	}
+
+	public int framedLength() {
+		return framedLength;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= length)
+			throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+		return (char) (data.get(index) & 0xFF);
+	}
+
+	// Allocates; only meant for logs and the rejection path
+	@Override
+	public String subSequence(int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = charAt(i);
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length);
+	}
+}
@@ -0,0 +1,235 @@
+package com.router;
+
+import com.common.Logger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Store-and-forward journal of the messages that could not be delivered to one destination.
+// The file is memory-mapped with a fixed capacity used as a ring: the header records the role of the destination and
+// the offsets of the first message not yet delivered and of the end of the journal, which wraps to the start once
+// the messages there have been delivered or dropped. Nothing is ever moved.
+public class MessageJournal {
+	private static final Logger log = Logger.get("journal");
+	private static final int MAGIC = 0x46495831; // "FIX1"
+	private static final int ROLE_OFFSET = 4;
+	private static final int READ_OFFSET = 8;
+	private static final int WRITE_OFFSET = 16;
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_HEADER_SIZE = 12; // length + timestamp
+	// Length of the record ending the journal before the last pending messages, which start over at the beginning
+	private static final int WRAP = -1;
+
+	private final int id;
+	private final MappedByteBuffer buffer;
+	private final long ttlMillis;
+	private Session.Role role;
+	private int readOffset;
+	private int writeOffset;
+	private int pendingCount;
+	// Oldest pending messages handed out by pending() and not removed since, which the next call skips
+	private int sending;
+
+	private MessageJournal(int id, MappedByteBuffer buffer, long ttlMillis) {
+		this.id = id;
+		this.buffer = buffer;
+		this.ttlMillis = ttlMillis;
+	}
+
+	// Opens the journal file, creating it with the given role if it does not exist yet
+	public static MessageJournal open(Path file, int id, Session.Role role, int capacity, long ttlMillis) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			boolean created = channel.size() == 0;
+			int size = created ? capacity : (int) Math.max(channel.size(), HEADER_SIZE);
+			if (size != capacity)
+				size = resize(channel, file, size, capacity);
+			// The mapping stays valid after the channel is closed
+			MessageJournal journal = new MessageJournal(id, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), ttlMillis);
+
+			if (created || journal.buffer.getInt(0) != MAGIC) {
+				if (role == null)
+					throw new IOException("Invalid journal file: " + file);
+				journal.role = role;
+				journal.readOffset = HEADER_SIZE;
+				journal.writeOffset = HEADER_SIZE;
+				journal.buffer.putInt(0, MAGIC);
+				journal.buffer.putInt(ROLE_OFFSET, role.ordinal());
+				journal.writeHeader();
+			} else {
+				journal.role = Session.Role.values()[journal.buffer.getInt(ROLE_OFFSET)];
+				journal.readOffset = (int) journal.buffer.getLong(READ_OFFSET);
+				journal.writeOffset = (int) journal.buffer.getLong(WRITE_OFFSET);
+				if (journal.readOffset < HEADER_SIZE || journal.readOffset > size || journal.writeOffset < HEADER_SIZE || journal.writeOffset > size)
+					throw new IOException("Corrupted journal file: " + file);
+				for (int position = journal.readOffset; position != journal.writeOffset; journal.pendingCount++) {
+					position = journal.wrap(position);
+					int length = journal.buffer.getInt(position);
+					if (length < 0 || position + RECORD_HEADER_SIZE + length > size || journal.pendingCount > size / RECORD_HEADER_SIZE)
+						throw new IOException("Corrupted journal file: " + file);
+					position += RECORD_HEADER_SIZE + length;
+				}
+			}
+			return journal;
+		}
+	}
+
+	// Size to map a journal file of another capacity at. A file with nothing pending, or whose pending messages do not
+	// wrap, grows to the configured capacity; one that must shrink or has wrapped keeps its size, as its records
+	// are laid out against its end.
+	private static int resize(FileChannel channel, Path file, int size, int capacity) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		long readOffset = header.getLong(READ_OFFSET);
+		long writeOffset = header.getLong(WRITE_OFFSET);
+		if (capacity > size && (header.getInt(0) != MAGIC || readOffset <= writeOffset)) {
+			log.info("Journal {} grown from {} to {} bytes", file, size, capacity);
+			return capacity;
+		}
+		log.warn("Journal {} keeps its size of {} bytes rather than the configured {}", file, size, capacity);
+		return size;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Session.Role getRole() {
+		return role;
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingCount;
+	}
+
+	public synchronized boolean isEmpty() {
+		return pendingCount == 0;
+	}
+
+	// Returns false if the message is larger than the whole journal
+	public synchronized boolean append(String message) {
+		int length = message.length();
+		int recordSize = RECORD_HEADER_SIZE + length;
+		if (HEADER_SIZE + recordSize > buffer.capacity())
+			return false;
+
+		if (!fits(recordSize)) {
+			expire();
+			// Retention limit reached: the oldest messages make room for the new one
+			while (!fits(recordSize)) {
+				dropOldest();
+				log.warn("Journal of {} is full, dropped oldest pending message", id);
+			}
+		}
+		if (pendingCount == 0) {
+			readOffset = HEADER_SIZE;
+			writeOffset = HEADER_SIZE;
+		} else if (writeOffset > readOffset && writeOffset + recordSize > buffer.capacity()) {
+			// No room before the end: the record goes at the start, freed by the messages replayed or dropped
+			if (writeOffset + 4 <= buffer.capacity())
+				buffer.putInt(writeOffset, WRAP);
+			writeOffset = HEADER_SIZE;
+		}
+
+		buffer.putInt(writeOffset, length);
+		buffer.putLong(writeOffset + 4, System.currentTimeMillis());
+		int position = writeOffset + RECORD_HEADER_SIZE;
+		for (int i = 0; i < length; i++) {
+			buffer.put(position + i, (byte) message.charAt(i));
+		}
+		writeOffset += recordSize;
+		pendingCount++;
+		writeHeader();
+		// The message is accepted once it is on disk, not only in the page cache
+		buffer.force();
+		return true;
+	}
+
+	// Returns the pending messages that have not expired and are not already being sent, oldest first.
+	// They stay in the journal until removed once written, so a replay cut short by a broken connection leaves
+	// the rest for the next one, which calls resend() first.
+	public synchronized List<String> pending() {
+		expire();
+		writeHeader();
+		List<String> messages = new ArrayList<>(pendingCount - sending);
+		byte[] bytes = new byte[256];
+		int position = readOffset;
+		for (int i = 0; i < pendingCount; i++) {
+			position = wrap(position);
+			int length = buffer.getInt(position);
+			if (i >= sending) {
+				if (bytes.length < length)
+					bytes = new byte[length];
+				buffer.position(position + RECORD_HEADER_SIZE);
+				buffer.get(bytes, 0, length);
+				messages.add(new String(bytes, 0, length, StandardCharsets.ISO_8859_1));
+			}
+			position += RECORD_HEADER_SIZE + length;
+		}
+		sending = pendingCount;
+		return messages;
+	}
+
+	// The messages handed out by pending() were not all written: the next call returns them again
+	public synchronized void resend() {
+		sending = 0;
+	}
+
+	// Removes the oldest pending message once it has been delivered, unless the journal dropped it meanwhile
+	public synchronized void remove(String message) {
+		if (pendingCount == 0 || buffer.getInt(readOffset) != message.length())
+			return;
+		int position = readOffset + RECORD_HEADER_SIZE;
+		for (int i = 0; i < message.length(); i++) {
+			if (buffer.get(position + i) != (byte) message.charAt(i))
+				return;
+		}
+		dropOldest();
+		writeHeader();
+	}
+
+	// Whether a record fits between the end of the journal and its first pending message, before or after wrapping
+	private boolean fits(int recordSize) {
+		if (pendingCount == 0)
+			return true;
+		if (writeOffset > readOffset)
+			return writeOffset + recordSize <= buffer.capacity() || HEADER_SIZE + recordSize < readOffset;
+		// Wrapped: the end never catches up with the first pending message, so equal offsets mean empty
+		return writeOffset + recordSize < readOffset;
+	}
+
+	// Messages are recorded in time order, so the expired ones are the oldest
+	private void expire() {
+		long expiry = System.currentTimeMillis() - ttlMillis;
+		while (pendingCount > 0 && buffer.getLong(readOffset + 4) < expiry) {
+			dropOldest();
+		}
+	}
+
+	private void dropOldest() {
+		readOffset += RECORD_HEADER_SIZE + buffer.getInt(readOffset);
+		if (sending > 0)
+			sending--;
+		if (--pendingCount == 0) {
+			readOffset = HEADER_SIZE;
+			writeOffset = HEADER_SIZE;
+		} else {
+			readOffset = wrap(readOffset);
+		}
+	}
+
+	// Position of the record at or after the given one: the start of the journal past its last record
+	private int wrap(int position) {
+		return position + RECORD_HEADER_SIZE > buffer.capacity() || buffer.getInt(position) == WRAP ? HEADER_SIZE : position;
+	}
+
+	private void writeHeader() {
+		buffer.putLong(READ_OFFSET, readOffset);
+		buffer.putLong(WRITE_OFFSET, writeOffset);
+	}
+}
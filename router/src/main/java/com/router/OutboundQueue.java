@@ -0,0 +1,265 @@
+package com.router;
+
+import com.common.Logger;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Outbound messages of one session, as pooled MessageBuffers whose references the queue holds until they are written.
+// Any thread may enqueue, but only one writer drains at a time: whatever has piled up (up to maxBatchSize messages
+// and MAX_BATCH_BYTES) is coalesced into one pooled buffer and written at once. A message drained on its own that
+// nobody else holds is handed to the connection as it is, so a forwarded message reaches the channel without a copy.
+// Market data is conflated instead of queued: only the latest update of each topic is kept, and it
+// waits while the connection is backlogged, so a slow subscriber never holds up its publisher.
+class OutboundQueue implements Runnable {
+	private static final Logger log = Logger.get("forwarding");
+	// A batch stops growing here, so it fits the largest pooled buffer
+	private static final int MAX_BATCH_BYTES = 65536;
+
+	private final Session session;
+	private final Connection connection;
+	private final ScheduledExecutorService writers;
+	private final int maxBatchSize;
+	private final long maxBatchDelayMicros;
+	private final boolean binary;
+	// Guarded by itself; an ArrayDeque rather than a concurrent queue, as it allocates nothing per message
+	private final ArrayDeque<MessageBuffer> queue = new ArrayDeque<>();
+	private final AtomicInteger size = new AtomicInteger();
+	// Framed bytes of the queued messages, market data excluded
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final ConcurrentHashMap<Object, MessageBuffer> latest = new ConcurrentHashMap<>();
+	// Topics with an update in latest, each queued once until the writer takes its update; guarded by itself
+	private final ArrayDeque<Object> updated = new ArrayDeque<>();
+	private final List<MessageBuffer> batch = new ArrayList<>();
+	private final List<MessageBuffer> updates = new ArrayList<>();
+	private volatile boolean closing = false;
+
+	OutboundQueue(Session session, Connection connection, ScheduledExecutorService writers, int maxBatchSize, long maxBatchDelayMicros) {
+		this.session = session;
+		this.connection = connection;
+		this.writers = writers;
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchDelayMicros = maxBatchDelayMicros;
+		this.binary = session.isBinary();
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	// Bytes queued here or handed to the connection and not sent yet
+	long outstandingBytes() {
+		return bytes.get() + connection.getPendingBytes();
+	}
+
+	// Takes over the caller's reference to the message, even when the connection is already closed
+	void offer(MessageBuffer message) throws IOException {
+		if (closing || !connection.isOpen()) {
+			message.release();
+			throw new IOException("Connection closed");
+		}
+		synchronized (queue) {
+			queue.add(message);
+		}
+		bytes.addAndGet(message.framedLength());
+		int pending = size.incrementAndGet();
+		if (pending >= maxBatchSize || maxBatchDelayMicros <= 0)
+			signal();
+		else if (pending == 1)
+			writers.schedule(this::signal, maxBatchDelayMicros, TimeUnit.MICROSECONDS);
+	}
+
+	// Replaces the pending update of the topic, if any, taking over the caller's reference to the new one
+	void offerLatest(Object topic, MessageBuffer update) {
+		if (closing || !connection.isOpen()) {
+			update.release();
+			return;
+		}
+		MessageBuffer previous = latest.put(topic, update);
+		if (previous == null) {
+			synchronized (updated) {
+				updated.add(topic);
+			}
+			signal();
+		} else {
+			previous.release();
+			// Subscribers held by the same node share its update
+			if (previous != update)
+				RouterMetrics.conflated.increment();
+		}
+	}
+
+	// Flushes what is queued, then closes the connection
+	void close() {
+		closing = true;
+		signal();
+	}
+
+	void signal() {
+		if (wip.getAndIncrement() == 0)
+			writers.execute(this);
+	}
+
+	@Override
+	public void run() {
+		int missed = 1;
+		do {
+			drain();
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drain() {
+		while (connection.isOpen()) {
+			batch.clear();
+			updates.clear();
+			int batchBytes = 0;
+			MessageBuffer message;
+			while (batch.size() < maxBatchSize && (message = poll(batchBytes)) != null) {
+				size.decrementAndGet();
+				batch.add(message);
+				batchBytes += message.framedLength();
+				// A journaled message is handed over on its own, so the connection tells when it is written
+				if (message.hasOnWritten())
+					break;
+			}
+			int length = batchBytes;
+			boolean replayed = batch.size() == 1 && batch.get(0).hasOnWritten();
+			// A backlogged connection signals again once it caught up
+			if (!connection.isBacklogged() && !replayed) {
+				Object topic;
+				while (batch.size() + updates.size() < maxBatchSize && length < MAX_BATCH_BYTES && (topic = pollTopic()) != null) {
+					MessageBuffer update = latest.remove(topic);
+					if (update != null) {
+						updates.add(update);
+						length += update.framedLength();
+					}
+				}
+			}
+			int count = batch.size() + updates.size();
+			if (count == 0)
+				break;
+			// Nothing to coalesce: the message goes out in the buffer it was read into, unless another queue still reads it
+			boolean handOver = count == 1 && batch.size() == 1 && !batch.get(0).isShared();
+			MessageBuffer output = handOver ? batch.get(0) : coalesce(length);
+			try {
+				long start = System.nanoTime();
+				connection.write(output);
+				RouterMetrics.writeLatency.record(System.nanoTime() - start);
+				session.getMetrics().out.add(count);
+				session.getMetrics().batchSize.record(count);
+			} catch (IOException e) {
+				log.error("Error forwarding message: {}", e.getMessage());
+				if (!handOver)
+					output.release();
+				releaseAll(updates);
+				bytes.addAndGet(-batchBytes);
+				fail();
+				return;
+			}
+			if (!handOver)
+				releaseAll(batch);
+			releaseAll(updates);
+			batch.clear();
+			bytes.addAndGet(-batchBytes);
+			session.onDrained();
+		}
+		if (!connection.isOpen() && !isQueueEmpty()) {
+			batch.clear();
+			fail();
+		} else if (closing && isQueueEmpty()) {
+			try {
+				connection.close();
+			} catch (IOException e) {
+				log.warn("Error closing socket: {}", e.getMessage());
+			}
+		}
+	}
+
+	// Next queued message, unless a batch of batchBytes has no room left for it
+	private MessageBuffer poll(int batchBytes) {
+		synchronized (queue) {
+			MessageBuffer next = queue.peek();
+			if (next == null || batchBytes > 0 && (batchBytes + next.framedLength() > MAX_BATCH_BYTES || next.hasOnWritten()))
+				return null;
+			return queue.poll();
+		}
+	}
+
+	private Object pollTopic() {
+		synchronized (updated) {
+			return updated.poll();
+		}
+	}
+
+	private boolean isQueueEmpty() {
+		synchronized (queue) {
+			return queue.isEmpty();
+		}
+	}
+
+	// Copies the drained messages and updates, in that order, into one pooled buffer
+	private MessageBuffer coalesce(int length) {
+		MessageBuffer output = BufferPool.acquire(length);
+		// Indexed rather than iterated, so draining allocates nothing
+		for (int i = 0; i < batch.size(); i++) {
+			output.put(batch.get(i));
+		}
+		for (int i = 0; i < updates.size(); i++) {
+			output.put(updates.get(i));
+		}
+		return output.complete();
+	}
+
+	private static void releaseAll(List<MessageBuffer> messages) {
+		for (int i = 0; i < messages.size(); i++) {
+			messages.get(i).release();
+		}
+		messages.clear();
+	}
+
+	// Hands the failed batch and everything still queued to the failover path, except journaled messages being
+	// replayed, which stay in the journal; market data is dropped
+	private void fail() {
+		synchronized (updated) {
+			updated.clear();
+		}
+		for (Object topic : latest.keySet()) {
+			MessageBuffer update = latest.remove(topic);
+			if (update != null)
+				update.release();
+		}
+		try {
+			connection.close();
+		} catch (IOException e) {
+			log.warn("Error closing socket: {}", e.getMessage());
+		}
+		synchronized (queue) {
+			MessageBuffer message;
+			while ((message = queue.poll()) != null) {
+				size.decrementAndGet();
+				bytes.addAndGet(-message.framedLength());
+				batch.add(message);
+			}
+		}
+		session.onDrained();
+		for (MessageBuffer undelivered : batch) {
+			// Still journaled: sent again when the destination reconnects, and not rejected meanwhile
+			if (undelivered.hasOnWritten()) {
+				undelivered.release();
+				continue;
+			}
+			FixMessage parsed = new FixMessage();
+			MessageForwardingHandler.failover(session, binary ? parsed.parseFrame(undelivered) : parsed.parse(undelivered));
+			undelivered.release();
+		}
+		batch.clear();
+	}
+}
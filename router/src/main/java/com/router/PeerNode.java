@@ -0,0 +1,160 @@
+package com.router;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Another node of the router cluster, and this node's link to it. Records go one way over the link,
+// each one [int length][byte kind][payload]: either BinaryFormat frames of sessions this node holds,
+// or a control line of the cluster protocol; the other node never writes back, but has a link of its own the other way.
+// As a Connection it carries the market data updates for every subscriber the other node holds, once per node.
+final class PeerNode implements Connection {
+	static final byte FRAMES = 'F';
+	static final byte CONTROL = 'C';
+	// A record is a batch of at most the largest frame, or a journaled message handed over
+	static final int MAX_RECORD_LENGTH = 1 << 20;
+
+	private final int id;
+	private final String host;
+	private final int brokerPort;
+	private final int marketPort;
+	private final int peerPort;
+	// Relays market data for the subscribers the node holds
+	private volatile Session session;
+	// Guarded by this, like scratch
+	private Socket socket;
+	private DataOutputStream out;
+	private byte[] scratch = new byte[8192];
+	// This node's link to it is up and its sessions have been announced over it
+	private volatile boolean linked;
+	// Links from it being read, once greeted; more than one while a broken link is still being noticed
+	private final AtomicInteger inbound = new AtomicInteger();
+
+	PeerNode(int id, String host, int brokerPort, int marketPort, int peerPort) {
+		this.id = id;
+		this.host = host;
+		this.brokerPort = brokerPort;
+		this.marketPort = marketPort;
+		this.peerPort = peerPort;
+	}
+
+	// id@host:brokerPort:marketPort:peerPort, as in router.cluster
+	static PeerNode parse(String descriptor) {
+		int at = descriptor.indexOf('@');
+		String[] address = descriptor.substring(at + 1).split(":");
+		if (at < 0 || address.length != 4)
+			throw new IllegalArgumentException("Invalid router node, expected id@host:brokerPort:marketPort:peerPort: " + descriptor);
+		return new PeerNode(Integer.parseInt(descriptor.substring(0, at).trim()), address[0].trim(), Integer.parseInt(address[1].trim()),
+				Integer.parseInt(address[2].trim()), Integer.parseInt(address[3].trim()));
+	}
+
+	String descriptor() {
+		return id + "@" + host + ":" + brokerPort + ":" + marketPort + ":" + peerPort;
+	}
+
+	int getId() {
+		return id;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	// Port a component of the role connects to on this node
+	int getPort(Session.Role role) {
+		return role == Session.Role.MARKET ? marketPort : brokerPort;
+	}
+
+	int getPeerPort() {
+		return peerPort;
+	}
+
+	Session getSession() {
+		return session;
+	}
+
+	void setSession(Session session) {
+		this.session = session;
+	}
+
+	// Part of the ring once the links both ways are up, which the other node sees the same way
+	boolean isMember() {
+		return linked && inbound.get() > 0;
+	}
+
+	void setLinked(boolean linked) {
+		this.linked = linked;
+	}
+
+	void addInbound(int delta) {
+		inbound.addAndGet(delta);
+	}
+
+	// Starts writing over a freshly connected link; the first record is the greeting
+	synchronized void open(Socket socket, String hello) throws IOException {
+		this.socket = socket;
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+		control(hello);
+	}
+
+	synchronized void control(String line) throws IOException {
+		byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+		send(CONTROL, bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		send(FRAMES, buffer, offset, length);
+	}
+
+	@Override
+	public synchronized void write(MessageBuffer message) throws IOException {
+		if (scratch.length < message.framedLength())
+			scratch = new byte[Math.max(message.framedLength(), scratch.length * 2)];
+		message.get(scratch);
+		send(FRAMES, scratch, 0, message.framedLength());
+		message.written();
+		message.release();
+	}
+
+	private synchronized void send(byte kind, byte[] buffer, int offset, int length) throws IOException {
+		if (out == null)
+			throw new IOException("No link to router node " + id);
+		try {
+			out.writeInt(length + 1);
+			out.writeByte(kind);
+			out.write(buffer, offset, length);
+			out.flush();
+		} catch (IOException e) {
+			// The thread that dialed the node notices the broken link and dials again
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		out = null;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Closing anyway
+			}
+			socket = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return out != null;
+	}
+
+	@Override
+	public String toString() {
+		return "router node " + id + " (" + host + ":" + brokerPort + ")";
+	}
+}
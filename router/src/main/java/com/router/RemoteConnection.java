@@ -0,0 +1,50 @@
+package com.router;
+
+import java.io.IOException;
+
+// Connection of a session another node of the cluster holds: what is written to it goes over the link to the node
+// the ring gives the ID to, which passes it through its own handler chain. Closed while this node owns the ID
+// itself or has no link to its owner, so messages for it are journaled here until the component reconnects.
+final class RemoteConnection implements Connection {
+	private final Cluster cluster;
+	private final int id;
+
+	RemoteConnection(Cluster cluster, int id) {
+		this.cluster = cluster;
+		this.id = id;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		owner().write(buffer, offset, length);
+	}
+
+	@Override
+	public void write(MessageBuffer message) throws IOException {
+		owner().write(message);
+	}
+
+	// Session of the node holding the ID, which relays market data once for all the subscribers it holds
+	Session relay() {
+		PeerNode owner = cluster.ownerOf(id);
+		return owner != null ? owner.getSession() : null;
+	}
+
+	private PeerNode owner() throws IOException {
+		PeerNode owner = cluster.ownerOf(id);
+		if (owner == null)
+			throw new IOException("Component " + id + " is no longer held by another router node");
+		return owner;
+	}
+
+	@Override
+	public void close() {
+		// The node holding the session closes its connection
+	}
+
+	@Override
+	public boolean isOpen() {
+		PeerNode owner = cluster.ownerOf(id);
+		return owner != null && owner.isOpen();
+	}
+}
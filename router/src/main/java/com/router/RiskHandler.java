@@ -0,0 +1,198 @@
+package com.router;
+
+import com.common.Logger;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pre-trade risk checks on everything brokers send: a message rate per broker, and for orders the
+// quantity, the notional and the number of orders still open at the markets. Open orders are counted
+// when an order passes and released when the market reports it filled, canceled or rejected, when the market
+// answers it as a duplicate of an order already counted, or when the router rejects it itself. An order the router
+// kept for failover counts again once it is replayed to its market. A broker that leaves gives up the orders it
+// still had open, as nothing else would release them, so it starts from none if it connects again.
+// The per-broker counters are atomics kept on the session, and the limits are an immutable set
+// swapped by reload(), so checking an order neither locks nor allocates.
+class RiskHandler implements Handler {
+	private static final Logger log = Logger.get("risk");
+	// ExecType of the report a market sends for a resent ClOrdID: the status of the order counted when first sent
+	private static final char ORDER_STATUS = 'I';
+	// Counters by broker ID, kept while a new connection replaces the broker's; each session caches its own
+	private static final ConcurrentHashMap<Integer, BrokerRisk> brokers = new ConcurrentHashMap<>();
+
+	private final Path file;
+	private volatile RiskLimits limits = RiskLimits.UNLIMITED;
+	private FileTime loadedVersion;
+	private Handler next;
+
+	static final class BrokerRisk {
+		private final AtomicInteger openOrders = new AtomicInteger();
+		// Second of the current rate window in the high half, messages counted in it in the low half
+		private final AtomicLong window = new AtomicLong();
+
+		boolean tryMessage(int maxPerSecond) {
+			long second = (System.nanoTime() / 1_000_000_000L) & 0xFFFFFFFFL;
+			while (true) {
+				long current = window.get();
+				int count = current >>> 32 == second ? (int) current : 0;
+				if (count >= maxPerSecond)
+					return false;
+				if (window.compareAndSet(current, second << 32 | (count + 1)))
+					return true;
+			}
+		}
+
+		// Opens all the orders or none of them
+		boolean tryOpen(int maxOpenOrders, int count) {
+			while (true) {
+				int current = openOrders.get();
+				if (current + count > maxOpenOrders)
+					return false;
+				if (openOrders.compareAndSet(current, current + count))
+					return true;
+			}
+		}
+
+		void open(int count) {
+			openOrders.addAndGet(count);
+		}
+
+		void close() {
+			close(1);
+		}
+
+		void close(int count) {
+			while (true) {
+				int current = openOrders.get();
+				if (current == 0 || openOrders.compareAndSet(current, Math.max(0, current - count)))
+					return;
+			}
+		}
+
+		int getOpenOrders() {
+			return openOrders.get();
+		}
+	}
+
+	// Without a file, every limit is unlimited until setLimits() is called
+	RiskHandler(Path file) {
+		this.file = file;
+		if (file != null)
+			reload();
+	}
+
+	@Override
+	public void setNext(Handler handler) {
+		this.next = handler;
+	}
+
+	public void setLimits(RiskLimits limits) {
+		this.limits = limits;
+	}
+
+	// Loads the file again if it changed; a file that cannot be read keeps the current limits
+	void reload() {
+		try {
+			FileTime version = Files.getLastModifiedTime(file);
+			if (version.equals(loadedVersion))
+				return;
+			limits = RiskLimits.load(file);
+			loadedVersion = version;
+			log.info("Risk limits loaded from {}", file);
+		} catch (IOException | NumberFormatException e) {
+			log.error("Error loading risk limits from {}: {}", file, e.getMessage());
+		}
+	}
+
+	@Override
+	public void handle(Session session, FixMessage message) {
+		// A broker's limits are kept by the node holding it, which checked its messages before relaying them
+		if (session.isBroker()) {
+			if (!session.isRemote() && !check(session, message))
+				return;
+		} else if (message.isMsgType("8") && (isFinal(message.getOrdStatus()) || message.getExecType() == ORDER_STATUS)) {
+			Session broker = RoutingTable.getSession(message.getTargetId());
+			if (broker != null && broker.isBroker() && !broker.isRemote())
+				stateOf(broker).close();
+		}
+		if (next != null)
+			next.handle(session, message);
+	}
+
+	private boolean check(Session session, FixMessage message) {
+		RiskLimits.Limits brokerLimits = limits.forBroker(session.getId());
+		BrokerRisk risk = stateOf(session);
+		if (!risk.tryMessage(brokerLimits.getMaxMessagesPerSecond()))
+			return reject(session, message, "Message rate limit exceeded");
+		if (!isOrder(message))
+			return true;
+		// The orders of a list pass or fail together
+		if (message.hasInvalidOrderQty() || message.getMaxOrderQty() < 0)
+			return reject(session, message, "Invalid order quantity");
+		if (message.getMaxOrderQty() > brokerLimits.getMaxOrderQty())
+			return reject(session, message, "Order quantity limit exceeded");
+		if (message.getMaxNotional() > brokerLimits.getMaxNotional())
+			return reject(session, message, "Notional limit exceeded");
+		if (!risk.tryOpen(brokerLimits.getMaxOpenOrders(), orderCount(message)))
+			return reject(session, message, "Open order limit exceeded");
+		return true;
+	}
+
+	private boolean reject(Session session, FixMessage message, String reason) {
+		log.info("Broker({}) rejected: {}", session.getId(), reason);
+		RouterMetrics.rejectedRisk.increment();
+		sendRejection(session, message, reason);
+		return false;
+	}
+
+	// NewOrderSingle or NewOrderList
+	static boolean isOrder(FixMessage message) {
+		return message.isMsgType("D") || message.isMsgType("E");
+	}
+
+	// Open orders an order message accounts for
+	static int orderCount(FixMessage message) {
+		return Math.max(1, message.getOrderCount());
+	}
+
+	// The router rejected the order itself, so it never reaches a market and no longer counts as open
+	static void closeRejected(Session broker, FixMessage message) {
+		if (broker != null && broker.isBroker() && !broker.isRemote() && isOrder(message))
+			stateOf(broker).close(orderCount(message));
+	}
+
+	// A journaled order reaches its market after all once replayed, and counts as open until it is reported on
+	static void reopenReplayed(Session destination, String message) {
+		if (!destination.isMarket())
+			return;
+		FixMessage order = new FixMessage().parse(message);
+		Session broker = RoutingTable.getSession(order.getSenderId());
+		if (broker != null && broker.isBroker() && !broker.isRemote() && isOrder(order))
+			stateOf(broker).open(orderCount(order));
+	}
+
+	// The broker left: its open orders no longer count against it
+	static void release(int brokerId) {
+		BrokerRisk risk = brokers.remove(brokerId);
+		if (risk != null && risk.getOpenOrders() > 0)
+			log.info("Broker({}) left with {} open order(s), released", brokerId, risk.getOpenOrders());
+	}
+
+	// Filled, canceled, rejected, expired or done for the day
+	private static boolean isFinal(char ordStatus) {
+		return ordStatus == '2' || ordStatus == '3' || ordStatus == '4' || ordStatus == '8' || ordStatus == 'C';
+	}
+
+	static BrokerRisk stateOf(Session session) {
+		BrokerRisk risk = session.getRisk();
+		if (risk == null) {
+			risk = brokers.computeIfAbsent(session.getId(), id -> new BrokerRisk());
+			session.setRisk(risk);
+		}
+		return risk;
+	}
+}
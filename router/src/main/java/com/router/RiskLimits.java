@@ -0,0 +1,138 @@
+package com.router;
+
+import com.common.Logger;
+import com.common.Price;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.TreeMap;
+
+// Immutable set of pre-trade limits: one for every broker, overridden per broker ID. A reload builds a
+// new set and swaps it in, so lookups on the order path never lock. The file is a properties file:
+//   maxOrderQty=1000            applies to every broker
+//   100002.maxNotional=50000    only to broker 100002
+public class RiskLimits {
+	private static final Logger log = Logger.get("risk");
+
+	public static final RiskLimits UNLIMITED = new RiskLimits(new Limits(), new int[0], new Limits[0]);
+
+	private final Limits defaults;
+	// Sorted broker IDs and their limits
+	private final int[] brokers;
+	private final Limits[] limits;
+
+	public static final class Limits {
+		private long maxOrderQty = Long.MAX_VALUE;
+		private long maxNotional = Long.MAX_VALUE;
+		private int maxOpenOrders = Integer.MAX_VALUE;
+		private int maxMessagesPerSecond = Integer.MAX_VALUE;
+
+		Limits() {
+		}
+
+		Limits(Limits base) {
+			this.maxOrderQty = base.maxOrderQty;
+			this.maxNotional = base.maxNotional;
+			this.maxOpenOrders = base.maxOpenOrders;
+			this.maxMessagesPerSecond = base.maxMessagesPerSecond;
+		}
+
+		public long getMaxOrderQty() {
+			return maxOrderQty;
+		}
+
+		// Quantity times price, fixed-point like Price, so it compares exactly with an order's
+		public long getMaxNotional() {
+			return maxNotional;
+		}
+
+		// Orders sent to markets and not yet filled, canceled or rejected
+		public int getMaxOpenOrders() {
+			return maxOpenOrders;
+		}
+
+		public int getMaxMessagesPerSecond() {
+			return maxMessagesPerSecond;
+		}
+
+		private boolean set(String name, String value) {
+			switch (name) {
+				case "maxOrderQty":
+					maxOrderQty = Long.parseLong(value);
+					return true;
+				case "maxNotional":
+					maxNotional = toFixedPoint(value);
+					return true;
+				case "maxOpenOrders":
+					maxOpenOrders = Integer.parseInt(value);
+					return true;
+				case "maxMessagesPerSecond":
+					maxMessagesPerSecond = Integer.parseInt(value);
+					return true;
+				default:
+					return false;
+			}
+		}
+	}
+
+	// Digits beyond Price's precision are dropped; a limit too large for it is no limit
+	private static long toFixedPoint(String value) {
+		BigDecimal scaled = new BigDecimal(value).movePointRight(Price.DECIMALS).setScale(0, RoundingMode.DOWN);
+		return scaled.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : scaled.longValueExact();
+	}
+
+	private RiskLimits(Limits defaults, int[] brokers, Limits[] limits) {
+		this.defaults = defaults;
+		this.brokers = brokers;
+		this.limits = limits;
+	}
+
+	public Limits forBroker(int brokerId) {
+		int index = Arrays.binarySearch(brokers, brokerId);
+		return index >= 0 ? limits[index] : defaults;
+	}
+
+	public static RiskLimits load(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+
+		Limits defaults = new Limits();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.indexOf('.') < 0 && !defaults.set(key, properties.getProperty(key).trim()))
+				log.warn("Unknown risk limit: {}", key);
+		}
+		// Broker limits start from the defaults, whatever order the keys come in
+		TreeMap<Integer, Limits> overrides = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			int separator = key.indexOf('.');
+			if (separator < 0)
+				continue;
+			int brokerId;
+			try {
+				brokerId = Integer.parseInt(key.substring(0, separator));
+			} catch (NumberFormatException e) {
+				log.warn("Unknown risk limit: {}", key);
+				continue;
+			}
+			Limits broker = overrides.computeIfAbsent(brokerId, id -> new Limits(defaults));
+			if (!broker.set(key.substring(separator + 1), properties.getProperty(key).trim()))
+				log.warn("Unknown risk limit: {}", key);
+		}
+
+		int[] brokers = new int[overrides.size()];
+		Limits[] limits = new Limits[overrides.size()];
+		int i = 0;
+		for (Integer brokerId : overrides.keySet()) {
+			brokers[i] = brokerId;
+			limits[i++] = overrides.get(brokerId);
+		}
+		return new RiskLimits(defaults, brokers, limits);
+	}
+}
@@ -1,29 +1,81 @@
 package com.router;
 
+import com.common.FixEncoder;
+import com.common.FrameReader;
+import com.common.Level;
+import com.common.Logger;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
 import java.io.*;
 import java.net.*;
-import java.util.HashMap;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Router {
-	private static final int BROKER_PORT = 5000;
-	private static final int MARKET_PORT = 5001;
+	private static final Logger log = Logger.get("router");
 	private volatile boolean stopRequested = false;
 	private static final AtomicInteger idGenerator = new AtomicInteger(100000);
+	private static final ThreadLocal<FixEncoder> encoders = ThreadLocal.withInitial(FixEncoder::new);
+	private final RouterConfig config;
 	private Handler handler;
 	private RoutingHandler routingHandler;
+	private Handler forwardingHandler;
+	// Null unless the router runs as a node of a cluster
+	private Cluster cluster;
+	private EventLoop[] eventLoops;
+	private ScheduledExecutorService writers;
 
-	public void start() {
+	public Router() {
+		this(new RouterConfig());
+	}
+
+	public Router(RouterConfig config) {
+		this.config = config;
+	}
+
+	public void start() throws IOException {
 		this.handler = new MessageValidationHandler();
 		this.routingHandler = new RoutingHandler();
-		Handler forwardingHandler = new MessageForwardingHandler();
+		Handler flowControlHandler = new FlowControlHandler(config.getFlowControl());
+		RiskHandler riskHandler = new RiskHandler(config.getRiskLimitsFile().isEmpty() ? null : Paths.get(config.getRiskLimitsFile()));
+		Handler marketDataHandler = new MarketDataHandler();
+		this.forwardingHandler = new MessageForwardingHandler();
 
-		handler.setNext(routingHandler);
+		handler.setNext(flowControlHandler);
+		flowControlHandler.setNext(riskHandler);
+		riskHandler.setNext(marketDataHandler);
+		marketDataHandler.setNext(routingHandler);
 		routingHandler.setNext(forwardingHandler);
 
+		int highestJournaledId = RoutingTable.openJournals(Paths.get(config.getJournalDirectory()),
+				config.getJournalRetentionBytes(), config.getJournalTtlSeconds() * 1000);
+		idGenerator.accumulateAndGet(highestJournaledId, Math::max);
+
+		AtomicInteger writerCount = new AtomicInteger();
+		this.writers = Executors.newScheduledThreadPool(config.getWriterThreads(), r -> {
+			Thread thread = new Thread(r, "router-writer-" + writerCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Edited limits take effect without pausing traffic: the handler swaps in the new set
+		if (!config.getRiskLimitsFile().isEmpty())
+			writers.scheduleWithFixedDelay(riskHandler::reload, config.getRiskReloadMillis(), config.getRiskReloadMillis(), TimeUnit.MILLISECONDS);
+		if (config.getNodeId() > 0) {
+			this.cluster = new Cluster(this, config, writers);
+			cluster.start(highestJournaledId);
+		}
+
+		if (config.getMode() == RouterConfig.Mode.NIO) {
+			startEventLoops();
+			return;
+		}
+
 		Thread brokerThread = new Thread(this::startBrokerListener);
 		Thread marketThread = new Thread(this::startMarketListener);
 
@@ -33,218 +85,270 @@ public class Router {
 
 	public void stop() {
 		stopRequested = true;
+		if (eventLoops != null) {
+			for (EventLoop eventLoop : eventLoops) {
+				eventLoop.stop();
+			}
+		}
+		if (cluster != null)
+			cluster.stop();
+		if (writers != null)
+			writers.shutdown();
 	}
 
-	private int generateUniqueId() {
-		return idGenerator.incrementAndGet();
+	// A node of a cluster draws from its own series, so IDs stay unique across nodes without asking the others
+	private int generateUniqueId() throws IOException {
+		if (cluster != null)
+			return cluster.nextId();
+		// Stays at -1 once past Integer.MAX_VALUE, rather than wrapping onto IDs already handed out
+		int id = idGenerator.updateAndGet(n -> n < 0 || n == Integer.MAX_VALUE ? -1 : n + 1);
+		if (id < 0)
+			throw new IOException("Every component ID has been handed out");
+		return id;
 	}
 
-	private void startBrokerListener() {
-		try (ServerSocket serverSocket = new ServerSocket(BROKER_PORT)) {
-			System.out.println("waiting brokers...");
+	private void startEventLoops() throws IOException {
+		eventLoops = new EventLoop[config.getEventLoops()];
+		for (int i = 0; i < eventLoops.length; i++) {
+			eventLoops[i] = new EventLoop(this, "router-event-loop-" + i);
+		}
 
-			while (!stopRequested) {
-				Socket socket = serverSocket.accept();
+		ServerSocketChannel brokerServer = ServerSocketChannel.open();
+		brokerServer.bind(new InetSocketAddress(config.getBrokerPort()));
+		ServerSocketChannel marketServer = ServerSocketChannel.open();
+		marketServer.bind(new InetSocketAddress(config.getMarketPort()));
 
-				CompletableFuture.runAsync(() -> {
-					try {
-						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-						int brokerID = Integer.parseInt(in.readLine());
-						if (brokerID == -1) {
-							int uniqueId = generateUniqueId();
-							PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-							out.println(uniqueId);
-							RoutingTable.addBrokerRoute(uniqueId, socket);
-							System.out.println("New broker connected. Assigned ID: " + uniqueId);
-						} else {
-							if (RoutingTable.isBrokerRoute(brokerID)) {
-								Socket oldSocket = RoutingTable.getRoute(brokerID);
-								if (oldSocket != null) {
-									sendDisconnection(oldSocket, brokerID, "A new connection has been established");
-									oldSocket.close();
-								}
-
-								RoutingTable.addBrokerRoute(brokerID, socket);
-								System.out.println("Broker reconnected. ID: " + brokerID);
-
-								try {
-									PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-									out.println(brokerID);
-
-
-									List<String> pendingMessages = RoutingTable.getPendingMessages(brokerID);
-									if (pendingMessages != null) {
-										Thread.sleep(1000);
-										for (String message : pendingMessages) {
-											System.out.println("Sending pending message to broker(" + brokerID + "): " + message);
-											out.println(message);
-										}
-										RoutingTable.removePendingMessages(brokerID);
-									}
-								} catch (InterruptedException e) {
-									System.out.println("Error while sleeping: " + e.getMessage());
-								}
-							} else {
-								int uniqueId = generateUniqueId();
-								PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-								out.println(uniqueId);
-								RoutingTable.addBrokerRoute(uniqueId, socket);
-								System.out.println("New broker connected. Assigned ID: " + uniqueId);
-							}
-						}
+		eventLoops[0].listen(brokerServer, Session.Role.BROKER, eventLoops);
+		eventLoops[0].listen(marketServer, Session.Role.MARKET, eventLoops);
+		for (EventLoop eventLoop : eventLoops) {
+			eventLoop.start();
+		}
+		log.info("waiting brokers and markets on {} event loop(s)...", eventLoops.length);
+	}
 
-						String message;
-						while ((message = in.readLine()) != null) {
-							if (message.length() > 0) {
-								this.handler.handle(socket, message);
-							}
-						}
-					} catch (IOException e) {
-						System.out.println("Error in the router: " + e.getMessage());
-					} finally {
-						try {
-							socket.close();
-						} catch (IOException e) {
-							System.out.println("Error closing socket: " + e.getMessage());
-						}
-					}
-				});
+	// Called by an event loop for every complete line or frame read from a connection; the caller releases the message
+	void onMessage(ChannelConnection connection, MessageBuffer message) {
+		Session session = connection.getSession();
+		if (session == null) {
+			try {
+				connection.setSession(register(connection, connection.getRole(), message.toString()));
+			} catch (NumberFormatException e) {
+				// The caller releases the buffer before the log writer formats the line
+				if (log.isEnabled(Level.WARN))
+					log.warn("Invalid ID received: {}", message.toString());
+				connection.closeNow();
+			} catch (IOException e) {
+				log.error("Error in the router: {}", e.getMessage());
+				connection.closeNow();
 			}
-		} catch (IOException e) {
-			System.out.println("Error in the router: " + e.getMessage());
+		} else {
+			FixMessage parsed = connection.getParsedMessage();
+			dispatch(session, session.isBinary() ? parsed.parseFrame(message) : parsed.parse(message));
 		}
 	}
 
+	// Called once a session's connection is gone. A broker that left, rather than being replaced by a new
+	// connection or handed to another node, loses its open order count, and its subscriptions here and on
+	// the other nodes.
+	void disconnected(Session session) {
+		session.disconnected();
+		if (!session.isBroker() || RoutingTable.getLocalSession(session.getId()) != session)
+			return;
+		RiskHandler.release(session.getId());
+		MarketDataTable.unsubscribeAll(session.getId());
+		if (cluster != null)
+			cluster.unsubscribeAll(session.getId());
+	}
+
+	// Called by a cluster link for every frame another node relays, sent by a component that node holds
+	void onRelayed(FixMessage message) {
+		RouterMetrics.relayed.increment();
+		Session source = RoutingTable.getSession(message.getSenderId());
+		if (source != null && source.isRemote()) {
+			dispatch(source, message);
+			return;
+		}
+		// The sender has just moved to this node; the other node already passed the message through its chain
+		Session destination = RoutingTable.getSession(message.getTargetId());
+		if (destination != null && !destination.isRemote())
+			forwardingHandler.handle(destination, message);
+		else if (log.isEnabled(Level.WARN))
+			log.warn("Relayed message for unknown destination {}: {}", message.getTargetId(), message.toText());
+	}
+
+	private void dispatch(Session session, FixMessage message) {
+		long start = System.nanoTime();
+		session.getMetrics().in.increment();
+		this.handler.handle(session, message);
+		RouterMetrics.handled.forType(message.getMsgType()).record(System.nanoTime() - start);
+	}
+
+	// Assigns or restores the ID of a newly connected broker or market and replays its pending messages.
+	// The handshake line carries the requested ID, and " BINARY" if the component asks for binary frames;
+	// the reply names the ID and, if granted, the encoding. Components that ask for nothing stay on text.
+	// A node of a cluster redirects a component whose ID another node owns, and returns null.
+	private Session register(Connection connection, Session.Role role, String handshake) throws IOException {
+		String type = role == Session.Role.BROKER ? "broker" : "market";
+		int requestedId = WireEncoding.idOfHandshake(handshake);
+		WireEncoding encoding = config.isBinaryEncoding() ? WireEncoding.ofHandshake(handshake) : WireEncoding.TEXT;
+
+		PeerNode owner = cluster != null && requestedId != -1 ? cluster.ownerOf(requestedId) : null;
+		if (owner != null) {
+			connection.send(RouterAddress.redirect(owner.getHost(), owner.getPort(role)));
+			connection.close();
+			RouterMetrics.redirected.increment();
+			log.info("{}({}) redirected to {}", type, requestedId, owner);
+			return null;
+		}
+
+		if (requestedId == -1 || !RoutingTable.isKnownRoute(requestedId, role)) {
+			Session session = new Session(generateUniqueId(), role, encoding, connection, config, writers);
+			connection.send(WireEncoding.handshake(session.getId(), encoding));
+			RoutingTable.addSession(session);
+			if (cluster != null)
+				cluster.announce(session);
+			log.info("New {} connected. Assigned ID: {}", type, session.getId());
+			return session;
+		}
+
+		Session session = new Session(requestedId, role, encoding, connection, config, writers);
+		connection.send(WireEncoding.handshake(requestedId, encoding));
+		// Journaled messages are queued ahead of live traffic, then anything journaled while swapping.
+		// What an earlier connection did not get to write is sent again.
+		RoutingTable.resendPendingMessages(requestedId);
+		replayPendingMessages(session, type);
+		Session oldSession = RoutingTable.swapSession(session);
+		if (cluster != null)
+			cluster.announce(session);
+		if (oldSession != null) {
+			sendDisconnection(oldSession, requestedId, "A new connection has been established");
+			oldSession.close();
+		}
+		log.info("{} reconnected. ID: {}", role == Session.Role.BROKER ? "Broker" : "Market", requestedId);
+		replayPendingMessages(session, type);
+		refreshMarketData(session);
+		return session;
+	}
+
+	// Renews the subscriptions the reconnected component takes part in, so each subscriber gets a fresh snapshot
+	private void refreshMarketData(Session session) {
+		MarketDataTable.forEachSubscription(session.getId(), (marketId, symbol, brokerId) -> {
+			Session market = RoutingTable.getSession(marketId);
+			if (market == null || !market.isMarket())
+				return;
+			try {
+				market.send(encoders.get().begin("V") // MsgType = MarketDataRequest
+					.tag(49, brokerId) // SenderCompID
+					.tag(56, marketId) // TargetCompID
+					.tag(262, "resubscribe") // MDReqID
+					.tag(263, '1') // SubscriptionRequestType = Snapshot + Updates
+					.tag(264, 1) // MarketDepth = Top of book
+					.tag(146, 1) // NoRelatedSym
+					.tag(55, symbol) // Symbol
+					.finish().toString());
+			} catch (IOException e) {
+				log.error("Error renewing subscription: {}", e.getMessage());
+			}
+		});
+	}
+
+	private void replayPendingMessages(Session session, String type) throws IOException {
+		List<String> pendingMessages = RoutingTable.getPendingMessages(session.getId());
+		if (pendingMessages != null && !pendingMessages.isEmpty()) {
+			log.info("Sending {} pending message(s) to {}({})", pendingMessages.size(), type, session.getId());
+			for (String message : pendingMessages) {
+				session.replay(message);
+			}
+		}
+	}
+
+	private void startBrokerListener() {
+		startListener(config.getBrokerPort(), Session.Role.BROKER);
+	}
+
 	private void startMarketListener() {
-		try (ServerSocket serverSocket = new ServerSocket(MARKET_PORT)) {
-			System.out.println("waiting markets...");
+		startListener(config.getMarketPort(), Session.Role.MARKET);
+	}
+
+	private void startListener(int port, Session.Role role) {
+		try (ServerSocket serverSocket = new ServerSocket(port)) {
+			log.info(role == Session.Role.BROKER ? "waiting brokers..." : "waiting markets...");
 
 			while (!stopRequested) {
 				Socket socket = serverSocket.accept();
 
 				CompletableFuture.runAsync(() -> {
+					Session session = null;
 					try {
-						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-						int marketID = Integer.parseInt(in.readLine());
-						if (marketID == -1) {
-							int uniqueId = generateUniqueId();
-							PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-							out.println(uniqueId);
-							RoutingTable.addMarketRoute(uniqueId, socket);
-							System.out.println("New market connected. Assigned ID: " + uniqueId);
-						} else {
-							if (RoutingTable.isMarketRoute(marketID)) {
-								Socket oldSocket = RoutingTable.getRoute(marketID);
-								if (oldSocket != null) {
-									sendDisconnection(oldSocket, marketID, "A new connection has been established");
-									oldSocket.close();
-								}
-								RoutingTable.addMarketRoute(marketID, socket);
-								System.out.println("Market reconnected. ID: " + marketID);
-
-								try {
-									PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-									out.println(marketID);
-
-									List<String> pendingMessages = RoutingTable.getPendingMessages(marketID);
-									if (pendingMessages != null) {
-										Thread.sleep(1000);
-										for (String message : pendingMessages) {
-											System.out.println("Sending pending message to market(" + marketID + "): " + message);
-											out.println(message);
-										}
-										RoutingTable.removePendingMessages(marketID);
-									}
-								} catch (InterruptedException e) {
-									System.out.println("Error while sleeping: " + e.getMessage());
-								}
-							} else {
-								int uniqueId = generateUniqueId();
-								PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-								out.println(uniqueId);
-								RoutingTable.addMarketRoute(uniqueId, socket);
-								System.out.println("New market connected. Assigned ID: " + uniqueId);
-							}
-						}
+						FrameReader in = new FrameReader(socket.getInputStream());
+						SocketConnection connection = new SocketConnection(socket);
+						FixMessage fixMessage = new FixMessage();
+						String handshake = in.readLine();
+						if (handshake == null)
+							return;
+						session = register(connection, role, handshake);
+						if (session == null)
+							return;
+						boolean binary = session.isBinary();
 
-						String message;
-						while ((message = in.readLine()) != null) {
-							if (message.length() > 0) {
-								this.handler.handle(socket, message);
+						// Flow control may pause reading while a market catches up
+						while (connection.awaitReadable() && (binary ? in.nextFrame() : in.nextLine())) {
+							if (in.length() == 0)
+								continue;
+							MessageBuffer message = MessageBuffer.received(in.buffer(), in.offset(), in.length(), binary);
+							try {
+								dispatch(session, binary ? fixMessage.parseFrame(message) : fixMessage.parse(message));
+							} finally {
+								message.release();
 							}
 						}
+					} catch (NumberFormatException e) {
+						log.warn("Invalid ID received: {}", e.getMessage());
 					} catch (IOException e) {
-						System.out.println("Error in the router: " + e.getMessage());
+						log.error("Error in the router: {}", e.getMessage());
 					} finally {
 						try {
 							socket.close();
 						} catch (IOException e) {
-							System.out.println("Error closing socket: " + e.getMessage());
+							log.warn("Error closing socket: {}", e.getMessage());
 						}
+						if (session != null)
+							disconnected(session);
 					}
 				});
 			}
 		} catch (IOException e) {
-			System.out.println("Error in the router: " + e.getMessage());
+			log.error("Error in the router: {}", e.getMessage());
 		}
 	}
 
-	public static void sendRejection(Socket socket, String message, String reason) {
+	public static void sendRejection(Session session, FixMessage message, String reason) {
 		try {
-			String[] parts = message.split("\u0001");
-			Map<String, String> fields = new HashMap<>();
-			for (String part : parts) {
-				String[] keyValue = part.split("=");
-				if (keyValue.length == 2)
-					fields.put(keyValue[0], keyValue[1]);
-			}
+			FixEncoder encoder = encoders.get().begin("3") // MsgType = Reject
+				.tag(49, message.getTargetId()) // SenderCompID
+				.tag(56, message.getSenderId()); // TargetCompID
+			if (message.getClOrdIdStart() >= 0)
+				encoder.tag(45, message.raw(), message.getClOrdIdStart(), message.getClOrdIdEnd()); // RefSeqNum
+			if (message.getListIdStart() >= 0)
+				encoder.tag(66, message.raw(), message.getListIdStart(), message.getListIdEnd()); // ListID, every order of the list is rejected
+			encoder.tag(58, reason); // Text
 
-			String body = "35=3" + "\u0001" + // MsgType = Reject
-						  "49=" + fields.get("56") + "\u0001" + // SenderCompID
-						  "56=" + fields.get("49") + "\u0001" + // TargetCompID
-						  "45=" + fields.get("11") + "\u0001" + // RefSeqNum
-						  "58=" + reason + "\u0001"; // Text
-
-			String fixMessage = "8=FIX.4.4" + "\u0001" + // BeginString
-								"9=" + body.length() + "\u0001" + // BodyLength
-								body;
-
-			int checksum = 0;
-			for (char ch : fixMessage.toCharArray())
-				checksum += ch;
-			checksum %= 256;
-			String checkSumStr = String.format("%03d", checksum);
-			fixMessage += "10=" + checkSumStr + "\u0001";
-
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			out.println(fixMessage);
+			session.send(encoder.finish().toString());
 		} catch (IOException e) {
-			System.out.println("Error sending rejection: " + e.getMessage());
+			log.error("Error sending rejection: {}", e.getMessage());
 		}
 	}
 
-	public static void sendDisconnection(Socket socket, int id, String reason) {
+	public static void sendDisconnection(Session session, int id, String reason) {
 		try {
-			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			String body = "35=5" + "\u0001" + // MsgType = Logout
-						  "49=" + 0 + "\u0001" + // SenderCompID
-						  "56=" + id + "\u0001" + // TargetCompID
-						  "58=" + reason + "\u0001"; // Text
-
-			String fixMessage = "8=FIX.4.4\u0001" + // BeginString
-								"9=" + body.length() + "\u0001" + // BodyLength
-								body;
-
-			int checksum = 0;
-			for (char ch : fixMessage.toCharArray())
-				checksum += ch;
-			checksum %= 256;
-			String checkSumStr = String.format("%03d", checksum);
-			fixMessage += "10=" + checkSumStr + "\u0001";
-
-			out.println(fixMessage);
+			FixEncoder encoder = encoders.get().begin("5") // MsgType = Logout
+				.tag(49, 0) // SenderCompID
+				.tag(56, id) // TargetCompID
+				.tag(58, reason); // Text
+
+			session.send(encoder.finish().toString());
 		} catch (IOException e) {
-			System.out.println("Error sending execution confirmation: " + e.getMessage());
+			log.error("Error sending disconnection: {}", e.getMessage());
 		}
 	}
 }
@@ -0,0 +1,259 @@
+package com.router;
+
+public class RouterConfig {
+	public enum Mode { BLOCKING, NIO }
+	// What happens to a broker message for a market whose window is full
+	public enum FlowControl { REJECT, PAUSE }
+
+	private Mode mode = Mode.BLOCKING;
+	private int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private int writerThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private int maxBatchSize = 64;
+	private long maxBatchDelayMicros = 0;
+	private String journalDirectory = "router-journal";
+	private int journalRetentionBytes = 4 * 1024 * 1024;
+	private long journalTtlSeconds = 3600;
+	private String riskLimitsFile = "";
+	private long riskReloadMillis = 1000;
+	private FlowControl flowControl = FlowControl.REJECT;
+	private int marketWindowBytes = 1 << 20;
+	private boolean binaryEncoding = true;
+	private int brokerPort = 5000;
+	private int marketPort = 5001;
+	private int nodeId = 0;
+	private String host = "localhost";
+	private int peerPort = 5002;
+	private String cluster = "";
+	private int virtualNodes = 128;
+
+	public static RouterConfig fromSystemProperties() {
+		RouterConfig config = new RouterConfig();
+		config.mode = Mode.valueOf(System.getProperty("router.mode", config.mode.name()).toUpperCase());
+		config.eventLoops = Integer.getInteger("router.eventLoops", config.eventLoops);
+		config.writerThreads = Integer.getInteger("router.writerThreads", config.writerThreads);
+		config.maxBatchSize = Integer.getInteger("router.maxBatchSize", config.maxBatchSize);
+		config.maxBatchDelayMicros = Long.getLong("router.maxBatchDelayMicros", config.maxBatchDelayMicros);
+		config.journalDirectory = System.getProperty("router.journalDir", config.journalDirectory);
+		config.journalRetentionBytes = Integer.getInteger("router.journalRetentionBytes", config.journalRetentionBytes);
+		config.journalTtlSeconds = Long.getLong("router.journalTtlSeconds", config.journalTtlSeconds);
+		config.riskLimitsFile = System.getProperty("router.riskLimits", config.riskLimitsFile);
+		config.riskReloadMillis = Long.getLong("router.riskReloadMillis", config.riskReloadMillis);
+		config.flowControl = FlowControl.valueOf(System.getProperty("router.flowControl", config.flowControl.name()).toUpperCase());
+		config.marketWindowBytes = Integer.getInteger("router.marketWindowBytes", config.marketWindowBytes);
+		config.binaryEncoding = Boolean.parseBoolean(System.getProperty("router.binaryEncoding", Boolean.toString(config.binaryEncoding)));
+		config.brokerPort = Integer.getInteger("router.brokerPort", config.brokerPort);
+		config.marketPort = Integer.getInteger("router.marketPort", config.marketPort);
+		config.nodeId = Integer.getInteger("router.nodeId", config.nodeId);
+		config.host = System.getProperty("router.host", config.host);
+		config.peerPort = Integer.getInteger("router.peerPort", config.peerPort);
+		config.cluster = System.getProperty("router.cluster", config.cluster);
+		config.virtualNodes = Integer.getInteger("router.virtualNodes", config.virtualNodes);
+		if (config.eventLoops < 1)
+			throw new IllegalArgumentException("router.eventLoops must be at least 1");
+		if (config.writerThreads < 1)
+			throw new IllegalArgumentException("router.writerThreads must be at least 1");
+		if (config.maxBatchSize < 1)
+			throw new IllegalArgumentException("router.maxBatchSize must be at least 1");
+		if (config.riskReloadMillis < 1)
+			throw new IllegalArgumentException("router.riskReloadMillis must be at least 1");
+		if (config.marketWindowBytes < 1)
+			throw new IllegalArgumentException("router.marketWindowBytes must be at least 1");
+		if (config.nodeId < 0 || config.nodeId >= Cluster.MAX_NODES)
+			throw new IllegalArgumentException("router.nodeId must be between 0 and " + (Cluster.MAX_NODES - 1));
+		if (config.virtualNodes < 1 || config.virtualNodes > 65536)
+			throw new IllegalArgumentException("router.virtualNodes must be between 1 and 65536");
+		return config;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getEventLoops() {
+		return eventLoops;
+	}
+
+	public int getWriterThreads() {
+		return writerThreads;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	// How long the first queued message may wait for others before its batch is written
+	public long getMaxBatchDelayMicros() {
+		return maxBatchDelayMicros;
+	}
+
+	public String getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	// Size of the memory-mapped journal kept for each destination; the oldest messages are dropped beyond it
+	public int getJournalRetentionBytes() {
+		return journalRetentionBytes;
+	}
+
+	public long getJournalTtlSeconds() {
+		return journalTtlSeconds;
+	}
+
+	// Properties file of pre-trade risk limits; empty to leave brokers unlimited
+	public String getRiskLimitsFile() {
+		return riskLimitsFile;
+	}
+
+	// How often the risk limits file is checked for changes
+	public long getRiskReloadMillis() {
+		return riskReloadMillis;
+	}
+
+	// REJECT answers "Market busy"; PAUSE forwards the message but stops reading from the broker until the market catches up
+	public FlowControl getFlowControl() {
+		return flowControl;
+	}
+
+	// Bytes the router holds for a market, queued or not yet taken by its socket, before the market counts as busy
+	public int getMarketWindowBytes() {
+		return marketWindowBytes;
+	}
+
+	// Whether components asking for binary frames in their handshake get them; if not they stay on text
+	public boolean isBinaryEncoding() {
+		return binaryEncoding;
+	}
+
+	public int getBrokerPort() {
+		return brokerPort;
+	}
+
+	public int getMarketPort() {
+		return marketPort;
+	}
+
+	// This router's node of a cluster, from 1; 0 runs it on its own and owns every session
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	// Host name the other nodes and redirected components reach this node by
+	public String getHost() {
+		return host;
+	}
+
+	// Port the other nodes of the cluster connect to
+	public int getPeerPort() {
+		return peerPort;
+	}
+
+	// Comma-separated nodes to join, as id@host:brokerPort:marketPort:peerPort; any one node of a running cluster is enough
+	public String getCluster() {
+		return cluster;
+	}
+
+	// Points of each node on the hash ring; more spread the IDs more evenly
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	public RouterConfig setMode(Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	public RouterConfig setEventLoops(int eventLoops) {
+		this.eventLoops = eventLoops;
+		return this;
+	}
+
+	public RouterConfig setWriterThreads(int writerThreads) {
+		this.writerThreads = writerThreads;
+		return this;
+	}
+
+	public RouterConfig setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	public RouterConfig setMaxBatchDelayMicros(long maxBatchDelayMicros) {
+		this.maxBatchDelayMicros = maxBatchDelayMicros;
+		return this;
+	}
+
+	public RouterConfig setJournalDirectory(String journalDirectory) {
+		this.journalDirectory = journalDirectory;
+		return this;
+	}
+
+	public RouterConfig setJournalRetentionBytes(int journalRetentionBytes) {
+		this.journalRetentionBytes = journalRetentionBytes;
+		return this;
+	}
+
+	public RouterConfig setJournalTtlSeconds(long journalTtlSeconds) {
+		this.journalTtlSeconds = journalTtlSeconds;
+		return this;
+	}
+
+	public RouterConfig setRiskLimitsFile(String riskLimitsFile) {
+		this.riskLimitsFile = riskLimitsFile;
+		return this;
+	}
+
+	public RouterConfig setRiskReloadMillis(long riskReloadMillis) {
+		this.riskReloadMillis = riskReloadMillis;
+		return this;
+	}
+
+	public RouterConfig setFlowControl(FlowControl flowControl) {
+		this.flowControl = flowControl;
+		return this;
+	}
+
+	public RouterConfig setMarketWindowBytes(int marketWindowBytes) {
+		this.marketWindowBytes = marketWindowBytes;
+		return this;
+	}
+
+	public RouterConfig setBinaryEncoding(boolean binaryEncoding) {
+		this.binaryEncoding = binaryEncoding;
+		return this;
+	}
+
+	public RouterConfig setBrokerPort(int brokerPort) {
+		this.brokerPort = brokerPort;
+		return this;
+	}
+
+	public RouterConfig setMarketPort(int marketPort) {
+		this.marketPort = marketPort;
+		return this;
+	}
+
+	public RouterConfig setNodeId(int nodeId) {
+		this.nodeId = nodeId;
+		return this;
+	}
+
+	public RouterConfig setHost(String host) {
+		this.host = host;
+		return this;
+	}
+
+	public RouterConfig setPeerPort(int peerPort) {
+		this.peerPort = peerPort;
+		return this;
+	}
+
+	public RouterConfig setCluster(String cluster) {
+		this.cluster = cluster;
+		return this;
+	}
+
+	public RouterConfig setVirtualNodes(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+		return this;
+	}
+}
@@ -0,0 +1,71 @@
+package com.router;
+
+import com.common.Counter;
+import com.common.Histogram;
+import com.common.Metrics;
+import com.common.MessageTypeMetrics;
+import java.util.function.LongSupplier;
+
+final class RouterMetrics {
+	static final MessageTypeMetrics handled = new MessageTypeMetrics("router.messages");
+	static final Counter rejectedChecksum = Metrics.counter("router.rejected.checksum");
+	static final Counter rejectedDestination = Metrics.counter("router.rejected.unknown_destination");
+	static final Counter rejectedUnavailable = Metrics.counter("router.rejected.unavailable");
+	static final Counter rejectedRisk = Metrics.counter("router.rejected.risk");
+	static final Counter rejectedBusy = Metrics.counter("router.rejected.busy");
+	static final Counter pausedReads = Metrics.counter("router.flow.paused");
+	static final Histogram writeLatency = Metrics.histogram("router.write.latency_ns");
+	static final Counter marketDataUpdates = Metrics.counter("router.marketdata.updates");
+	static final Counter marketDataDelivered = Metrics.counter("router.marketdata.delivered");
+	static final Counter conflated = Metrics.counter("router.marketdata.conflated");
+	static final Counter buffersAllocated = Metrics.counter("router.buffers.allocated");
+	static final Counter relayed = Metrics.counter("router.cluster.relayed");
+	static final Counter redirected = Metrics.counter("router.cluster.redirected");
+	static final Counter sessionsMoved = Metrics.counter("router.cluster.moved");
+
+	static {
+		Metrics.gauge("router.journal.pending", RoutingTable::getPendingMessageCount);
+		Metrics.gauge("router.buffers.in_use", BufferPool::inUse);
+		Metrics.gauge("router.buffers.idle_bytes", BufferPool::idleBytes);
+	}
+
+	private RouterMetrics() {
+	}
+
+	// Counters and gauges of one session. Each session of an ID registers its own, replacing those of the session
+	// before, and unregisters them once disconnected or moved to another node, so the registry only holds connected
+	// sessions; a session that is gone no longer removes the metrics that replaced its own.
+	static final class Route {
+		final Counter in;
+		final Counter out;
+		final Counter failed;
+		final Histogram batchSize;
+		private final String prefix;
+		private LongSupplier queued;
+		private LongSupplier outstandingBytes;
+
+		Route(String prefix) {
+			this.prefix = prefix;
+			in = Metrics.register(prefix + ".in", new Counter());
+			out = Metrics.register(prefix + ".out", new Counter());
+			failed = Metrics.register(prefix + ".failed", new Counter());
+			batchSize = Metrics.register(prefix + ".batch_size", new Histogram());
+		}
+
+		void gauges(LongSupplier queued, LongSupplier outstandingBytes) {
+			this.queued = queued;
+			this.outstandingBytes = outstandingBytes;
+			Metrics.gauge(prefix + ".queued", queued);
+			Metrics.gauge(prefix + ".outstanding_bytes", outstandingBytes);
+		}
+
+		void unregister() {
+			Metrics.remove(prefix + ".in", in);
+			Metrics.remove(prefix + ".out", out);
+			Metrics.remove(prefix + ".failed", failed);
+			Metrics.remove(prefix + ".batch_size", batchSize);
+			Metrics.remove(prefix + ".queued", queued);
+			Metrics.remove(prefix + ".outstanding_bytes", outstandingBytes);
+		}
+	}
+}
@@ -1,74 +1,184 @@
 package com.router;
 
+import com.common.Logger;
 import java.io.IOException;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public class RoutingTable {
-	private static final HashMap<Integer, Socket> marketRoutingTable = new HashMap<>();
-	private static final HashMap<Integer, Socket> brokerRoutingTable = new HashMap<>();
-	private static final HashMap<Integer, List<String>> pendingMessages = new HashMap<>();
+	private static final Logger log = Logger.get("journal");
+	private static final String JOURNAL_SUFFIX = ".journal";
+	private static final SessionMap sessions = new SessionMap();
+	// Sessions held by other nodes of a cluster, reached through them; a local session of the same ID takes precedence
+	private static final SessionMap remoteSessions = new SessionMap();
+	private static final ConcurrentHashMap<Integer, MessageJournal> journals = new ConcurrentHashMap<>();
+	private static Path journalDirectory;
+	private static int journalCapacity;
+	private static long journalTtlMillis;
 
-	public static void addMarketRoute(int id, Socket address) {
-		marketRoutingTable.put(id, address);
+	// Opens the pending message journals left by a previous run and returns the highest ID they belong to
+	public static int openJournals(Path directory, int capacity, long ttlMillis) throws IOException {
+		journalDirectory = directory;
+		journalCapacity = capacity;
+		journalTtlMillis = ttlMillis;
+		Files.createDirectories(directory);
+
+		int highestId = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + JOURNAL_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					int id = Integer.parseInt(name.substring(0, name.length() - JOURNAL_SUFFIX.length()));
+					MessageJournal journal = MessageJournal.open(file, id, null, capacity, ttlMillis);
+					journals.put(id, journal);
+					highestId = Math.max(highestId, id);
+				} catch (NumberFormatException | IOException e) {
+					log.warn("Skipping journal {}: {}", name, e.getMessage());
+				}
+			}
+		}
+		return highestId;
 	}
 
-	public static void addBrokerRoute(int id, Socket address) {
-		brokerRoutingTable.put(id, address);
+	public static void addSession(Session session) {
+		sessions.put(session);
 	}
 
-	public static Socket getRoute(int id) {
-		if (isBrokerRoute(id)) {
-			return brokerRoutingTable.get(id);
-		} else if (isMarketRoute(id)) {
-			return marketRoutingTable.get(id);
-		} else {
-			return null;
-		}
+	// Atomically replaces the session registered under the same ID and returns the previous one
+	public static Session swapSession(Session session) {
+		return sessions.put(session);
+	}
+
+	// Leaves the session's ID to its remote session, if another node holds it now
+	public static boolean removeSession(Session session) {
+		return sessions.remove(session);
+	}
+
+	// Registers a session another node holds, unless one is registered already
+	public static synchronized void addRemoteSession(Session session) {
+		if (remoteSessions.get(session.getId()) == null)
+			remoteSessions.put(session);
+	}
+
+	public static Session getRemoteSession(int id) {
+		return remoteSessions.get(id);
+	}
+
+	public static Session getSession(int id) {
+		Session session = sessions.get(id);
+		return session != null ? session : remoteSessions.get(id);
+	}
+
+	public static Session getLocalSession(int id) {
+		return sessions.get(id);
 	}
 
 	public static boolean isBrokerRoute(int id) {
-		return brokerRoutingTable.containsKey(id);
+		Session session = getSession(id);
+		return session != null && session.isBroker();
 	}
 
 	public static boolean isMarketRoute(int id) {
-		return marketRoutingTable.containsKey(id);
+		Session session = getSession(id);
+		return session != null && session.isMarket();
 	}
 
-	public static boolean isBrokerRoute(Socket address) {
-		return brokerRoutingTable.containsValue(address);
+	// Sessions registered with this node, connected or not
+	public static void forEachLocalSession(Consumer<Session> action) {
+		sessions.forEach(action);
 	}
 
-	public static boolean isMarketRoute(Socket address) {
-		return marketRoutingTable.containsValue(address);
+	// An ID is known if it is connected, here or to another node, or has a journal with the same role, even from a previous run
+	public static boolean isKnownRoute(int id, Session.Role role) {
+		Session session = getSession(id);
+		if (session != null)
+			return session.getRole() == role;
+		MessageJournal journal = journals.get(id);
+		return journal != null && journal.getRole() == role;
 	}
 
-	public static void addPendingMessage(int id, String message) {
-		if (pendingMessages.containsKey(id)) {
-			pendingMessages.get(id).add(message);
-		} else {
-			List<String> messages = new ArrayList<>();
-			messages.add(message);
-			pendingMessages.put(id, messages);
+	public static void addPendingMessage(int id, Session.Role role, String message) {
+		try {
+			MessageJournal journal = journals.get(id);
+			if (journal == null) {
+				journal = journals.computeIfAbsent(id, k -> {
+					try {
+						return MessageJournal.open(journalDirectory.resolve(k + JOURNAL_SUFFIX), k, role, journalCapacity, journalTtlMillis);
+					} catch (IOException e) {
+						throw new JournalException(e);
+					}
+				});
+			}
+			if (!journal.append(message))
+				log.warn("Message too large for the journal of {}, dropped", id);
+		} catch (JournalException e) {
+			log.error("Error saving pending message: {}", e.getCause().getMessage());
 		}
 	}
 
+	// Returns the pending messages of the given ID not already being sent, or null if there are none;
+	// each stays journaled until removed
 	public static List<String> getPendingMessages(int id) {
-		return pendingMessages.get(id);
+		MessageJournal journal = journals.get(id);
+		if (journal == null || journal.isEmpty())
+			return null;
+		return journal.pending();
 	}
 
-	public static void removePendingMessages(int id) {
-		pendingMessages.remove(id);
+	// Removes the oldest pending message of the given ID once it has been delivered
+	public static void removePendingMessage(int id, String message) {
+		MessageJournal journal = journals.get(id);
+		if (journal != null)
+			journal.remove(message);
 	}
 
-	public static void close() throws IOException {
-		for (Socket socket : marketRoutingTable.values()) {
-			socket.close();
+	// The pending messages of the given ID already handed out were not all written, and are to be sent again
+	public static void resendPendingMessages(int id) {
+		MessageJournal journal = journals.get(id);
+		if (journal != null)
+			journal.resend();
+	}
+
+	public static boolean hasPendingMessages(int id) {
+		MessageJournal journal = journals.get(id);
+		return journal != null && !journal.isEmpty();
+	}
+
+	// IDs with pending messages
+	public static void forEachPendingId(IntConsumer action) {
+		for (MessageJournal journal : journals.values()) {
+			if (!journal.isEmpty())
+				action.accept(journal.getId());
+		}
+	}
+
+	public static Session.Role getJournalRole(int id) {
+		MessageJournal journal = journals.get(id);
+		return journal != null ? journal.getRole() : null;
+	}
+
+	public static long getPendingMessageCount() {
+		long count = 0;
+		for (MessageJournal journal : journals.values()) {
+			count += journal.getPendingCount();
 		}
-		for (Socket socket : brokerRoutingTable.values()) {
-			socket.close();
+		return count;
+	}
+
+	public static void close() {
+		sessions.forEach(Session::close);
+	}
+
+	private static class JournalException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		JournalException(IOException cause) {
+			super(cause);
 		}
 	}
 }
@@ -0,0 +1,180 @@
+package com.router;
+
+import com.common.BinaryEncoder;
+import com.common.WireEncoding;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+
+// A registered broker or market connection, identified by its component ID. In a cluster, a remote session stands
+// for a component another node holds, and each other node has a ROUTER session relaying market data to it.
+public class Session {
+	public enum Role { BROKER, MARKET, ROUTER }
+
+	private static final ThreadLocal<BinaryEncoder> frames = ThreadLocal.withInitial(BinaryEncoder::new);
+
+	private final int id;
+	private final Role role;
+	// Agreed on during the ID handshake; everything queued for the session is in this encoding
+	private final WireEncoding encoding;
+	private final Connection connection;
+	private final OutboundQueue outbound;
+	private final RouterMetrics.Route metrics;
+	// Pre-trade risk counters of a broker, shared by its sessions
+	private volatile RiskHandler.BrokerRisk risk;
+	// Credit of the destination: bytes that may be outstanding before it counts as saturated
+	private final int window;
+	// Sessions not read from until this one drains below half its window
+	private final Queue<Session> pausedSources = new ConcurrentLinkedQueue<>();
+	// Guarded by this
+	private boolean readPaused;
+
+	public Session(int id, Role role, Connection connection, RouterConfig config, ScheduledExecutorService writers) {
+		this(id, role, WireEncoding.TEXT, connection, config, writers);
+	}
+
+	public Session(int id, Role role, WireEncoding encoding, Connection connection, RouterConfig config, ScheduledExecutorService writers) {
+		this.id = id;
+		this.role = role;
+		this.encoding = encoding;
+		this.connection = connection;
+		// A remote session keeps its own metrics, so it never replaces those of a local session of the same ID
+		this.metrics = new RouterMetrics.Route((connection instanceof RemoteConnection ? "router.remote." : "router.route.") + id);
+		this.outbound = new OutboundQueue(this, connection, writers, config.getMaxBatchSize(), config.getMaxBatchDelayMicros());
+		this.window = config.getMarketWindowBytes();
+		metrics.gauges(outbound::size, outbound::outstandingBytes);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Role getRole() {
+		return role;
+	}
+
+	public boolean isBroker() {
+		return role == Role.BROKER;
+	}
+
+	public boolean isMarket() {
+		return role == Role.MARKET;
+	}
+
+	// Held by another node of the cluster, which its messages are relayed to
+	public boolean isRemote() {
+		return connection instanceof RemoteConnection;
+	}
+
+	// For a remote session: the session of the node holding it, which relays market data for all its subscribers
+	Session getRelay() {
+		return isRemote() ? ((RemoteConnection) connection).relay() : null;
+	}
+
+	public WireEncoding getEncoding() {
+		return encoding;
+	}
+
+	// True if the component sends and receives BinaryFormat frames
+	public boolean isBinary() {
+		return encoding == WireEncoding.BINARY;
+	}
+
+	// Called once the connection is gone, whether the component left or a new connection replaced this one
+	void disconnected() {
+		metrics.unregister();
+	}
+
+	RouterMetrics.Route getMetrics() {
+		return metrics;
+	}
+
+	RiskHandler.BrokerRisk getRisk() {
+		return risk;
+	}
+
+	void setRisk(RiskHandler.BrokerRisk risk) {
+		this.risk = risk;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	// Queues a tag=value message for the session's single writer, framed first if the session is binary
+	public void send(String message) throws IOException {
+		outbound.offer(isBinary() ? MessageBuffer.frame(frames.get().fromText(message)) : MessageBuffer.line(message));
+	}
+
+	// Queues a journaled message, which leaves the journal once the connection has written it
+	public void replay(String message) throws IOException {
+		MessageBuffer framed = isBinary() ? MessageBuffer.frame(frames.get().fromText(message)) : MessageBuffer.line(message);
+		outbound.offer(framed.onWritten(() -> {
+			RoutingTable.removePendingMessage(id, message);
+			RiskHandler.reopenReplayed(this, message);
+		}));
+	}
+
+	// Queues a message received from another component. Its bytes are passed on as received, without a copy,
+	// unless the two use different encodings.
+	public void forward(FixMessage message) throws IOException {
+		outbound.offer(message.framed(isBinary()));
+	}
+
+	// Replaces the topic's pending market data update, taking over the caller's reference to it.
+	// The update is in the session's encoding, framed, and may be shared with other sessions.
+	public void sendLatest(Object topic, MessageBuffer update) {
+		outbound.offerLatest(topic, update);
+	}
+
+	// Called by the connection once it has written its backlog
+	void onWritable() {
+		outbound.signal();
+	}
+
+	// True once the bytes queued for this session and not yet sent use up its window
+	boolean isSaturated() {
+		return outbound.outstandingBytes() >= window;
+	}
+
+	// Stops reading from source until this session has drained; false if source was already paused
+	boolean pauseSource(Session source) {
+		if (!source.pauseReading())
+			return false;
+		pausedSources.add(source);
+		// This session may have drained before source was queued
+		onDrained();
+		return true;
+	}
+
+	// Called after bytes queued for this session were sent, or when its connection is gone
+	void onDrained() {
+		if (pausedSources.isEmpty())
+			return;
+		if (connection.isOpen() && outbound.outstandingBytes() > window / 2)
+			return;
+		Session source;
+		while ((source = pausedSources.poll()) != null) {
+			source.resumeReading();
+		}
+	}
+
+	private synchronized boolean pauseReading() {
+		if (readPaused)
+			return false;
+		readPaused = true;
+		connection.pauseReading();
+		return true;
+	}
+
+	private synchronized void resumeReading() {
+		readPaused = false;
+		connection.resumeReading();
+	}
+
+	// Closes the connection once everything already queued has been written
+	public void close() {
+		outbound.close();
+	}
+}
@@ -0,0 +1,120 @@
+package com.router;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Open-addressing map from primitive int IDs to sessions.
+// Lookups are lock-free; writers are serialized and publish a new table when growing.
+class SessionMap {
+	private static final int EMPTY = Integer.MIN_VALUE;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private volatile Table table = new Table(INITIAL_CAPACITY);
+
+	private static final class Table {
+		final AtomicIntegerArray keys;
+		final AtomicReferenceArray<Session> values;
+		final int mask;
+		int size;
+
+		Table(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			values = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+			for (int i = 0; i < capacity; i++) {
+				keys.set(i, EMPTY);
+			}
+		}
+	}
+
+	private static int indexFor(int id, int mask) {
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public Session get(int id) {
+		Table t = table;
+		int i = indexFor(id, t.mask);
+		while (true) {
+			int key = t.keys.get(i);
+			if (key == id)
+				return t.values.get(i);
+			if (key == EMPTY)
+				return null;
+			i = (i + 1) & t.mask;
+		}
+	}
+
+	// Inserts or atomically swaps the session for its ID, returning the previous one
+	public synchronized Session put(Session session) {
+		int id = session.getId();
+		if (id == EMPTY)
+			throw new IllegalArgumentException("Invalid session ID: " + id);
+
+		Table t = table;
+		int i = indexFor(id, t.mask);
+		while (true) {
+			int key = t.keys.get(i);
+			if (key == id)
+				return t.values.getAndSet(i, session);
+			if (key == EMPTY)
+				break;
+			i = (i + 1) & t.mask;
+		}
+
+		if ((t.size + 1) * 2 > t.mask + 1) {
+			t = resize(t);
+			i = indexFor(id, t.mask);
+			while (t.keys.get(i) != EMPTY) {
+				i = (i + 1) & t.mask;
+			}
+		}
+		// The value is published before the key so readers never see a half-inserted entry
+		t.values.set(i, session);
+		t.keys.set(i, id);
+		t.size++;
+		return null;
+	}
+
+	// Removes the session if it is still the one registered for its ID; the slot stays reserved for the ID
+	public synchronized boolean remove(Session session) {
+		Table t = table;
+		int i = indexFor(session.getId(), t.mask);
+		while (true) {
+			int key = t.keys.get(i);
+			if (key == session.getId())
+				return t.values.compareAndSet(i, session, null);
+			if (key == EMPTY)
+				return false;
+			i = (i + 1) & t.mask;
+		}
+	}
+
+	private Table resize(Table old) {
+		Table grown = new Table((old.mask + 1) * 2);
+		for (int j = 0; j <= old.mask; j++) {
+			int key = old.keys.get(j);
+			if (key == EMPTY)
+				continue;
+			int i = indexFor(key, grown.mask);
+			while (grown.keys.get(i) != EMPTY) {
+				i = (i + 1) & grown.mask;
+			}
+			grown.values.set(i, old.values.get(j));
+			grown.keys.set(i, key);
+			grown.size++;
+		}
+		table = grown;
+		return grown;
+	}
+
+	public void forEach(Consumer<Session> action) {
+		Table t = table;
+		for (int i = 0; i <= t.mask; i++) {
+			Session session = t.values.get(i);
+			if (session != null && t.keys.get(i) != EMPTY)
+				action.accept(session);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.router;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// Blocking connection used by the thread-per-connection router mode
+public class SocketConnection implements Connection {
+	private final Socket socket;
+	private final OutputStream out;
+	// Pooled messages are copied here to be written, only by the session's single writer
+	private byte[] scratch = new byte[8192];
+	// Guarded by this
+	private boolean readPaused;
+
+	public SocketConnection(Socket socket) throws IOException {
+		this.socket = socket;
+		this.out = socket.getOutputStream();
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		out.write(buffer, offset, length);
+		out.flush();
+	}
+
+	@Override
+	public void write(MessageBuffer message) throws IOException {
+		int length = message.framedLength();
+		if (length > scratch.length)
+			scratch = new byte[Math.max(scratch.length * 2, length)];
+		message.get(scratch);
+		out.write(scratch, 0, length);
+		out.flush();
+		message.written();
+		message.release();
+	}
+
+	@Override
+	public synchronized void pauseReading() {
+		readPaused = true;
+	}
+
+	@Override
+	public synchronized void resumeReading() {
+		readPaused = false;
+		notifyAll();
+	}
+
+	// Called by the reading thread before each message; false once the connection is closed
+	synchronized boolean awaitReadable() {
+		try {
+			while (readPaused && !socket.isClosed()) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return !socket.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !socket.isClosed();
+	}
+}
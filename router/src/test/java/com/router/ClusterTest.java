@@ -0,0 +1,265 @@
+package com.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.common.FixEncoder;
+import com.common.Price;
+import com.common.RouterAddress;
+import com.common.WireEncoding;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs two router nodes as separate processes on localhost, as the routing table is process-wide
+public class ClusterTest {
+	private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+	private final List<Node> nodes = new ArrayList<>();
+	private final List<Socket> sockets = new ArrayList<>();
+	private final List<Path> journals = new ArrayList<>();
+	private Node node1;
+	private Node node2;
+
+	@Before
+	public void startCluster() throws Exception {
+		node1 = start(1, null);
+		node2 = start(2, node1);
+		node1.awaitLog("Cluster membership: 2 node(s)");
+		node2.awaitLog("Cluster membership: 2 node(s)");
+	}
+
+	@After
+	public void stopCluster() throws Exception {
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+		for (Node node : nodes) {
+			node.stop();
+		}
+		for (Path journal : journals) {
+			try (Stream<Path> files = Files.walk(journal)) {
+				files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+			}
+		}
+	}
+
+	@Test
+	public void componentIsRedirectedToTheNodeOwningItsId() throws Exception {
+		Client broker = connect(node2.brokerPort, "-1");
+		int brokerId = WireEncoding.idOfHandshake(broker.reply);
+
+		// Node 2 handed the ID out from its own series, so node 1 sends the broker there
+		Client elsewhere = connect(node1.brokerPort, String.valueOf(brokerId));
+		InetSocketAddress owner = RouterAddress.ofRedirect(elsewhere.reply);
+		assertNotNull("expected a redirect, got: " + elsewhere.reply, owner);
+		assertEquals(node2.brokerPort, owner.getPort());
+		assertEquals(-1, elsewhere.in.read());
+
+		Client redirected = connect(owner.getPort(), String.valueOf(brokerId));
+		assertEquals(brokerId, WireEncoding.idOfHandshake(redirected.reply));
+	}
+
+	@Test
+	public void messagesAreRelayedBetweenComponentsOnDifferentNodes() throws Exception {
+		Client market = connect(node1.marketPort, "-1");
+		int marketId = WireEncoding.idOfHandshake(market.reply);
+		Client broker = connect(node2.brokerPort, "-1");
+		int brokerId = WireEncoding.idOfHandshake(broker.reply);
+
+		// Node 2 learns of the market once node 1 announces it
+		String order = new FixEncoder().begin("D")
+			.tag(49, brokerId)
+			.tag(56, marketId)
+			.tag(11, "ORDER1")
+			.tag(55, "AAPL")
+			.tag(54, '1')
+			.tag(38, 5)
+			.price(44, Price.parse("10.5"))
+			.tag(40, '2')
+			.finish().toString();
+		String received = null;
+		boolean rejected = true;
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		market.socket.setSoTimeout(100);
+		broker.socket.setSoTimeout(100);
+		while (received == null) {
+			assertTrue("order not relayed to the market", System.currentTimeMillis() < deadline);
+			if (rejected)
+				broker.send(order);
+			rejected = false;
+			try {
+				received = market.in.readLine();
+			} catch (SocketTimeoutException e) {
+				try {
+					String reply = broker.in.readLine();
+					assertTrue(reply, reply.contains("35=3"));
+					rejected = true;
+				} catch (SocketTimeoutException stillRouting) {
+					// Neither delivered nor rejected yet
+				}
+			}
+		}
+		market.socket.setSoTimeout((int) TIMEOUT_MILLIS);
+		broker.socket.setSoTimeout((int) TIMEOUT_MILLIS);
+		assertTrue(received, received.contains("35=D") && received.contains("11=ORDER1") && received.contains("49=" + brokerId));
+
+		market.send(new FixEncoder().begin("8")
+			.tag(49, marketId)
+			.tag(56, brokerId)
+			.tag(11, "ORDER1")
+			.tag(37, 1)
+			.tag(55, "AAPL")
+			.tag(54, '1')
+			.tag(38, 5)
+			.price(44, Price.parse("10.5"))
+			.tag(39, '0')
+			.tag(150, '0')
+			.tag(14, 0)
+			.tag(151, 5)
+			.finish().toString());
+		String report = broker.in.readLine();
+		assertNotNull(report);
+		assertTrue(report, report.contains("35=8") && report.contains("11=ORDER1") && report.contains("49=" + marketId));
+	}
+
+	private Node start(int id, Node seed) throws Exception {
+		Node node = new Node(id, freePort(), freePort(), freePort());
+		nodes.add(node);
+		Path journal = Files.createTempDirectory("router-" + id);
+		journals.add(journal);
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("-Drouter.nodeId=" + id);
+		command.add("-Drouter.brokerPort=" + node.brokerPort);
+		command.add("-Drouter.marketPort=" + node.marketPort);
+		command.add("-Drouter.peerPort=" + node.peerPort);
+		command.add("-Drouter.journalDir=" + journal);
+		if (seed != null)
+			command.add("-Drouter.cluster=" + seed.id + "@localhost:" + seed.brokerPort + ":" + seed.marketPort + ":" + seed.peerPort);
+		command.add(Main.class.getName());
+		node.start(new ProcessBuilder(command).redirectErrorStream(true).start());
+		return node;
+	}
+
+	private Client connect(int port, String handshake) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				Socket socket = new Socket("localhost", port);
+				sockets.add(socket);
+				socket.setSoTimeout((int) TIMEOUT_MILLIS);
+				return new Client(socket, handshake);
+			} catch (IOException e) {
+				// The node may still be starting its listeners
+				if (System.currentTimeMillis() > deadline)
+					throw e;
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static final class Client {
+		final Socket socket;
+		final BufferedReader in;
+		final OutputStream out;
+		final String reply;
+
+		Client(Socket socket, String handshake) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+			this.out = socket.getOutputStream();
+			send(handshake);
+			this.reply = in.readLine();
+			assertNotNull("no handshake reply", reply);
+		}
+
+		void send(String line) throws IOException {
+			out.write((line + "\n").getBytes(StandardCharsets.ISO_8859_1));
+			out.flush();
+		}
+	}
+
+	private static final class Node {
+		final int id;
+		final int brokerPort;
+		final int marketPort;
+		final int peerPort;
+		private final List<String> log = new ArrayList<>();
+		private Process process;
+
+		Node(int id, int brokerPort, int marketPort, int peerPort) {
+			this.id = id;
+			this.brokerPort = brokerPort;
+			this.marketPort = marketPort;
+			this.peerPort = peerPort;
+		}
+
+		void start(Process process) {
+			this.process = process;
+			Thread reader = new Thread(() -> {
+				try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = in.readLine()) != null) {
+						synchronized (log) {
+							log.add(line);
+							log.notifyAll();
+						}
+					}
+				} catch (IOException e) {
+					// The node was stopped
+				}
+			}, "router-" + id + "-output");
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		void awaitLog(String fragment) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			synchronized (log) {
+				while (true) {
+					for (String line : log) {
+						if (line.contains(fragment))
+							return;
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						fail("router node " + id + " did not log \"" + fragment + "\": " + log);
+					log.wait(remaining);
+				}
+			}
+		}
+
+		void stop() throws InterruptedException {
+			process.destroy();
+			process.waitFor(10, TimeUnit.SECONDS);
+		}
+	}
+}
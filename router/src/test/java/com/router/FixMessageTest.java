@@ -0,0 +1,113 @@
+package com.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.common.Price;
+import org.junit.Test;
+
+public class FixMessageTest {
+	private final FixMessage message = new FixMessage();
+
+	@Test
+	public void readsTheHeaderAndOrderFields() {
+		message.parse(order("35=D", "49=100000", "56=100001", "11=42", "55=AAPL", "54=1", "38=10", "44=12.5"));
+
+		assertTrue(message.isMsgType("D"));
+		assertEquals(100000, message.getSenderId());
+		assertEquals(100001, message.getTargetId());
+		assertEquals("42", message.getClOrdId());
+		assertEquals(1, message.getOrderCount());
+		assertEquals(10, message.getOrderQty());
+		assertEquals(Price.parse("12.5"), message.getPrice());
+		assertEquals(10 * Price.parse("12.5"), message.getMaxNotional());
+		assertFalse(message.hasInvalidOrderQty());
+		assertTrue(message.hasValidChecksum());
+	}
+
+	@Test
+	public void numberPastIntegerRangeIsNotANumber() {
+		// 2^32 + 1 would wrap to 1 in an int
+		message.parse(order("35=D", "49=4294967297", "56=100001", "11=1", "55=AAPL", "38=4294967297", "44=1"));
+
+		assertEquals(-1, message.getSenderId());
+		assertEquals(-1, message.getOrderQty());
+		assertEquals(-1, message.getMaxOrderQty());
+		assertTrue(message.hasInvalidOrderQty());
+
+		message.parse(order("35=D", "49=100000", "56=2147483647", "11=1", "38=2147483648"));
+		assertEquals(Integer.MAX_VALUE, message.getTargetId());
+		assertEquals(-1, message.getOrderQty());
+	}
+
+	@Test
+	public void nonNumericValueReadsAsMissing() {
+		message.parse(order("35=D", "49=abc", "56=10000x", "11=1", "38=1O", "44=1"));
+
+		assertEquals(-1, message.getSenderId());
+		assertEquals(-1, message.getTargetId());
+		assertEquals(-1, message.getOrderQty());
+		assertTrue(message.hasInvalidOrderQty());
+	}
+
+	@Test
+	public void missingChecksumIsInvalid() {
+		message.parse("8=FIX.4.4\u00019=20\u000135=D\u000149=100000\u000156=100001\u000111=1\u0001");
+
+		assertTrue(message.isMsgType("D"));
+		assertFalse(message.hasValidChecksum());
+
+		message.parse(order("35=D", "49=100000", "56=100001").replace("\u000110=", "\u000110=0"));
+		assertFalse(message.hasValidChecksum());
+	}
+
+	@Test
+	public void listCountsEveryOrderEvenWithARepeatedClOrdId() {
+		message.parse(order("35=E", "49=100000", "56=100001", "66=L1", "73=3",
+				"11=7", "55=AAPL", "38=5", "44=2",
+				"11=7", "55=AAPL", "38=30", "44=1",
+				"11=8", "55=MSFT", "38=1", "44=100"));
+
+		assertTrue(message.isMsgType("E"));
+		// The market rejects the repeated ClOrdID; the router counts the order all the same
+		assertEquals(3, message.getOrderCount());
+		assertEquals("7", message.getClOrdId());
+		assertEquals(30, message.getMaxOrderQty());
+		assertEquals(100 * Price.parse("1"), message.getMaxNotional());
+		assertFalse(message.hasInvalidOrderQty());
+	}
+
+	@Test
+	public void listWithOneInvalidQuantityIsInvalid() {
+		message.parse(order("35=E", "49=100000", "56=100001", "66=L1",
+				"11=1", "38=5", "44=2",
+				"11=2", "38=-5", "44=2"));
+
+		assertEquals(2, message.getOrderCount());
+		assertEquals(5, message.getMaxOrderQty());
+		assertTrue(message.hasInvalidOrderQty());
+	}
+
+	@Test
+	public void overlongTagIsIgnored() {
+		// 2^32 + 38 is no tag at all rather than wrapping onto OrderQty
+		message.parse(order("35=D", "49=100000", "56=100001", "11=1", "38=3", "4294967334=7"));
+
+		assertEquals(3, message.getOrderQty());
+	}
+
+	// The fields with the BeginString, BodyLength and CheckSum around them
+	static String order(String... fields) {
+		StringBuilder body = new StringBuilder();
+		for (String field : fields) {
+			body.append(field).append('\u0001');
+		}
+		String message = "8=FIX.4.4\u00019=" + body.length() + "\u0001" + body;
+		int sum = 0;
+		for (int i = 0; i < message.length(); i++) {
+			sum += message.charAt(i);
+		}
+		return message + "10=" + String.format("%03d", sum % 256) + "\u0001";
+	}
+}
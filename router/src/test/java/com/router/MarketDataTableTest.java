@@ -0,0 +1,68 @@
+package com.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+// The table is process-wide, so each test uses markets of its own
+public class MarketDataTableTest {
+	@Test
+	public void requestSubscribesOnlyOnceTheMarketAccepts() {
+		MarketDataTable.request(700001, "AAPL", 100000);
+		MarketDataTable.Topic topic = find(700001, "AAPL");
+		assertFalse(topic.isSubscribed(100000));
+
+		topic.accept(100000);
+		assertTrue(topic.isSubscribed(100000));
+		assertArrayEquals(new int[] {100000}, topic.getSubscribers());
+	}
+
+	@Test
+	public void rejectedRequestNeverSubscribes() {
+		MarketDataTable.request(700002, "NOPE", 100000);
+		MarketDataTable.Topic topic = find(700002, "NOPE");
+		topic.reject(100000);
+
+		// A later snapshot, asked for without subscribing, takes nothing up
+		topic.accept(100000);
+		assertFalse(topic.isSubscribed(100000));
+	}
+
+	@Test
+	public void snapshotWithoutARequestDoesNotSubscribe() {
+		MarketDataTable.request(700003, "AAPL", 100000);
+		MarketDataTable.Topic topic = find(700003, "AAPL");
+
+		topic.accept(100001);
+		assertEquals(0, topic.getSubscribers().length);
+	}
+
+	@Test
+	public void departedBrokerLosesItsSubscriptionsAndRequests() {
+		MarketDataTable.subscribe(700004, "AAPL", 100000);
+		MarketDataTable.subscribe(700004, "AAPL", 100001);
+		MarketDataTable.subscribe(700005, "MSFT", 100000);
+		MarketDataTable.request(700005, "IBM", 100000);
+
+		MarketDataTable.unsubscribeAll(100000);
+		assertArrayEquals(new int[] {100001}, find(700004, "AAPL").getSubscribers());
+		assertEquals(0, find(700005, "MSFT").getSubscribers().length);
+		find(700005, "IBM").accept(100000);
+		assertFalse(find(700005, "IBM").isSubscribed(100000));
+
+		List<String> left = new ArrayList<>();
+		MarketDataTable.forEachSubscription(100000, (marketId, symbol, brokerId) -> left.add(symbol));
+		assertTrue(left.isEmpty());
+	}
+
+	private static MarketDataTable.Topic find(int marketId, String symbol) {
+		FixMessage message = new FixMessage();
+		message.parse(FixMessageTest.order("35=X", "49=" + marketId, "56=0", "55=" + symbol));
+		return MarketDataTable.find(marketId, message);
+	}
+}
@@ -0,0 +1,161 @@
+package com.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageJournalTest {
+	private static final long NO_EXPIRY = Long.MAX_VALUE / 2;
+	// Header and three records of 20 chars (12 + 20 bytes each), with 30 bytes to spare
+	private static final int CAPACITY = 32 + 3 * 32 + 30;
+
+	private Path file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("journal", ".journal");
+		Files.delete(file);
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void pendingMessagesStayUntilRemoved() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		journal.append(message(1));
+		journal.append(message(2));
+
+		assertEquals(Arrays.asList(message(1), message(2)), journal.pending());
+		journal.remove(message(1));
+		assertEquals(1, journal.getPendingCount());
+		journal.resend();
+		assertEquals(Collections.singletonList(message(2)), journal.pending());
+	}
+
+	@Test
+	public void removeOnlyTakesTheOldestMessage() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		journal.append(message(1));
+		journal.append(message(2));
+
+		journal.remove(message(2));
+		assertEquals(2, journal.getPendingCount());
+	}
+
+	@Test
+	public void pendingSkipsMessagesAlreadyBeingSent() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		journal.append(message(1));
+		assertEquals(Collections.singletonList(message(1)), journal.pending());
+
+		journal.append(message(2));
+		assertEquals(Collections.singletonList(message(2)), journal.pending());
+		assertTrue(journal.pending().isEmpty());
+
+		// A write failed: everything still journaled goes again
+		journal.resend();
+		assertEquals(Arrays.asList(message(1), message(2)), journal.pending());
+	}
+
+	@Test
+	public void wrapsToTheStartOnceTheOldestAreRemoved() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		journal.append(message(1));
+		journal.append(message(2));
+		journal.append(message(3));
+		journal.remove(message(1));
+		journal.remove(message(2));
+
+		// No room after the third record: the fourth goes where the first was
+		assertTrue(journal.append(message(4)));
+		assertEquals(2, journal.getPendingCount());
+		journal.resend();
+		assertEquals(Arrays.asList(message(3), message(4)), journal.pending());
+	}
+
+	@Test
+	public void fullJournalDropsTheOldestMessages() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		for (int i = 1; i <= 3; i++) {
+			assertTrue(journal.append(message(i)));
+		}
+		// Once wrapped, the end of the journal stops short of its first message: two go to make room for the fourth
+		assertTrue(journal.append(message(4)));
+		assertEquals(2, journal.getPendingCount());
+		assertTrue(journal.append(message(5)));
+
+		assertEquals(Arrays.asList(message(4), message(5)), journal.pending());
+		assertFalse(journal.append(new String(new char[CAPACITY])));
+	}
+
+	@Test
+	public void expiredMessagesAreDropped() throws Exception {
+		MessageJournal journal = open(CAPACITY, 50);
+		journal.append(message(1));
+		Thread.sleep(100);
+		journal.append(message(2));
+
+		assertEquals(Collections.singletonList(message(2)), journal.pending());
+		assertEquals(1, journal.getPendingCount());
+	}
+
+	@Test
+	public void reopenedJournalKeepsItsRoleAndWrappedMessages() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		for (int i = 1; i <= 4; i++) {
+			journal.append(message(i));
+		}
+
+		MessageJournal reopened = MessageJournal.open(file, 100001, null, CAPACITY, NO_EXPIRY);
+		assertEquals(Session.Role.MARKET, reopened.getRole());
+		assertEquals(Arrays.asList(message(3), message(4)), reopened.pending());
+		reopened.remove(message(3));
+		assertEquals(1, MessageJournal.open(file, 100001, null, CAPACITY, NO_EXPIRY).getPendingCount());
+	}
+
+	@Test
+	public void reopenedJournalGrowsToALargerCapacity() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		journal.append(message(1));
+
+		MessageJournal reopened = MessageJournal.open(file, 100001, null, CAPACITY * 2, NO_EXPIRY);
+		assertEquals(CAPACITY * 2, Files.size(file));
+		for (int i = 2; i <= 6; i++) {
+			reopened.append(message(i));
+		}
+		assertEquals(6, reopened.getPendingCount());
+	}
+
+	@Test
+	public void reopenedJournalThatWrappedKeepsItsSize() throws IOException {
+		MessageJournal journal = open(CAPACITY, NO_EXPIRY);
+		for (int i = 1; i <= 4; i++) {
+			journal.append(message(i));
+		}
+
+		MessageJournal reopened = MessageJournal.open(file, 100001, null, CAPACITY * 2, NO_EXPIRY);
+		assertEquals(CAPACITY, Files.size(file));
+		assertEquals(Arrays.asList(message(3), message(4)), reopened.pending());
+	}
+
+	private MessageJournal open(int capacity, long ttlMillis) throws IOException {
+		return MessageJournal.open(file, 100001, Session.Role.MARKET, capacity, ttlMillis);
+	}
+
+	// 20 chars, numbered
+	private static String message(int number) {
+		return String.format("35=D|11=%011d|", number);
+	}
+}
@@ -0,0 +1,238 @@
+package com.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// The routing table and the counters are process-wide, so each test uses a broker ID of its own
+public class RiskHandlerTest {
+	private static final int MARKET_ID = 800000;
+	private static int nextBrokerId = 800001;
+
+	private final List<FixMessage> passed = new ArrayList<>();
+	private final List<String> replies = new ArrayList<>();
+	private ScheduledThreadPoolExecutor writers;
+	private RiskHandler risk;
+	private Session broker;
+	private Session market;
+	private int brokerId;
+
+	@Before
+	public void setUp() throws IOException {
+		// Writes run on the calling thread, so a rejection is in replies as soon as handle() returns
+		writers = new ScheduledThreadPoolExecutor(1) {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		};
+		brokerId = nextBrokerId++;
+		RouterConfig config = new RouterConfig();
+		broker = new Session(brokerId, Session.Role.BROKER, new RecordingConnection(replies), config, writers);
+		market = new Session(MARKET_ID, Session.Role.MARKET, new RecordingConnection(new ArrayList<>()), config, writers);
+		RoutingTable.addSession(broker);
+		RoutingTable.addSession(market);
+
+		risk = new RiskHandler(null);
+		risk.setLimits(limits("maxOpenOrders=3\nmaxOrderQty=100\n"));
+		risk.setNext(new Handler() {
+			@Override
+			public void setNext(Handler handler) {
+			}
+
+			@Override
+			public void handle(Session session, FixMessage message) {
+				passed.add(message);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		writers.shutdownNow();
+	}
+
+	@Test
+	public void everyOrderThatPassesCountsAsOpen() {
+		send(broker, order("1"));
+		send(broker, order("2"));
+
+		assertEquals(2, passed.size());
+		assertEquals(2, openOrders());
+	}
+
+	@Test
+	public void ordersPastTheLimitAreRejected() {
+		for (int i = 1; i <= 4; i++) {
+			send(broker, order(String.valueOf(i)));
+		}
+
+		assertEquals(3, passed.size());
+		assertEquals(3, openOrders());
+		assertEquals(1, replies.size());
+		assertTrue(replies.get(0), replies.get(0).contains("58=Open order limit exceeded"));
+	}
+
+	@Test
+	public void finalReportsReleaseTheOrder() {
+		for (int i = 1; i <= 3; i++) {
+			send(broker, order(String.valueOf(i)));
+		}
+
+		send(market, report("1", '0', '0'));
+		send(market, report("1", '1', 'F'));
+		assertEquals(3, openOrders());
+		send(market, report("1", '2', 'F'));
+		send(market, report("2", '8', '8'));
+		send(market, report("3", '4', '4'));
+		assertEquals(0, openOrders());
+	}
+
+	@Test
+	public void reportOnAResentClOrdIdReleasesTheResend() {
+		send(broker, order("1"));
+		send(broker, order("1"));
+		assertEquals(2, openOrders());
+
+		// The order is still working, but the resend was only answered with its status
+		send(market, report("1", '0', 'I'));
+		assertEquals(1, openOrders());
+	}
+
+	@Test
+	public void orderTheRouterRejectsIsReleased() {
+		send(broker, order("1"));
+		RiskHandler.closeRejected(broker, passed.get(0));
+
+		assertEquals(0, openOrders());
+	}
+
+	@Test
+	public void listCountsEachOfItsOrders() {
+		send(broker, list("11=1", "38=5", "44=1", "11=2", "38=5", "44=1"));
+		assertEquals(2, openOrders());
+
+		// Two more would pass the limit, so the whole list is rejected
+		send(broker, list("11=3", "38=5", "44=1", "11=4", "38=5", "44=1"));
+		assertEquals(2, openOrders());
+		assertEquals(1, replies.size());
+
+		RiskHandler.closeRejected(broker, passed.get(0));
+		assertEquals(0, openOrders());
+	}
+
+	@Test
+	public void listRejectedByTheMarketIsReleasedOrderByOrder() {
+		send(broker, list("11=1", "38=5", "44=1", "11=2", "38=5", "44=1", "11=3", "38=5", "44=1"));
+		assertEquals(3, openOrders());
+
+		// The market answers each order of the list on its own
+		send(market, report("1", '8', '8'));
+		send(market, report("2", '8', '8'));
+		assertEquals(1, openOrders());
+		send(market, report("3", '8', '8'));
+		assertEquals(0, openOrders());
+	}
+
+	@Test
+	public void emptyListIsRejectedWithoutCounting() {
+		send(broker, list());
+
+		assertEquals(0, passed.size());
+		assertEquals(0, openOrders());
+		assertTrue(replies.get(0), replies.get(0).contains("58=Invalid order quantity"));
+	}
+
+	@Test
+	public void listWithAnInvalidQuantityIsRejected() {
+		send(broker, list("11=1", "38=5", "44=1", "11=2", "38=0", "44=1"));
+
+		assertEquals(0, passed.size());
+		assertEquals(0, openOrders());
+		assertTrue(replies.get(0), replies.get(0).contains("58=Invalid order quantity"));
+	}
+
+	@Test
+	public void brokerThatLeftStartsAgainFromNone() {
+		for (int i = 1; i <= 3; i++) {
+			send(broker, order(String.valueOf(i)));
+		}
+		RiskHandler.release(brokerId);
+
+		Session reconnected = new Session(brokerId, Session.Role.BROKER, new RecordingConnection(replies), new RouterConfig(), writers);
+		RoutingTable.swapSession(reconnected);
+		assertEquals(0, RiskHandler.stateOf(reconnected).getOpenOrders());
+		send(reconnected, order("4"));
+		assertEquals(4, passed.size());
+	}
+
+	private void send(Session session, String text) {
+		// Copied, as the next message reuses the parser
+		FixMessage message = new FixMessage().parse(text);
+		risk.handle(session, message);
+	}
+
+	private int openOrders() {
+		return RiskHandler.stateOf(broker).getOpenOrders();
+	}
+
+	private String order(String clOrdId) {
+		return FixMessageTest.order("35=D", "49=" + brokerId, "56=" + MARKET_ID, "11=" + clOrdId, "55=AAPL", "54=1", "38=10", "44=1");
+	}
+
+	private String list(String... orders) {
+		String[] fields = new String[4 + orders.length];
+		fields[0] = "35=E";
+		fields[1] = "49=" + brokerId;
+		fields[2] = "56=" + MARKET_ID;
+		fields[3] = "66=L1";
+		System.arraycopy(orders, 0, fields, 4, orders.length);
+		return FixMessageTest.order(fields);
+	}
+
+	private String report(String clOrdId, char ordStatus, char execType) {
+		return FixMessageTest.order("35=8", "49=" + MARKET_ID, "56=" + brokerId, "11=" + clOrdId, "39=" + ordStatus, "150=" + execType);
+	}
+
+	private static RiskLimits limits(String properties) throws IOException {
+		Path file = Files.createTempFile("risk", ".properties");
+		try {
+			Files.write(file, properties.getBytes(StandardCharsets.ISO_8859_1));
+			return RiskLimits.load(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static final class RecordingConnection implements Connection {
+		private final List<String> written;
+
+		RecordingConnection(List<String> written) {
+			this.written = written;
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) {
+			written.add(new String(buffer, offset, length, StandardCharsets.ISO_8859_1));
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+	}
+}